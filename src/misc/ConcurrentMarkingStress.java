@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package misc;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.petrinator.petrinet.Arc;
+import org.petrinator.petrinet.CompiledNet;
+import org.petrinator.petrinet.ConcurrentMarking;
+import org.petrinator.petrinet.PetriNet;
+import org.petrinator.petrinet.Place;
+import org.petrinator.petrinet.Transition;
+
+/**
+ * Stress test of ConcurrentMarking, in the spirit of
+ * MarkingConcurrentSimulation: several threads fire random transitions of a
+ * dining philosophers net on one shared marking while another thread takes
+ * snapshots. It checks that
+ *
+ * - no place ever gets a negative number of tokens,
+ * - every snapshot satisfies the place invariants of the net, so no firing
+ *   is ever seen half done,
+ * - the final marking is the initial marking plus the effect of the counted
+ *   firings, so no firing was lost.
+ *
+ * Usage: ConcurrentMarkingStress [philosophers] [threads] [firings per thread]
+ */
+public class ConcurrentMarkingStress {
+
+    public static void main(String[] args) throws InterruptedException {
+        int philosophers = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        final int firings = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+
+        System.out.print("Testing...");
+        PetriNet petriNet = createPhilosophers(philosophers);
+        final CompiledNet net = petriNet.getCompiledNet();
+        final int[] initial = petriNet.getInitialMarking().getTokenArray().clone();
+        final ConcurrentMarking marking = new ConcurrentMarking(petriNet.getInitialMarking());
+        final AtomicLongArray fired = new AtomicLongArray(net.getTransitionCount());
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            new Thread(new Runnable() {
+                public void run() {
+                    Random random = new Random(seed);
+                    long[] counts = new long[net.getTransitionCount()];
+                    for (int n = 0; n < firings && !failed.get(); n++) {
+                        int transition = random.nextInt(net.getTransitionCount());
+                        if (marking.fire(transition)) {
+                            counts[transition]++;
+                        }
+                    }
+                    for (int t = 0; t < counts.length; t++) {
+                        fired.addAndGet(t, counts[t]);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        Thread checker = new Thread(new Runnable() {
+            public void run() {
+                while (running.get() && !failed.get()) {
+                    int[] snapshot = marking.toArray();
+                    String error = checkInvariants(net, snapshot);
+                    if (error != null) {
+                        System.out.println(error);
+                        System.out.println(marking);
+                        failed.set(true);
+                    }
+                }
+            }
+        });
+        checker.start();
+
+        done.await();
+        running.set(false);
+        checker.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int[] expected = initial.clone();
+        long total = 0;
+        for (int t = 0; t < net.getTransitionCount(); t++) {
+            long count = fired.get(t);
+            total += count;
+            int[] places = net.getInputPlaces(t);
+            int[] weights = net.getInputWeights(t);
+            for (int i = 0; i < places.length; i++) {
+                expected[places[i]] -= count * weights[i];
+            }
+            places = net.getOutputPlaces(t);
+            weights = net.getOutputWeights(t);
+            for (int i = 0; i < places.length; i++) {
+                expected[places[i]] += count * weights[i];
+            }
+        }
+        int[] result = marking.toArray();
+        for (int p = 0; p < result.length; p++) {
+            if (result[p] != expected[p]) {
+                System.out.println("lost firing: place " + net.getPlace(p).getLabel()
+                        + " has " + result[p] + " tokens, expected " + expected[p]);
+                failed.set(true);
+            }
+        }
+        String error = checkInvariants(net, result);
+        if (error != null) {
+            System.out.println(error);
+            failed.set(true);
+        }
+
+        System.out.println(failed.get() ? "FAILED" : "FINISHED");
+        System.out.println(total + " firings in " + seconds + " s");
+    }
+
+    /*
+     * Philosopher i takes both forks at once (T take i), so the net never
+     * blocks and philosophers that are not neighbours fire in parallel.
+     * Places are THINK i, EAT i and FORK i.
+     */
+    private static PetriNet createPhilosophers(int count) {
+        PetriNet petriNet = new PetriNet();
+        Place[] think = new Place[count];
+        Place[] eat = new Place[count];
+        Place[] fork = new Place[count];
+        for (int i = 0; i < count; i++) {
+            think[i] = addPlace(petriNet, "THINK" + i, 1);
+            eat[i] = addPlace(petriNet, "EAT" + i, 0);
+            fork[i] = addPlace(petriNet, "FORK" + i, 1);
+        }
+        for (int i = 0; i < count; i++) {
+            Place right = fork[(i + 1) % count];
+            Transition take = addTransition(petriNet, "TAKE" + i);
+            addArc(petriNet, think[i], take, true);
+            addArc(petriNet, fork[i], take, true);
+            addArc(petriNet, right, take, true);
+            addArc(petriNet, eat[i], take, false);
+            Transition release = addTransition(petriNet, "RELEASE" + i);
+            addArc(petriNet, eat[i], release, true);
+            addArc(petriNet, think[i], release, false);
+            addArc(petriNet, fork[i], release, false);
+            addArc(petriNet, right, release, false);
+        }
+        return petriNet;
+    }
+
+    private static Place addPlace(PetriNet petriNet, String label, int tokens) {
+        Place place = new Place();
+        petriNet.getRootSubnet().addElement(place);
+        petriNet.getNodeSimpleIdGenerator().setUniqueId(place);
+        place.setLabel(label);
+        petriNet.getInitialMarking().setTokens(place, tokens);
+        return place;
+    }
+
+    private static Transition addTransition(PetriNet petriNet, String label) {
+        Transition transition = new Transition();
+        petriNet.getRootSubnet().addElement(transition);
+        petriNet.getNodeSimpleIdGenerator().setUniqueId(transition);
+        transition.setLabel(label);
+        return transition;
+    }
+
+    private static void addArc(PetriNet petriNet, Place place, Transition transition, boolean placeToTransition) {
+        petriNet.getRootSubnet().addElement(new Arc(place, transition, placeToTransition));
+    }
+
+    /*
+     * THINK i + EAT i = 1 and FORK i + EAT i + EAT i-1 = 1
+     */
+    private static String checkInvariants(CompiledNet net, int[] tokens) {
+        int count = net.getPlaceCount() / 3;
+        int[] think = new int[count];
+        int[] eat = new int[count];
+        int[] fork = new int[count];
+        for (int p = 0; p < net.getPlaceCount(); p++) {
+            String label = net.getPlace(p).getLabel();
+            if (tokens[p] < 0) {
+                return "negative place " + label;
+            }
+            if (label.startsWith("THINK")) {
+                think[Integer.parseInt(label.substring(5))] = tokens[p];
+            } else if (label.startsWith("EAT")) {
+                eat[Integer.parseInt(label.substring(3))] = tokens[p];
+            } else {
+                fork[Integer.parseInt(label.substring(4))] = tokens[p];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (think[i] + eat[i] != 1) {
+                return "invariant THINK" + i + " + EAT" + i + " = 1 violated";
+            }
+            int left = (i + count - 1) % count;
+            if (fork[i] + eat[i] + eat[left] != 1) {
+                return "invariant FORK" + i + " + EAT" + i + " + EAT" + left + " = 1 violated";
+            }
+        }
+        return null;
+    }
+}
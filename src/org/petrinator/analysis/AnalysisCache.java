@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.petrinator.analysis.statespace.CoverabilityExplorer;
+import org.petrinator.analysis.statespace.CoverabilitySet;
+import org.petrinator.petrinet.CompiledNet;
+import org.petrinator.petrinet.PetriNet;
+import org.petrinator.petrinet.Place;
+import org.petrinator.petrinet.Transition;
+
+/**
+ * Results of the analyses of the last analysed nets, so that running an
+ * analysis again, or switching between analyses, on an unchanged net does not
+ * redo the work. A result is stored under the name of the analysis (which
+ * should include the options changing it) and the key of the net, a hash of
+ * everything the analyses read: the places and transitions with their labels,
+ * the arcs, the initial marking and the timing of the transitions.
+ *
+ * The cache keeps the most recently used results up to its capacity. Results
+ * given as strings (the HTML reports of the analyses) can also be saved in a
+ * directory, where they are found again after the application is restarted.
+ * Other results, such as reachability graphs or Markov chains, can be much
+ * larger: they are only softly referenced, so the garbage collector drops
+ * them before running out of memory, and they are computed again when next
+ * needed.
+ */
+public class AnalysisCache {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String COVERABILITY = "Coverability set";
+    private static final Object coverabilityLock = new Object();
+
+    private static int capacity = 32;
+    private static File directory;
+    private static final LinkedHashMap<String, Object> results = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    private AnalysisCache() {
+    }
+
+    /**
+     * Returns the key of the current structure, labels, initial marking and
+     * timing of a net. Nets with the same key give the same analysis results.
+     */
+    public static String key(PetriNet petriNet) {
+        CompiledNet net = petriNet.getCompiledNet();
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        int[] marking = petriNet.getInitialMarking().getTokenArray();
+        update(digest, net.getPlaceCount());
+        update(digest, net.getTransitionCount());
+        for (int p = 0; p < net.getPlaceCount(); p++) {
+            Place place = net.getPlace(p);
+            update(digest, place.getLabel());
+            update(digest, net.isStatic(p) ? 1 : 0);
+            update(digest, marking[p]);
+        }
+        for (int t = 0; t < net.getTransitionCount(); t++) {
+            Transition transition = net.getTransition(t);
+            update(digest, transition.getLabel());
+            update(digest, transition.getBehavior());
+            update(digest, transition.isTimed() ? 1 : 0);
+            update(digest, transition.getTime());
+            update(digest, transition.getDistribution());
+            update(digest, Double.toString(transition.getRate()));
+            update(digest, Double.toString(transition.getVar1()));
+            update(digest, Double.toString(transition.getVar2()));
+            update(digest, net.getInputPlaces(t));
+            update(digest, net.getInputWeights(t));
+            update(digest, net.getInhibitorPlaces(t));
+            update(digest, net.getInhibitorWeights(t));
+            update(digest, net.getResetPlaces(t));
+            update(digest, net.getOutputPlaces(t));
+            update(digest, net.getOutputWeights(t));
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the cached result of an analysis of a net, or null if there is
+     * none.
+     *
+     * @param analysis name of the analysis and of its options
+     * @param key key of the net, see key()
+     */
+    public static synchronized Object get(String analysis, String key) {
+        Object result = results.get(analysis + "/" + key);
+        if (result instanceof SoftReference) {
+            result = ((SoftReference<?>) result).get();
+            if (result == null) {
+                results.remove(analysis + "/" + key);
+            }
+        }
+        if (result == null && directory != null) {
+            File file = file(analysis, key);
+            if (file.isFile()) {
+                try {
+                    result = new String(Files.readAllBytes(file.toPath()), UTF8);
+                    results.put(analysis + "/" + key, result);
+                    file.setLastModified(System.currentTimeMillis());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Caches the result of an analysis of a net. Strings are also saved in
+     * the cache directory, if there is one; other results are softly
+     * referenced.
+     *
+     * @param analysis name of the analysis and of its options
+     * @param key key of the net, see key()
+     */
+    public static synchronized void put(String analysis, String key, Object result) {
+        results.put(analysis + "/" + key, result instanceof String ? result : new SoftReference<Object>(result));
+        if (directory != null && result instanceof String) {
+            try {
+                directory.mkdirs();
+                Files.write(file(analysis, key).toPath(), ((String) result).getBytes(UTF8));
+                trimDirectory();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Returns the coverability set of the initial marking of a net, exploring
+     * it if it is not cached. It is shared by the analysis actions, so that
+     * asking for boundedness, classification and the reachability graph of
+     * the same net explores it once.
+     *
+     * @throws InterruptedException if the exploration was interrupted
+     */
+    public static CoverabilitySet getCoverabilitySet(PetriNet petriNet) throws InterruptedException {
+        String key = key(petriNet);
+        synchronized (coverabilityLock) {
+            CoverabilitySet set = (CoverabilitySet) get(COVERABILITY, key);
+            if (set == null) {
+                set = new CoverabilityExplorer(petriNet).explore();
+                put(COVERABILITY, key, set);
+            }
+            return set;
+        }
+    }
+
+    /**
+     * Sets the number of results kept in memory, and in the cache directory.
+     */
+    public static synchronized void setCapacity(int capacity) {
+        AnalysisCache.capacity = capacity;
+        while (results.size() > capacity) {
+            results.remove(results.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Sets the directory where the results are saved, or null (the default)
+     * to keep them in memory only.
+     */
+    public static synchronized void setDirectory(File directory) {
+        AnalysisCache.directory = directory;
+    }
+
+    public static synchronized File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Removes all the results, including the saved ones.
+     */
+    public static synchronized void clear() {
+        results.clear();
+        if (directory != null) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith(".html")) {
+                        file.delete();
+                    }
+                }
+            }
+        }
+    }
+
+    private static File file(String analysis, String key) {
+        return new File(directory, analysis.replaceAll("[^A-Za-z0-9]+", "_") + "-" + key + ".html");
+    }
+
+    /*
+     * Deletes the least recently used saved results beyond the capacity.
+     */
+    private static void trimDirectory() {
+        File[] files = directory.listFiles();
+        if (files == null || files.length <= capacity) {
+            return;
+        }
+        long[] lastModified = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+        }
+        Arrays.sort(lastModified);
+        long oldest = lastModified[files.length - capacity - 1];
+        for (File file : files) {
+            if (file.getName().endsWith(".html") && file.lastModified() <= oldest) {
+                file.delete();
+            }
+        }
+    }
+
+    private static void update(MessageDigest digest, int value) {
+        digest.update((byte) (value >>> 24));
+        digest.update((byte) (value >>> 16));
+        digest.update((byte) (value >>> 8));
+        digest.update((byte) value);
+    }
+
+    private static void update(MessageDigest digest, int[] values) {
+        update(digest, values.length);
+        for (int value : values) {
+            update(digest, value);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value == null) {
+            update(digest, -1);
+        } else {
+            byte[] bytes = value.getBytes(UTF8);
+            update(digest, bytes.length);
+            digest.update(bytes);
+        }
+    }
+}
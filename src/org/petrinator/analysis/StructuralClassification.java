@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis;
+
+import java.util.Arrays;
+
+import org.petrinator.petrinet.CompiledNet;
+
+/**
+ * Structural classes of a net, computed together in time linear in the
+ * number of places, transitions and arcs from the pre and post sets of the
+ * compiled net. Only regular arcs are taken into account, as in the
+ * incidence matrix.
+ *
+ * The free choice classes constrain the postsets p&bull; of places sharing an
+ * output transition: they are singletons (FC), equal (EFC), one of them is a
+ * singleton (SPL) or one contains the other (ESPL). EFC and ESPL are checked
+ * by visiting the postsets from the largest one and keeping for every
+ * transition the last postset containing it: the postsets are pairwise
+ * nested or disjoint if and only if every postset finds all its transitions
+ * in the same one.
+ */
+public class StructuralClassification {
+
+    private final boolean stateMachine;
+    private final boolean markedGraph;
+    private final boolean freeChoice;
+    private final boolean extendedFreeChoice;
+    private final boolean simple;
+    private final boolean extendedSimple;
+
+    public StructuralClassification(CompiledNet net) {
+        int placeCount = net.getPlaceCount();
+        int transitionCount = net.getTransitionCount();
+
+        /*
+         * Postsets of the places, without repeated transitions
+         */
+        int[] preCount = new int[placeCount];
+        int[] postCount = new int[placeCount];
+        int[] lastTransition = new int[placeCount];
+        Arrays.fill(lastTransition, -1);
+        boolean isStateMachine = true;
+        for (int t = 0; t < transitionCount; t++) {
+            int[] inputs = net.getInputPlaces(t);
+            int[] outputs = net.getOutputPlaces(t);
+            isStateMachine &= inputs.length <= 1 && outputs.length <= 1;
+            for (int p : inputs) {
+                if (lastTransition[p] != t) {
+                    lastTransition[p] = t;
+                    postCount[p]++;
+                }
+            }
+            for (int p : outputs) {
+                preCount[p]++;
+            }
+        }
+        int[] postStart = new int[placeCount + 1];
+        for (int p = 0; p < placeCount; p++) {
+            postStart[p + 1] = postStart[p] + postCount[p];
+        }
+        int[] postsets = new int[postStart[placeCount]];
+        int[] position = new int[placeCount];
+        Arrays.fill(lastTransition, -1);
+        for (int t = 0; t < transitionCount; t++) {
+            for (int p : net.getInputPlaces(t)) {
+                if (lastTransition[p] != t) {
+                    lastTransition[p] = t;
+                    postsets[postStart[p] + position[p]++] = t;
+                }
+            }
+        }
+
+        boolean isMarkedGraph = true;
+        for (int p = 0; p < placeCount; p++) {
+            isMarkedGraph &= preCount[p] <= 1 && postCount[p] <= 1;
+        }
+
+        /*
+         * FC: a transition with several input places has only input places
+         * with a single output transition. SPL: a transition has at most one
+         * input place with several output transitions.
+         */
+        boolean isFreeChoice = true;
+        boolean isSimple = true;
+        Arrays.fill(lastTransition, -1);
+        for (int t = 0; t < transitionCount; t++) {
+            int distinct = 0;
+            int shared = 0;
+            for (int p : net.getInputPlaces(t)) {
+                if (lastTransition[p] != t) {
+                    lastTransition[p] = t;
+                    distinct++;
+                    if (postCount[p] > 1) {
+                        shared++;
+                    }
+                }
+            }
+            isFreeChoice &= shared == 0 || distinct == 1;
+            isSimple &= shared <= 1;
+        }
+
+        /*
+         * EFC and ESPL: postsets in decreasing size (counting sort)
+         */
+        int[] sizeStart = new int[transitionCount + 2];
+        for (int p = 0; p < placeCount; p++) {
+            sizeStart[transitionCount - postCount[p] + 1]++;
+        }
+        for (int i = 1; i < sizeStart.length; i++) {
+            sizeStart[i] += sizeStart[i - 1];
+        }
+        int[] order = new int[placeCount];
+        for (int p = 0; p < placeCount; p++) {
+            order[sizeStart[transitionCount - postCount[p]]++] = p;
+        }
+        int[] owner = new int[transitionCount];
+        Arrays.fill(owner, -1);
+        boolean isExtendedFreeChoice = true;
+        boolean isExtendedSimple = true;
+        for (int p : order) {
+            if (postCount[p] == 0) {
+                break;
+            }
+            int common = owner[postsets[postStart[p]]];
+            for (int i = postStart[p]; i < postStart[p + 1]; i++) {
+                if (owner[postsets[i]] != common) {
+                    isExtendedSimple = false;
+                }
+                owner[postsets[i]] = p;
+            }
+            if (common >= 0 && postCount[common] != postCount[p]) {
+                isExtendedFreeChoice = false;
+            }
+        }
+        isExtendedFreeChoice &= isExtendedSimple;
+
+        this.stateMachine = isStateMachine;
+        this.markedGraph = isMarkedGraph;
+        this.freeChoice = isFreeChoice;
+        this.extendedFreeChoice = isExtendedFreeChoice;
+        this.simple = isSimple;
+        this.extendedSimple = isExtendedSimple;
+    }
+
+    /**
+     * SM: every transition has at most one input and one output place.
+     */
+    public boolean isStateMachine() {
+        return stateMachine;
+    }
+
+    /**
+     * MG: every place has at most one input and one output transition.
+     */
+    public boolean isMarkedGraph() {
+        return markedGraph;
+    }
+
+    /**
+     * FC: places sharing an output transition have no other one.
+     */
+    public boolean isFreeChoice() {
+        return freeChoice;
+    }
+
+    /**
+     * EFC: places sharing an output transition have the same postset.
+     */
+    public boolean isExtendedFreeChoice() {
+        return extendedFreeChoice;
+    }
+
+    /**
+     * SPL: of two places sharing an output transition, one has no other.
+     */
+    public boolean isSimple() {
+        return simple;
+    }
+
+    /**
+     * ESPL: of two places sharing an output transition, the postset of one
+     * contains the postset of the other.
+     */
+    public boolean isExtendedSimple() {
+        return extendedSimple;
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.invariants;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import org.petrinator.petrinet.CompiledNet;
+import org.petrinator.petrinet.PetriNet;
+import org.petrinator.util.Command;
+import org.petrinator.util.CommandListener;
+
+/**
+ * Keeps the minimal P and T-semiflows of a net up to date while it is edited.
+ *
+ * After every command the compiled net is compared with the one of the last
+ * update, column by column of the incidence matrix, and the semiflows are
+ * updated from the difference instead of being computed again:
+ * <ul>
+ * <li>new places or transitions without arcs are new unit semiflows,</li>
+ * <li>removed places or transitions drop the semiflows containing them,</li>
+ * <li>a transition (for P-semiflows) whose arcs changed is eliminated again,
+ * starting from the minimal semiflows of the net without it, which are kept
+ * from the previous change of the same transition.</li>
+ * </ul>
+ * Other changes, such as removing arcs of several transitions at once, need a
+ * full computation. The same holds the other way round for T-semiflows.
+ *
+ * Updates are made after a command is performed only if there are
+ * listeners, otherwise on the next query. They run on a background thread,
+ * not on the thread of the command, and commands performed while an update
+ * runs are handled by a single update after it.
+ */
+public class InvariantMaintainer implements CommandListener {
+
+    /**
+     * Notified after the semiflows were updated, on the update thread.
+     */
+    public interface Listener {
+
+        public void invariantsChanged(InvariantMaintainer maintainer);
+    }
+
+    private volatile PetriNet petriNet;
+    private CompiledNet net;
+    private final Side places = new Side();
+    private final Side transitions = new Side();
+    private TooManySemiflowsException error;
+    private int maxSemiflows = 1 << 20;
+    private int fullComputations = 0;
+    private int incrementalUpdates = 0;
+    private final List<Listener> listeners = new ArrayList<Listener>();
+    private final AtomicReference<CompiledNet> pending = new AtomicReference<CompiledNet>();
+    private ExecutorService updater;
+
+    public InvariantMaintainer(PetriNet petriNet) {
+        this.petriNet = petriNet;
+    }
+
+    /**
+     * Starts maintaining the semiflows of another net, computing them anew.
+     */
+    public synchronized void setPetriNet(PetriNet petriNet) {
+        this.petriNet = petriNet;
+        pending.set(null);
+        net = null;
+        error = null;
+        places.reset();
+        transitions.reset();
+    }
+
+    public synchronized void setMaxSemiflows(int maxSemiflows) {
+        this.maxSemiflows = maxSemiflows;
+    }
+
+    public void addListener(Listener listener) {
+        synchronized (listeners) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * Compiles the net on the thread of the command, where it is consistent,
+     * and leaves the update to the update thread.
+     */
+    public void commandPerformed(Command command) {
+        synchronized (listeners) {
+            if (listeners.isEmpty()) {
+                return;
+            }
+            if (updater == null) {
+                updater = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "Invariant updater");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+        }
+        if (pending.getAndSet(petriNet.getCompiledNet()) == null) {
+            updater.execute(new Runnable() {
+                public void run() {
+                    CompiledNet compiled = pending.getAndSet(null);
+                    if (compiled != null && update(compiled)) {
+                        List<Listener> notified;
+                        synchronized (listeners) {
+                            notified = new ArrayList<Listener>(listeners);
+                        }
+                        for (Listener listener : notified) {
+                            listener.invariantsChanged(InvariantMaintainer.this);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Brings the semiflows up to date with the net.
+     *
+     * @return false if the net did not change since the last update
+     */
+    public boolean update() {
+        return update(petriNet.getCompiledNet());
+    }
+
+    private synchronized boolean update(CompiledNet compiled) {
+        if (compiled == net) {
+            return false;
+        }
+        List<Object> placeList = new ArrayList<Object>(compiled.getPlaceCount());
+        List<Object> transitionList = new ArrayList<Object>(compiled.getTransitionCount());
+        Map<Object, Map<Object, Integer>> placeColumns = new HashMap<Object, Map<Object, Integer>>();
+        Map<Object, Map<Object, Integer>> transitionColumns = new HashMap<Object, Map<Object, Integer>>();
+        for (int p = 0; p < compiled.getPlaceCount(); p++) {
+            placeList.add(compiled.getPlace(p));
+            placeColumns.put(compiled.getPlace(p), new HashMap<Object, Integer>());
+        }
+        for (int t = 0; t < compiled.getTransitionCount(); t++) {
+            transitionList.add(compiled.getTransition(t));
+            transitionColumns.put(compiled.getTransition(t), new HashMap<Object, Integer>());
+        }
+        int[][] incidence = SemiflowEngine.getIncidenceMatrix(compiled);
+        for (int p = 0; p < compiled.getPlaceCount(); p++) {
+            for (int t = 0; t < compiled.getTransitionCount(); t++) {
+                if (incidence[p][t] != 0) {
+                    transitionColumns.get(compiled.getTransition(t)).put(compiled.getPlace(p), incidence[p][t]);
+                    placeColumns.get(compiled.getPlace(p)).put(compiled.getTransition(t), incidence[p][t]);
+                }
+            }
+        }
+        try {
+            places.update(placeList, transitionColumns);
+            transitions.update(transitionList, placeColumns);
+            error = null;
+        } catch (TooManySemiflowsException e) {
+            error = e;
+            places.reset();
+            transitions.reset();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            places.reset();
+            transitions.reset();
+            net = null;
+            return false;
+        }
+        net = compiled;
+        return true;
+    }
+
+    /**
+     * Returns the compiled net the semiflows are indexed by.
+     */
+    public synchronized CompiledNet getCompiledNet() {
+        update();
+        return net;
+    }
+
+    /**
+     * Returns the minimal P-semiflows, indexed by the places of
+     * getCompiledNet(), or null if there are too many of them.
+     */
+    public synchronized List<Semiflow> getPlaceSemiflows() {
+        update();
+        return error == null ? Collections.unmodifiableList(places.semiflows) : null;
+    }
+
+    /**
+     * Returns the minimal T-semiflows, indexed by the transitions of
+     * getCompiledNet(), or null if there are too many of them.
+     */
+    public synchronized List<Semiflow> getTransitionSemiflows() {
+        update();
+        return error == null ? Collections.unmodifiableList(transitions.semiflows) : null;
+    }
+
+    /**
+     * Returns the reason of the last update failure, or null.
+     */
+    public synchronized TooManySemiflowsException getError() {
+        return error;
+    }
+
+    /**
+     * Returns the number of semiflow sets computed from scratch.
+     */
+    public synchronized int getFullComputations() {
+        return fullComputations;
+    }
+
+    /**
+     * Returns the number of semiflow sets updated from the previous ones.
+     */
+    public synchronized int getIncrementalUpdates() {
+        return incrementalUpdates;
+    }
+
+    /*
+     * The semiflows of one side: the variables are the places and the
+     * constraints the columns of the transitions for P-semiflows, and the
+     * other way round for T-semiflows.
+     */
+    private final class Side {
+
+        private List<Object> variables = Collections.emptyList();
+        private Map<Object, Map<Object, Integer>> columns = Collections.emptyMap();
+        private List<Semiflow> semiflows;
+        // minimal semiflows of the system without relaxedConstraint
+        private Object relaxedConstraint;
+        private List<Semiflow> relaxed;
+
+        void reset() {
+            variables = Collections.emptyList();
+            columns = Collections.emptyMap();
+            semiflows = null;
+            relaxedConstraint = null;
+            relaxed = null;
+        }
+
+        void update(List<Object> newVariables, Map<Object, Map<Object, Integer>> newColumns) throws TooManySemiflowsException, InterruptedException {
+            Map<Object, Integer> newIndexes = new HashMap<Object, Integer>();
+            for (int i = 0; i < newVariables.size(); i++) {
+                newIndexes.put(newVariables.get(i), i);
+            }
+            List<Object> relax = new ArrayList<Object>();
+            List<Object> impose = new ArrayList<Object>();
+            for (Map.Entry<Object, Map<Object, Integer>> entry : newColumns.entrySet()) {
+                Map<Object, Integer> oldColumn = columns.get(entry.getKey());
+                if (oldColumn == null && !entry.getValue().isEmpty()) {
+                    impose.add(entry.getKey());
+                }
+            }
+            for (Map.Entry<Object, Map<Object, Integer>> entry : columns.entrySet()) {
+                Map<Object, Integer> oldColumn = new HashMap<Object, Integer>();
+                for (Map.Entry<Object, Integer> value : entry.getValue().entrySet()) {
+                    if (newIndexes.containsKey(value.getKey())) {
+                        oldColumn.put(value.getKey(), value.getValue());
+                    }
+                }
+                Map<Object, Integer> newColumn = newColumns.get(entry.getKey());
+                if (newColumn == null ? !oldColumn.isEmpty() : !newColumn.equals(oldColumn)) {
+                    if (!oldColumn.isEmpty()) {
+                        relax.add(entry.getKey());
+                    }
+                    if (newColumn != null && !newColumn.isEmpty()) {
+                        impose.add(entry.getKey());
+                    }
+                }
+            }
+
+            List<Semiflow> base = null;
+            List<Semiflow> baseRelaxed = null;
+            if (semiflows != null) {
+                int[] remap = new int[variables.size()];
+                for (int i = 0; i < remap.length; i++) {
+                    Integer index = newIndexes.get(variables.get(i));
+                    remap[i] = index == null ? -1 : index;
+                }
+                List<Integer> added = new ArrayList<Integer>();
+                Map<Object, Integer> oldIndexes = new HashMap<Object, Integer>();
+                for (int i = 0; i < variables.size(); i++) {
+                    oldIndexes.put(variables.get(i), i);
+                }
+                for (int i = 0; i < newVariables.size(); i++) {
+                    if (!oldIndexes.containsKey(newVariables.get(i))) {
+                        added.add(i);
+                    }
+                }
+                if (relax.isEmpty()) {
+                    base = remap(semiflows, remap, added);
+                    if (relaxed != null) {
+                        baseRelaxed = remap(relaxed, remap, added);
+                    }
+                } else if (relax.size() == 1 && relax.get(0) == relaxedConstraint && relaxed != null) {
+                    base = remap(relaxed, remap, added);
+                }
+            }
+            variables = newVariables;
+            columns = newColumns;
+
+            if (base == null) {
+                if (impose.size() == 1) {
+                    relaxedConstraint = impose.get(0);
+                    relaxed = full(newIndexes, relaxedConstraint);
+                    semiflows = eliminate(relaxed, newIndexes, impose);
+                } else {
+                    relaxedConstraint = null;
+                    relaxed = null;
+                    semiflows = full(newIndexes, null);
+                }
+            } else if (impose.isEmpty()) {
+                if (!relax.isEmpty()) {
+                    relaxedConstraint = relax.get(0);
+                    relaxed = base;
+                } else {
+                    relaxed = baseRelaxed;
+                }
+                semiflows = base;
+                incrementalUpdates++;
+            } else {
+                if (impose.size() == 1 && (relax.isEmpty() || relax.get(0) == impose.get(0))) {
+                    relaxedConstraint = impose.get(0);
+                    relaxed = base;
+                } else {
+                    relaxedConstraint = null;
+                    relaxed = null;
+                }
+                semiflows = eliminate(base, newIndexes, impose);
+            }
+        }
+
+        /*
+         * Renumbers the semiflows, dropping the ones of removed variables and
+         * adding the unit semiflows of the new ones.
+         */
+        private List<Semiflow> remap(List<Semiflow> semiflows, int[] remap, List<Integer> added) {
+            List<Semiflow> remapped = new ArrayList<Semiflow>(semiflows.size() + added.size());
+            for (Semiflow semiflow : semiflows) {
+                Semiflow newSemiflow = semiflow.remap(remap);
+                if (newSemiflow != null) {
+                    remapped.add(newSemiflow);
+                }
+            }
+            for (int index : added) {
+                remapped.add(Semiflow.unit(index));
+            }
+            Collections.sort(remapped, Semiflow.SUPPORT_ORDER);
+            return remapped;
+        }
+
+        private List<Semiflow> full(Map<Object, Integer> indexes, Object excluded) throws TooManySemiflowsException, InterruptedException {
+            List<Object> constraints = new ArrayList<Object>();
+            for (Map.Entry<Object, Map<Object, Integer>> entry : columns.entrySet()) {
+                if (entry.getKey() != excluded && !entry.getValue().isEmpty()) {
+                    constraints.add(entry.getKey());
+                }
+            }
+            fullComputations++;
+            return engine(indexes, constraints).compute();
+        }
+
+        private List<Semiflow> eliminate(List<Semiflow> base, Map<Object, Integer> indexes, List<Object> constraints) throws TooManySemiflowsException, InterruptedException {
+            incrementalUpdates++;
+            return engine(indexes, constraints).compute(base);
+        }
+
+        private SemiflowEngine engine(Map<Object, Integer> indexes, List<Object> constraints) {
+            int[][] matrix = new int[variables.size()][constraints.size()];
+            for (int c = 0; c < constraints.size(); c++) {
+                for (Map.Entry<Object, Integer> entry : columns.get(constraints.get(c)).entrySet()) {
+                    matrix[indexes.get(entry.getKey())][c] = entry.getValue();
+                }
+            }
+            SemiflowEngine engine = new SemiflowEngine(matrix, constraints.size());
+            engine.setMaxSemiflows(maxSemiflows);
+            return engine;
+        }
+    }
+}
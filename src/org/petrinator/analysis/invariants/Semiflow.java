@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.invariants;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Semiflow of a net: a vector of non negative integers, indexed by the places
+ * (P-semiflow) or by the transitions (T-semiflow), kept sparse as its support
+ * (the indexes of its non zero coefficients, in increasing order) and the
+ * coefficients of the support. The coefficients have no common divisor.
+ *
+ * The coefficients are longs, or BigIntegers when some does not fit in a
+ * long.
+ */
+public class Semiflow {
+
+    /**
+     * Orders semiflows by their supports, lexicographically.
+     */
+    public static final Comparator<Semiflow> SUPPORT_ORDER = new Comparator<Semiflow>() {
+        public int compare(Semiflow a, Semiflow b) {
+            for (int k = 0; k < Math.min(a.indexes.length, b.indexes.length); k++) {
+                if (a.indexes[k] != b.indexes[k]) {
+                    return a.indexes[k] - b.indexes[k];
+                }
+            }
+            return a.indexes.length - b.indexes.length;
+        }
+    };
+
+    private final int[] indexes;
+    private final long[] values;
+    private final BigInteger[] bigValues;
+
+    Semiflow(int[] indexes, long[] values, BigInteger[] bigValues) {
+        this.indexes = indexes;
+        this.values = values;
+        this.bigValues = bigValues;
+    }
+
+    /**
+     * Returns the semiflow made of one place or transition.
+     */
+    static Semiflow unit(int index) {
+        return new Semiflow(new int[]{index}, new long[]{1}, null);
+    }
+
+    /**
+     * Returns the semiflow with its places or transitions renumbered, or null
+     * if one of them was removed.
+     *
+     * @param newIndexes new index of every old index, -1 if removed
+     */
+    Semiflow remap(int[] newIndexes) {
+        long[] keys = new long[indexes.length];
+        for (int k = 0; k < indexes.length; k++) {
+            int index = newIndexes[indexes[k]];
+            if (index == -1) {
+                return null;
+            }
+            keys[k] = ((long) index << 32) | k;
+        }
+        Arrays.sort(keys);
+        int[] newIndexesOfSupport = new int[indexes.length];
+        long[] newValues = values == null ? null : new long[indexes.length];
+        BigInteger[] newBigValues = bigValues == null ? null : new BigInteger[indexes.length];
+        for (int i = 0; i < keys.length; i++) {
+            int k = (int) keys[i];
+            newIndexesOfSupport[i] = (int) (keys[i] >>> 32);
+            if (values != null) {
+                newValues[i] = values[k];
+            } else {
+                newBigValues[i] = bigValues[k];
+            }
+        }
+        return new Semiflow(newIndexesOfSupport, newValues, newBigValues);
+    }
+
+    /**
+     * Returns the number of places or transitions in the support.
+     */
+    public int getSupportSize() {
+        return indexes.length;
+    }
+
+    /**
+     * Returns the index of the k-th place or transition of the support.
+     */
+    public int getIndex(int k) {
+        return indexes[k];
+    }
+
+    /**
+     * Returns the k-th coefficient of the support.
+     */
+    public BigInteger getValue(int k) {
+        return bigValues != null ? bigValues[k] : BigInteger.valueOf(values[k]);
+    }
+
+    /**
+     * Returns the coefficient of a place or transition, 0 if it is not in the
+     * support.
+     */
+    public BigInteger get(int index) {
+        int k = Arrays.binarySearch(indexes, index);
+        return k < 0 ? BigInteger.ZERO : getValue(k);
+    }
+
+    public boolean contains(int index) {
+        return Arrays.binarySearch(indexes, index) >= 0;
+    }
+
+    /**
+     * Returns true if every coefficient fits in a long.
+     */
+    public boolean isLong() {
+        return bigValues == null;
+    }
+
+    /**
+     * Returns the semiflow as a dense array.
+     *
+     * @param length number of places or transitions
+     * @throws ArithmeticException if a coefficient does not fit in an int
+     */
+    public int[] toIntArray(int length) {
+        int[] array = new int[length];
+        for (int k = 0; k < indexes.length; k++) {
+            if (bigValues != null || values[k] > Integer.MAX_VALUE) {
+                throw new ArithmeticException("The coefficient " + getValue(k) + " does not fit in an int");
+            }
+            array[indexes[k]] = (int) values[k];
+        }
+        return array;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof Semiflow)) {
+            return false;
+        }
+        Semiflow semiflow = (Semiflow) object;
+        if (!Arrays.equals(indexes, semiflow.indexes)) {
+            return false;
+        }
+        for (int k = 0; k < indexes.length; k++) {
+            if (!getValue(k).equals(semiflow.getValue(k))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = Arrays.hashCode(indexes);
+        for (int k = 0; k < indexes.length; k++) {
+            hash = hash * 31 + getValue(k).hashCode();
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int k = 0; k < indexes.length; k++) {
+            if (k > 0) {
+                builder.append(", ");
+            }
+            builder.append(indexes[k]).append('=').append(getValue(k));
+        }
+        return builder.append(']').toString();
+    }
+}
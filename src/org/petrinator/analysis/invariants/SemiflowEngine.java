@@ -0,0 +1,600 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.invariants;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.petrinator.petrinet.CompiledNet;
+
+/**
+ * Computes the minimal semiflows of a matrix: the non negative integer
+ * vectors y, with minimal support, such that y A = 0. With the incidence
+ * matrix of a net (places x transitions) they are the minimal P-semiflows,
+ * with its transpose the minimal T-semiflows. Inhibitor and reset arcs are
+ * not taken into account, as in the incidence matrix.
+ *
+ * The computation is the Farkas algorithm on sparse rows: starting from the
+ * rows [A | I], the columns of A are eliminated one by one (the one adding
+ * fewest rows first) by combining every row with a positive entry in the
+ * column with every row with a negative one. Only the pairs whose combination
+ * has a minimal support are combined: a pair is skipped when the support of
+ * some other row is included in the union of their supports. The rows kept
+ * are thus always the minimal semiflows of the columns eliminated so far, and
+ * no redundant row is ever created. Every row is divided by the gcd of its
+ * entries, and its entries are longs that switch to BigIntegers on overflow.
+ *
+ * The pairs of a column are combined in parallel by the threads of a
+ * ForkJoinPool; the result does not depend on the scheduling.
+ */
+public class SemiflowEngine {
+
+    /*
+     * Number of pairs below which a block of positive rows is not split
+     */
+    private static final int SPLIT_PAIRS = 1 << 12;
+
+    private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private final int[][] matrix;
+    private final int variableCount;
+    private final int columnCount;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int maxSemiflows = 1 << 20;
+    private volatile boolean cancelled = false;
+    private long elapsedTime = 0;
+
+    /**
+     * @param matrix matrix whose semiflows are computed, indexed by the
+     * variables (rows) and the columns; it is not copied
+     * @param columnCount number of columns of the matrix
+     */
+    public SemiflowEngine(int[][] matrix, int columnCount) {
+        this.matrix = matrix;
+        this.variableCount = matrix.length;
+        this.columnCount = columnCount;
+    }
+
+    /**
+     * Returns the engine computing the P-semiflows of a net, indexed by its
+     * places.
+     */
+    public static SemiflowEngine forPlaces(CompiledNet net) {
+        return new SemiflowEngine(getIncidenceMatrix(net), net.getTransitionCount());
+    }
+
+    /**
+     * Returns the engine computing the T-semiflows of a net, indexed by its
+     * transitions.
+     */
+    public static SemiflowEngine forTransitions(CompiledNet net) {
+        int[][] incidence = getIncidenceMatrix(net);
+        int[][] transposed = new int[net.getTransitionCount()][net.getPlaceCount()];
+        for (int p = 0; p < incidence.length; p++) {
+            for (int t = 0; t < transposed.length; t++) {
+                transposed[t][p] = incidence[p][t];
+            }
+        }
+        return new SemiflowEngine(transposed, net.getPlaceCount());
+    }
+
+    /**
+     * Returns the incidence matrix of a net, indexed by places and
+     * transitions: the tokens added to the place by a firing of the
+     * transition, less the tokens removed.
+     */
+    public static int[][] getIncidenceMatrix(CompiledNet net) {
+        int[][] incidence = new int[net.getPlaceCount()][net.getTransitionCount()];
+        for (int t = 0; t < net.getTransitionCount(); t++) {
+            int[] places = net.getInputPlaces(t);
+            int[] weights = net.getInputWeights(t);
+            for (int i = 0; i < places.length; i++) {
+                incidence[places[i]][t] -= weights[i];
+            }
+            places = net.getOutputPlaces(t);
+            weights = net.getOutputWeights(t);
+            for (int i = 0; i < places.length; i++) {
+                incidence[places[i]][t] += weights[i];
+            }
+        }
+        return incidence;
+    }
+
+    /**
+     * Sets the number of threads combining the rows, by default the number
+     * of processors.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the number of rows after which the computation is abandoned.
+     */
+    public void setMaxSemiflows(int maxSemiflows) {
+        this.maxSemiflows = maxSemiflows;
+    }
+
+    /**
+     * Stops a running computation, which then throws InterruptedException.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns the duration of the last computation in milliseconds.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Computes the minimal semiflows.
+     *
+     * @return the minimal semiflows, ordered by their supports
+     * @throws TooManySemiflowsException if more than the maximum number of
+     * rows are needed
+     * @throws InterruptedException if the computation was cancelled or the
+     * thread interrupted
+     */
+    public List<Semiflow> compute() throws TooManySemiflowsException, InterruptedException {
+        long start = System.currentTimeMillis();
+        cancelled = false;
+        int words = (variableCount + 63) >>> 6;
+        List<Row> rows = new ArrayList<Row>(variableCount);
+        for (int v = 0; v < variableCount; v++) {
+            int nonZero = 0;
+            for (int c = 0; c < columnCount; c++) {
+                if (matrix[v][c] != 0) {
+                    nonZero++;
+                }
+            }
+            int[] indexes = new int[nonZero + 1];
+            long[] values = new long[nonZero + 1];
+            int k = 0;
+            for (int c = 0; c < columnCount; c++) {
+                if (matrix[v][c] != 0) {
+                    indexes[k] = c;
+                    values[k++] = matrix[v][c];
+                }
+            }
+            indexes[k] = columnCount + v;
+            values[k] = 1;
+            long[] support = new long[words];
+            support[v >>> 6] |= 1L << v;
+            rows.add(new Row(indexes, values, null, support, columnCount));
+        }
+        return eliminate(rows, start);
+    }
+
+    /**
+     * Computes the minimal semiflows from those of a part of the matrix, so
+     * that adding columns to a matrix whose minimal semiflows are known costs
+     * only the elimination of the new columns.
+     *
+     * @param semiflows the minimal semiflows of a matrix made of some of the
+     * columns of this one (or of other columns that are then dropped), over
+     * the same variables
+     * @return the minimal semiflows, ordered by their supports
+     * @throws TooManySemiflowsException if more than the maximum number of
+     * rows are needed
+     * @throws InterruptedException if the computation was cancelled or the
+     * thread interrupted
+     */
+    public List<Semiflow> compute(List<Semiflow> semiflows) throws TooManySemiflowsException, InterruptedException {
+        long start = System.currentTimeMillis();
+        cancelled = false;
+        int words = (variableCount + 63) >>> 6;
+        List<Row> rows = new ArrayList<Row>(semiflows.size());
+        for (Semiflow semiflow : semiflows) {
+            int size = semiflow.getSupportSize();
+            long[] support = new long[words];
+            for (int k = 0; k < size; k++) {
+                support[semiflow.getIndex(k) >>> 6] |= 1L << semiflow.getIndex(k);
+            }
+            int[] indexes = new int[columnCount + size];
+            BigInteger[] products = new BigInteger[columnCount + size];
+            int length = 0;
+            boolean fitsLong = semiflow.isLong();
+            for (int c = 0; c < columnCount; c++) {
+                BigInteger product = BigInteger.ZERO;
+                for (int k = 0; k < size; k++) {
+                    int value = matrix[semiflow.getIndex(k)][c];
+                    if (value != 0) {
+                        product = product.add(semiflow.getValue(k).multiply(BigInteger.valueOf(value)));
+                    }
+                }
+                if (product.signum() != 0) {
+                    fitsLong &= product.bitLength() < 64;
+                    indexes[length] = c;
+                    products[length++] = product;
+                }
+            }
+            for (int k = 0; k < size; k++) {
+                indexes[length] = columnCount + semiflow.getIndex(k);
+                products[length++] = semiflow.getValue(k);
+            }
+            indexes = Arrays.copyOf(indexes, length);
+            if (fitsLong) {
+                long[] values = new long[length];
+                for (int k = 0; k < length; k++) {
+                    values[k] = products[k].longValue();
+                }
+                rows.add(new Row(indexes, values, null, support, columnCount));
+            } else {
+                rows.add(new Row(indexes, null, Arrays.copyOf(products, length), support, columnCount));
+            }
+        }
+        return eliminate(rows, start);
+    }
+
+    /*
+     * Eliminates the columns of the rows, which are the minimal semiflows of
+     * the columns eliminated before.
+     */
+    private List<Semiflow> eliminate(List<Row> rows, long start) throws TooManySemiflowsException, InterruptedException {
+        boolean[] eliminated = new boolean[columnCount];
+        ForkJoinPool pool = null;
+        try {
+            while (true) {
+                if (cancelled || Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                int column = nextColumn(rows, eliminated);
+                if (column == -1) {
+                    break;
+                }
+                eliminated[column] = true;
+
+                List<Row> zero = new ArrayList<Row>();
+                List<Row> positive = new ArrayList<Row>();
+                List<Row> negative = new ArrayList<Row>();
+                for (Row row : rows) {
+                    int sign = row.signAt(column);
+                    (sign == 0 ? zero : sign > 0 ? positive : negative).add(row);
+                }
+                if (positive.isEmpty() || negative.isEmpty()) {
+                    rows = zero;
+                    continue;
+                }
+
+                Row[] bySupport = rows.toArray(new Row[rows.size()]);
+                Arrays.sort(bySupport, new Comparator<Row>() {
+                    public int compare(Row a, Row b) {
+                        return a.supportSize - b.supportSize;
+                    }
+                });
+                AtomicInteger created = new AtomicInteger(zero.size());
+                Combine combine = new Combine(column, positive, negative, bySupport, created, 0, positive.size());
+                List<Row> combined;
+                if (threads > 1 && (long) positive.size() * negative.size() > SPLIT_PAIRS) {
+                    if (pool == null) {
+                        pool = new ForkJoinPool(threads);
+                    }
+                    combined = pool.invoke(combine);
+                } else {
+                    combined = combine.compute();
+                }
+                if (cancelled) {
+                    throw new InterruptedException();
+                }
+                if (created.get() > maxSemiflows) {
+                    throw new TooManySemiflowsException(maxSemiflows);
+                }
+                zero.addAll(combined);
+                rows = zero;
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            elapsedTime = System.currentTimeMillis() - start;
+        }
+
+        List<Semiflow> semiflows = new ArrayList<Semiflow>(rows.size());
+        for (Row row : rows) {
+            semiflows.add(row.toSemiflow(columnCount));
+        }
+        Collections.sort(semiflows, Semiflow.SUPPORT_ORDER);
+        return semiflows;
+    }
+
+    /*
+     * Returns the column not eliminated yet whose elimination adds fewest
+     * rows, or -1 if the rows are zero on every such column.
+     */
+    private int nextColumn(List<Row> rows, boolean[] eliminated) {
+        int[] positive = new int[columnCount];
+        int[] negative = new int[columnCount];
+        for (Row row : rows) {
+            for (int k = 0; k < row.columnEntries; k++) {
+                if (row.entrySign(k) > 0) {
+                    positive[row.indexes[k]]++;
+                } else {
+                    negative[row.indexes[k]]++;
+                }
+            }
+        }
+        int best = -1;
+        long bestGrowth = Long.MAX_VALUE;
+        for (int c = 0; c < columnCount; c++) {
+            if (!eliminated[c] && positive[c] + negative[c] > 0) {
+                long growth = (long) positive[c] * negative[c] - positive[c] - negative[c];
+                if (growth < bestGrowth) {
+                    best = c;
+                    bestGrowth = growth;
+                }
+            }
+        }
+        return best;
+    }
+
+    /*
+     * Combines the rows positive[from ... to - 1] with the negative rows.
+     */
+    private final class Combine extends RecursiveTask<List<Row>> {
+
+        final int column;
+        final List<Row> positive;
+        final List<Row> negative;
+        final Row[] bySupport;
+        final AtomicInteger created;
+        final int from;
+        final int to;
+
+        Combine(int column, List<Row> positive, List<Row> negative, Row[] bySupport, AtomicInteger created,
+                int from, int to) {
+            this.column = column;
+            this.positive = positive;
+            this.negative = negative;
+            this.bySupport = bySupport;
+            this.created = created;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Row> compute() {
+            if (to - from > 1 && (long) (to - from) * negative.size() > SPLIT_PAIRS && getPool() != null) {
+                int middle = (from + to) >>> 1;
+                Combine left = new Combine(column, positive, negative, bySupport, created, from, middle);
+                Combine right = new Combine(column, positive, negative, bySupport, created, middle, to);
+                left.fork();
+                List<Row> rows = right.compute();
+                List<Row> leftRows = left.join();
+                leftRows.addAll(rows);
+                return leftRows;
+            }
+            List<Row> rows = new ArrayList<Row>();
+            long[] union = new long[bySupport.length == 0 ? 0 : bySupport[0].support.length];
+            for (int i = from; i < to && !cancelled && created.get() <= maxSemiflows; i++) {
+                Row p = positive.get(i);
+                for (Row n : negative) {
+                    int unionSize = 0;
+                    for (int w = 0; w < union.length; w++) {
+                        union[w] = p.support[w] | n.support[w];
+                        unionSize += Long.bitCount(union[w]);
+                    }
+                    if (isMinimal(p, n, union, unionSize)) {
+                        rows.add(combine(p, n, column, union.clone(), unionSize));
+                        created.incrementAndGet();
+                    }
+                }
+            }
+            return rows;
+        }
+
+        /*
+         * Returns true if no row other than p and n has its support in the
+         * union of theirs.
+         */
+        private boolean isMinimal(Row p, Row n, long[] union, int unionSize) {
+            for (Row row : bySupport) {
+                if (row.supportSize > unionSize) {
+                    return true;
+                }
+                if (row != p && row != n) {
+                    boolean included = true;
+                    for (int w = 0; w < union.length && included; w++) {
+                        included = (row.support[w] & ~union[w]) == 0;
+                    }
+                    if (included) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /*
+     * Returns the combination of p and n that is zero on the column, divided
+     * by the gcd of its entries.
+     */
+    private Row combine(Row p, Row n, int column, long[] support, int supportSize) {
+        if (p.bigValues == null && n.bigValues == null) {
+            long b = p.values[p.find(column)];
+            long a = -n.values[n.find(column)];
+            long g = gcd(a, b);
+            long cp = a / g;
+            long cn = b / g;
+            try {
+                int[] indexes = new int[p.indexes.length + n.indexes.length];
+                long[] values = new long[indexes.length];
+                int length = 0;
+                int i = 0;
+                int j = 0;
+                while (i < p.indexes.length || j < n.indexes.length) {
+                    int index;
+                    long value;
+                    if (j == n.indexes.length || (i < p.indexes.length && p.indexes[i] < n.indexes[j])) {
+                        index = p.indexes[i];
+                        value = Math.multiplyExact(cp, p.values[i++]);
+                    } else if (i == p.indexes.length || n.indexes[j] < p.indexes[i]) {
+                        index = n.indexes[j];
+                        value = Math.multiplyExact(cn, n.values[j++]);
+                    } else {
+                        index = p.indexes[i];
+                        value = Math.addExact(Math.multiplyExact(cp, p.values[i++]), Math.multiplyExact(cn, n.values[j++]));
+                    }
+                    if (value != 0) {
+                        indexes[length] = index;
+                        values[length++] = value;
+                    }
+                }
+                long divisor = 0;
+                for (int k = 0; k < length; k++) {
+                    divisor = gcd(divisor, Math.abs(values[k]));
+                }
+                for (int k = 0; k < length; k++) {
+                    values[k] /= divisor;
+                }
+                return new Row(Arrays.copyOf(indexes, length), Arrays.copyOf(values, length), null, support, columnCount);
+            } catch (ArithmeticException e) {
+                // an entry overflowed, the row is computed again with BigIntegers
+            }
+        }
+
+        BigInteger b = p.getValue(p.find(column));
+        BigInteger a = n.getValue(n.find(column)).negate();
+        BigInteger g = a.gcd(b);
+        BigInteger cp = a.divide(g);
+        BigInteger cn = b.divide(g);
+        int[] indexes = new int[p.indexes.length + n.indexes.length];
+        BigInteger[] values = new BigInteger[indexes.length];
+        int length = 0;
+        int i = 0;
+        int j = 0;
+        while (i < p.indexes.length || j < n.indexes.length) {
+            int index;
+            BigInteger value;
+            if (j == n.indexes.length || (i < p.indexes.length && p.indexes[i] < n.indexes[j])) {
+                index = p.indexes[i];
+                value = cp.multiply(p.getValue(i++));
+            } else if (i == p.indexes.length || n.indexes[j] < p.indexes[i]) {
+                index = n.indexes[j];
+                value = cn.multiply(n.getValue(j++));
+            } else {
+                index = p.indexes[i];
+                value = cp.multiply(p.getValue(i++)).add(cn.multiply(n.getValue(j++)));
+            }
+            if (value.signum() != 0) {
+                indexes[length] = index;
+                values[length++] = value;
+            }
+        }
+        BigInteger divisor = BigInteger.ZERO;
+        boolean fitsLong = true;
+        for (int k = 0; k < length; k++) {
+            divisor = divisor.gcd(values[k]);
+        }
+        for (int k = 0; k < length; k++) {
+            values[k] = values[k].divide(divisor);
+            fitsLong &= values[k].compareTo(LONG_MIN) > 0 && values[k].compareTo(LONG_MAX) <= 0;
+        }
+        indexes = Arrays.copyOf(indexes, length);
+        if (fitsLong) {
+            long[] longValues = new long[length];
+            for (int k = 0; k < length; k++) {
+                longValues[k] = values[k].longValue();
+            }
+            return new Row(indexes, longValues, null, support, columnCount);
+        }
+        return new Row(indexes, null, Arrays.copyOf(values, length), support, columnCount);
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long r = a % b;
+            a = b;
+            b = r;
+        }
+        return a;
+    }
+
+    /*
+     * Sparse row: the non zero entries of the columns not eliminated yet
+     * (indexes below the column count) followed by those of the variables
+     * (column count + variable), with the support of the variables as a
+     * bitset.
+     */
+    private static final class Row {
+
+        final int[] indexes;
+        final long[] values;
+        final BigInteger[] bigValues;
+        final long[] support;
+        final int supportSize;
+        final int columnEntries;
+
+        Row(int[] indexes, long[] values, BigInteger[] bigValues, long[] support, int columnCount) {
+            this.indexes = indexes;
+            this.values = values;
+            this.bigValues = bigValues;
+            this.support = support;
+            int size = 0;
+            for (long word : support) {
+                size += Long.bitCount(word);
+            }
+            this.supportSize = size;
+            int entries = 0;
+            while (entries < indexes.length && indexes[entries] < columnCount) {
+                entries++;
+            }
+            this.columnEntries = entries;
+        }
+
+        int find(int column) {
+            return Arrays.binarySearch(indexes, 0, columnEntries, column);
+        }
+
+        int signAt(int column) {
+            int k = find(column);
+            return k < 0 ? 0 : entrySign(k);
+        }
+
+        int entrySign(int k) {
+            return bigValues != null ? bigValues[k].signum() : Long.signum(values[k]);
+        }
+
+        BigInteger getValue(int k) {
+            return bigValues != null ? bigValues[k] : BigInteger.valueOf(values[k]);
+        }
+
+        Semiflow toSemiflow(int columnCount) {
+            int[] variables = new int[indexes.length - columnEntries];
+            for (int k = 0; k < variables.length; k++) {
+                variables[k] = indexes[columnEntries + k] - columnCount;
+            }
+            if (bigValues != null) {
+                return new Semiflow(variables, null, Arrays.copyOfRange(bigValues, columnEntries, indexes.length));
+            }
+            return new Semiflow(variables, Arrays.copyOfRange(values, columnEntries, indexes.length), null);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.markov;
+
+import java.util.Arrays;
+
+/**
+ * Truncated Poisson probabilities, as needed by uniformization: the
+ * probabilities of the counts from getLeft() to getRight() of a Poisson
+ * distribution of a given mean, leaving out at most epsilon of the total.
+ *
+ * As in the algorithm of Fox and Glynn the weights are computed by the
+ * recurrences w(i - 1) = w(i) i / mean and w(i + 1) = w(i) mean / (i + 1)
+ * starting from the mode, so that no factorial or exponential of the mean
+ * is needed and nothing overflows. A tail is cut where it is bounded by a
+ * geometric series below epsilon / 2 of the weights kept, and the weights
+ * are then normalized.
+ */
+final class FoxGlynn {
+
+    private final int left;
+    private final double[] weights;
+
+    /**
+     * @param mean mean of the Poisson distribution, q t for uniformization
+     * @param epsilon largest probability left out
+     */
+    FoxGlynn(double mean, double epsilon) {
+        if (mean < 0 || Double.isNaN(mean) || Double.isInfinite(mean)) {
+            throw new IllegalArgumentException("Poisson mean must be finite and non negative: " + mean);
+        }
+        int mode = (int) Math.floor(mean);
+        double[] above = new double[16];
+        double[] below = new double[16];
+        above[0] = 1;
+        double total = 1;
+        int up = 0;
+        while (true) {
+            double ratio = mean / (mode + up + 1);
+            double next = above[up] * ratio;
+            if (ratio < 1 && next / (1 - ratio) <= epsilon / 2 * total) {
+                break;
+            }
+            if (++up == above.length) {
+                above = Arrays.copyOf(above, up * 2);
+            }
+            above[up] = next;
+            total += next;
+        }
+        int down = 0;
+        below[0] = 1;
+        while (down < mode) {
+            double ratio = (mode - down) / mean;
+            double next = below[down] * ratio;
+            if (next / (1 - ratio) <= epsilon / 2 * total) {
+                break;
+            }
+            if (++down == below.length) {
+                below = Arrays.copyOf(below, down * 2);
+            }
+            below[down] = next;
+            total += next;
+        }
+        left = mode - down;
+        weights = new double[down + up + 1];
+        for (int i = 0; i <= down; i++) {
+            weights[down - i] = below[i] / total;
+        }
+        for (int i = 1; i <= up; i++) {
+            weights[down + i] = above[i] / total;
+        }
+    }
+
+    int getLeft() {
+        return left;
+    }
+
+    int getRight() {
+        return left + weights.length - 1;
+    }
+
+    /**
+     * Returns the probability of a count between getLeft() and getRight().
+     */
+    double getWeight(int count) {
+        return weights[count - left];
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.markov;
+
+import java.util.Arrays;
+
+/**
+ * Infinitesimal generator Q of a continuous time Markov chain, in compressed
+ * sparse row form: the rates of the transitions leaving state i are
+ * getRate(k) for k from getFirst(i) to getFirst(i + 1) - 1, towards the states
+ * getColumn(k). Only the off-diagonal rates are stored, the diagonal is
+ * minus the exit rate of the state.
+ */
+public class GeneratorMatrix {
+
+    private final int stateCount;
+    private final int[] rowStart;
+    private final int[] columns;
+    private final double[] rates;
+    private final double[] exitRates;
+
+    GeneratorMatrix(int stateCount, int[] rowStart, int[] columns, double[] rates) {
+        this.stateCount = stateCount;
+        this.rowStart = rowStart;
+        this.columns = columns;
+        this.rates = rates;
+        this.exitRates = new double[stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                exitRates[i] += rates[k];
+            }
+        }
+    }
+
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    /**
+     * Returns the number of nonzero off-diagonal rates.
+     */
+    public int getTransitionCount() {
+        return rowStart[stateCount];
+    }
+
+    public int getFirst(int state) {
+        return rowStart[state];
+    }
+
+    public int getColumn(int k) {
+        return columns[k];
+    }
+
+    public double getRate(int k) {
+        return rates[k];
+    }
+
+    /**
+     * Returns the sum of the rates leaving a state, minus the diagonal entry.
+     */
+    public double getExitRate(int state) {
+        return exitRates[state];
+    }
+
+    /**
+     * Returns the largest exit rate.
+     */
+    public double getMaxExitRate() {
+        double max = 0;
+        for (double rate : exitRates) {
+            max = Math.max(max, rate);
+        }
+        return max;
+    }
+
+    /**
+     * Returns the matrix of the incoming rates: row j of the transpose holds
+     * the rates of the transitions entering state j.
+     */
+    public GeneratorMatrix transpose() {
+        int[] start = new int[stateCount + 1];
+        for (int k = 0; k < getTransitionCount(); k++) {
+            start[columns[k] + 1]++;
+        }
+        for (int j = 0; j < stateCount; j++) {
+            start[j + 1] += start[j];
+        }
+        int[] position = Arrays.copyOf(start, stateCount);
+        int[] sources = new int[getTransitionCount()];
+        double[] incoming = new double[getTransitionCount()];
+        for (int i = 0; i < stateCount; i++) {
+            for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                int p = position[columns[k]]++;
+                sources[p] = i;
+                incoming[p] = rates[k];
+            }
+        }
+        return new GeneratorMatrix(stateCount, start, sources, incoming);
+    }
+
+    /**
+     * Builds a generator row by row. The rates of a row may be added in any
+     * order: rates towards the same state are summed and rates towards the
+     * state itself are dropped.
+     */
+    public static class Builder {
+
+        private int stateCount = 0;
+        private int[] rowStart = new int[1024];
+        private int[] columns = new int[1024];
+        private double[] rates = new double[1024];
+        private int size = 0;
+        private int[] slot = new int[0];
+
+        /**
+         * Starts the row of the next state.
+         */
+        public void startRow() {
+            if (stateCount > 0) {
+                endRow();
+            }
+            if (stateCount + 1 >= rowStart.length) {
+                rowStart = Arrays.copyOf(rowStart, rowStart.length * 2);
+            }
+            rowStart[stateCount++] = size;
+        }
+
+        /**
+         * Adds a rate to the current row.
+         */
+        public void add(int state, double rate) {
+            if (state == stateCount - 1 || rate == 0) {
+                return;
+            }
+            if (state >= slot.length) {
+                int[] newSlot = new int[Math.max(state + 1, slot.length * 2)];
+                Arrays.fill(newSlot, -1);
+                System.arraycopy(slot, 0, newSlot, 0, slot.length);
+                slot = newSlot;
+            }
+            int k = slot[state];
+            if (k >= rowStart[stateCount - 1] && k < size && columns[k] == state) {
+                rates[k] += rate;
+                return;
+            }
+            if (size == columns.length) {
+                columns = Arrays.copyOf(columns, size * 2);
+                rates = Arrays.copyOf(rates, size * 2);
+            }
+            slot[state] = size;
+            columns[size] = state;
+            rates[size++] = rate;
+        }
+
+        private void endRow() {
+            int from = rowStart[stateCount - 1];
+            for (int k = from; k < size; k++) {
+                slot[columns[k]] = -1;
+            }
+        }
+
+        /**
+         * Returns the generator of the rows started so far.
+         */
+        public GeneratorMatrix build() {
+            if (stateCount > 0) {
+                endRow();
+            }
+            int[] start = Arrays.copyOf(rowStart, stateCount + 1);
+            start[stateCount] = size;
+            return new GeneratorMatrix(stateCount, start, Arrays.copyOf(columns, size), Arrays.copyOf(rates, size));
+        }
+    }
+}
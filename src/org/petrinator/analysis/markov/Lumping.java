@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.markov;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Partition of the states of a CTMC into blocks of equivalent states, with
+ * the smaller chain of the blocks. The partition is the coarsest one
+ * refining an initial labelling of the states in which the states of a
+ * block have the same exit rate and:
+ * <ul>
+ * <li>ordinary lumpability: the same total rate towards every other block.
+ * The probability of a block is then the same in the lumped chain as in the
+ * original one.</li>
+ * <li>exact lumpability: the same total rate from every block. The states
+ * of a block then have the same steady state probability, so the steady
+ * state of the original chain is lifted exactly from the lumped one.</li>
+ * </ul>
+ * The partition is refined as by Paige and Tarjan, with splitters: the
+ * weights of the states towards (or from) a splitter block are summed over
+ * the edges of the splitter only, the blocks are split by sorting the
+ * weights of their touched states, and a split block that is not waiting
+ * to be a splitter queues all its parts but the largest. Every state is
+ * then in O(log n) splitters, which costs O(m log n) with the sorting.
+ * Rates are compared with a relative tolerance, as sums of rates in a
+ * different order may differ by rounding.
+ */
+public class Lumping {
+
+    private static final double EPSILON = 1e-10;
+
+    private final GeneratorMatrix generator;
+    private final int stateCount;
+    private final int[] blockOf;
+    private final int[] elements;
+    private final int[] location;
+    private final int[] begin;
+    private final int[] end;
+    private int blockCount = 0;
+    private GeneratorMatrix lumped;
+    private long elapsedTime;
+
+    private final double[] weight;
+    private final int[] touched;
+    private int touchedCount = 0;
+    private final int[] touchedPerBlock;
+    private final int[] pending;
+    private int pendingCount = 0;
+    private final boolean[] queued;
+
+    private Lumping(GeneratorMatrix generator, int[] labels) {
+        this.generator = generator;
+        stateCount = generator.getStateCount();
+        blockOf = new int[stateCount];
+        elements = new int[stateCount];
+        location = new int[stateCount];
+        begin = new int[stateCount + 1];
+        end = new int[stateCount + 1];
+        weight = new double[stateCount];
+        touched = new int[stateCount];
+        touchedPerBlock = new int[stateCount + 1];
+        pending = new int[stateCount + 1];
+        queued = new boolean[stateCount + 1];
+        Map<Integer, Integer> blocks = new HashMap<Integer, Integer>();
+        int[] sizes = new int[stateCount + 1];
+        for (int s = 0; s < stateCount; s++) {
+            Integer block = blocks.get(labels == null ? 0 : labels[s]);
+            if (block == null) {
+                block = blockCount++;
+                blocks.put(labels == null ? 0 : labels[s], block);
+            }
+            blockOf[s] = block;
+            sizes[block]++;
+        }
+        for (int b = 0; b < blockCount; b++) {
+            begin[b] = b == 0 ? 0 : begin[b - 1] + sizes[b - 1];
+            end[b] = begin[b];
+        }
+        for (int s = 0; s < stateCount; s++) {
+            int b = blockOf[s];
+            elements[end[b]] = s;
+            location[s] = end[b]++;
+        }
+    }
+
+    /**
+     * Computes the coarsest ordinarily lumpable partition of a chain.
+     *
+     * @param generator generator of the chain
+     * @param labels initial labels of the states, states with different
+     * labels are never in the same block; or null
+     */
+    public static Lumping ordinary(GeneratorMatrix generator, int[] labels) {
+        long start = System.currentTimeMillis();
+        Lumping lumping = new Lumping(generator, labels);
+        lumping.refine(generator.transpose(), false);
+        lumping.elapsedTime = System.currentTimeMillis() - start;
+        return lumping;
+    }
+
+    /**
+     * Computes the coarsest exactly lumpable partition of a chain.
+     *
+     * @param generator generator of the chain
+     * @param labels initial labels of the states, states with different
+     * labels are never in the same block; or null
+     */
+    public static Lumping exact(GeneratorMatrix generator, int[] labels) {
+        long start = System.currentTimeMillis();
+        Lumping lumping = new Lumping(generator, labels);
+        lumping.refine(generator, true);
+        lumping.elapsedTime = System.currentTimeMillis() - start;
+        return lumping;
+    }
+
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public int getBlock(int state) {
+        return blockOf[state];
+    }
+
+    public int getBlockSize(int block) {
+        return end[block] - begin[block];
+    }
+
+    /**
+     * Returns the duration of the computation of the partition in
+     * milliseconds.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Returns the generator of the blocks: the rate from a block to another
+     * is the mean over its states of their total rate towards the other.
+     */
+    public synchronized GeneratorMatrix getLumpedGenerator() {
+        if (lumped == null) {
+            GeneratorMatrix.Builder builder = new GeneratorMatrix.Builder();
+            for (int b = 0; b < blockCount; b++) {
+                builder.startRow();
+                double size = getBlockSize(b);
+                for (int e = begin[b]; e < end[b]; e++) {
+                    int s = elements[e];
+                    for (int k = generator.getFirst(s); k < generator.getFirst(s + 1); k++) {
+                        builder.add(blockOf[generator.getColumn(k)], generator.getRate(k) / size);
+                    }
+                }
+            }
+            lumped = builder.build();
+        }
+        return lumped;
+    }
+
+    /**
+     * Returns the probabilities of the blocks under a distribution of the
+     * states.
+     */
+    public double[] lump(double[] distribution) {
+        double[] blocks = new double[blockCount];
+        for (int s = 0; s < stateCount; s++) {
+            blocks[blockOf[s]] += distribution[s];
+        }
+        return blocks;
+    }
+
+    /**
+     * Spreads the probability of every block evenly over its states. This is
+     * the steady state of the original chain if the partition is exactly
+     * lumpable.
+     */
+    public double[] lift(double[] blocks) {
+        double[] distribution = new double[stateCount];
+        for (int s = 0; s < stateCount; s++) {
+            distribution[s] = blocks[blockOf[s]] / getBlockSize(blockOf[s]);
+        }
+        return distribution;
+    }
+
+    /*
+     * Refines the partition with the weights of the edges of matrix, whose
+     * row of a state x lists the states y whose weight towards a splitter
+     * holding x grows by the rate: the transposed generator for ordinary
+     * lumpability, the generator for exact lumpability.
+     */
+    private void refine(GeneratorMatrix matrix, boolean exact) {
+        /*
+         * The whole state space is the first splitter, so that the weights
+         * towards the parent of a split block are the same in every part.
+         * For ordinary lumpability these are the exit rates.
+         */
+        for (int x = 0; x < stateCount; x++) {
+            addWeights(matrix, x);
+        }
+        splitTouched();
+        if (exact) {
+            for (int s = 0; s < stateCount; s++) {
+                if (generator.getExitRate(s) > 0) {
+                    touched[touchedCount++] = s;
+                    weight[s] = generator.getExitRate(s);
+                }
+            }
+            splitTouched();
+        }
+        for (int b = 0; b < blockCount; b++) {
+            queue(b);
+        }
+        while (pendingCount > 0) {
+            int splitter = pending[--pendingCount];
+            queued[splitter] = false;
+            for (int e = begin[splitter]; e < end[splitter]; e++) {
+                addWeights(matrix, elements[e]);
+            }
+            splitTouched();
+        }
+    }
+
+    private void addWeights(GeneratorMatrix matrix, int x) {
+        for (int k = matrix.getFirst(x); k < matrix.getFirst(x + 1); k++) {
+            int y = matrix.getColumn(k);
+            if (weight[y] == 0) {
+                touched[touchedCount++] = y;
+            }
+            weight[y] += matrix.getRate(k);
+        }
+    }
+
+    private void queue(int block) {
+        if (!queued[block]) {
+            queued[block] = true;
+            pending[pendingCount++] = block;
+        }
+    }
+
+    /*
+     * Splits every block with touched states by their weights, and clears
+     * the weights
+     */
+    private void splitTouched() {
+        int[] blocks = new int[0];
+        int blocksTouched = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            int b = blockOf[touched[i]];
+            if (touchedPerBlock[b]++ == 0) {
+                if (blocksTouched == blocks.length) {
+                    blocks = Arrays.copyOf(blocks, Math.max(16, blocksTouched * 2));
+                }
+                blocks[blocksTouched++] = b;
+            }
+        }
+        int[] offsets = new int[blocksTouched + 1];
+        for (int i = 0; i < blocksTouched; i++) {
+            offsets[i + 1] = offsets[i] + touchedPerBlock[blocks[i]];
+            touchedPerBlock[blocks[i]] = offsets[i];
+        }
+        int[] grouped = new int[touchedCount];
+        for (int i = 0; i < touchedCount; i++) {
+            grouped[touchedPerBlock[blockOf[touched[i]]]++] = touched[i];
+        }
+        for (int i = 0; i < blocksTouched; i++) {
+            touchedPerBlock[blocks[i]] = 0;
+        }
+        for (int i = 0; i < blocksTouched; i++) {
+            split(blocks[i], grouped, offsets[i], offsets[i + 1]);
+        }
+        for (int i = 0; i < touchedCount; i++) {
+            weight[touched[i]] = 0;
+        }
+        touchedCount = 0;
+    }
+
+    /*
+     * Splits a block by the weights of its touched states, the others having
+     * weight 0
+     */
+    private void split(int block, int[] states, int from, int to) {
+        sort(states, from, to - 1);
+        int count = to - from;
+        int[] bounds = new int[count + 2];
+        int parts = 0;
+        int tail = end[block] - count;
+        if (tail > begin[block]) {
+            bounds[parts++] = begin[block];
+        }
+        for (int k = count - 1; k >= 0; k--) {
+            move(states[from + k], tail + k);
+        }
+        for (int k = 0; k < count; k++) {
+            if (k == 0 || differ(weight[states[from + k - 1]], weight[states[from + k]])) {
+                bounds[parts++] = tail + k;
+            }
+        }
+        if (parts == 1) {
+            return;
+        }
+        bounds[parts] = end[block];
+        int largest = 0;
+        for (int p = 1; p < parts; p++) {
+            if (bounds[p + 1] - bounds[p] > bounds[largest + 1] - bounds[largest]) {
+                largest = p;
+            }
+        }
+        boolean wasQueued = queued[block];
+        end[block] = bounds[1];
+        if (!wasQueued && largest != 0) {
+            queue(block);
+        }
+        for (int p = 1; p < parts; p++) {
+            int part = blockCount++;
+            begin[part] = bounds[p];
+            end[part] = bounds[p + 1];
+            for (int e = begin[part]; e < end[part]; e++) {
+                blockOf[elements[e]] = part;
+            }
+            if (wasQueued || p != largest) {
+                queue(part);
+            }
+        }
+    }
+
+    private static boolean differ(double a, double b) {
+        return Math.abs(a - b) > EPSILON * Math.max(Math.abs(a), Math.abs(b));
+    }
+
+    /*
+     * Swaps a state into a position of the elements
+     */
+    private void move(int state, int position) {
+        int other = elements[position];
+        int from = location[state];
+        elements[from] = other;
+        location[other] = from;
+        elements[position] = state;
+        location[state] = position;
+    }
+
+    /*
+     * Quicksort of states by weight
+     */
+    private void sort(int[] states, int low, int high) {
+        while (high - low > 16) {
+            int middle = (low + high) >>> 1;
+            if (weight[states[middle]] < weight[states[low]]) {
+                swap(states, low, middle);
+            }
+            if (weight[states[high]] < weight[states[low]]) {
+                swap(states, low, high);
+            }
+            if (weight[states[high]] < weight[states[middle]]) {
+                swap(states, middle, high);
+            }
+            double pivot = weight[states[middle]];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (weight[states[i]] < pivot) {
+                    i++;
+                }
+                while (weight[states[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(states, i++, j--);
+                }
+            }
+            if (j - low < high - i) {
+                sort(states, low, j);
+                low = i;
+            } else {
+                sort(states, i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            int state = states[i];
+            int j = i - 1;
+            while (j >= low && weight[states[j]] > weight[state]) {
+                states[j + 1] = states[j];
+                j--;
+            }
+            states[j + 1] = state;
+        }
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        int t = array[i];
+        array[i] = array[j];
+        array[j] = t;
+    }
+}
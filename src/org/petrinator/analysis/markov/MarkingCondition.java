@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.markov;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.petrinator.analysis.statespace.StateStore;
+import org.petrinator.petrinet.CompiledNet;
+
+/**
+ * Set of markings given by comparisons of the tokens of places with
+ * constants, such as "Requests > 0 and Served = 0". The comparisons are
+ * joined by "and" (or "&amp;&amp;"), which binds tighter than "or" (or
+ * "||"); a place label alone means that the place is marked. The operators
+ * are =, ==, !=, &lt;, &lt;=, &gt; and &gt;=.
+ */
+public class MarkingCondition {
+
+    private static final Pattern COMPARISON = Pattern.compile("(.+?)\\s*(==|=|!=|<=|>=|<|>)\\s*(\\d+)");
+    private static final String[] OPERATORS = {"==", "=", "!=", "<=", ">=", "<", ">"};
+
+    private final String text;
+    private final int[][] places;
+    private final int[][] operators;
+    private final int[][] values;
+
+    private MarkingCondition(String text, int[][] places, int[][] operators, int[][] values) {
+        this.text = text;
+        this.places = places;
+        this.operators = operators;
+        this.values = values;
+    }
+
+    /**
+     * Parses a condition on the places of a net.
+     *
+     * @throws IllegalArgumentException if the text is not a condition or
+     * names an unknown place
+     */
+    public static MarkingCondition parse(String text, CompiledNet net) {
+        String[] clauses = text.trim().split("\\s+or\\s+|\\s*\\|\\|\\s*");
+        int[][] places = new int[clauses.length][];
+        int[][] operators = new int[clauses.length][];
+        int[][] values = new int[clauses.length][];
+        for (int c = 0; c < clauses.length; c++) {
+            String[] comparisons = clauses[c].trim().split("\\s+and\\s+|\\s*&&\\s*");
+            places[c] = new int[comparisons.length];
+            operators[c] = new int[comparisons.length];
+            values[c] = new int[comparisons.length];
+            for (int i = 0; i < comparisons.length; i++) {
+                String comparison = comparisons[i].trim();
+                String label = comparison;
+                operators[c][i] = 6;
+                values[c][i] = 0;
+                Matcher matcher = COMPARISON.matcher(comparison);
+                if (matcher.matches()) {
+                    label = matcher.group(1);
+                    for (int o = 0; o < OPERATORS.length; o++) {
+                        if (OPERATORS[o].equals(matcher.group(2))) {
+                            operators[c][i] = o;
+                        }
+                    }
+                    values[c][i] = Integer.parseInt(matcher.group(3));
+                }
+                places[c][i] = find(net, label);
+            }
+        }
+        return new MarkingCondition(text.trim(), places, operators, values);
+    }
+
+    private static int find(CompiledNet net, String label) {
+        if (label.isEmpty()) {
+            throw new IllegalArgumentException("Missing place in condition");
+        }
+        List<Integer> found = new ArrayList<Integer>();
+        for (int p = 0; p < net.getRootPlaceCount(); p++) {
+            if (label.equals(net.getPlace(p).getLabel())) {
+                found.add(p);
+            }
+        }
+        if (found.size() != 1) {
+            throw new IllegalArgumentException((found.isEmpty() ? "Unknown place: " : "Ambiguous place: ") + label);
+        }
+        return found.get(0);
+    }
+
+    public boolean matches(int[] marking) {
+        for (int c = 0; c < places.length; c++) {
+            boolean holds = true;
+            for (int i = 0; i < places[c].length && holds; i++) {
+                holds = compare(marking[places[c][i]], operators[c][i], values[c][i]);
+            }
+            if (holds) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean compare(int tokens, int operator, int value) {
+        switch (operator) {
+            case 0:
+            case 1:
+                return tokens == value;
+            case 2:
+                return tokens != value;
+            case 3:
+                return tokens <= value;
+            case 4:
+                return tokens >= value;
+            case 5:
+                return tokens < value;
+            default:
+                return tokens > value;
+        }
+    }
+
+    /**
+     * Returns the states whose markings satisfy the condition.
+     */
+    public BitSet select(StateStore states) {
+        BitSet selected = new BitSet(states.size());
+        int[] marking = new int[states.getPlaceCount()];
+        for (int s = 0; s < states.size(); s++) {
+            states.get(s, marking);
+            if (matches(marking)) {
+                selected.set(s);
+            }
+        }
+        return selected;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.markov;
+
+import java.util.Map;
+
+import org.petrinator.analysis.statespace.StateStore;
+import org.petrinator.petrinet.CompiledNet;
+
+/**
+ * Continuous time Markov chain of a GSPN: its tangible markings, where no
+ * immediate transition is enabled, and the generator of the chain between
+ * them. The timed transitions fire after exponential delays of their rate
+ * (single server); the immediate ones fire in zero time, before any timed
+ * one, choosing among the enabled ones with probabilities proportional to
+ * their rates (weights). The vanishing markings are thus eliminated: a
+ * timed firing leading to a vanishing marking leads to the tangible
+ * markings reached from it, with the probabilities of the immediate
+ * firings.
+ *
+ * The chain is built by a TangibleExplorer, which never stores the
+ * vanishing part of the reachability graph.
+ */
+public class MarkovChain {
+
+    private final CompiledNet net;
+    private final StateStore states;
+    private final GeneratorMatrix generator;
+    private final double[] initialDistribution;
+
+    MarkovChain(CompiledNet net, StateStore states, GeneratorMatrix generator, double[] initialDistribution) {
+        this.net = net;
+        this.states = states;
+        this.generator = generator;
+        this.initialDistribution = initialDistribution;
+    }
+
+    public CompiledNet getCompiledNet() {
+        return net;
+    }
+
+    /**
+     * Returns the tangible markings, numbered like the states of the chain.
+     */
+    public StateStore getStates() {
+        return states;
+    }
+
+    public int getStateCount() {
+        return states.size();
+    }
+
+    public GeneratorMatrix getGenerator() {
+        return generator;
+    }
+
+    /**
+     * Returns the probabilities of the tangible states at time 0, those
+     * reached from the initial marking by immediate firings.
+     */
+    public double[] getInitialDistribution() {
+        return initialDistribution.clone();
+    }
+
+    /**
+     * Returns the expected number of tokens of every place under a
+     * distribution of the states.
+     */
+    public double[] getMeanTokens(double[] pi) {
+        double[] mean = new double[net.getPlaceCount()];
+        int[] marking = new int[net.getPlaceCount()];
+        for (int s = 0; s < pi.length; s++) {
+            states.get(s, marking);
+            for (int p = 0; p < marking.length; p++) {
+                mean[p] += pi[s] * marking[p];
+            }
+        }
+        return mean;
+    }
+
+    /**
+     * Returns the probability that every place is marked under a distribution
+     * of the states.
+     */
+    public double[] getMarkedProbability(double[] pi) {
+        double[] probability = new double[net.getPlaceCount()];
+        int[] marking = new int[net.getPlaceCount()];
+        for (int s = 0; s < pi.length; s++) {
+            states.get(s, marking);
+            for (int p = 0; p < marking.length; p++) {
+                if (marking[p] > 0) {
+                    probability[p] += pi[s];
+                }
+            }
+        }
+        return probability;
+    }
+
+    /**
+     * Returns the throughput of every timed transition under a distribution
+     * of the states (0 for the immediate ones).
+     */
+    public double[] getThroughput(double[] pi) {
+        double[] throughput = new double[net.getTransitionCount()];
+        int[] marking = new int[net.getPlaceCount()];
+        for (int s = 0; s < pi.length; s++) {
+            states.get(s, marking);
+            for (int t = 0; t < throughput.length; t++) {
+                if (net.getTransition(t).isTimed() && net.isEnabled(t, marking)) {
+                    throughput[t] += pi[s] * net.getTransition(t).getRate();
+                }
+            }
+        }
+        return throughput;
+    }
+
+    /*
+     * Probabilities of the tangible states reached from a vanishing state
+     */
+    static final class Absorption {
+
+        final int[] states;
+        final double[] probabilities;
+
+        Absorption(Map<Integer, Double> reached) {
+            states = new int[reached.size()];
+            probabilities = new double[reached.size()];
+            int k = 0;
+            for (Map.Entry<Integer, Double> entry : reached.entrySet()) {
+                states[k] = entry.getKey();
+                probabilities[k++] = entry.getValue();
+            }
+        }
+    }
+}
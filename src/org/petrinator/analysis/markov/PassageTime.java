@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.markov;
+
+import java.util.BitSet;
+
+/**
+ * Passage time analysis of a Markov chain: the distribution of the time
+ * from entering a set of source states until first reaching a set of target
+ * states, e.g. from a request being issued to it being served.
+ *
+ * The target states are made absorbing, and the distribution function
+ * F(t), the probability of being absorbed at time t, is computed by
+ * uniformization (see TransientSolver) with the chain started in the source
+ * states. These are weighted by the steady state rate at which the chain
+ * enters them from outside the source set; if it never does, by their
+ * steady state probability, and if they have none, by their initial
+ * probability. The mean is solved from the linear equations of the
+ * absorbing chain by Gauss-Seidel iteration, and the percentiles are read
+ * from F on a grid of times, refined around every percentile by a second
+ * pass.
+ *
+ * One PassageTime keeps the chain and its steady state, so that any number
+ * of passages can be analysed without exploring or solving them again.
+ */
+public class PassageTime {
+
+    /*
+     * Probability below 1 under which the target is considered not to be
+     * reached for sure
+     */
+    private static final double CERTAINTY = 1e-6;
+    private static final int MAX_ITERATIONS = 100000;
+    private static final int REFINEMENT_POINTS = 32;
+    private static final int MAX_DOUBLINGS = 64;
+
+    private final MarkovChain chain;
+    private final double[] steadyState;
+    private double tolerance = 1e-10;
+    private int points = 200;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private volatile TransientSolver solver;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param chain chain of the passages
+     * @param steadyState steady state distribution of the chain
+     */
+    public PassageTime(MarkovChain chain, double[] steadyState) {
+        this.chain = chain;
+        this.steadyState = steadyState;
+    }
+
+    public MarkovChain getChain() {
+        return chain;
+    }
+
+    public double[] getSteadyState() {
+        return steadyState.clone();
+    }
+
+    /**
+     * Sets the largest error of the probabilities of the distribution
+     * function, 1e-10 by default.
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Sets the number of times at which the distribution function is given,
+     * 200 by default.
+     */
+    public void setPoints(int points) {
+        this.points = points;
+    }
+
+    /**
+     * Sets the number of threads of the uniformization steps, by default the
+     * number of processors.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Stops a running analysis, which then throws InterruptedException.
+     */
+    public void cancel() {
+        cancelled = true;
+        TransientSolver running = solver;
+        if (running != null) {
+            running.cancel();
+        }
+    }
+
+    /**
+     * Analyses the passages from a set of states to another.
+     *
+     * @param sources states where the passages start
+     * @param targets states where the passages end
+     * @param percentiles percentiles to be found, between 0 and 100
+     * @return the distribution of the passage time
+     * @throws IllegalArgumentException if there is no source or no target
+     * state
+     * @throws InterruptedException if the analysis was cancelled
+     */
+    public Result analyse(BitSet sources, BitSet targets, double[] percentiles) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        cancelled = false;
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("No reachable marking is in the source set.");
+        }
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("No reachable marking is in the target set.");
+        }
+        GeneratorMatrix generator = chain.getGenerator();
+        int n = generator.getStateCount();
+        double[] initial = startDistribution(sources);
+
+        GeneratorMatrix.Builder builder = new GeneratorMatrix.Builder();
+        double[] reward = new double[n];
+        for (int s = 0; s < n; s++) {
+            builder.startRow();
+            if (targets.get(s)) {
+                reward[s] = 1;
+                continue;
+            }
+            for (int k = generator.getFirst(s); k < generator.getFirst(s + 1); k++) {
+                builder.add(generator.getColumn(k), generator.getRate(k));
+            }
+        }
+        GeneratorMatrix absorbing = builder.build();
+
+        double[] reached = solveAbsorption(generator, targets, false);
+        double probability = dot(initial, reached);
+        double mean = Double.POSITIVE_INFINITY;
+        if (probability > 1 - CERTAINTY) {
+            mean = dot(initial, solveAbsorption(generator, targets, true));
+        }
+
+        TransientSolver uniformization = new TransientSolver();
+        uniformization.setTolerance(tolerance);
+        uniformization.setThreads(threads);
+        solver = uniformization;
+        try {
+            double highest = 0;
+            for (double percentile : percentiles) {
+                highest = Math.max(highest, percentile / 100);
+            }
+            highest = Math.min(highest, probability * (1 - 1e-9));
+            double horizon = 2 * mean;
+            if (mean == 0 || mean == Double.POSITIVE_INFINITY) {
+                horizon = 1 / Math.max(generator.getMaxExitRate(), 1e-9);
+            }
+            for (int d = 0; d < MAX_DOUBLINGS && uniformization.expectedReward(absorbing, initial, new double[]{horizon}, reward)[0] < highest; d++) {
+                horizon *= 2;
+            }
+
+            double[] times = new double[points + 1];
+            for (int i = 0; i <= points; i++) {
+                times[i] = horizon * i / points;
+            }
+            double[] cumulative = uniformization.expectedReward(absorbing, initial, times, reward);
+
+            double[] percentileTimes = new double[percentiles.length];
+            int[] brackets = new int[percentiles.length];
+            double[] refined = new double[percentiles.length * REFINEMENT_POINTS];
+            for (int i = 0; i < percentiles.length; i++) {
+                brackets[i] = bracket(cumulative, percentiles[i] / 100);
+                for (int j = 0; j < REFINEMENT_POINTS; j++) {
+                    int b = Math.max(brackets[i], 1);
+                    refined[i * REFINEMENT_POINTS + j] = times[b - 1] + (times[b] - times[b - 1]) * (j + 1) / (REFINEMENT_POINTS + 1);
+                }
+            }
+            double[] refinedCumulative = uniformization.expectedReward(absorbing, initial, refined, reward);
+            for (int i = 0; i < percentiles.length; i++) {
+                int b = brackets[i];
+                if (b < 0) {
+                    percentileTimes[i] = Double.POSITIVE_INFINITY;
+                    continue;
+                } else if (b == 0) {
+                    percentileTimes[i] = 0;
+                    continue;
+                }
+                double[] t = new double[REFINEMENT_POINTS + 2];
+                double[] f = new double[REFINEMENT_POINTS + 2];
+                t[0] = times[b - 1];
+                f[0] = cumulative[b - 1];
+                System.arraycopy(refined, i * REFINEMENT_POINTS, t, 1, REFINEMENT_POINTS);
+                System.arraycopy(refinedCumulative, i * REFINEMENT_POINTS, f, 1, REFINEMENT_POINTS);
+                t[REFINEMENT_POINTS + 1] = times[b];
+                f[REFINEMENT_POINTS + 1] = cumulative[b];
+                percentileTimes[i] = interpolate(t, f, percentiles[i] / 100);
+            }
+            return new Result(initial, probability, mean, times, cumulative, percentiles.clone(), percentileTimes,
+                    System.currentTimeMillis() - start);
+        } finally {
+            solver = null;
+        }
+    }
+
+    /*
+     * Distribution of the states where the passages start
+     */
+    private double[] startDistribution(BitSet sources) {
+        GeneratorMatrix generator = chain.getGenerator();
+        int n = generator.getStateCount();
+        double[] initial = new double[n];
+        for (int s = 0; s < n; s++) {
+            if (!sources.get(s)) {
+                for (int k = generator.getFirst(s); k < generator.getFirst(s + 1); k++) {
+                    if (sources.get(generator.getColumn(k))) {
+                        initial[generator.getColumn(k)] += steadyState[s] * generator.getRate(k);
+                    }
+                }
+            }
+        }
+        double[] chainInitial = chain.getInitialDistribution();
+        for (int attempt = 0; attempt < 3 && sum(initial) == 0; attempt++) {
+            for (int s = sources.nextSetBit(0); s >= 0; s = sources.nextSetBit(s + 1)) {
+                initial[s] = attempt == 0 ? steadyState[s] : attempt == 1 ? chainInitial[s] : 1;
+            }
+        }
+        double total = sum(initial);
+        for (int s = 0; s < n; s++) {
+            initial[s] /= total;
+        }
+        return initial;
+    }
+
+    /*
+     * Probability of reaching the targets from every state, or if times is
+     * true the mean time to reach them, by Gauss-Seidel iteration
+     */
+    private double[] solveAbsorption(GeneratorMatrix generator, BitSet targets, boolean times) throws InterruptedException {
+        int n = generator.getStateCount();
+        double[] x = new double[n];
+        if (!times) {
+            for (int s = targets.nextSetBit(0); s >= 0; s = targets.nextSetBit(s + 1)) {
+                x[s] = 1;
+            }
+        }
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            if (cancelled || Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            double change = 0;
+            double max = 0;
+            for (int s = 0; s < n; s++) {
+                if (targets.get(s) || generator.getExitRate(s) == 0) {
+                    continue;
+                }
+                double value = times ? 1 : 0;
+                for (int k = generator.getFirst(s); k < generator.getFirst(s + 1); k++) {
+                    value += generator.getRate(k) * x[generator.getColumn(k)];
+                }
+                value /= generator.getExitRate(s);
+                change = Math.max(change, Math.abs(value - x[s]));
+                max = Math.max(max, value);
+                x[s] = value;
+            }
+            if (change <= tolerance * Math.max(max, 1)) {
+                break;
+            }
+        }
+        return x;
+    }
+
+    /*
+     * Index of the first time at which F reaches the probability, or -1
+     */
+    private static int bracket(double[] cumulative, double probability) {
+        for (int i = 0; i < cumulative.length; i++) {
+            if (cumulative[i] >= probability) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static double interpolate(double[] times, double[] cumulative, double probability) {
+        int i = bracket(cumulative, probability);
+        if (i <= 0) {
+            return times[0];
+        }
+        double step = cumulative[i] - cumulative[i - 1];
+        if (step <= 0) {
+            return times[i];
+        }
+        return times[i - 1] + (times[i] - times[i - 1]) * (probability - cumulative[i - 1]) / step;
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double value = 0;
+        for (int i = 0; i < a.length; i++) {
+            value += a[i] * b[i];
+        }
+        return value;
+    }
+
+    private static double sum(double[] values) {
+        double total = 0;
+        for (double value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    /**
+     * Distribution of a passage time.
+     */
+    public static class Result {
+
+        private final double[] startDistribution;
+        private final double probability;
+        private final double mean;
+        private final double[] times;
+        private final double[] cumulative;
+        private final double[] percentiles;
+        private final double[] percentileTimes;
+        private final long elapsedTime;
+
+        Result(double[] startDistribution, double probability, double mean, double[] times, double[] cumulative,
+                double[] percentiles, double[] percentileTimes, long elapsedTime) {
+            this.startDistribution = startDistribution;
+            this.probability = probability;
+            this.mean = mean;
+            this.times = times;
+            this.cumulative = cumulative;
+            this.percentiles = percentiles;
+            this.percentileTimes = percentileTimes;
+            this.elapsedTime = elapsedTime;
+        }
+
+        /**
+         * Returns the probabilities of the states where the passages start.
+         */
+        public double[] getStartDistribution() {
+            return startDistribution.clone();
+        }
+
+        /**
+         * Returns the probability that the targets are reached at all.
+         */
+        public double getProbability() {
+            return probability;
+        }
+
+        /**
+         * Returns the mean passage time, infinite if the targets may never be
+         * reached.
+         */
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * Returns the times of the grid of the distribution function.
+         */
+        public double[] getTimes() {
+            return times.clone();
+        }
+
+        /**
+         * Returns the distribution function at the times of getTimes().
+         */
+        public double[] getCumulativeProbabilities() {
+            return cumulative.clone();
+        }
+
+        public double[] getPercentiles() {
+            return percentiles.clone();
+        }
+
+        /**
+         * Returns the time of every percentile, infinite if the targets are
+         * reached with a lower probability.
+         */
+        public double[] getPercentileTimes() {
+            return percentileTimes.clone();
+        }
+
+        /**
+         * Returns the duration of the analysis in milliseconds.
+         */
+        public long getElapsedTime() {
+            return elapsedTime;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.markov;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Iterative solver of the steady state distribution of a CTMC: the
+ * probability vector pi with pi Q = 0.
+ *
+ * Methods:
+ * <ul>
+ * <li>GAUSS_SEIDEL: pi_j = sum over i of pi_i q_ij / q_j, using the values
+ * already updated in the same sweep. Usually the fewest iterations. The
+ * sweeps are under-relaxed, halving the factor, whenever the changes of the
+ * iterations grow or stop decreasing, as they can oscillate on cyclic
+ * chains.</li>
+ * <li>SOR: Gauss-Seidel over-relaxed by the relaxation factor, which is
+ * moved towards 1 whenever the changes of the iterations grow or stop
+ * decreasing, as over-relaxation can diverge, and then under-relaxed as
+ * Gauss-Seidel.</li>
+ * <li>JACOBI: as Gauss-Seidel from the values of the previous iteration,
+ * damped by half to avoid oscillating on periodic chains.</li>
+ * <li>POWER: pi = pi (I + Q / lambda), with lambda above the largest exit
+ * rate; converges for every chain, slowly if the rates are stiff.</li>
+ * </ul>
+ * Jacobi and power iterations are products of the transposed generator and
+ * a vector, split over the threads of a ForkJoinPool by blocks of states.
+ * Gauss-Seidel and SOR sweeps are sequential. Chains with absorbing states
+ * are solved with the power method, whatever the chosen method.
+ *
+ * The iteration stops when the largest change of a probability, relative to
+ * the largest probability, falls below the tolerance. The change of an
+ * under-relaxed sweep is divided by the relaxation factor, and that of a
+ * damped Jacobi step doubled, so that damping does not stop the iteration
+ * early. The change of every iteration is kept, with the residual |pi Q| of
+ * the solution.
+ */
+public class SteadyStateSolver {
+
+    public enum Method {
+        GAUSS_SEIDEL, SOR, JACOBI, POWER
+    }
+
+    /*
+     * Number of states below which a block of the product is not split
+     */
+    private static final int SPLIT_STATES = 1 << 14;
+
+    /*
+     * Number of SOR iterations without a smaller change after which the
+     * relaxation factor is reduced
+     */
+    private static final int STALLED_ITERATIONS = 50;
+
+    /*
+     * Smallest under-relaxation factor of Gauss-Seidel
+     */
+    private static final double MIN_RELAXATION = 1.0 / 16;
+
+    private Method method = Method.GAUSS_SEIDEL;
+    private double tolerance = 1e-10;
+    private int maxIterations = 100000;
+    private double relaxation = 1.2;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private volatile boolean cancelled = false;
+    private int iterations = 0;
+    private double[] changes = new double[0];
+    private double residual = Double.NaN;
+    private boolean converged = false;
+    private long elapsedTime = 0;
+
+    public void setMethod(Method method) {
+        this.method = method;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Sets the largest relative change of an iteration at which the solution
+     * is accepted, 1e-10 by default.
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Sets the relaxation factor of SOR, between 0 and 2.
+     */
+    public void setRelaxation(double relaxation) {
+        this.relaxation = relaxation;
+    }
+
+    /**
+     * Sets the number of threads of the Jacobi and power iterations, by
+     * default the number of processors.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Stops a running solution, which then throws InterruptedException.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns the number of iterations of the last solution.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Returns the relative change of every iteration of the last solution.
+     */
+    public double[] getChanges() {
+        return Arrays.copyOf(changes, iterations);
+    }
+
+    /**
+     * Returns the largest absolute entry of pi Q for the last solution.
+     */
+    public double getResidual() {
+        return residual;
+    }
+
+    /**
+     * Returns false if the last solution stopped at the maximum number of
+     * iterations before reaching the tolerance.
+     */
+    public boolean hasConverged() {
+        return converged;
+    }
+
+    /**
+     * Returns the duration of the last solution in milliseconds.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Computes the steady state distribution, starting from the uniform one.
+     */
+    public double[] solve(GeneratorMatrix generator) throws InterruptedException {
+        double[] pi = new double[generator.getStateCount()];
+        Arrays.fill(pi, 1.0 / pi.length);
+        return solve(generator, pi);
+    }
+
+    /**
+     * Computes the steady state distribution.
+     *
+     * @param generator generator of the chain
+     * @param initial first approximation, it is overwritten by the solution
+     * @return the steady state distribution
+     * @throws InterruptedException if the solution was cancelled or the
+     * thread interrupted
+     */
+    public double[] solve(GeneratorMatrix generator, double[] initial) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        cancelled = false;
+        iterations = 0;
+        converged = false;
+        changes = new double[64];
+        int n = generator.getStateCount();
+        GeneratorMatrix incoming = generator.transpose();
+        Method used = method;
+        for (int j = 0; j < n; j++) {
+            if (generator.getExitRate(j) == 0) {
+                used = Method.POWER;
+            }
+        }
+        double[] pi = initial;
+        normalize(pi);
+        double[] next = used == Method.JACOBI || used == Method.POWER ? new double[n] : null;
+        double lambda = generator.getMaxExitRate() > 0 ? generator.getMaxExitRate() * 1.02 : 1;
+        double omega = used == Method.SOR ? relaxation : 1;
+        double best = Double.MAX_VALUE;
+        int stalled = 0;
+        ForkJoinPool pool = null;
+        try {
+            while (iterations < maxIterations) {
+                if (cancelled || Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                double change;
+                if (next == null) {
+                    // an under-relaxed sweep moves omega times the full step
+                    change = sweep(incoming, generator, pi, omega) / Math.min(omega, 1);
+                    if (change < best) {
+                        best = change;
+                        stalled = 0;
+                    } else if (change > 2 * best || ++stalled == STALLED_ITERATIONS) {
+                        if (omega > 1) {
+                            omega = omega - 1 > MIN_RELAXATION ? (omega + 1) / 2 : 1;
+                        } else {
+                            omega = Math.max(omega / 2, MIN_RELAXATION);
+                        }
+                        // compare the following sweeps with the new factor only
+                        best = change;
+                        stalled = 0;
+                    }
+                } else {
+                    if (pool == null && n > SPLIT_STATES && threads > 1) {
+                        pool = new ForkJoinPool(threads);
+                    }
+                    Product product = new Product(incoming, generator, pi, next, used == Method.POWER ? lambda : 0, 0, n);
+                    if (pool != null) {
+                        pool.invoke(product);
+                    } else {
+                        product.compute();
+                    }
+                    normalize(next);
+                    change = change(pi, next);
+                    if (used == Method.JACOBI) {
+                        change *= 2;
+                    }
+                    double[] swap = pi;
+                    pi = next;
+                    next = swap;
+                }
+                if (iterations == changes.length) {
+                    changes = Arrays.copyOf(changes, iterations * 2);
+                }
+                changes[iterations++] = change;
+                if (change < tolerance) {
+                    converged = true;
+                    break;
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+        if (pi != initial) {
+            System.arraycopy(pi, 0, initial, 0, n);
+            pi = initial;
+        }
+        residual = residual(generator, incoming, pi);
+        elapsedTime = System.currentTimeMillis() - start;
+        return pi;
+    }
+
+    /*
+     * One Gauss-Seidel (or SOR) sweep in place; returns the relative change.
+     */
+    private static double sweep(GeneratorMatrix incoming, GeneratorMatrix generator, double[] pi, double omega) {
+        double sum = 0;
+        double max = 0;
+        double maxChange = 0;
+        for (int j = 0; j < pi.length; j++) {
+            double inflow = 0;
+            for (int k = incoming.getFirst(j); k < incoming.getFirst(j + 1); k++) {
+                inflow += pi[incoming.getColumn(k)] * incoming.getRate(k);
+            }
+            double value = inflow / generator.getExitRate(j);
+            if (omega != 1) {
+                value = Math.max(0, (1 - omega) * pi[j] + omega * value);
+            }
+            maxChange = Math.max(maxChange, Math.abs(value - pi[j]));
+            pi[j] = value;
+            sum += value;
+            max = Math.max(max, value);
+        }
+        for (int j = 0; j < pi.length; j++) {
+            pi[j] /= sum;
+        }
+        return max == 0 ? 0 : maxChange / max;
+    }
+
+    /*
+     * Product of a block of the transposed generator and pi: a power
+     * iteration step if lambda is not 0, otherwise a damped Jacobi step.
+     */
+    private static final class Product extends RecursiveAction {
+
+        private final GeneratorMatrix incoming;
+        private final GeneratorMatrix generator;
+        private final double[] pi;
+        private final double[] next;
+        private final double lambda;
+        private final int from;
+        private final int to;
+
+        Product(GeneratorMatrix incoming, GeneratorMatrix generator, double[] pi, double[] next, double lambda, int from, int to) {
+            this.incoming = incoming;
+            this.generator = generator;
+            this.pi = pi;
+            this.next = next;
+            this.lambda = lambda;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SPLIT_STATES && getPool() != null) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Product(incoming, generator, pi, next, lambda, from, middle),
+                        new Product(incoming, generator, pi, next, lambda, middle, to));
+                return;
+            }
+            for (int j = from; j < to; j++) {
+                double inflow = 0;
+                for (int k = incoming.getFirst(j); k < incoming.getFirst(j + 1); k++) {
+                    inflow += pi[incoming.getColumn(k)] * incoming.getRate(k);
+                }
+                if (lambda != 0) {
+                    next[j] = pi[j] + (inflow - pi[j] * generator.getExitRate(j)) / lambda;
+                } else {
+                    next[j] = (pi[j] + inflow / generator.getExitRate(j)) / 2;
+                }
+            }
+        }
+    }
+
+    private static void normalize(double[] pi) {
+        double sum = 0;
+        for (double value : pi) {
+            sum += value;
+        }
+        for (int j = 0; j < pi.length; j++) {
+            pi[j] /= sum;
+        }
+    }
+
+    private static double change(double[] previous, double[] pi) {
+        double max = 0;
+        double maxChange = 0;
+        for (int j = 0; j < pi.length; j++) {
+            maxChange = Math.max(maxChange, Math.abs(pi[j] - previous[j]));
+            max = Math.max(max, pi[j]);
+        }
+        return max == 0 ? 0 : maxChange / max;
+    }
+
+    private static double residual(GeneratorMatrix generator, GeneratorMatrix incoming, double[] pi) {
+        double max = 0;
+        for (int j = 0; j < pi.length; j++) {
+            double value = -pi[j] * generator.getExitRate(j);
+            for (int k = incoming.getFirst(j); k < incoming.getFirst(j + 1); k++) {
+                value += pi[incoming.getColumn(k)] * incoming.getRate(k);
+            }
+            max = Math.max(max, Math.abs(value));
+        }
+        return max;
+    }
+}
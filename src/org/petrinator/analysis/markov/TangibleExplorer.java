@@ -0,0 +1,516 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.markov;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.petrinator.analysis.markov.MarkovChain.Absorption;
+import org.petrinator.analysis.statespace.CompactStateStore;
+import org.petrinator.analysis.statespace.DiskStateStore;
+import org.petrinator.analysis.statespace.StateSpaceTooBigException;
+import org.petrinator.analysis.statespace.StateStore;
+import org.petrinator.petrinet.CompiledNet;
+import org.petrinator.petrinet.PetriNet;
+
+/**
+ * Explores the tangible markings of a GSPN and builds its MarkovChain
+ * directly, without the reachability graph. A timed firing leading to a
+ * vanishing marking is replaced by the distribution of the tangible
+ * markings the immediate firings lead to (its absorption), which is
+ * computed the first time the vanishing marking is reached and kept for the
+ * rest of the exploration. Only the vanishing markings themselves are
+ * stored besides the tangible ones, no edge from or to them.
+ *
+ * The vanishing markings reachable from each other by immediate firings are
+ * found with Tarjan's algorithm. A set of them with no way out is a timeless
+ * trap; otherwise the absorptions of its markings are solved together by
+ * Gauss-Seidel iteration, so loops of immediate transitions that eventually
+ * lead to a tangible marking are allowed.
+ */
+public class TangibleExplorer {
+
+    /*
+     * Largest change of the absorptions of a loop of vanishing markings for
+     * which the iteration stops
+     */
+    private static final double TOLERANCE = 1e-13;
+    private static final int MAX_ITERATIONS = 100000;
+
+    private final CompiledNet net;
+    private final int[] initialMarking;
+    private final int[] immediate;
+    private final int[] timed;
+    private int maxStates = Integer.MAX_VALUE;
+    private File spillDirectory = null;
+    private long memoryBudget = 0;
+    private volatile boolean cancelled = false;
+    private long elapsedTime = 0;
+    private int vanishingCount = 0;
+
+    private StateStore tangible;
+    private StateStore vanishing;
+    private List<Absorption> absorptions;
+    private Map<Integer, Branches> pending;
+    private int[] index;
+    private int[] lowLink;
+    private int[] stack;
+    private int stackSize;
+    private int counter;
+
+    /**
+     * Creates an explorer starting from the initial marking of a Petri net.
+     */
+    public TangibleExplorer(PetriNet petriNet) {
+        this(petriNet.getCompiledNet(), petriNet.getInitialMarking().getTokenArray());
+    }
+
+    /**
+     * @param net compiled net to explore
+     * @param initialMarking tokens indexed by place, copied
+     */
+    public TangibleExplorer(CompiledNet net, int[] initialMarking) {
+        this.net = net;
+        this.initialMarking = initialMarking.clone();
+        int immediateCount = 0;
+        for (int t = 0; t < net.getTransitionCount(); t++) {
+            if (!net.getTransition(t).isTimed()) {
+                immediateCount++;
+            }
+        }
+        immediate = new int[immediateCount];
+        timed = new int[net.getTransitionCount() - immediateCount];
+        int i = 0;
+        int j = 0;
+        for (int t = 0; t < net.getTransitionCount(); t++) {
+            if (net.getTransition(t).isTimed()) {
+                timed[j++] = t;
+            } else {
+                immediate[i++] = t;
+            }
+        }
+    }
+
+    /**
+     * Creates the explorer of a Petri net chosen by the user, spilling the
+     * markings to the tmp directory as StateSpaceExplorer.create() does.
+     */
+    public static TangibleExplorer create(PetriNet petriNet) {
+        TangibleExplorer explorer = new TangibleExplorer(petriNet);
+        explorer.setSpillDirectory(new File("tmp"), Runtime.getRuntime().maxMemory() / 4);
+        return explorer;
+    }
+
+    public CompiledNet getCompiledNet() {
+        return net;
+    }
+
+    public int getMaxStates() {
+        return maxStates;
+    }
+
+    /**
+     * Sets the largest number of tangible markings, and of vanishing
+     * markings, to be explored.
+     */
+    public void setMaxStates(int maxStates) {
+        this.maxStates = maxStates;
+    }
+
+    /**
+     * Makes the exploration keep at most about memoryBudget bytes of
+     * markings in the heap, half for the tangible and half for the vanishing
+     * ones, the rest going to memory mapped files in the specified directory
+     * (see DiskStateStore).
+     *
+     * @param directory where the files are created, null to keep everything
+     * in the heap
+     */
+    public void setSpillDirectory(File directory, long memoryBudget) {
+        this.spillDirectory = directory;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Stops a running exploration, which throws InterruptedException.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns the duration of the last exploration in milliseconds.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Returns the number of vanishing markings met by the last exploration.
+     */
+    public int getVanishingCount() {
+        return vanishingCount;
+    }
+
+    private StateStore createStore() {
+        if (spillDirectory == null) {
+            return new CompactStateStore(net.getPlaceCount());
+        }
+        return new DiskStateStore(net.getPlaceCount(), spillDirectory, memoryBudget / 2);
+    }
+
+    /**
+     * Explores the tangible markings.
+     *
+     * @return the Markov chain of the tangible markings
+     * @throws StateSpaceTooBigException if there are more than getMaxStates()
+     * tangible or vanishing markings
+     * @throws TimelessTrapException if immediate transitions can fire in a
+     * loop they cannot leave
+     * @throws InterruptedException if cancel() was called
+     */
+    public MarkovChain explore() throws StateSpaceTooBigException, TimelessTrapException, InterruptedException {
+        cancelled = false;
+        long start = System.currentTimeMillis();
+        tangible = createStore();
+        vanishing = createStore();
+        absorptions = new ArrayList<Absorption>();
+        pending = new HashMap<Integer, Branches>();
+        index = new int[0];
+        lowLink = new int[0];
+        stack = new int[16];
+        stackSize = 0;
+        counter = 0;
+        try {
+            return search();
+        } finally {
+            vanishingCount = vanishing.size();
+            vanishing = null;
+            absorptions = null;
+            pending = null;
+            index = null;
+            lowLink = null;
+            stack = null;
+            tangible = null;
+            elapsedTime = System.currentTimeMillis() - start;
+        }
+    }
+
+    private MarkovChain search() throws StateSpaceTooBigException, TimelessTrapException, InterruptedException {
+        int[] marking = initialMarking.clone();
+        int[] next = new int[net.getPlaceCount()];
+        Absorption initialAbsorption = null;
+        if (isVanishing(marking)) {
+            initialAbsorption = absorb(marking);
+        } else {
+            addTangible(marking);
+        }
+        GeneratorMatrix.Builder builder = new GeneratorMatrix.Builder();
+        for (int state = 0; state < tangible.size(); state++) {
+            if (cancelled) {
+                throw new InterruptedException("State space exploration cancelled");
+            }
+            tangible.get(state, marking);
+            builder.startRow();
+            for (int t : timed) {
+                if (net.isEnabled(t, marking)) {
+                    System.arraycopy(marking, 0, next, 0, marking.length);
+                    net.fire(t, next);
+                    double rate = net.getTransition(t).getRate();
+                    if (isVanishing(next)) {
+                        Absorption absorption = absorb(next);
+                        for (int k = 0; k < absorption.states.length; k++) {
+                            builder.add(absorption.states[k], rate * absorption.probabilities[k]);
+                        }
+                    } else {
+                        builder.add(addTangible(next), rate);
+                    }
+                }
+            }
+        }
+        double[] initial = new double[tangible.size()];
+        if (initialAbsorption == null) {
+            initial[0] = 1;
+        } else {
+            for (int k = 0; k < initialAbsorption.states.length; k++) {
+                initial[initialAbsorption.states[k]] = initialAbsorption.probabilities[k];
+            }
+        }
+        return new MarkovChain(net, tangible, builder.build(), initial);
+    }
+
+    private boolean isVanishing(int[] marking) {
+        for (int t : immediate) {
+            if (net.isEnabled(t, marking)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int addTangible(int[] marking) throws StateSpaceTooBigException {
+        int state = tangible.add(marking);
+        if (state < 0) {
+            return -state - 1;
+        }
+        if (tangible.size() > maxStates) {
+            throw new StateSpaceTooBigException(maxStates);
+        }
+        return state;
+    }
+
+    /*
+     * Number of a vanishing marking, which is stored with no absorption and
+     * no Tarjan index when it is new
+     */
+    private int addVanishing(int[] marking) throws StateSpaceTooBigException {
+        int state = vanishing.add(marking);
+        if (state < 0) {
+            return -state - 1;
+        }
+        if (vanishing.size() > maxStates) {
+            throw new StateSpaceTooBigException(maxStates);
+        }
+        absorptions.add(null);
+        if (state >= index.length) {
+            int length = Math.max(16, index.length * 2);
+            index = Arrays.copyOf(index, length);
+            lowLink = Arrays.copyOf(lowLink, length);
+            Arrays.fill(index, state, length, -1);
+        }
+        return state;
+    }
+
+    /*
+     * Distribution of the tangible markings reached from a vanishing one
+     */
+    private Absorption absorb(int[] marking) throws StateSpaceTooBigException, TimelessTrapException {
+        int state = addVanishing(marking);
+        if (absorptions.get(state) == null) {
+            connect(state, marking.clone());
+        }
+        return absorptions.get(state);
+    }
+
+    /*
+     * Tarjan's search from a vanishing marking with no absorption yet, with
+     * an explicit call stack as the chains of immediate firings can be long.
+     * The markings on the stack of Tarjan's algorithm are exactly those
+     * visited but not absorbed.
+     */
+    private void connect(int root, int[] marking) throws StateSpaceTooBigException, TimelessTrapException {
+        int[] calls = new int[16];
+        int[] positions = new int[16];
+        int depth = 0;
+        visit(root, marking);
+        calls[depth] = root;
+        positions[depth++] = 0;
+        while (depth > 0) {
+            int state = calls[depth - 1];
+            Branches branches = pending.get(state);
+            if (positions[depth - 1] < branches.vanishing.length) {
+                int w = branches.vanishing[positions[depth - 1]++];
+                if (absorptions.get(w) != null) {
+                    continue;
+                }
+                if (index[w] < 0) {
+                    vanishing.get(w, marking);
+                    visit(w, marking);
+                    if (depth == calls.length) {
+                        calls = Arrays.copyOf(calls, depth * 2);
+                        positions = Arrays.copyOf(positions, depth * 2);
+                    }
+                    calls[depth] = w;
+                    positions[depth++] = 0;
+                } else {
+                    lowLink[state] = Math.min(lowLink[state], index[w]);
+                }
+                continue;
+            }
+            depth--;
+            if (depth > 0) {
+                int caller = calls[depth - 1];
+                lowLink[caller] = Math.min(lowLink[caller], lowLink[state]);
+            }
+            if (lowLink[state] == index[state]) {
+                int bottom = stackSize;
+                do {
+                    bottom--;
+                } while (stack[bottom] != state);
+                int[] component = Arrays.copyOfRange(stack, bottom, stackSize);
+                stackSize = bottom;
+                solve(component);
+                for (int w : component) {
+                    pending.remove(w);
+                }
+            }
+        }
+    }
+
+    private void visit(int state, int[] marking) throws StateSpaceTooBigException {
+        index[state] = counter;
+        lowLink[state] = counter++;
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+        }
+        stack[stackSize++] = state;
+        pending.put(state, branches(marking));
+    }
+
+    /*
+     * Immediate firings of a vanishing marking, with their probabilities
+     */
+    private Branches branches(int[] marking) throws StateSpaceTooBigException {
+        double weights = 0;
+        for (int t : immediate) {
+            if (net.isEnabled(t, marking)) {
+                weights += net.getTransition(t).getRate();
+            }
+        }
+        Map<Integer, Double> tangibleTargets = new HashMap<Integer, Double>();
+        Map<Integer, Double> vanishingTargets = new HashMap<Integer, Double>();
+        int[] next = new int[marking.length];
+        for (int t : immediate) {
+            if (net.isEnabled(t, marking)) {
+                System.arraycopy(marking, 0, next, 0, marking.length);
+                net.fire(t, next);
+                double probability = net.getTransition(t).getRate() / weights;
+                if (isVanishing(next)) {
+                    add(vanishingTargets, addVanishing(next), probability);
+                } else {
+                    add(tangibleTargets, addTangible(next), probability);
+                }
+            }
+        }
+        return new Branches(tangibleTargets, vanishingTargets);
+    }
+
+    /*
+     * Sets the absorptions of a strongly connected set of vanishing markings,
+     * those it leads to being already absorbed
+     */
+    private void solve(int[] component) throws TimelessTrapException {
+        Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+        for (int i = 0; i < component.length; i++) {
+            positions.put(component[i], i);
+        }
+        List<Map<Integer, Double>> exits = new ArrayList<Map<Integer, Double>>(component.length);
+        boolean leaves = false;
+        boolean loops = component.length > 1;
+        for (int i = 0; i < component.length; i++) {
+            Branches branches = pending.get(component[i]);
+            Map<Integer, Double> exit = new HashMap<Integer, Double>();
+            exits.add(exit);
+            for (int k = 0; k < branches.tangible.length; k++) {
+                add(exit, branches.tangible[k], branches.tangibleProbabilities[k]);
+            }
+            for (int k = 0; k < branches.vanishing.length; k++) {
+                Absorption next = positions.containsKey(branches.vanishing[k]) ? null : absorptions.get(branches.vanishing[k]);
+                if (next == null) {
+                    loops = true;
+                    continue;
+                }
+                for (int j = 0; j < next.states.length; j++) {
+                    add(exit, next.states[j], branches.vanishingProbabilities[k] * next.probabilities[j]);
+                }
+            }
+            leaves |= !exit.isEmpty();
+        }
+        if (!leaves) {
+            throw new TimelessTrapException();
+        }
+        if (!loops) {
+            absorptions.set(component[0], new Absorption(exits.get(0)));
+            return;
+        }
+        List<Map<Integer, Double>> reached = new ArrayList<Map<Integer, Double>>(component.length);
+        for (int i = 0; i < component.length; i++) {
+            reached.add(new HashMap<Integer, Double>());
+        }
+        double change;
+        int iterations = 0;
+        do {
+            change = 0;
+            for (int i = 0; i < component.length; i++) {
+                Map<Integer, Double> updated = new HashMap<Integer, Double>(exits.get(i));
+                Branches branches = pending.get(component[i]);
+                for (int k = 0; k < branches.vanishing.length; k++) {
+                    Integer position = positions.get(branches.vanishing[k]);
+                    if (position != null) {
+                        for (Map.Entry<Integer, Double> entry : reached.get(position).entrySet()) {
+                            add(updated, entry.getKey(), branches.vanishingProbabilities[k] * entry.getValue());
+                        }
+                    }
+                }
+                for (Map.Entry<Integer, Double> entry : updated.entrySet()) {
+                    Double previous = reached.get(i).get(entry.getKey());
+                    change = Math.max(change, Math.abs(entry.getValue() - (previous == null ? 0 : previous)));
+                }
+                reached.set(i, updated);
+            }
+        } while (change > TOLERANCE && ++iterations < MAX_ITERATIONS);
+        for (int i = 0; i < component.length; i++) {
+            double total = 0;
+            for (double probability : reached.get(i).values()) {
+                total += probability;
+            }
+            for (Map.Entry<Integer, Double> entry : reached.get(i).entrySet()) {
+                entry.setValue(entry.getValue() / total);
+            }
+            absorptions.set(component[i], new Absorption(reached.get(i)));
+        }
+    }
+
+    private static void add(Map<Integer, Double> reached, int state, double probability) {
+        Double previous = reached.get(state);
+        reached.put(state, previous == null ? probability : previous + probability);
+    }
+
+    /*
+     * Tangible and vanishing markings reached by one immediate firing
+     */
+    private static final class Branches {
+
+        final int[] tangible;
+        final double[] tangibleProbabilities;
+        final int[] vanishing;
+        final double[] vanishingProbabilities;
+
+        Branches(Map<Integer, Double> tangibleTargets, Map<Integer, Double> vanishingTargets) {
+            tangible = new int[tangibleTargets.size()];
+            tangibleProbabilities = new double[tangibleTargets.size()];
+            int k = 0;
+            for (Map.Entry<Integer, Double> entry : tangibleTargets.entrySet()) {
+                tangible[k] = entry.getKey();
+                tangibleProbabilities[k++] = entry.getValue();
+            }
+            vanishing = new int[vanishingTargets.size()];
+            vanishingProbabilities = new double[vanishingTargets.size()];
+            k = 0;
+            for (Map.Entry<Integer, Double> entry : vanishingTargets.entrySet()) {
+                vanishing[k] = entry.getKey();
+                vanishingProbabilities[k++] = entry.getValue();
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.markov;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Transient solver of a CTMC by uniformization: the distribution at time t
+ * is the sum over k of Poisson(q t, k) v P^k, where v is the initial
+ * distribution, q is above the largest exit rate and P = I + Q / q. The
+ * Poisson weights are truncated as by Fox and Glynn, so that at most the
+ * tolerance of the probability is left out.
+ *
+ * Any number of time points is solved in one pass: the vectors v P^k are
+ * computed once, up to the largest right truncation point, and added to the
+ * distribution of every time point whose window contains k. The products
+ * with P and the additions are split over the threads of a ForkJoinPool by
+ * blocks of states. When v P^k stops changing the remaining weights of
+ * every time point are given to it and the iteration stops early.
+ */
+public class TransientSolver {
+
+    /*
+     * Number of states below which a block of a step is not split
+     */
+    private static final int SPLIT_STATES = 1 << 14;
+
+    private double tolerance = 1e-10;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private volatile boolean cancelled = false;
+    private int iterations = 0;
+    private double uniformizationRate = 0;
+    private boolean steadyStateDetected = false;
+    private long elapsedTime = 0;
+
+    /**
+     * Sets the largest probability left out by the truncation of the Poisson
+     * weights, 1e-10 by default.
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Sets the number of threads of the steps, by default the number of
+     * processors.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Stops a running solution, which then throws InterruptedException.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns the number of products with P of the last solution.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Returns the rate q of the last solution.
+     */
+    public double getUniformizationRate() {
+        return uniformizationRate;
+    }
+
+    /**
+     * Returns true if the last solution stopped early because the
+     * distribution stopped changing.
+     */
+    public boolean isSteadyStateDetected() {
+        return steadyStateDetected;
+    }
+
+    /**
+     * Returns the duration of the last solution in milliseconds.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Computes the distribution of the states at one time.
+     */
+    public double[] solve(GeneratorMatrix generator, double[] initial, double time) throws InterruptedException {
+        return solve(generator, initial, new double[]{time})[0];
+    }
+
+    /**
+     * Computes the distributions of the states at several times.
+     *
+     * @param generator generator of the chain
+     * @param initial distribution at time 0, it is not modified
+     * @param times non negative times, in any order
+     * @return the distribution at every time, indexed like times
+     * @throws InterruptedException if the solution was cancelled or the
+     * thread interrupted
+     */
+    public double[][] solve(GeneratorMatrix generator, double[] initial, double[] times) throws InterruptedException {
+        double[][] distributions = new double[times.length][generator.getStateCount()];
+        run(generator, initial, times, distributions, null, null);
+        return distributions;
+    }
+
+    /**
+     * Computes the expected reward at several times, the sum over the states
+     * of their probability by their reward. Only one distribution is kept,
+     * whatever the number of times.
+     *
+     * @param generator generator of the chain
+     * @param initial distribution at time 0, it is not modified
+     * @param times non negative times, in any order
+     * @param reward reward of every state, e.g. 1 for the states of a set
+     * and 0 for the others to get the probability of the set
+     * @return the expected reward at every time, indexed like times
+     * @throws InterruptedException if the solution was cancelled or the
+     * thread interrupted
+     */
+    public double[] expectedReward(GeneratorMatrix generator, double[] initial, double[] times, double[] reward)
+            throws InterruptedException {
+        double[] rewards = new double[times.length];
+        run(generator, initial, times, new double[times.length][], reward, rewards);
+        return rewards;
+    }
+
+    /*
+     * The uniformization pass: adds the weighted vectors to the distributions
+     * of the times, or if reward is not null their weighted rewards to rewards
+     */
+    private void run(GeneratorMatrix generator, double[] initial, double[] times, double[][] distributions,
+            double[] reward, double[] rewards) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        cancelled = false;
+        iterations = 0;
+        steadyStateDetected = false;
+        int n = generator.getStateCount();
+        uniformizationRate = generator.getMaxExitRate() > 0 ? generator.getMaxExitRate() * 1.02 : 1;
+        FoxGlynn[] poisson = new FoxGlynn[times.length];
+        int right = 0;
+        for (int i = 0; i < times.length; i++) {
+            if (times[i] < 0) {
+                throw new IllegalArgumentException("Negative time: " + times[i]);
+            }
+            poisson[i] = new FoxGlynn(uniformizationRate * times[i], tolerance);
+            right = Math.max(right, poisson[i].getRight());
+        }
+        GeneratorMatrix incoming = generator.transpose();
+        double[] v = initial.clone();
+        double[] next = new double[n];
+        accumulate(v, poisson, distributions, reward, rewards, 0);
+        ForkJoinPool pool = null;
+        try {
+            for (int k = 1; k <= right; k++) {
+                if (cancelled || Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                List<double[]> targets = new ArrayList<double[]>();
+                List<Double> weights = new ArrayList<Double>();
+                if (reward == null) {
+                    for (int i = 0; i < times.length; i++) {
+                        if (poisson[i].getLeft() <= k && k <= poisson[i].getRight()) {
+                            targets.add(distributions[i]);
+                            weights.add(poisson[i].getWeight(k));
+                        }
+                    }
+                }
+                Step step = new Step(incoming, generator, uniformizationRate, v, next,
+                        targets.toArray(new double[targets.size()][]), unbox(weights), 0, n);
+                if (pool == null && n > SPLIT_STATES && threads > 1) {
+                    pool = new ForkJoinPool(threads);
+                }
+                double change = pool != null ? pool.invoke(step) : step.compute();
+                iterations++;
+                double[] swap = v;
+                v = next;
+                next = swap;
+                if (reward != null) {
+                    accumulate(v, poisson, null, reward, rewards, k);
+                }
+                /*
+                 * On slowly mixing chains the distance to the steady state is
+                 * much larger than the change of one step, hence the margin
+                 */
+                if (change < tolerance / 1000) {
+                    steadyStateDetected = true;
+                    double value = reward == null ? 0 : dot(v, reward);
+                    for (int i = 0; i < times.length; i++) {
+                        double remaining = 0;
+                        for (int j = Math.max(k + 1, poisson[i].getLeft()); j <= poisson[i].getRight(); j++) {
+                            remaining += poisson[i].getWeight(j);
+                        }
+                        if (reward != null) {
+                            rewards[i] += remaining * value;
+                        } else {
+                            for (int s = 0; s < n; s++) {
+                                distributions[i][s] += remaining * v[s];
+                            }
+                        }
+                    }
+                    break;
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+        elapsedTime = System.currentTimeMillis() - start;
+    }
+
+    /*
+     * Adds the k-th vector, or its reward, weighted, to the results of the
+     * times whose window contains k
+     */
+    private static void accumulate(double[] v, FoxGlynn[] poisson, double[][] distributions, double[] reward,
+            double[] rewards, int k) {
+        double value = reward == null ? 0 : dot(v, reward);
+        for (int i = 0; i < poisson.length; i++) {
+            if (poisson[i].getLeft() <= k && k <= poisson[i].getRight()) {
+                double weight = poisson[i].getWeight(k);
+                if (reward != null) {
+                    rewards[i] += weight * value;
+                } else {
+                    for (int s = 0; s < v.length; s++) {
+                        distributions[i][s] += weight * v[s];
+                    }
+                }
+            }
+        }
+    }
+
+    private static double dot(double[] v, double[] reward) {
+        double value = 0;
+        for (int s = 0; s < v.length; s++) {
+            value += v[s] * reward[s];
+        }
+        return value;
+    }
+
+    private static double[] unbox(List<Double> values) {
+        double[] array = new double[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    /*
+     * Product of a block of v and P, added with its weight to the
+     * distribution of every time point; returns the largest change.
+     */
+    private static final class Step extends RecursiveTask<Double> {
+
+        private final GeneratorMatrix incoming;
+        private final GeneratorMatrix generator;
+        private final double rate;
+        private final double[] v;
+        private final double[] next;
+        private final double[][] targets;
+        private final double[] weights;
+        private final int from;
+        private final int to;
+
+        Step(GeneratorMatrix incoming, GeneratorMatrix generator, double rate, double[] v, double[] next,
+                double[][] targets, double[] weights, int from, int to) {
+            this.incoming = incoming;
+            this.generator = generator;
+            this.rate = rate;
+            this.v = v;
+            this.next = next;
+            this.targets = targets;
+            this.weights = weights;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from > SPLIT_STATES && getPool() != null) {
+                int middle = (from + to) >>> 1;
+                Step first = new Step(incoming, generator, rate, v, next, targets, weights, from, middle);
+                Step second = new Step(incoming, generator, rate, v, next, targets, weights, middle, to);
+                first.fork();
+                double change = second.compute();
+                return Math.max(change, first.join());
+            }
+            double change = 0;
+            for (int j = from; j < to; j++) {
+                double inflow = 0;
+                for (int k = incoming.getFirst(j); k < incoming.getFirst(j + 1); k++) {
+                    inflow += v[incoming.getColumn(k)] * incoming.getRate(k);
+                }
+                double value = v[j] + (inflow - v[j] * generator.getExitRate(j)) / rate;
+                next[j] = value;
+                change = Math.max(change, Math.abs(value - v[j]));
+                for (int i = 0; i < targets.length; i++) {
+                    targets[i][j] += weights[i] * value;
+                }
+            }
+            return change;
+        }
+    }
+}
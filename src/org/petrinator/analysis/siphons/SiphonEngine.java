@@ -0,0 +1,474 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.siphons;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.petrinator.petrinet.CompiledNet;
+
+/**
+ * Computes the minimal siphons or the minimal traps of a net. A siphon is a
+ * nonempty set of places S whose input transitions are all output
+ * transitions of S (once unmarked, it stays unmarked); a trap is a siphon of
+ * the reversed net (once marked, it stays marked). Inhibitor and reset arcs
+ * are not taken into account.
+ *
+ * The minimal siphons are enumerated by the problem decomposition of
+ * Cordone, Ferrarini and Piroddi: a problem is to find the minimal siphons
+ * containing a set of places I and none of a set E. Its largest siphon is
+ * computed in linear time, then reduced to a siphon S minimal among those
+ * containing I, and the remaining siphons of the problem are split into
+ * disjoint subproblems, the k-th one excluding the k-th place of S \ I and
+ * including the places before it. A problem whose largest siphon does not
+ * contain I is pruned. The subproblems are independent and solved in
+ * parallel by the threads of a ForkJoinPool.
+ *
+ * Place sets are bitsets packed in long[] words.
+ */
+public class SiphonEngine {
+
+    private static final Comparator<BitSet> PLACE_ORDER = new Comparator<BitSet>() {
+        public int compare(BitSet a, BitSet b) {
+            int i = a.nextSetBit(0);
+            int j = b.nextSetBit(0);
+            while (i == j && i >= 0) {
+                i = a.nextSetBit(i + 1);
+                j = b.nextSetBit(j + 1);
+            }
+            if (i < 0 || j < 0) {
+                return i < 0 ? (j < 0 ? 0 : -1) : 1;
+            }
+            return i - j;
+        }
+    };
+
+    private final int placeCount;
+    private final int words;
+    // for siphons: the input places of every transition, its output places,
+    // and the transitions of which every place is an input place; reversed
+    // for traps
+    private final int[][] inputs;
+    private final int[][] outputs;
+    private final int[][] consumers;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int maxSiphons = 1 << 20;
+    private volatile boolean cancelled = false;
+    private long elapsedTime = 0;
+
+    private SiphonEngine(CompiledNet net, boolean traps) {
+        placeCount = net.getPlaceCount();
+        words = (placeCount + 63) >>> 6;
+        int transitionCount = net.getTransitionCount();
+        inputs = new int[transitionCount][];
+        outputs = new int[transitionCount][];
+        for (int t = 0; t < transitionCount; t++) {
+            inputs[t] = traps ? net.getOutputPlaces(t) : net.getInputPlaces(t);
+            outputs[t] = traps ? net.getInputPlaces(t) : net.getOutputPlaces(t);
+        }
+        int[] degree = new int[placeCount];
+        for (int[] places : inputs) {
+            for (int p : places) {
+                degree[p]++;
+            }
+        }
+        consumers = new int[placeCount][];
+        for (int p = 0; p < placeCount; p++) {
+            consumers[p] = new int[degree[p]];
+            degree[p] = 0;
+        }
+        for (int t = 0; t < transitionCount; t++) {
+            for (int p : inputs[t]) {
+                consumers[p][degree[p]++] = t;
+            }
+        }
+    }
+
+    /**
+     * Returns the engine computing the minimal siphons of a net.
+     */
+    public static SiphonEngine forSiphons(CompiledNet net) {
+        return new SiphonEngine(net, false);
+    }
+
+    /**
+     * Returns the engine computing the minimal traps of a net.
+     */
+    public static SiphonEngine forTraps(CompiledNet net) {
+        return new SiphonEngine(net, true);
+    }
+
+    /**
+     * Sets the number of threads solving the subproblems, by default the
+     * number of processors.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the number of siphons after which the computation is abandoned.
+     */
+    public void setMaxSiphons(int maxSiphons) {
+        this.maxSiphons = maxSiphons;
+    }
+
+    /**
+     * Stops a running computation, which then throws InterruptedException.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns the duration of the last computation in milliseconds.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Computes the minimal siphons (traps).
+     *
+     * @return the sets of places of the minimal siphons, in lexicographic
+     * order
+     * @throws TooManySiphonsException if there are more than the maximum
+     * number of minimal siphons
+     * @throws InterruptedException if the computation was cancelled or the
+     * thread interrupted
+     */
+    public List<BitSet> compute() throws TooManySiphonsException, InterruptedException {
+        ConcurrentLinkedQueue<long[]> found = new ConcurrentLinkedQueue<long[]>();
+        search(found, null);
+        List<BitSet> siphons = new ArrayList<BitSet>(found.size());
+        for (long[] siphon : found) {
+            siphons.add(BitSet.valueOf(siphon));
+        }
+        Collections.sort(siphons, PLACE_ORDER);
+        return siphons;
+    }
+
+    /**
+     * Looks for a siphon without tokens in a marking. Such a siphon exists
+     * if and only if the largest siphon in the unmarked places is not empty,
+     * so no enumeration is needed. On an engine for traps it looks for an
+     * unmarked trap.
+     *
+     * @param marking tokens indexed by place
+     * @return the places of a minimal unmarked siphon, or null if there is
+     * none
+     */
+    public BitSet findUnmarked(int[] marking) {
+        long[] unmarked = new long[words];
+        for (int p = 0; p < placeCount; p++) {
+            if (marking[p] == 0) {
+                unmarked[p >>> 6] |= 1L << p;
+            }
+        }
+        long[] siphon = largest(unmarked);
+        if (isEmpty(siphon)) {
+            return null;
+        }
+        return BitSet.valueOf(reduce(siphon, new long[words]));
+    }
+
+    /**
+     * Looks for a minimal siphon which contains no trap marked in a marking,
+     * stopping at the first one. If there is none the net is deadlock free
+     * when it is free choice (Commoner's theorem), and has live markings for
+     * several other classes. Only meaningful on an engine for siphons.
+     *
+     * @param marking tokens indexed by place
+     * @return the places of the siphon, or null if every minimal siphon
+     * contains a marked trap
+     * @throws TooManySiphonsException if there are more than the maximum
+     * number of minimal siphons
+     * @throws InterruptedException if the computation was cancelled or the
+     * thread interrupted
+     */
+    public BitSet findWithoutMarkedTrap(final int[] marking) throws TooManySiphonsException, InterruptedException {
+        Condition condition = new Condition() {
+            public boolean holds(long[] siphon) {
+                long[] trap = largestTrap(siphon);
+                for (int p = nextSetBit(trap, 0); p >= 0; p = nextSetBit(trap, p + 1)) {
+                    if (marking[p] > 0) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+        long[] siphon = search(new ConcurrentLinkedQueue<long[]>(), condition);
+        return siphon == null ? null : BitSet.valueOf(siphon);
+    }
+
+    /*
+     * Minimal siphon accepted by the search of findWithoutMarkedTrap()
+     */
+    private interface Condition {
+
+        boolean holds(long[] siphon);
+    }
+
+    /*
+     * Enumerates the minimal siphons into found, or until one satisfying the
+     * condition is found.
+     */
+    private long[] search(ConcurrentLinkedQueue<long[]> found, Condition condition) throws TooManySiphonsException, InterruptedException {
+        long start = System.currentTimeMillis();
+        cancelled = false;
+        Search search = new Search(found, condition);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new Problem(search, new long[words], new long[words]));
+        } finally {
+            pool.shutdownNow();
+            elapsedTime = System.currentTimeMillis() - start;
+        }
+        if (search.tooMany) {
+            throw new TooManySiphonsException(maxSiphons);
+        }
+        if (search.result.get() == null && (cancelled || Thread.currentThread().isInterrupted())) {
+            throw new InterruptedException();
+        }
+        return search.result.get();
+    }
+
+    private final class Search {
+
+        final ConcurrentLinkedQueue<long[]> found;
+        final Condition condition;
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicReference<long[]> result = new AtomicReference<long[]>();
+        volatile boolean tooMany = false;
+
+        Search(ConcurrentLinkedQueue<long[]> found, Condition condition) {
+            this.found = found;
+            this.condition = condition;
+        }
+
+        boolean isStopped() {
+            return cancelled || tooMany || result.get() != null;
+        }
+
+        void add(long[] siphon) {
+            if (count.incrementAndGet() > maxSiphons) {
+                tooMany = true;
+            } else if (condition == null) {
+                found.add(siphon);
+            } else if (condition.holds(siphon)) {
+                result.compareAndSet(null, siphon);
+            }
+        }
+    }
+
+    /*
+     * The minimal siphons containing the places of include and none of
+     * exclude.
+     */
+    private final class Problem extends RecursiveAction {
+
+        private final Search search;
+        private final long[] include;
+        private final long[] exclude;
+
+        Problem(Search search, long[] include, long[] exclude) {
+            this.search = search;
+            this.include = include;
+            this.exclude = exclude;
+        }
+
+        @Override
+        protected void compute() {
+            if (search.isStopped()) {
+                return;
+            }
+            long[] allowed = new long[words];
+            for (int w = 0; w < words; w++) {
+                allowed[w] = ~exclude[w];
+            }
+            if (words > 0) {
+                allowed[words - 1] &= -1L >>> (64 * words - placeCount);
+            }
+            long[] siphon = largest(allowed);
+            if (isEmpty(siphon) || !containsAll(siphon, include)) {
+                return;
+            }
+            siphon = reduce(siphon, include);
+            if (isEmpty(include) || isMinimal(siphon)) {
+                search.add(siphon);
+            }
+            List<Problem> subproblems = new ArrayList<Problem>();
+            long[] subInclude = include.clone();
+            for (int p = nextSetBit(siphon, 0); p >= 0; p = nextSetBit(siphon, p + 1)) {
+                if ((include[p >>> 6] & (1L << p)) == 0) {
+                    long[] subExclude = exclude.clone();
+                    subExclude[p >>> 6] |= 1L << p;
+                    subproblems.add(new Problem(search, subInclude.clone(), subExclude));
+                    subInclude[p >>> 6] |= 1L << p;
+                }
+            }
+            invokeAll(subproblems);
+        }
+    }
+
+    /*
+     * Returns the largest siphon contained in a set of places (maybe empty):
+     * the places with an input transition having no input place in the set
+     * are removed until there are none.
+     */
+    private long[] largest(long[] places) {
+        long[] siphon = places.clone();
+        int[] remaining = new int[inputs.length];
+        int[] stack = new int[placeCount];
+        int size = 0;
+        for (int t = 0; t < inputs.length; t++) {
+            for (int p : inputs[t]) {
+                if ((siphon[p >>> 6] & (1L << p)) != 0) {
+                    remaining[t]++;
+                }
+            }
+        }
+        for (int t = 0; t < inputs.length; t++) {
+            if (remaining[t] == 0) {
+                size = removeOutputs(t, siphon, stack, size);
+            }
+        }
+        while (size > 0) {
+            int p = stack[--size];
+            for (int t : consumers[p]) {
+                if (--remaining[t] == 0) {
+                    size = removeOutputs(t, siphon, stack, size);
+                }
+            }
+        }
+        return siphon;
+    }
+
+    private int removeOutputs(int transition, long[] siphon, int[] stack, int size) {
+        for (int p : outputs[transition]) {
+            if ((siphon[p >>> 6] & (1L << p)) != 0) {
+                siphon[p >>> 6] &= ~(1L << p);
+                stack[size++] = p;
+            }
+        }
+        return size;
+    }
+
+    /*
+     * Returns the largest trap contained in a set of places: the places with
+     * an output transition having no output place in the set are removed
+     * until there are none.
+     */
+    private long[] largestTrap(long[] places) {
+        long[] trap = places.clone();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = nextSetBit(trap, 0); p >= 0; p = nextSetBit(trap, p + 1)) {
+                for (int t : consumers[p]) {
+                    boolean marked = false;
+                    for (int q : outputs[t]) {
+                        if ((trap[q >>> 6] & (1L << q)) != 0) {
+                            marked = true;
+                            break;
+                        }
+                    }
+                    if (!marked) {
+                        trap[p >>> 6] &= ~(1L << p);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return trap;
+    }
+
+    /*
+     * Removes places from a siphon, other than those of include, as long as
+     * the largest siphon left still contains include.
+     */
+    private long[] reduce(long[] siphon, long[] include) {
+        boolean empty = isEmpty(include);
+        for (int p = nextSetBit(siphon, 0); p >= 0; p = nextSetBit(siphon, p + 1)) {
+            if ((include[p >>> 6] & (1L << p)) == 0) {
+                long[] smaller = siphon.clone();
+                smaller[p >>> 6] &= ~(1L << p);
+                smaller = largest(smaller);
+                if (empty ? !isEmpty(smaller) : containsAll(smaller, include)) {
+                    siphon = smaller;
+                }
+            }
+        }
+        return siphon;
+    }
+
+    private boolean isMinimal(long[] siphon) {
+        for (int p = nextSetBit(siphon, 0); p >= 0; p = nextSetBit(siphon, p + 1)) {
+            long[] smaller = siphon.clone();
+            smaller[p >>> 6] &= ~(1L << p);
+            if (!isEmpty(largest(smaller))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isEmpty(long[] set) {
+        for (long word : set) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsAll(long[] set, long[] subset) {
+        for (int w = 0; w < set.length; w++) {
+            if ((subset[w] & ~set[w]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int nextSetBit(long[] set, int from) {
+        int w = from >>> 6;
+        if (w >= set.length) {
+            return -1;
+        }
+        long word = set[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == set.length) {
+                return -1;
+            }
+            word = set[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+}
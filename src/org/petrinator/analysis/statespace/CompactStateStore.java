@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.statespace;
+
+/**
+ * StateStore keeping the markings packed in a byte arena. Every token count
+ * is written as a variable length integer (7 bits per byte), so the usual
+ * small counts take one byte per place, and the arena is made of fixed size
+ * pages that are never copied. The markings are indexed by an open
+ * addressing hash table (linear probing) whose entries hold the hash and the
+ * number of a state, so that most lookups touch the arena only for the
+ * matching state and the table grows without decoding the markings.
+ *
+ * Besides the packed marking, each state costs from 19 to 29 bytes of index.
+ */
+public class CompactStateStore implements StateStore {
+
+    private static final int PAGE_BITS = 20;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final int placeCount;
+    private byte[][] pages = new byte[16][];
+    private int pageCount = 0;
+    private int pagePosition = PAGE_SIZE;
+    private final LongChunkList offsets = new LongChunkList();
+    private long[] table = new long[1024];
+    private final byte[] buffer;
+
+    public CompactStateStore(int placeCount) {
+        this.placeCount = placeCount;
+        this.buffer = new byte[Math.max(1, placeCount * 5)];
+    }
+
+    public int getPlaceCount() {
+        return placeCount;
+    }
+
+    public int size() {
+        return offsets.size();
+    }
+
+    public int add(int[] marking) {
+        int length = encode(marking, buffer);
+        int hash = hash(buffer, length);
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        long entry;
+        while ((entry = table[slot]) != 0) {
+            if ((int) (entry >>> 32) == hash && matches((int) entry - 1, buffer, length)) {
+                return -(int) entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int state = append(buffer, length);
+        table[slot] = ((long) hash << 32) | (state + 1);
+        if (size() > table.length / 4 * 3) {
+            grow();
+        }
+        return state;
+    }
+
+    public int find(int[] marking) {
+        int length = encode(marking, buffer);
+        return find(buffer, length, hash(buffer, length));
+    }
+
+    /**
+     * Looks up an already encoded marking.
+     *
+     * @return the number of its state, or -1 if it is not stored
+     */
+    int find(byte[] encoded, int length, int hash) {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        long entry;
+        while ((entry = table[slot]) != 0) {
+            if ((int) (entry >>> 32) == hash && matches((int) entry - 1, encoded, length)) {
+                return (int) entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public void get(int state, int[] marking) {
+        long offset = offsets.get(state);
+        byte[] page = pages[(int) (offset >>> PAGE_BITS)];
+        int position = (int) (offset & PAGE_MASK);
+        for (int p = 0; p < placeCount; p++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = page[position++];
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            marking[p] = value;
+        }
+    }
+
+    public long getMemoryUsage() {
+        return (long) pageCount * PAGE_SIZE + offsets.getMemoryUsage() + table.length * 8L;
+    }
+
+    /*
+     * The encoding of a marking is prefix free, so a stored marking is equal
+     * if its first length bytes are.
+     */
+    private boolean matches(int state, byte[] encoded, int length) {
+        long offset = offsets.get(state);
+        byte[] page = pages[(int) (offset >>> PAGE_BITS)];
+        int position = (int) (offset & PAGE_MASK);
+        for (int i = 0; i < length; i++) {
+            if (page[position + i] != encoded[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int append(byte[] encoded, int length) {
+        if (pagePosition + length > PAGE_SIZE) {
+            if (pageCount == pages.length) {
+                byte[][] newPages = new byte[pages.length * 2][];
+                System.arraycopy(pages, 0, newPages, 0, pages.length);
+                pages = newPages;
+            }
+            pages[pageCount++] = new byte[PAGE_SIZE];
+            pagePosition = 0;
+        }
+        System.arraycopy(encoded, 0, pages[pageCount - 1], pagePosition, length);
+        int state = offsets.size();
+        offsets.add(((long) (pageCount - 1) << PAGE_BITS) | pagePosition);
+        pagePosition += length;
+        return state;
+    }
+
+    private void grow() {
+        long[] newTable = new long[table.length * 2];
+        int mask = newTable.length - 1;
+        for (long entry : table) {
+            if (entry != 0) {
+                int slot = (int) (entry >>> 32) & mask;
+                while (newTable[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                newTable[slot] = entry;
+            }
+        }
+        table = newTable;
+    }
+
+    /**
+     * Writes the marking as variable length integers.
+     *
+     * @return number of bytes written
+     */
+    static int encode(int[] marking, byte[] buffer) {
+        int length = 0;
+        for (int value : marking) {
+            while ((value & ~0x7f) != 0) {
+                buffer[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+        return length;
+    }
+
+    static int hash(byte[] bytes, int length) {
+        int hash = 0x9747b28c;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ bytes[i]) * 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
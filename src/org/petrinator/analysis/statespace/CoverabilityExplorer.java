@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.statespace;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.petrinator.petrinet.CompiledNet;
+import org.petrinator.petrinet.PetriNet;
+
+/**
+ * Computes a coverability set of a net with the Karp-Miller construction over
+ * int[] markings: a marking strictly greater than one of its ancestors gets
+ * OMEGA in the places that grew, since the firings between them can be
+ * repeated forever.
+ *
+ * Nodes are explored breadth-first and equal markings are merged, so a
+ * bounded net costs one node per reachable marking. Covered nodes are pruned:
+ * a marking covered by a node holding OMEGA is neither added nor expanded,
+ * since the expansion of that node covers its own.
+ *
+ * The construction terminates for nets with ordinary and inhibitor arcs on
+ * bounded places; reset arcs may keep it running, hence setMaxNodes().
+ */
+public class CoverabilityExplorer {
+
+    private final CompiledNet net;
+    private final int[] initialMarking;
+    private int maxNodes = 1000000;
+    private volatile boolean cancelled = false;
+    private long elapsedTime = 0;
+
+    /**
+     * Creates an explorer starting from the initial marking of a Petri net.
+     */
+    public CoverabilityExplorer(PetriNet petriNet) {
+        this(petriNet.getCompiledNet(), petriNet.getInitialMarking().getTokenArray());
+    }
+
+    /**
+     * @param net compiled net to explore
+     * @param initialMarking tokens indexed by place, copied
+     */
+    public CoverabilityExplorer(CompiledNet net, int[] initialMarking) {
+        this.net = net;
+        this.initialMarking = initialMarking.clone();
+    }
+
+    /**
+     * Sets the number of nodes after which the exploration gives up and
+     * returns an incomplete result.
+     */
+    public void setMaxNodes(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * Makes a running explore() give up. May be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns the duration of the last exploration in milliseconds.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Builds the coverability set.
+     *
+     * @throws InterruptedException if cancel() was called
+     */
+    public CoverabilitySet explore() throws InterruptedException {
+        cancelled = false;
+        long start = System.currentTimeMillis();
+        int placeCount = net.getPlaceCount();
+        StateStore nodes = new CompactStateStore(placeCount);
+        IntChunkList parents = new IntChunkList();
+        IntChunkList transitions = new IntChunkList();
+        BitSet removed = new BitSet();
+        List<int[]> omegaSets = new ArrayList<int[]>();
+        Set<BitSet> knownOmegaSets = new HashSet<BitSet>();
+        int[] bounds = initialMarking.clone();
+        int[] pathToDeadlock = isDeadlock(initialMarking) ? new int[0] : null;
+        boolean complete = true;
+
+        int[] marking = new int[placeCount];
+        int[] next = new int[placeCount];
+        int[] other = new int[placeCount];
+        nodes.add(initialMarking);
+        parents.add(-1);
+        transitions.add(-1);
+        for (int node = 0; node < nodes.size() && complete; node++) {
+            if (cancelled) {
+                throw new InterruptedException("Coverability exploration cancelled");
+            }
+            nodes.get(node, marking);
+            if (isCovered(marking, nodes, removed, omegaSets, other)) {
+                removed.set(node);
+                continue;
+            }
+            for (int t = 0; t < net.getTransitionCount(); t++) {
+                if (!net.isEnabled(t, marking)) {
+                    continue;
+                }
+                System.arraycopy(marking, 0, next, 0, placeCount);
+                fire(t, next);
+                if (nodes.find(next) >= 0) {
+                    continue;
+                }
+                if (pathToDeadlock == null && isDeadlock(next)) {
+                    // checked before pruning, which may drop the dead marking
+                    pathToDeadlock = pathTo(node, t, parents, transitions);
+                }
+                BitSet omega = accelerate(next, node, nodes, parents, other);
+                if (!omega.isEmpty() && nodes.find(next) >= 0 || isCovered(next, nodes, removed, omegaSets, other)) {
+                    continue;
+                }
+                if (nodes.size() >= maxNodes) {
+                    complete = false;
+                    break;
+                }
+                nodes.add(next);
+                parents.add(node);
+                transitions.add(t);
+                for (int p = 0; p < placeCount; p++) {
+                    bounds[p] = Math.max(bounds[p], next[p]);
+                }
+                if (!omega.isEmpty() && knownOmegaSets.add(omega)) {
+                    int[] omegaSet = new int[omega.cardinality()];
+                    for (int i = 0, p = omega.nextSetBit(0); p >= 0; i++, p = omega.nextSetBit(p + 1)) {
+                        omegaSet[i] = p;
+                    }
+                    omegaSets.add(omegaSet);
+                }
+            }
+        }
+        elapsedTime = System.currentTimeMillis() - start;
+        return new CoverabilitySet(net, nodes, removed, bounds, pathToDeadlock, complete);
+    }
+
+    /*
+     * Fires a transition keeping OMEGA in the unbounded places, except those
+     * emptied by a reset arc.
+     */
+    private void fire(int transition, int[] marking) {
+        int[] resetPlaces = net.getResetPlaces(transition);
+        int omegaPlaces = 0;
+        for (int p = 0; p < marking.length; p++) {
+            if (marking[p] == CoverabilitySet.OMEGA) {
+                omegaPlaces++;
+            }
+        }
+        if (omegaPlaces == 0) {
+            net.fire(transition, marking);
+            return;
+        }
+        boolean[] omega = new boolean[marking.length];
+        for (int p = 0; p < marking.length; p++) {
+            omega[p] = marking[p] == CoverabilitySet.OMEGA;
+        }
+        for (int p : resetPlaces) {
+            omega[p] = false;
+        }
+        net.fire(transition, marking);
+        for (int p = 0; p < marking.length; p++) {
+            if (omega[p]) {
+                marking[p] = CoverabilitySet.OMEGA;
+            }
+        }
+    }
+
+    /*
+     * Puts OMEGA in the places where the marking exceeds an ancestor it
+     * strictly covers. Returns the places holding OMEGA.
+     */
+    private BitSet accelerate(int[] marking, int parent, StateStore nodes, IntChunkList parents, int[] ancestor) {
+        for (int node = parent; node >= 0; node = parents.get(node)) {
+            nodes.get(node, ancestor);
+            if (covers(marking, ancestor)) {
+                for (int p = 0; p < marking.length; p++) {
+                    if (marking[p] > ancestor[p]) {
+                        marking[p] = CoverabilitySet.OMEGA;
+                    }
+                }
+            }
+        }
+        BitSet omega = new BitSet(marking.length);
+        for (int p = 0; p < marking.length; p++) {
+            if (marking[p] == CoverabilitySet.OMEGA) {
+                omega.set(p);
+            }
+        }
+        return omega;
+    }
+
+    /*
+     * Looks for a node covering the marking by putting OMEGA in the places of
+     * every set of unbounded places found so far. This only finds OMEGA nodes
+     * equal to the marking on their other places, but costs a few lookups
+     * instead of a comparison with every node; pruning less only costs
+     * nodes.
+     */
+    private boolean isCovered(int[] marking, StateStore nodes, BitSet removed, List<int[]> omegaSets, int[] other) {
+        for (int[] omegaSet : omegaSets) {
+            System.arraycopy(marking, 0, other, 0, marking.length);
+            boolean changed = false;
+            for (int p : omegaSet) {
+                changed |= other[p] != CoverabilitySet.OMEGA;
+                other[p] = CoverabilitySet.OMEGA;
+            }
+            if (changed) {
+                int node = nodes.find(other);
+                if (node >= 0 && !removed.get(node)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isDeadlock(int[] marking) {
+        for (int t = 0; t < net.getTransitionCount(); t++) {
+            if (net.isEnabled(t, marking)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Returns the transitions fired from the initial marking to a node, then
+     * the specified transition.
+     */
+    private static int[] pathTo(int node, int transition, IntChunkList parents, IntChunkList transitions) {
+        int length = 1;
+        for (int n = node; parents.get(n) >= 0; n = parents.get(n)) {
+            length++;
+        }
+        int[] path = new int[length];
+        path[--length] = transition;
+        for (int n = node; parents.get(n) >= 0; n = parents.get(n)) {
+            path[--length] = transitions.get(n);
+        }
+        return path;
+    }
+
+    /**
+     * Returns true if every place of a holds at least the tokens of b.
+     */
+    static boolean covers(int[] a, int[] b) {
+        for (int p = 0; p < a.length; p++) {
+            if (a[p] < b[p]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
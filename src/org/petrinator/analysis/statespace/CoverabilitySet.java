@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.statespace;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.petrinator.petrinet.CompiledNet;
+
+/**
+ * Result of a CoverabilityExplorer: markings whose places may hold OMEGA,
+ * meaning arbitrarily many tokens, such that every reachable marking is
+ * covered by one of them, and the properties derived from them.
+ */
+public class CoverabilitySet {
+
+    /**
+     * Token count of an unbounded place.
+     */
+    public static final int OMEGA = Integer.MAX_VALUE;
+
+    private final CompiledNet net;
+    private final StateStore nodes;
+    private final BitSet removed;
+    private final int[] bounds;
+    private final int[] pathToDeadlock;
+    private final boolean complete;
+    private List<int[]> minimalMarkings;
+
+    CoverabilitySet(CompiledNet net, StateStore nodes, BitSet removed, int[] bounds, int[] pathToDeadlock, boolean complete) {
+        this.net = net;
+        this.nodes = nodes;
+        this.removed = removed;
+        this.bounds = bounds;
+        this.pathToDeadlock = pathToDeadlock;
+        this.complete = complete;
+    }
+
+    public CompiledNet getCompiledNet() {
+        return net;
+    }
+
+    /**
+     * Returns false if the exploration gave up before covering every
+     * reachable marking. The other results are then partial: a net found
+     * unbounded or with a deadlock is so, but not the other way round.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public boolean isBounded() {
+        for (int bound : bounds) {
+            if (bound == OMEGA) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if no place ever holds more than one token.
+     */
+    public boolean isSafe() {
+        for (int bound : bounds) {
+            if (bound > 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the largest number of tokens of every place, OMEGA for the
+     * unbounded ones.
+     */
+    public int[] getBounds() {
+        return bounds.clone();
+    }
+
+    public boolean hasDeadlock() {
+        return pathToDeadlock != null;
+    }
+
+    /**
+     * Returns the transitions fired along a shortest path from the initial
+     * marking to a deadlock, or null if no deadlock was found.
+     */
+    public int[] getPathToDeadlock() {
+        return pathToDeadlock == null ? null : pathToDeadlock.clone();
+    }
+
+    /**
+     * Returns the number of nodes built by the exploration.
+     */
+    public int getNodeCount() {
+        return nodes.size();
+    }
+
+    /**
+     * Returns the minimal coverability set: the maximal markings (for the
+     * covering order) found. Computed on the first call, in time quadratic in
+     * the number of nodes.
+     */
+    public synchronized List<int[]> getMinimalMarkings() {
+        if (minimalMarkings == null) {
+            // the markings of the nodes are distinct
+            List<int[]> markings = new ArrayList<int[]>();
+            for (int node = removed.nextClearBit(0); node < nodes.size(); node = removed.nextClearBit(node + 1)) {
+                int[] marking = new int[nodes.getPlaceCount()];
+                nodes.get(node, marking);
+                markings.add(marking);
+            }
+            minimalMarkings = new ArrayList<int[]>();
+            for (int i = 0; i < markings.size(); i++) {
+                boolean covered = false;
+                for (int j = 0; j < markings.size() && !covered; j++) {
+                    covered = j != i && CoverabilityExplorer.covers(markings.get(j), markings.get(i));
+                }
+                if (!covered) {
+                    minimalMarkings.add(markings.get(i));
+                }
+            }
+        }
+        return minimalMarkings;
+    }
+}
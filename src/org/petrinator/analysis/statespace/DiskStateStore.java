@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.statespace;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * StateStore for state spaces larger than the Java heap. The first states are
+ * kept in a CompactStateStore until it uses the specified memory budget; the
+ * next ones are spilled to memory mapped segment files: their packed
+ * markings, the offsets of the markings and the hash table indexing them.
+ * The heap used by the store is thus bounded by the budget whatever the size
+ * of the state space, and the spilled states do not load the garbage
+ * collector.
+ *
+ * The spilled part uses the same encoding and hash table layout as
+ * CompactStateStore.
+ */
+public class DiskStateStore implements StateStore {
+
+    private static final int DATA_SEGMENT_BITS = 26;
+    private static final int DATA_SEGMENT_SIZE = 1 << DATA_SEGMENT_BITS;
+    private static final int LONG_SEGMENT_BITS = 22;
+    private static final int LONG_SEGMENT_MASK = (1 << LONG_SEGMENT_BITS) - 1;
+    private static final int INITIAL_TABLE_BITS = 20;
+
+    private final int placeCount;
+    private final File directory;
+    private final long memoryBudget;
+    private final CompactStateStore memory;
+    private final byte[] buffer;
+    private boolean spilling = false;
+    private int memoryStates = 0;
+
+    private MappedSegments data;
+    private long dataPosition = 0;
+    private MappedSegments offsets;
+    private int diskStates = 0;
+    private MappedSegments table;
+    private int tableBits;
+
+    /**
+     * @param placeCount number of places of the markings
+     * @param directory where the segment files are created
+     * @param memoryBudget bytes of heap after which the states are spilled
+     */
+    public DiskStateStore(int placeCount, File directory, long memoryBudget) {
+        this.placeCount = placeCount;
+        this.directory = directory;
+        this.memoryBudget = memoryBudget;
+        this.memory = new CompactStateStore(placeCount);
+        this.buffer = new byte[Math.max(1, placeCount * 5)];
+    }
+
+    public int getPlaceCount() {
+        return placeCount;
+    }
+
+    public int size() {
+        return memoryStates + diskStates;
+    }
+
+    /**
+     * Returns true if states have been spilled to the segment files.
+     */
+    public boolean isSpilling() {
+        return spilling;
+    }
+
+    public int add(int[] marking) {
+        if (!spilling) {
+            int state = memory.add(marking);
+            memoryStates = memory.size();
+            if (state >= 0 && memory.getMemoryUsage() > memoryBudget) {
+                startSpilling();
+            }
+            return state;
+        }
+        int length = CompactStateStore.encode(marking, buffer);
+        int hash = CompactStateStore.hash(buffer, length);
+        int state = memory.find(buffer, length, hash);
+        if (state >= 0) {
+            return -(state + 1);
+        }
+        long mask = (1L << tableBits) - 1;
+        long slot = hash & mask;
+        long entry;
+        while ((entry = getEntry(slot)) != 0) {
+            if ((int) (entry >>> 32) == hash && matches((int) entry - 1, buffer, length)) {
+                return -(memoryStates + (int) entry);
+            }
+            slot = (slot + 1) & mask;
+        }
+        int diskState = append(buffer, length);
+        setEntry(slot, ((long) hash << 32) | (diskState + 1));
+        if (diskStates > (1L << tableBits) / 4 * 3) {
+            grow();
+        }
+        return memoryStates + diskState;
+    }
+
+    public int find(int[] marking) {
+        if (!spilling) {
+            return memory.find(marking);
+        }
+        int length = CompactStateStore.encode(marking, buffer);
+        int hash = CompactStateStore.hash(buffer, length);
+        int state = memory.find(buffer, length, hash);
+        if (state >= 0) {
+            return state;
+        }
+        long mask = (1L << tableBits) - 1;
+        long slot = hash & mask;
+        long entry;
+        while ((entry = getEntry(slot)) != 0) {
+            if ((int) (entry >>> 32) == hash && matches((int) entry - 1, buffer, length)) {
+                return memoryStates + (int) entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public void get(int state, int[] marking) {
+        if (state < memoryStates) {
+            memory.get(state, marking);
+            return;
+        }
+        long offset = getLong(offsets, state - memoryStates);
+        ByteBuffer segment = data.get((int) (offset >>> DATA_SEGMENT_BITS));
+        int position = (int) (offset & (DATA_SEGMENT_SIZE - 1));
+        for (int p = 0; p < placeCount; p++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = segment.get(position++);
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            marking[p] = value;
+        }
+    }
+
+    public long getMemoryUsage() {
+        return memory.getMemoryUsage();
+    }
+
+    /**
+     * Returns the size of the segment files in bytes.
+     */
+    public long getDiskUsage() {
+        if (!spilling) {
+            return 0;
+        }
+        return data.getDiskUsage() + offsets.getDiskUsage() + table.getDiskUsage();
+    }
+
+    private void startSpilling() {
+        spilling = true;
+        data = new MappedSegments(directory, "states", DATA_SEGMENT_SIZE);
+        offsets = new MappedSegments(directory, "offsets", 8 << LONG_SEGMENT_BITS);
+        tableBits = INITIAL_TABLE_BITS;
+        table = createTable(tableBits);
+    }
+
+    private MappedSegments createTable(int bits) {
+        return new MappedSegments(directory, "index", 8 << Math.min(bits, LONG_SEGMENT_BITS));
+    }
+
+    /*
+     * The encoding of a marking is prefix free, so a stored marking is equal
+     * if its first length bytes are.
+     */
+    private boolean matches(int diskState, byte[] encoded, int length) {
+        long offset = getLong(offsets, diskState);
+        ByteBuffer segment = data.get((int) (offset >>> DATA_SEGMENT_BITS));
+        int position = (int) (offset & (DATA_SEGMENT_SIZE - 1));
+        for (int i = 0; i < length; i++) {
+            if (segment.get(position + i) != encoded[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int append(byte[] encoded, int length) {
+        int position = (int) (dataPosition & (DATA_SEGMENT_SIZE - 1));
+        if (position + length > DATA_SEGMENT_SIZE) {
+            dataPosition += DATA_SEGMENT_SIZE - position;
+            position = 0;
+        }
+        ByteBuffer segment = data.get((int) (dataPosition >>> DATA_SEGMENT_BITS));
+        for (int i = 0; i < length; i++) {
+            segment.put(position + i, encoded[i]);
+        }
+        setLong(offsets, diskStates, dataPosition);
+        dataPosition += length;
+        return diskStates++;
+    }
+
+    private void grow() {
+        int newBits = tableBits + 1;
+        MappedSegments newTable = createTable(newBits);
+        long newMask = (1L << newBits) - 1;
+        for (long slot = 0; slot < 1L << tableBits; slot++) {
+            long entry = getEntry(slot);
+            if (entry != 0) {
+                long newSlot = (int) (entry >>> 32) & newMask;
+                while (getLong(newTable, newSlot) != 0) {
+                    newSlot = (newSlot + 1) & newMask;
+                }
+                setLong(newTable, newSlot, entry);
+            }
+        }
+        table = newTable;
+        tableBits = newBits;
+    }
+
+    private long getEntry(long slot) {
+        return getLong(table, slot);
+    }
+
+    private void setEntry(long slot, long entry) {
+        setLong(table, slot, entry);
+    }
+
+    private static long getLong(MappedSegments segments, long index) {
+        return segments.get((int) (index >>> LONG_SEGMENT_BITS)).getLong((int) (index & LONG_SEGMENT_MASK) << 3);
+    }
+
+    private static void setLong(MappedSegments segments, long index, long value) {
+        segments.get((int) (index >>> LONG_SEGMENT_BITS)).putLong((int) (index & LONG_SEGMENT_MASK) << 3, value);
+    }
+}
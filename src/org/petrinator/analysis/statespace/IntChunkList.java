@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.statespace;
+
+/**
+ * Growable list of ints stored in fixed size chunks, so that growing it never
+ * copies the elements already added and never needs one huge array.
+ */
+class IntChunkList {
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private int[][] chunks = new int[16][];
+    private int size = 0;
+
+    void add(int value) {
+        int chunk = size >>> CHUNK_BITS;
+        if (chunk == chunks.length) {
+            int[][] newChunks = new int[chunks.length * 2][];
+            System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+            chunks = newChunks;
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = new int[CHUNK_SIZE];
+        }
+        chunks[chunk][size & CHUNK_MASK] = value;
+        size++;
+    }
+
+    int get(int index) {
+        return chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+    }
+
+    void set(int index, int value) {
+        chunks[index >>> CHUNK_BITS][index & CHUNK_MASK] = value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes all the elements, keeping the chunks for reuse.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    long getMemoryUsage() {
+        return (long) ((size + CHUNK_MASK) >>> CHUNK_BITS) * CHUNK_SIZE * 4;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.statespace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * File mapped in memory as a whole, addressed by long positions. The file is
+ * mapped in chunks of 1GB, every chunk starting at a multiple of 8, so ints
+ * and longs written at aligned positions never cross two chunks.
+ */
+class MappedFile {
+
+    private static final int CHUNK_BITS = 30;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private final MappedByteBuffer[] chunks;
+    private final long length;
+
+    /**
+     * Maps an existing file read only.
+     */
+    MappedFile(File file) throws IOException {
+        this(file, -1);
+    }
+
+    /**
+     * Maps a file for writing, replacing its contents by the specified number
+     * of zero bytes; with a negative length an existing file is mapped read
+     * only.
+     */
+    MappedFile(File file, long length) throws IOException {
+        boolean writable = length >= 0;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, writable ? "rw" : "r");
+        try {
+            if (writable) {
+                randomAccessFile.setLength(0);
+                randomAccessFile.setLength(length);
+            } else {
+                length = randomAccessFile.length();
+            }
+            this.length = length;
+            FileChannel channel = randomAccessFile.getChannel();
+            chunks = new MappedByteBuffer[(int) ((length + CHUNK_MASK) >>> CHUNK_BITS)];
+            for (int chunk = 0; chunk < chunks.length; chunk++) {
+                long position = (long) chunk << CHUNK_BITS;
+                chunks[chunk] = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                        position, Math.min(length - position, 1L << CHUNK_BITS));
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    long length() {
+        return length;
+    }
+
+    byte getByte(long position) {
+        return chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & CHUNK_MASK));
+    }
+
+    int getInt(long position) {
+        return chunks[(int) (position >>> CHUNK_BITS)].getInt((int) (position & CHUNK_MASK));
+    }
+
+    long getLong(long position) {
+        return chunks[(int) (position >>> CHUNK_BITS)].getLong((int) (position & CHUNK_MASK));
+    }
+
+    void putByte(long position, byte value) {
+        chunks[(int) (position >>> CHUNK_BITS)].put((int) (position & CHUNK_MASK), value);
+    }
+
+    void putInt(long position, int value) {
+        chunks[(int) (position >>> CHUNK_BITS)].putInt((int) (position & CHUNK_MASK), value);
+    }
+
+    void putLong(long position, long value) {
+        chunks[(int) (position >>> CHUNK_BITS)].putLong((int) (position & CHUNK_MASK), value);
+    }
+
+    /**
+     * Writes the changes to the file.
+     */
+    void force() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+}
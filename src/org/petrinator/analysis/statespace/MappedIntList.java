@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.statespace;
+
+/**
+ * Read only IntChunkList over an array of ints of a MappedFile.
+ */
+class MappedIntList extends IntChunkList {
+
+    private final MappedFile file;
+    private final long position;
+    private final int size;
+
+    /**
+     * @param file mapped file holding the ints
+     * @param position position of the first int in the file
+     * @param size number of ints
+     */
+    MappedIntList(MappedFile file, long position, int size) {
+        this.file = file;
+        this.position = position;
+        this.size = size;
+    }
+
+    @Override
+    void add(int value) {
+        throw new UnsupportedOperationException("The list is read only");
+    }
+
+    @Override
+    int get(int index) {
+        return file.getInt(position + ((long) index << 2));
+    }
+
+    @Override
+    void set(int index, int value) {
+        throw new UnsupportedOperationException("The list is read only");
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    void clear() {
+        throw new UnsupportedOperationException("The list is read only");
+    }
+
+    @Override
+    long getMemoryUsage() {
+        return 0;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.statespace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequence of memory mapped files of a fixed size, created on demand in a
+ * directory. The mapped memory is outside the Java heap and is paged to the
+ * files by the operating system, so the data can be much larger than the heap.
+ *
+ * A file is deleted as soon as it is mapped (the mapping keeps it alive until
+ * the buffer is garbage collected); where that is not possible, it is deleted
+ * when the virtual machine exits.
+ */
+class MappedSegments {
+
+    private final File directory;
+    private final String prefix;
+    private final int segmentSize;
+    private ByteBuffer[] segments = new ByteBuffer[16];
+    private int segmentCount = 0;
+
+    /**
+     * @param directory where the files are created
+     * @param prefix prefix of the file names
+     * @param segmentSize size of every file in bytes
+     */
+    MappedSegments(File directory, String prefix, int segmentSize) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentSize = segmentSize;
+    }
+
+    int getSegmentSize() {
+        return segmentSize;
+    }
+
+    int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Returns a segment, mapping the segments up to it if needed.
+     *
+     * @throws UncheckedIOException if a file cannot be created or mapped
+     */
+    ByteBuffer get(int segment) {
+        while (segment >= segmentCount) {
+            if (segmentCount == segments.length) {
+                ByteBuffer[] newSegments = new ByteBuffer[segments.length * 2];
+                System.arraycopy(segments, 0, newSegments, 0, segments.length);
+                segments = newSegments;
+            }
+            segments[segmentCount++] = map();
+        }
+        return segments[segment];
+    }
+
+    /**
+     * Returns the size of the mapped files in bytes.
+     */
+    long getDiskUsage() {
+        return (long) segmentCount * segmentSize;
+    }
+
+    private MappedByteBuffer map() {
+        try {
+            directory.mkdirs();
+            File file = File.createTempFile(prefix, ".seg", directory);
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.setLength(segmentSize);
+                return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            } finally {
+                randomAccessFile.close();
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map a segment file in " + directory, e);
+        }
+    }
+}
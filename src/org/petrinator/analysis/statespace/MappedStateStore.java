@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.statespace;
+
+/**
+ * Read only StateStore over the states of a reachability graph file (see
+ * ReachabilityGraphFile). The markings are decoded straight from the mapped
+ * file and looked up through the hash table saved with them, so opening the
+ * store reads nothing and costs no heap.
+ */
+class MappedStateStore implements StateStore {
+
+    private final MappedFile file;
+    private final int placeCount;
+    private final int size;
+    private final long offsetsPosition;
+    private final long dataPosition;
+    private final long tablePosition;
+    private final int tableMask;
+    private final byte[] buffer;
+
+    /**
+     * @param file mapped reachability graph file
+     * @param placeCount number of places of the markings
+     * @param size number of states
+     * @param offsetsPosition position of the offsets of the markings
+     * @param dataPosition position of the packed markings
+     * @param tablePosition position of the hash table
+     * @param tableLength number of entries of the hash table, a power of 2
+     */
+    MappedStateStore(MappedFile file, int placeCount, int size, long offsetsPosition, long dataPosition,
+                     long tablePosition, int tableLength) {
+        this.file = file;
+        this.placeCount = placeCount;
+        this.size = size;
+        this.offsetsPosition = offsetsPosition;
+        this.dataPosition = dataPosition;
+        this.tablePosition = tablePosition;
+        this.tableMask = tableLength - 1;
+        this.buffer = new byte[Math.max(1, placeCount * 5)];
+    }
+
+    public int getPlaceCount() {
+        return placeCount;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int add(int[] marking) {
+        throw new UnsupportedOperationException("The state store is read only");
+    }
+
+    /**
+     * Not thread safe, the marking is encoded in a shared buffer.
+     */
+    public int find(int[] marking) {
+        int length = CompactStateStore.encode(marking, buffer);
+        int hash = CompactStateStore.hash(buffer, length);
+        int slot = hash & tableMask;
+        long entry;
+        while ((entry = file.getLong(tablePosition + ((long) slot << 3))) != 0) {
+            if ((int) (entry >>> 32) == hash && matches((int) entry - 1, length)) {
+                return (int) entry - 1;
+            }
+            slot = (slot + 1) & tableMask;
+        }
+        return -1;
+    }
+
+    public void get(int state, int[] marking) {
+        long position = dataPosition + file.getLong(offsetsPosition + ((long) state << 3));
+        for (int p = 0; p < placeCount; p++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = file.getByte(position++);
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            marking[p] = value;
+        }
+    }
+
+    public long getMemoryUsage() {
+        return buffer.length;
+    }
+
+    private boolean matches(int state, int length) {
+        long position = dataPosition + file.getLong(offsetsPosition + ((long) state << 3));
+        for (int i = 0; i < length; i++) {
+            if (file.getByte(position + i) != buffer[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.statespace;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.petrinator.petrinet.CompiledNet;
+import org.petrinator.petrinet.PetriNet;
+
+/**
+ * StateSpaceExplorer using several threads. The state space is explored level
+ * by level (breadth-first): the states of a level are split in blocks that
+ * the threads of a ForkJoinPool expand, stealing blocks from each other, and
+ * the successors go to a ShardedStateStore in which only the shard receiving
+ * a marking is locked.
+ *
+ * The set of states found does not depend on the scheduling of the threads.
+ * Their numbering does, unless setDeterministicNumbering(true) is used: then
+ * the new states of every level are numbered in the order of the first state
+ * and transition leading to them, which gives the same numbering (and the
+ * same graph) as the sequential StateSpaceExplorer.
+ */
+public class ParallelStateSpaceExplorer extends StateSpaceExplorer {
+
+    private static final int BLOCK_SIZE = 256;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean deterministicNumbering = false;
+    private int shardBits = 6;
+
+    public ParallelStateSpaceExplorer(PetriNet petriNet) {
+        super(petriNet);
+    }
+
+    public ParallelStateSpaceExplorer(CompiledNet net, int[] initialMarking) {
+        super(net, initialMarking);
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Makes the exploration number the states like the sequential
+     * StateSpaceExplorer, at the cost of sorting the states of every level.
+     */
+    public void setDeterministicNumbering(boolean deterministicNumbering) {
+        this.deterministicNumbering = deterministicNumbering;
+    }
+
+    /**
+     * Not supported, the states are always kept in a sharded store.
+     */
+    @Override
+    public void setStateStore(StateStore store) {
+        throw new UnsupportedOperationException("The parallel explorer keeps one store per shard");
+    }
+
+    @Override
+    protected ReachabilityGraph search() throws StateSpaceTooBigException, InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            return new Search(pool).run();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /*
+     * State of one exploration.
+     */
+    private final class Search {
+
+        final ForkJoinPool pool;
+        final CompiledNet net = getCompiledNet();
+        final ShardedStateStore states = new ShardedStateStore(net.getPlaceCount(), shardBits,
+                getSpillDirectory(), getMemoryBudget() / 2);
+        final AtomicInteger stateCount = new AtomicInteger();
+        volatile boolean tooBig = false;
+        Block[] blocks;
+        int levelStart;
+        int levelEnd;
+
+        Search(ForkJoinPool pool) {
+            this.pool = pool;
+        }
+
+        ReachabilityGraph run() throws StateSpaceTooBigException, InterruptedException {
+            IntChunkList firstEdges = createIntList();
+            IntChunkList targets = createIntList();
+            IntChunkList transitions = createIntList();
+
+            states.add(getInitialMarking());
+            stateCount.set(1);
+            levelStart = 0;
+            levelEnd = 1;
+            while (levelStart < levelEnd) {
+                if (isCancelled()) {
+                    throw new InterruptedException("State space exploration cancelled");
+                }
+                for (ShardedStateStore.Shard shard : states.getShards()) {
+                    shard.levelStart = shard.store.size();
+                    shard.parents.clear();
+                    shard.transitions.clear();
+                }
+                blocks = new Block[(levelEnd - levelStart + BLOCK_SIZE - 1) / BLOCK_SIZE];
+                pool.invoke(new Expand(0, blocks.length));
+                if (tooBig) {
+                    throw new StateSpaceTooBigException(getMaxStates());
+                }
+
+                if (deterministicNumbering) {
+                    numberInOrder();
+                } else {
+                    for (int s = 0; s < states.getShards().length; s++) {
+                        ShardedStateStore.Shard shard = states.getShards()[s];
+                        for (int local = shard.levelStart; local < shard.store.size(); local++) {
+                            states.assign(s, local);
+                        }
+                    }
+                }
+
+                for (Block block : blocks) {
+                    int edge = 0;
+                    for (int i = 0; i < block.sourceCount; i++) {
+                        firstEdges.add(targets.size());
+                        for (int end = edge + block.edgeCounts[i]; edge < end; edge++) {
+                            long target = block.targets[edge];
+                            targets.add(states.numberOf((int) (target >>> 32), (int) target));
+                            transitions.add(block.transitions[edge]);
+                        }
+                    }
+                }
+                blocks = null;
+                levelStart = levelEnd;
+                levelEnd = states.size();
+            }
+            firstEdges.add(targets.size());
+            return new ReachabilityGraph(net, states, firstEdges, targets, transitions);
+        }
+
+        /*
+         * Numbers the new states of the level by the first state and
+         * transition leading to them: a counting sort by state followed by
+         * an insertion sort by transition of the (few) successors of each
+         * state.
+         */
+        void numberInOrder() {
+            int[] counts = new int[levelEnd - levelStart + 1];
+            int newStates = 0;
+            for (ShardedStateStore.Shard shard : states.getShards()) {
+                for (int i = 0; i < shard.parents.size(); i++) {
+                    counts[shard.parents.get(i) - levelStart + 1]++;
+                    newStates++;
+                }
+            }
+            for (int i = 1; i < counts.length; i++) {
+                counts[i] += counts[i - 1];
+            }
+            int[] orderShard = new int[newStates];
+            int[] orderLocal = new int[newStates];
+            int[] orderTransition = new int[newStates];
+            int[] next = Arrays.copyOf(counts, counts.length - 1);
+            for (int s = 0; s < states.getShards().length; s++) {
+                ShardedStateStore.Shard shard = states.getShards()[s];
+                for (int i = 0; i < shard.parents.size(); i++) {
+                    int position = next[shard.parents.get(i) - levelStart]++;
+                    orderShard[position] = s;
+                    orderLocal[position] = shard.levelStart + i;
+                    orderTransition[position] = shard.transitions.get(i);
+                }
+            }
+            for (int parent = 0; parent < counts.length - 1; parent++) {
+                for (int i = counts[parent] + 1; i < counts[parent + 1]; i++) {
+                    for (int j = i; j > counts[parent] && orderTransition[j - 1] > orderTransition[j]; j--) {
+                        swap(orderShard, j);
+                        swap(orderLocal, j);
+                        swap(orderTransition, j);
+                    }
+                }
+            }
+            for (int i = 0; i < newStates; i++) {
+                states.assign(orderShard[i], orderLocal[i]);
+            }
+        }
+
+        void swap(int[] array, int j) {
+            int tmp = array[j];
+            array[j] = array[j - 1];
+            array[j - 1] = tmp;
+        }
+
+        /*
+         * Expands the states of one block of the level.
+         */
+        void expand(int blockIndex) {
+            int from = levelStart + blockIndex * BLOCK_SIZE;
+            int to = Math.min(from + BLOCK_SIZE, levelEnd);
+            Block block = new Block(to - from);
+            int[] marking = new int[net.getPlaceCount()];
+            int[] successor = new int[net.getPlaceCount()];
+            for (int state = from; state < to && !tooBig && !isCancelled(); state++) {
+                states.getLocked(state, marking);
+                int edges = 0;
+                for (int t = 0; t < net.getTransitionCount(); t++) {
+                    if (net.isEnabled(t, marking)) {
+                        System.arraycopy(marking, 0, successor, 0, marking.length);
+                        net.fire(t, successor);
+                        block.add(t, addSuccessor(successor, state, t));
+                        edges++;
+                    }
+                }
+                block.edgeCounts[block.sourceCount++] = edges;
+            }
+            blocks[blockIndex] = block;
+        }
+
+        /*
+         * Adds a successor to its shard, returns its shard and local number.
+         */
+        long addSuccessor(int[] successor, int parent, int transition) {
+            int s = states.shardOf(successor);
+            ShardedStateStore.Shard shard = states.getShards()[s];
+            synchronized (shard) {
+                int local = shard.store.add(successor);
+                if (local >= 0) {
+                    if (stateCount.incrementAndGet() > getMaxStates()) {
+                        tooBig = true;
+                    }
+                    if (deterministicNumbering) {
+                        shard.parents.add(parent);
+                        shard.transitions.add(transition);
+                    }
+                } else {
+                    local = -local - 1;
+                    int i = local - shard.levelStart;
+                    if (deterministicNumbering && i >= 0 && parent == shard.parents.get(i)
+                            && transition < shard.transitions.get(i)) {
+                        shard.transitions.set(i, transition);
+                    } else if (deterministicNumbering && i >= 0 && parent < shard.parents.get(i)) {
+                        shard.parents.set(i, parent);
+                        shard.transitions.set(i, transition);
+                    }
+                }
+                return ((long) s << 32) | local;
+            }
+        }
+
+        /*
+         * Expands a range of blocks, splitting it while it is large so that
+         * idle threads can steal half of it.
+         */
+        final class Expand extends RecursiveAction {
+
+            final int from;
+            final int to;
+
+            Expand(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > 1) {
+                    int middle = (from + to) >>> 1;
+                    invokeAll(new Expand(from, middle), new Expand(middle, to));
+                } else if (to > from) {
+                    expand(from);
+                }
+            }
+        }
+    }
+
+    /*
+     * Edges found while expanding a block of states, targets as shard and
+     * local number since the new states are numbered at the end of the level.
+     */
+    private static final class Block {
+
+        final int[] edgeCounts;
+        int sourceCount = 0;
+        int[] transitions = new int[BLOCK_SIZE];
+        long[] targets = new long[BLOCK_SIZE];
+        int size = 0;
+
+        Block(int sources) {
+            this.edgeCounts = new int[sources];
+        }
+
+        void add(int transition, long target) {
+            if (size == transitions.length) {
+                transitions = Arrays.copyOf(transitions, size * 2);
+                targets = Arrays.copyOf(targets, size * 2);
+            }
+            transitions[size] = transition;
+            targets[size] = target;
+            size++;
+        }
+    }
+}
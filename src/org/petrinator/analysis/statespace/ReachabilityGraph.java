@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.statespace;
+
+import java.util.Arrays;
+
+import org.petrinator.petrinet.CompiledNet;
+
+/**
+ * Reachability graph of a Petri net: the reachable markings, numbered from
+ * the initial one (state 0), and the firings between them, labelled by the
+ * index of the fired transition in the compiled net.
+ *
+ * Edges are numbered so that the edges leaving state s are
+ * getFirstEdge(s) ... getFirstEdge(s + 1) - 1.
+ */
+public class ReachabilityGraph {
+
+    private final CompiledNet net;
+    private final StateStore states;
+    private final IntChunkList firstEdges;
+    private final IntChunkList targets;
+    private final IntChunkList transitions;
+
+    ReachabilityGraph(CompiledNet net, StateStore states, IntChunkList firstEdges, IntChunkList targets, IntChunkList transitions) {
+        this.net = net;
+        this.states = states;
+        this.firstEdges = firstEdges;
+        this.targets = targets;
+        this.transitions = transitions;
+    }
+
+    public CompiledNet getCompiledNet() {
+        return net;
+    }
+
+    public StateStore getStates() {
+        return states;
+    }
+
+    public int getStateCount() {
+        return states.size();
+    }
+
+    public int getEdgeCount() {
+        return targets.size();
+    }
+
+    /**
+     * Returns the marking of a state, indexed by the places of the compiled
+     * net.
+     */
+    public int[] getMarking(int state) {
+        int[] marking = new int[states.getPlaceCount()];
+        states.get(state, marking);
+        return marking;
+    }
+
+    public int getFirstEdge(int state) {
+        return firstEdges.get(state);
+    }
+
+    public int getSuccessorCount(int state) {
+        return firstEdges.get(state + 1) - firstEdges.get(state);
+    }
+
+    public int getEdgeTarget(int edge) {
+        return targets.get(edge);
+    }
+
+    /**
+     * Returns the index of the transition fired by an edge.
+     */
+    public int getEdgeTransition(int edge) {
+        return transitions.get(edge);
+    }
+
+    /**
+     * Returns true if no transition is enabled in the state.
+     */
+    public boolean isDeadlock(int state) {
+        return getSuccessorCount(state) == 0;
+    }
+
+    /**
+     * Returns the largest number of tokens of every place over the reachable
+     * markings.
+     */
+    public int[] getBounds() {
+        int[] bounds = new int[states.getPlaceCount()];
+        int[] marking = new int[states.getPlaceCount()];
+        for (int state = 0; state < getStateCount(); state++) {
+            states.get(state, marking);
+            for (int p = 0; p < marking.length; p++) {
+                bounds[p] = Math.max(bounds[p], marking[p]);
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Returns the transitions fired along a shortest path from the initial
+     * state to a deadlock, or null if there is no deadlock.
+     */
+    public int[] getPathToDeadlock() {
+        return shortestPath(-1);
+    }
+
+    /**
+     * Returns the transitions fired along a shortest path from the initial
+     * state to the specified marking, or null if it is not in the graph.
+     */
+    public int[] getPathTo(int[] marking) {
+        int state = states.find(marking);
+        return state < 0 ? null : shortestPath(state);
+    }
+
+    /*
+     * Breadth-first search from the initial state to the goal state, or to
+     * any deadlock if goal is -1.
+     */
+    private int[] shortestPath(int goal) {
+        int[] parentEdges = new int[getStateCount()];
+        Arrays.fill(parentEdges, -1);
+        int[] queue = new int[getStateCount()];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = 0;
+        parentEdges[0] = Integer.MAX_VALUE;
+        while (head < tail) {
+            int state = queue[head++];
+            if (goal == -1 ? isDeadlock(state) : state == goal) {
+                int length = 0;
+                for (int s = state; s != 0; s = sourceOf(parentEdges[s])) {
+                    length++;
+                }
+                int[] path = new int[length];
+                for (int s = state; s != 0; s = sourceOf(parentEdges[s])) {
+                    path[--length] = getEdgeTransition(parentEdges[s]);
+                }
+                return path;
+            }
+            for (int edge = getFirstEdge(state); edge < getFirstEdge(state + 1); edge++) {
+                int target = getEdgeTarget(edge);
+                if (parentEdges[target] == -1) {
+                    parentEdges[target] = edge;
+                    queue[tail++] = target;
+                }
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Returns the state an edge leaves, by binary search on the first edges.
+     */
+    private int sourceOf(int edge) {
+        int low = 0;
+        int high = getStateCount() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (getFirstEdge(middle) <= edge) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns an estimate of the heap used by the graph, in bytes.
+     */
+    public long getMemoryUsage() {
+        return states.getMemoryUsage() + firstEdges.getMemoryUsage() + targets.getMemoryUsage() + transitions.getMemoryUsage();
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.statespace;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.petrinator.petrinet.CompiledNet;
+
+/**
+ * Binary file format of reachability graphs, read back through memory
+ * mapping: the graph returned by read() decodes its states and edges straight
+ * from the file, so opening a graph of any size is immediate, costs almost no
+ * heap and every state and edge can be accessed at random.
+ *
+ * The file (big endian) is made of a header and six sections, each one
+ * starting at a multiple of 8:
+ * <pre>
+ *  0  int   magic number "PNRG"
+ *  4  int   version of the format
+ *  8  int   number of places
+ * 12  int   number of transitions
+ * 16  int   number of states
+ * 20  int   number of edges
+ * 24  int   number of entries of the hash table (a power of 2)
+ * 28  int   reserved, 0
+ * 32  long  position of the offsets section
+ * 40  long  position of the hash table
+ * 48  long  position of the first edges section
+ * 56  long  position of the targets section
+ * 64  long  position of the transitions section
+ * 72  long  position of the markings section
+ * 80  long  length of the file
+ * </pre>
+ * The markings section holds the markings one after the other, every token
+ * count written as a variable length integer (7 bits per byte, as in
+ * CompactStateStore), and the offsets section the offset of every marking in
+ * it (a long per state, plus the end of the section). The hash table holds
+ * longs (hash of the packed marking &lt;&lt; 32 | state + 1, 0 if the entry is
+ * free) for looking up the number of a marking. The edges are stored as
+ * compressed sparse rows: the first edge of every state (an int per state,
+ * plus the number of edges) and the target state and the fired transition of
+ * every edge (an int each).
+ */
+public class ReachabilityGraphFile {
+
+    public static final int MAGIC = 0x504e5247;
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 88;
+
+    private ReachabilityGraphFile() {
+    }
+
+    /**
+     * Creates an empty file for a graph in the temporary directory. Every
+     * analysis uses its own file, so that concurrent analyses do not
+     * overwrite each other; the file is deleted when the virtual machine
+     * exits if it was not deleted before.
+     */
+    public static File createTempFile() throws IOException {
+        File file = File.createTempFile("results", ".rg");
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Writes a reachability graph to a file, replacing its contents.
+     */
+    public static void write(ReachabilityGraph graph, File file) throws IOException {
+        CompiledNet net = graph.getCompiledNet();
+        int stateCount = graph.getStateCount();
+        int edgeCount = graph.getEdgeCount();
+        int[] marking = new int[net.getPlaceCount()];
+        byte[] buffer = new byte[Math.max(1, marking.length * 5)];
+
+        /*
+         * The size of the packed markings is needed to size the file
+         */
+        long dataLength = 0;
+        for (int state = 0; state < stateCount; state++) {
+            graph.getStates().get(state, marking);
+            dataLength += CompactStateStore.encode(marking, buffer);
+        }
+        int tableLength = Integer.highestOneBit(Math.max(1, stateCount)) << 1;
+        if (tableLength <= 0) {
+            throw new IOException("The graph has too many states to be written");
+        }
+
+        long offsetsPosition = HEADER_SIZE;
+        long tablePosition = offsetsPosition + ((long) stateCount + 1) * 8;
+        long firstEdgesPosition = tablePosition + (long) tableLength * 8;
+        long targetsPosition = firstEdgesPosition + align(((long) stateCount + 1) * 4);
+        long transitionsPosition = targetsPosition + align((long) edgeCount * 4);
+        long dataPosition = transitionsPosition + align((long) edgeCount * 4);
+        long length = dataPosition + dataLength;
+
+        MappedFile mapped = new MappedFile(file, length);
+        mapped.putInt(0, MAGIC);
+        mapped.putInt(4, VERSION);
+        mapped.putInt(8, net.getPlaceCount());
+        mapped.putInt(12, net.getTransitionCount());
+        mapped.putInt(16, stateCount);
+        mapped.putInt(20, edgeCount);
+        mapped.putInt(24, tableLength);
+        mapped.putInt(28, 0);
+        mapped.putLong(32, offsetsPosition);
+        mapped.putLong(40, tablePosition);
+        mapped.putLong(48, firstEdgesPosition);
+        mapped.putLong(56, targetsPosition);
+        mapped.putLong(64, transitionsPosition);
+        mapped.putLong(72, dataPosition);
+        mapped.putLong(80, length);
+
+        long offset = 0;
+        int mask = tableLength - 1;
+        for (int state = 0; state < stateCount; state++) {
+            graph.getStates().get(state, marking);
+            int encodedLength = CompactStateStore.encode(marking, buffer);
+            mapped.putLong(offsetsPosition + ((long) state << 3), offset);
+            for (int i = 0; i < encodedLength; i++) {
+                mapped.putByte(dataPosition + offset + i, buffer[i]);
+            }
+            offset += encodedLength;
+
+            int hash = CompactStateStore.hash(buffer, encodedLength);
+            int slot = hash & mask;
+            while (mapped.getLong(tablePosition + ((long) slot << 3)) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            mapped.putLong(tablePosition + ((long) slot << 3), ((long) hash << 32) | (state + 1));
+        }
+        mapped.putLong(offsetsPosition + ((long) stateCount << 3), offset);
+
+        for (int state = 0; state <= stateCount; state++) {
+            mapped.putInt(firstEdgesPosition + ((long) state << 2), graph.getFirstEdge(state));
+        }
+        for (int edge = 0; edge < edgeCount; edge++) {
+            mapped.putInt(targetsPosition + ((long) edge << 2), graph.getEdgeTarget(edge));
+            mapped.putInt(transitionsPosition + ((long) edge << 2), graph.getEdgeTransition(edge));
+        }
+        mapped.force();
+    }
+
+    /**
+     * Opens a graph written by write(). The returned graph reads the mapped
+     * file, which must not be changed while the graph is used.
+     *
+     * @param file file of the graph
+     * @param net compiled net the graph was explored from
+     * @throws IOException if the file cannot be read, is not a reachability
+     * graph file of this version or was written for a net with another
+     * number of places or transitions
+     */
+    public static ReachabilityGraph read(File file, CompiledNet net) throws IOException {
+        MappedFile mapped = new MappedFile(file);
+        if (mapped.length() < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a reachability graph file");
+        }
+        if (mapped.getInt(4) != VERSION) {
+            throw new IOException(file + " has version " + mapped.getInt(4) + " of the reachability graph format, " +
+                    "only version " + VERSION + " can be read");
+        }
+        if (mapped.getLong(80) != mapped.length()) {
+            throw new IOException(file + " is truncated");
+        }
+        int placeCount = mapped.getInt(8);
+        if (placeCount != net.getPlaceCount() || mapped.getInt(12) != net.getTransitionCount()) {
+            throw new IOException(file + " was written for another net");
+        }
+        int stateCount = mapped.getInt(16);
+        int edgeCount = mapped.getInt(20);
+        StateStore states = new MappedStateStore(mapped, placeCount, stateCount,
+                mapped.getLong(32), mapped.getLong(72), mapped.getLong(40), mapped.getInt(24));
+        return new ReachabilityGraph(net, states,
+                new MappedIntList(mapped, mapped.getLong(48), stateCount + 1),
+                new MappedIntList(mapped, mapped.getLong(56), edgeCount),
+                new MappedIntList(mapped, mapped.getLong(64), edgeCount));
+    }
+
+    private static long align(long length) {
+        return (length + 7) & ~7L;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.statespace;
+
+import java.io.File;
+
+/**
+ * StateStore made of several CompactStateStores or DiskStateStores (shards),
+ * so that threads adding markings to different shards do not wait for each
+ * other. The shard of a marking is chosen by its hash.
+ *
+ * Every shard numbers its markings locally; the state numbers of the whole
+ * store are assigned separately with assign(), which lets the
+ * ParallelStateSpaceExplorer number the states in a deterministic order.
+ * Only the locked methods may be called by several threads at the same time.
+ */
+class ShardedStateStore implements StateStore {
+
+    static final class Shard {
+
+        final StateStore store;
+        /*
+         * State number of every local state, -1 while not assigned.
+         */
+        final IntChunkList numbers = new IntChunkList();
+        /*
+         * First local state added during the current level.
+         */
+        int levelStart = 0;
+        /*
+         * For each local state added during the current level, the first
+         * state and transition (in exploration order) that lead to it.
+         */
+        final IntChunkList parents = new IntChunkList();
+        final IntChunkList transitions = new IntChunkList();
+
+        Shard(StateStore store) {
+            this.store = store;
+        }
+    }
+
+    private final int placeCount;
+    private final int shardBits;
+    private final Shard[] shards;
+    private final LongChunkList locations = new LongChunkList();
+
+    /**
+     * @param spillDirectory if not null, the shards are DiskStateStores
+     * sharing the memory budget, otherwise CompactStateStores
+     */
+    ShardedStateStore(int placeCount, int shardBits, File spillDirectory, long memoryBudget) {
+        this.placeCount = placeCount;
+        this.shardBits = shardBits;
+        this.shards = new Shard[1 << shardBits];
+        for (int i = 0; i < shards.length; i++) {
+            if (spillDirectory != null) {
+                shards[i] = new Shard(new DiskStateStore(placeCount, spillDirectory, memoryBudget >> shardBits));
+            } else {
+                shards[i] = new Shard(new CompactStateStore(placeCount));
+            }
+        }
+    }
+
+    Shard[] getShards() {
+        return shards;
+    }
+
+    int shardOf(int[] marking) {
+        int hash = 0x2f1a5c3b;
+        for (int value : marking) {
+            hash = (hash ^ value) * 0x9e3779b1;
+        }
+        hash ^= hash >>> 15;
+        hash *= 0x2c1b3c6d;
+        hash ^= hash >>> 12;
+        return shardBits == 0 ? 0 : hash >>> (32 - shardBits);
+    }
+
+    /**
+     * Gives the next state number to a local state of a shard.
+     */
+    int assign(int shard, int local) {
+        int state = locations.size();
+        locations.add(((long) shard << 32) | local);
+        IntChunkList numbers = shards[shard].numbers;
+        while (numbers.size() <= local) {
+            numbers.add(-1);
+        }
+        numbers.set(local, state);
+        return state;
+    }
+
+    /**
+     * Returns the state number of a local state of a shard, -1 if not
+     * assigned yet.
+     */
+    int numberOf(int shard, int local) {
+        IntChunkList numbers = shards[shard].numbers;
+        return local < numbers.size() ? numbers.get(local) : -1;
+    }
+
+    /**
+     * Copies the marking of a state while other threads may add markings.
+     */
+    void getLocked(int state, int[] marking) {
+        long location = locations.get(state);
+        Shard shard = shards[(int) (location >>> 32)];
+        synchronized (shard) {
+            shard.store.get((int) location, marking);
+        }
+    }
+
+    public int add(int[] marking) {
+        int shard = shardOf(marking);
+        int local = shards[shard].store.add(marking);
+        if (local < 0) {
+            return -(numberOf(shard, -local - 1) + 1);
+        }
+        return assign(shard, local);
+    }
+
+    public int find(int[] marking) {
+        int shard = shardOf(marking);
+        int local = shards[shard].store.find(marking);
+        return local < 0 ? -1 : numberOf(shard, local);
+    }
+
+    public void get(int state, int[] marking) {
+        long location = locations.get(state);
+        shards[(int) (location >>> 32)].store.get((int) location, marking);
+    }
+
+    public int size() {
+        return locations.size();
+    }
+
+    public int getPlaceCount() {
+        return placeCount;
+    }
+
+    public long getMemoryUsage() {
+        long memory = locations.getMemoryUsage();
+        for (Shard shard : shards) {
+            memory += shard.store.getMemoryUsage() + shard.numbers.getMemoryUsage();
+        }
+        return memory;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.statespace;
+
+import java.io.File;
+
+/**
+ * IntChunkList keeping its first elements in the heap, up to a memory budget,
+ * and the next ones in memory mapped files.
+ */
+class SpillingIntList extends IntChunkList {
+
+    private static final int SEGMENT_BITS = 24;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+
+    private final File directory;
+    private final int heapLimit;
+    private MappedSegments segments;
+    private int size = 0;
+
+    /**
+     * @param directory where the segment files are created
+     * @param memoryBudget bytes of heap after which the elements are spilled
+     */
+    SpillingIntList(File directory, long memoryBudget) {
+        this.directory = directory;
+        this.heapLimit = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memoryBudget / 4));
+    }
+
+    @Override
+    void add(int value) {
+        if (size < heapLimit) {
+            super.add(value);
+        } else {
+            if (segments == null) {
+                segments = new MappedSegments(directory, "ints", 4 << SEGMENT_BITS);
+            }
+            int index = size - heapLimit;
+            segments.get(index >>> SEGMENT_BITS).putInt((index & SEGMENT_MASK) << 2, value);
+        }
+        size++;
+    }
+
+    @Override
+    int get(int index) {
+        if (index < heapLimit) {
+            return super.get(index);
+        }
+        index -= heapLimit;
+        return segments.get(index >>> SEGMENT_BITS).getInt((index & SEGMENT_MASK) << 2);
+    }
+
+    @Override
+    void set(int index, int value) {
+        if (index < heapLimit) {
+            super.set(index, value);
+        } else {
+            index -= heapLimit;
+            segments.get(index >>> SEGMENT_BITS).putInt((index & SEGMENT_MASK) << 2, value);
+        }
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    void clear() {
+        super.clear();
+        size = 0;
+    }
+}
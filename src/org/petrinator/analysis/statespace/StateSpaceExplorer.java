@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.statespace;
+
+import java.io.File;
+
+import org.petrinator.petrinet.CompiledNet;
+import org.petrinator.petrinet.PetriNet;
+
+/**
+ * Builds the reachability graph of a net by breadth-first search over the
+ * compiled net. States are numbered in the order they are found, which is
+ * also the order they are expanded, so the frontier is just the range of
+ * states not expanded yet and needs no queue.
+ *
+ * Static places are taken as ordinary places of the marking.
+ */
+public class StateSpaceExplorer {
+
+    private final CompiledNet net;
+    private final int[] initialMarking;
+    private int maxStates = 10000000;
+    private StateStore store;
+    private File spillDirectory;
+    private long memoryBudget;
+    private volatile boolean cancelled = false;
+    private long elapsedTime = 0;
+    private int lastStateCount = 0;
+
+    /**
+     * Creates an explorer starting from the initial marking of a Petri net.
+     */
+    public StateSpaceExplorer(PetriNet petriNet) {
+        this(petriNet.getCompiledNet(), petriNet.getInitialMarking().getTokenArray());
+    }
+
+    /**
+     * @param net compiled net to explore
+     * @param initialMarking tokens indexed by place, copied
+     */
+    public StateSpaceExplorer(CompiledNet net, int[] initialMarking) {
+        this.net = net;
+        this.initialMarking = initialMarking.clone();
+    }
+
+    /**
+     * Creates the explorer of a Petri net chosen by the user: a
+     * ParallelStateSpaceExplorer numbering the states like the sequential
+     * one, or a StateSpaceExplorer.
+     */
+    public static StateSpaceExplorer create(PetriNet petriNet, boolean parallel) {
+        StateSpaceExplorer explorer;
+        if (parallel) {
+            ParallelStateSpaceExplorer parallelExplorer = new ParallelStateSpaceExplorer(petriNet);
+            parallelExplorer.setDeterministicNumbering(true);
+            explorer = parallelExplorer;
+        } else {
+            explorer = new StateSpaceExplorer(petriNet);
+        }
+        explorer.setSpillDirectory(new File("tmp"), Runtime.getRuntime().maxMemory() / 4);
+        return explorer;
+    }
+
+    public CompiledNet getCompiledNet() {
+        return net;
+    }
+
+    /**
+     * Returns the marking the exploration starts from. It must not be
+     * modified.
+     */
+    protected int[] getInitialMarking() {
+        return initialMarking;
+    }
+
+    /**
+     * Sets the number of states after which the exploration gives up.
+     */
+    public void setMaxStates(int maxStates) {
+        this.maxStates = maxStates;
+    }
+
+    public int getMaxStates() {
+        return maxStates;
+    }
+
+    /**
+     * Sets the store the states are kept in. By default a new
+     * CompactStateStore is used.
+     */
+    public void setStateStore(StateStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Makes the exploration keep at most about memoryBudget bytes of states
+     * and edges in the heap, the rest going to memory mapped files in the
+     * specified directory (see DiskStateStore). Ignored if a store was set
+     * with setStateStore().
+     *
+     * @param directory where the files are created, null to keep everything
+     * in the heap
+     */
+    public void setSpillDirectory(File directory, long memoryBudget) {
+        this.spillDirectory = directory;
+        this.memoryBudget = memoryBudget;
+    }
+
+    protected File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    protected long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /*
+     * Half of the memory budget goes to the states, the rest to the three
+     * edge lists.
+     */
+    StateStore createStateStore() {
+        if (store != null) {
+            return store;
+        }
+        if (spillDirectory != null) {
+            return new DiskStateStore(net.getPlaceCount(), spillDirectory, memoryBudget / 2);
+        }
+        return new CompactStateStore(net.getPlaceCount());
+    }
+
+    IntChunkList createIntList() {
+        if (spillDirectory == null) {
+            return new IntChunkList();
+        }
+        return new SpillingIntList(spillDirectory, memoryBudget / 6);
+    }
+
+    /**
+     * Makes a running explore() give up. May be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    protected boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns the duration of the last exploration in milliseconds.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Returns the number of states found per second by the last exploration.
+     */
+    public double getStatesPerSecond() {
+        return lastStateCount * 1000.0 / Math.max(1, elapsedTime);
+    }
+
+    /**
+     * Explores the state space.
+     *
+     * @return the reachability graph
+     * @throws StateSpaceTooBigException if there are more than getMaxStates()
+     * states
+     * @throws InterruptedException if cancel() was called
+     */
+    public ReachabilityGraph explore() throws StateSpaceTooBigException, InterruptedException {
+        cancelled = false;
+        long start = System.currentTimeMillis();
+        ReachabilityGraph graph = search();
+        elapsedTime = System.currentTimeMillis() - start;
+        lastStateCount = graph.getStateCount();
+        return graph;
+    }
+
+    /**
+     * Does the actual exploration for explore().
+     */
+    protected ReachabilityGraph search() throws StateSpaceTooBigException, InterruptedException {
+        StateStore states = createStateStore();
+        IntChunkList firstEdges = createIntList();
+        IntChunkList targets = createIntList();
+        IntChunkList transitions = createIntList();
+
+        int[] marking = new int[net.getPlaceCount()];
+        int[] next = new int[net.getPlaceCount()];
+        states.add(initialMarking);
+        for (int state = 0; state < states.size(); state++) {
+            if (cancelled) {
+                throw new InterruptedException("State space exploration cancelled");
+            }
+            states.get(state, marking);
+            firstEdges.add(targets.size());
+            for (int t = 0; t < net.getTransitionCount(); t++) {
+                if (net.isEnabled(t, marking)) {
+                    System.arraycopy(marking, 0, next, 0, marking.length);
+                    net.fire(t, next);
+                    int target = states.add(next);
+                    if (target < 0) {
+                        target = -target - 1;
+                    } else if (states.size() > maxStates) {
+                        throw new StateSpaceTooBigException(maxStates);
+                    }
+                    targets.add(target);
+                    transitions.add(t);
+                }
+            }
+        }
+        firstEdges.add(targets.size());
+        return new ReachabilityGraph(net, states, firstEdges, targets, transitions);
+    }
+}
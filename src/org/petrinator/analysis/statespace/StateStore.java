@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.statespace;
+
+/**
+ * Set of markings found during a state space exploration. Every stored
+ * marking gets a state number, assigned consecutively from 0 in the order
+ * the markings are added.
+ */
+public interface StateStore {
+
+    /**
+     * Adds a marking if it is not stored yet.
+     *
+     * @param marking tokens indexed by place, it is not kept
+     * @return the number of the new state, or -(number + 1) if the marking
+     * was already stored
+     */
+    public int add(int[] marking);
+
+    /**
+     * Returns the number of the state of a marking, or -1 if it is not
+     * stored.
+     */
+    public int find(int[] marking);
+
+    /**
+     * Copies the marking of a state into the specified array.
+     */
+    public void get(int state, int[] marking);
+
+    public int size();
+
+    public int getPlaceCount();
+
+    /**
+     * Returns an estimate of the heap used by the store, in bytes.
+     */
+    public long getMemoryUsage();
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.statespace;
+
+import org.petrinator.petrinet.CompiledNet;
+import org.petrinator.petrinet.PetriNet;
+
+/**
+ * StateSpaceExplorer firing, in every marking, only the enabled transitions
+ * of a stubborn set instead of all of them. The reduced graph has every
+ * deadlock of the full one, and for each path to a deadlock a permutation of
+ * it, so the shortest path to a deadlock keeps its length. With a target
+ * marking (setTarget()) it preserves instead the paths to that marking; its
+ * other dead states are then not deadlocks of the net.
+ *
+ * A stubborn set S of a marking M satisfies:
+ * <ul>
+ * <li>an enabled transition of S brings in every transition that could
+ * disable it, that it could disable, or whose effect does not commute with
+ * its own (reset arcs);</li>
+ * <li>a disabled transition of S brings in every transition that could
+ * increase one of its insufficient input places, or decrease one of its
+ * blocking inhibitor places;</li>
+ * <li>S holds an enabled transition if M is not dead, or, with a target
+ * marking, every transition moving one of the places that differ from the
+ * target towards it.</li>
+ * </ul>
+ * In the deadlock mode every enabled transition is tried as the seed of S,
+ * and the set with the fewest enabled transitions is fired.
+ */
+public class StubbornSetExplorer extends StateSpaceExplorer {
+
+    private final int[][] dependents;
+    private final int[][] increasing;
+    private final int[][] decreasing;
+    private int[] target;
+    private long enabledFirings = 0;
+    private long firings = 0;
+
+    private final int[] stamps;
+    private int stamp = 0;
+    private final int[] stack;
+    private int[] candidate;
+    private int[] best;
+    private int bestSize;
+
+    public StubbornSetExplorer(PetriNet petriNet) {
+        this(petriNet.getCompiledNet(), petriNet.getInitialMarking().getTokenArray());
+    }
+
+    public StubbornSetExplorer(CompiledNet net, int[] initialMarking) {
+        super(net, initialMarking);
+        int transitionCount = net.getTransitionCount();
+        int placeCount = net.getPlaceCount();
+        int[][] inputs = new int[transitionCount][];
+        int[][] resets = new int[transitionCount][];
+        int[][] outputs = new int[transitionCount][];
+        int[][] inhibitors = new int[transitionCount][];
+        for (int t = 0; t < transitionCount; t++) {
+            inputs[t] = net.getInputPlaces(t);
+            resets[t] = net.getResetPlaces(t);
+            outputs[t] = net.getOutputPlaces(t);
+            inhibitors[t] = net.getInhibitorPlaces(t);
+        }
+        int[][] consumers = byPlace(placeCount, inputs);
+        int[][] resetters = byPlace(placeCount, resets);
+        int[][] producers = byPlace(placeCount, outputs);
+        int[][] inhibited = byPlace(placeCount, inhibitors);
+        increasing = producers;
+        decreasing = new int[placeCount][];
+        for (int p = 0; p < placeCount; p++) {
+            decreasing[p] = new int[consumers[p].length + resetters[p].length];
+            System.arraycopy(consumers[p], 0, decreasing[p], 0, consumers[p].length);
+            System.arraycopy(resetters[p], 0, decreasing[p], consumers[p].length, resetters[p].length);
+        }
+
+        stamps = new int[transitionCount];
+        stack = new int[transitionCount];
+        candidate = new int[transitionCount];
+        best = new int[transitionCount];
+        dependents = new int[transitionCount][];
+        for (int t = 0; t < transitionCount; t++) {
+            stamp++;
+            stamps[t] = stamp;
+            int size = 0;
+            for (int p : inputs[t]) {
+                // they may disable t, or be disabled by it
+                size = push(decreasing[p], size);
+            }
+            for (int p : inhibitors[t]) {
+                size = push(producers[p], size);
+            }
+            for (int p : outputs[t]) {
+                size = push(inhibited[p], size);
+            }
+            for (int p : resets[t]) {
+                // a reset does not commute with any change of the place
+                size = push(decreasing[p], size);
+                size = push(producers[p], size);
+            }
+            for (int[] changed : new int[][]{inputs[t], outputs[t]}) {
+                for (int p : changed) {
+                    size = push(resetters[p], size);
+                }
+            }
+            dependents[t] = new int[size];
+            System.arraycopy(stack, 0, dependents[t], 0, size);
+        }
+    }
+
+    /**
+     * Makes the exploration preserve the paths to the specified marking
+     * instead of the deadlocks.
+     *
+     * @param target tokens indexed by place, null for the deadlock mode
+     */
+    public void setTarget(int[] target) {
+        this.target = target == null ? null : target.clone();
+    }
+
+    /**
+     * Returns the number of firings of enabled transitions that the last
+     * exploration skipped.
+     */
+    public long getSkippedFirings() {
+        return enabledFirings - firings;
+    }
+
+    @Override
+    protected ReachabilityGraph search() throws StateSpaceTooBigException, InterruptedException {
+        CompiledNet net = getCompiledNet();
+        StateStore states = createStateStore();
+        IntChunkList firstEdges = createIntList();
+        IntChunkList targets = createIntList();
+        IntChunkList transitions = createIntList();
+        enabledFirings = 0;
+        firings = 0;
+
+        int[] marking = new int[net.getPlaceCount()];
+        int[] next = new int[net.getPlaceCount()];
+        boolean[] fire = new boolean[net.getTransitionCount()];
+        states.add(getInitialMarking());
+        for (int state = 0; state < states.size(); state++) {
+            if (isCancelled()) {
+                throw new InterruptedException("State space exploration cancelled");
+            }
+            states.get(state, marking);
+            firstEdges.add(targets.size());
+            int enabled = stubbornSet(marking, fire);
+            enabledFirings += enabled;
+            for (int t = 0; t < net.getTransitionCount(); t++) {
+                if (fire[t]) {
+                    fire[t] = false;
+                    firings++;
+                    System.arraycopy(marking, 0, next, 0, marking.length);
+                    net.fire(t, next);
+                    int successor = states.add(next);
+                    if (successor < 0) {
+                        successor = -successor - 1;
+                    } else if (states.size() > getMaxStates()) {
+                        throw new StateSpaceTooBigException(getMaxStates());
+                    }
+                    targets.add(successor);
+                    transitions.add(t);
+                }
+            }
+        }
+        firstEdges.add(targets.size());
+        return new ReachabilityGraph(net, states, firstEdges, targets, transitions);
+    }
+
+    /*
+     * Flags the enabled transitions of a stubborn set of the marking in fire,
+     * returns the number of enabled transitions of the marking.
+     */
+    private int stubbornSet(int[] marking, boolean[] fire) {
+        CompiledNet net = getCompiledNet();
+        int enabled = 0;
+        bestSize = Integer.MAX_VALUE;
+        if (target != null) {
+            for (int t = 0; t < net.getTransitionCount(); t++) {
+                if (net.isEnabled(t, marking)) {
+                    enabled++;
+                }
+            }
+            int[] seeds = null;
+            for (int p = 0; p < marking.length; p++) {
+                int[] moving = marking[p] < target[p] ? increasing[p] : marking[p] > target[p] ? decreasing[p] : null;
+                if (moving != null && (seeds == null || moving.length < seeds.length)) {
+                    seeds = moving;
+                }
+            }
+            if (seeds != null) {
+                close(marking, seeds);
+            }
+        } else {
+            int[] seed = new int[1];
+            for (int t = 0; t < net.getTransitionCount() && bestSize > 1; t++) {
+                if (net.isEnabled(t, marking)) {
+                    enabled++;
+                    seed[0] = t;
+                    close(marking, seed);
+                }
+            }
+            if (bestSize <= 1) {
+                // the remaining enabled transitions were not counted
+                enabled = 0;
+                for (int t = 0; t < net.getTransitionCount(); t++) {
+                    if (net.isEnabled(t, marking)) {
+                        enabled++;
+                    }
+                }
+            }
+        }
+        if (bestSize != Integer.MAX_VALUE) {
+            for (int i = 0; i < bestSize; i++) {
+                fire[best[i]] = true;
+            }
+        }
+        return enabled;
+    }
+
+    /*
+     * Computes the stubborn set closing the seeds and keeps its enabled
+     * transitions in best if they are fewer than the best ones so far.
+     */
+    private void close(int[] marking, int[] seeds) {
+        CompiledNet net = getCompiledNet();
+        stamp++;
+        int size = 0;
+        for (int t : seeds) {
+            if (stamps[t] != stamp) {
+                stamps[t] = stamp;
+                stack[size++] = t;
+            }
+        }
+        int enabledCount = 0;
+        for (int i = 0; i < size && enabledCount < bestSize; i++) {
+            int t = stack[i];
+            if (net.isEnabled(t, marking)) {
+                candidate[enabledCount++] = t;
+                size = push(dependents[t], size);
+            } else {
+                size = push(blockers(t, marking), size);
+            }
+        }
+        if (enabledCount > 0 && enabledCount < bestSize) {
+            int[] swap = best;
+            best = candidate;
+            candidate = swap;
+            bestSize = enabledCount;
+        }
+    }
+
+    /*
+     * Returns the transitions that could remove the cheapest reason why a
+     * disabled transition is disabled.
+     */
+    private int[] blockers(int transition, int[] marking) {
+        CompiledNet net = getCompiledNet();
+        int[] blockers = null;
+        int[] places = net.getInputPlaces(transition);
+        int[] weights = net.getInputWeights(transition);
+        for (int i = 0; i < places.length; i++) {
+            if (marking[places[i]] < weights[i] && (blockers == null || increasing[places[i]].length < blockers.length)) {
+                blockers = increasing[places[i]];
+            }
+        }
+        places = net.getInhibitorPlaces(transition);
+        weights = net.getInhibitorWeights(transition);
+        for (int i = 0; i < places.length; i++) {
+            if (marking[places[i]] >= weights[i] && (blockers == null || decreasing[places[i]].length < blockers.length)) {
+                blockers = decreasing[places[i]];
+            }
+        }
+        // null for a transition that is never enabled
+        return blockers == null ? new int[0] : blockers;
+    }
+
+    private int push(int[] transitions, int size) {
+        for (int t : transitions) {
+            if (stamps[t] != stamp) {
+                stamps[t] = stamp;
+                stack[size++] = t;
+            }
+        }
+        return size;
+    }
+
+    /*
+     * Returns for every place the transitions having it in their array of
+     * places.
+     */
+    private static int[][] byPlace(int placeCount, int[][] placesOf) {
+        int[] counts = new int[placeCount];
+        for (int[] places : placesOf) {
+            for (int p : places) {
+                counts[p]++;
+            }
+        }
+        int[][] transitions = new int[placeCount][];
+        for (int p = 0; p < placeCount; p++) {
+            transitions[p] = new int[counts[p]];
+            counts[p] = 0;
+        }
+        for (int t = 0; t < placesOf.length; t++) {
+            for (int p : placesOf[t]) {
+                transitions[p][counts[p]++] = t;
+            }
+        }
+        return transitions;
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.symbolic;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Forest of quasi-reduced multi-valued decision diagrams (MDDs) encoding sets
+ * of markings. Level l holds the tokens of place l: a node of level l has one
+ * child per token count, at level l + 1, and the levels below the last place
+ * end in the terminal FULL. EMPTY stands for the empty set at any level.
+ *
+ * Nodes are unique (hash consed), so equal sets are equal node numbers, and
+ * are never freed. The results of the operations are kept in a lossy computed
+ * table indexed by the operation and its operands.
+ */
+class MddForest {
+
+    static final int EMPTY = 0;
+    static final int FULL = 1;
+
+    static final int UNION = 0;
+    static final int INTERSECTION = 1;
+    static final int DIFFERENCE = 2;
+    /**
+     * First code free for the operations of the users of the forest.
+     */
+    static final int USER_OPERATIONS = 3;
+
+    private static final int CACHE_BITS_MAX = 24;
+
+    private final int levelCount;
+    private final int maxNodes;
+    private int[] levels = new int[1024];
+    private int[] starts = new int[1024];
+    private int[] lengths = new int[1024];
+    private int nodeCount = 2;
+    private int[] pool = new int[4096];
+    private int poolSize = 0;
+    private int[] unique = new int[1024];
+
+    private int cacheBits = 16;
+    private long[] cacheOperands = new long[1 << cacheBits];
+    private int[] cacheOperations = new int[1 << cacheBits];
+    private int[] cacheResults = new int[1 << cacheBits];
+
+    /**
+     * @param levelCount number of places
+     * @param maxNodes number of nodes after which make() fails
+     */
+    MddForest(int levelCount, int maxNodes) {
+        this.levelCount = levelCount;
+        this.maxNodes = maxNodes;
+        Arrays.fill(cacheOperations, -1);
+    }
+
+    int getLevelCount() {
+        return levelCount;
+    }
+
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Returns an estimate of the heap used by the forest, in bytes.
+     */
+    long getMemoryUsage() {
+        return 4L * (levels.length + starts.length + lengths.length + pool.length + unique.length)
+                + 16L * cacheOperands.length;
+    }
+
+    int getLevel(int node) {
+        return node < 2 ? levelCount : levels[node];
+    }
+
+    /**
+     * Returns the number of children of a node, those beyond being EMPTY.
+     */
+    int getChildCount(int node) {
+        return node < 2 ? 0 : lengths[node];
+    }
+
+    int getChild(int node, int index) {
+        return index < lengths[node] ? pool[starts[node] + index] : EMPTY;
+    }
+
+    /**
+     * Returns the unique node of a level with the specified children, EMPTY
+     * if they all are.
+     *
+     * @throws MddTooBigException if the forest would exceed its node limit
+     */
+    int make(int level, int[] children, int length) throws MddTooBigException {
+        while (length > 0 && children[length - 1] == EMPTY) {
+            length--;
+        }
+        if (length == 0) {
+            return EMPTY;
+        }
+        int hash = hash(level, children, 0, length);
+        int mask = unique.length - 1;
+        int slot = hash & mask;
+        int node;
+        while ((node = unique[slot]) != 0) {
+            if (levels[node] == level && lengths[node] == length && equal(starts[node], children, length)) {
+                return node;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (nodeCount >= maxNodes) {
+            throw new MddTooBigException(maxNodes);
+        }
+        if (nodeCount == levels.length) {
+            levels = Arrays.copyOf(levels, nodeCount * 2);
+            starts = Arrays.copyOf(starts, nodeCount * 2);
+            lengths = Arrays.copyOf(lengths, nodeCount * 2);
+        }
+        while (poolSize + length > pool.length) {
+            pool = Arrays.copyOf(pool, pool.length * 2);
+        }
+        node = nodeCount++;
+        levels[node] = level;
+        starts[node] = poolSize;
+        lengths[node] = length;
+        System.arraycopy(children, 0, pool, poolSize, length);
+        poolSize += length;
+        unique[slot] = node;
+        if (nodeCount > unique.length / 2) {
+            growUnique();
+        }
+        if (nodeCount > 1 << cacheBits && cacheBits < CACHE_BITS_MAX) {
+            growCache();
+        }
+        return node;
+    }
+
+    /**
+     * Returns the set holding only the specified marking.
+     */
+    int singleton(int[] marking) throws MddTooBigException {
+        int node = FULL;
+        for (int level = levelCount - 1; level >= 0; level--) {
+            int[] children = new int[marking[level] + 1];
+            children[marking[level]] = node;
+            node = make(level, children, children.length);
+        }
+        return node;
+    }
+
+    int union(int a, int b) throws MddTooBigException {
+        if (a == EMPTY || a == b) {
+            return b;
+        }
+        if (b == EMPTY) {
+            return a;
+        }
+        if (a > b) {
+            int swap = a;
+            a = b;
+            b = swap;
+        }
+        int cached = lookup(UNION, a, b);
+        if (cached >= 0) {
+            return cached;
+        }
+        int length = Math.max(lengths[a], lengths[b]);
+        int[] children = new int[length];
+        for (int i = 0; i < length; i++) {
+            children[i] = union(getChild(a, i), getChild(b, i));
+        }
+        return store(UNION, a, b, make(levels[a], children, length));
+    }
+
+    int intersection(int a, int b) throws MddTooBigException {
+        if (a == EMPTY || b == EMPTY) {
+            return EMPTY;
+        }
+        if (a == b) {
+            return a;
+        }
+        if (a > b) {
+            int swap = a;
+            a = b;
+            b = swap;
+        }
+        int cached = lookup(INTERSECTION, a, b);
+        if (cached >= 0) {
+            return cached;
+        }
+        int length = Math.min(lengths[a], lengths[b]);
+        int[] children = new int[length];
+        for (int i = 0; i < length; i++) {
+            children[i] = intersection(getChild(a, i), getChild(b, i));
+        }
+        return store(INTERSECTION, a, b, make(levels[a], children, length));
+    }
+
+    /**
+     * Returns the markings of a that are not in b.
+     */
+    int difference(int a, int b) throws MddTooBigException {
+        if (a == EMPTY || a == b) {
+            return EMPTY;
+        }
+        if (b == EMPTY) {
+            return a;
+        }
+        int cached = lookup(DIFFERENCE, a, b);
+        if (cached >= 0) {
+            return cached;
+        }
+        int length = lengths[a];
+        int[] children = new int[length];
+        for (int i = 0; i < length; i++) {
+            children[i] = difference(getChild(a, i), getChild(b, i));
+        }
+        return store(DIFFERENCE, a, b, make(levels[a], children, length));
+    }
+
+    /**
+     * Returns the number of markings of a set.
+     */
+    BigInteger count(int node) {
+        return count(node, new HashMap<Integer, BigInteger>());
+    }
+
+    private BigInteger count(int node, Map<Integer, BigInteger> counts) {
+        if (node < 2) {
+            return node == FULL ? BigInteger.ONE : BigInteger.ZERO;
+        }
+        BigInteger count = counts.get(node);
+        if (count == null) {
+            count = BigInteger.ZERO;
+            for (int i = 0; i < lengths[node]; i++) {
+                count = count.add(count(getChild(node, i), counts));
+            }
+            counts.put(node, count);
+        }
+        return count;
+    }
+
+    /**
+     * Returns a marking of a non empty set.
+     */
+    int[] pick(int node) {
+        int[] marking = new int[levelCount];
+        while (node != FULL) {
+            int i = 0;
+            while (getChild(node, i) == EMPTY) {
+                i++;
+            }
+            marking[levels[node]] = i;
+            node = getChild(node, i);
+        }
+        return marking;
+    }
+
+    /**
+     * Returns for every place the largest number of tokens in the markings of
+     * a set. Every child of a node that is not EMPTY leads to FULL, so this is
+     * the largest child index of the nodes of each level.
+     */
+    int[] bounds(int node) {
+        int[] bounds = new int[levelCount];
+        BitSet visited = new BitSet(nodeCount);
+        int[] stack = new int[nodeCount];
+        int size = 0;
+        if (node >= 2) {
+            stack[size++] = node;
+            visited.set(node);
+        }
+        while (size > 0) {
+            int n = stack[--size];
+            bounds[levels[n]] = Math.max(bounds[levels[n]], lengths[n] - 1);
+            for (int i = 0; i < lengths[n]; i++) {
+                int child = getChild(n, i);
+                if (child >= 2 && !visited.get(child)) {
+                    visited.set(child);
+                    stack[size++] = child;
+                }
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Looks up the computed table.
+     *
+     * @return the cached result, or -1
+     */
+    int lookup(int operation, int a, int b) {
+        int slot = cacheSlot(operation, a, b);
+        if (cacheOperations[slot] == operation && cacheOperands[slot] == (((long) a << 32) | (b & 0xffffffffL))) {
+            return cacheResults[slot];
+        }
+        return -1;
+    }
+
+    /**
+     * Puts a result in the computed table and returns it.
+     */
+    int store(int operation, int a, int b, int result) {
+        int slot = cacheSlot(operation, a, b);
+        cacheOperations[slot] = operation;
+        cacheOperands[slot] = ((long) a << 32) | (b & 0xffffffffL);
+        cacheResults[slot] = result;
+        return result;
+    }
+
+    private int cacheSlot(int operation, int a, int b) {
+        int hash = (operation * 0x9e3779b1 + a) * 0x85ebca6b + b;
+        hash ^= hash >>> 15;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 13;
+        return hash & ((1 << cacheBits) - 1);
+    }
+
+    private void growCache() {
+        cacheBits++;
+        cacheOperands = new long[1 << cacheBits];
+        cacheOperations = new int[1 << cacheBits];
+        cacheResults = new int[1 << cacheBits];
+        Arrays.fill(cacheOperations, -1);
+    }
+
+    private void growUnique() {
+        int[] newUnique = new int[unique.length * 2];
+        int mask = newUnique.length - 1;
+        for (int node = 2; node < nodeCount; node++) {
+            int slot = hash(levels[node], pool, starts[node], lengths[node]) & mask;
+            while (newUnique[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newUnique[slot] = node;
+        }
+        unique = newUnique;
+    }
+
+    private boolean equal(int start, int[] children, int length) {
+        for (int i = 0; i < length; i++) {
+            if (pool[start + i] != children[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(int level, int[] children, int start, int length) {
+        int hash = level * 0x9e3779b1;
+        for (int i = start; i < start + length; i++) {
+            hash = (hash ^ children[i]) * 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.symbolic;
+
+/**
+ * Thrown when a symbolic exploration reaches its limit of decision diagram
+ * nodes, or of tokens in a place, usually because the net is unbounded.
+ */
+public class MddTooBigException extends Exception {
+
+    MddTooBigException(int maxNodes) {
+        super("The decision diagram has more than " + maxNodes + " nodes.");
+    }
+
+    MddTooBigException(String place, int maxTokens) {
+        super("Place " + place + " may hold more than " + maxTokens + " tokens, the net seems unbounded.");
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.symbolic;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.petrinator.petrinet.CompiledNet;
+import org.petrinator.petrinet.PetriNet;
+
+/**
+ * Computes the reachable markings of a bounded net symbolically, as a decision
+ * diagram (see MddForest), so that state spaces far too large to be
+ * enumerated fit in a few nodes when the net has much concurrency.
+ *
+ * The relation of every transition is taken from the compiled net: on each
+ * place it touches, a token count i enabling it becomes i - input + output
+ * (or output after a reset), and the places it does not touch are left
+ * unchanged, which lets the image skip the levels below the last place of the
+ * transition. The fixpoint is computed by chaining: the transitions are
+ * applied one after the other to the set found so far, the ones acting on the
+ * bottom levels first, until a whole round adds nothing.
+ *
+ * Places are ordered as in the compiled net; nets whose related places are
+ * far apart in that order give larger diagrams.
+ */
+public class SymbolicExplorer {
+
+    private final CompiledNet net;
+    private final int[] initialMarking;
+    private int maxNodes = 20000000;
+    private int maxTokens = 1 << 10;
+    private volatile boolean cancelled = false;
+    private long elapsedTime = 0;
+
+    private MddForest forest;
+    private int[][] inputs;
+    private int[][] inhibitors;
+    private int[][] outputs;
+    private boolean[][] resets;
+    private boolean[][] touched;
+    private int[] bottom;
+
+    public SymbolicExplorer(PetriNet petriNet) {
+        this(petriNet.getCompiledNet(), petriNet.getInitialMarking().getTokenArray());
+    }
+
+    /**
+     * @param net compiled net to explore
+     * @param initialMarking tokens indexed by place, copied
+     */
+    public SymbolicExplorer(CompiledNet net, int[] initialMarking) {
+        this.net = net;
+        this.initialMarking = initialMarking.clone();
+    }
+
+    /**
+     * Sets the number of decision diagram nodes after which the exploration
+     * gives up.
+     */
+    public void setMaxNodes(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * Sets the number of tokens of a place after which the net is taken as
+     * unbounded.
+     */
+    public void setMaxTokens(int maxTokens) {
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * Makes a running explore() give up. May be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns the duration of the last exploration in milliseconds.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Computes the reachable markings.
+     *
+     * @throws MddTooBigException if a limit of nodes or tokens is reached
+     * @throws InterruptedException if cancel() was called
+     */
+    public SymbolicStateSpace explore() throws MddTooBigException, InterruptedException {
+        cancelled = false;
+        long start = System.currentTimeMillis();
+        compileRelations();
+        forest = new MddForest(net.getPlaceCount(), maxNodes);
+
+        Integer[] order = new Integer[net.getTransitionCount()];
+        for (int t = 0; t < order.length; t++) {
+            order[t] = t;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return bottom[b] - bottom[a];
+            }
+        });
+
+        int reachable = forest.singleton(initialMarking);
+        int iterations = 0;
+        int previous;
+        do {
+            previous = reachable;
+            for (int t : order) {
+                if (cancelled) {
+                    throw new InterruptedException("Symbolic exploration cancelled");
+                }
+                if (!net.isDead(t)) {
+                    reachable = forest.union(reachable, fire(t, reachable));
+                }
+            }
+            iterations++;
+        } while (reachable != previous);
+
+        int enabled = MddForest.EMPTY;
+        for (int t = 0; t < net.getTransitionCount(); t++) {
+            if (!net.isDead(t)) {
+                enabled = forest.union(enabled, enabled(t, reachable));
+            }
+        }
+        int dead = forest.difference(reachable, enabled);
+        elapsedTime = System.currentTimeMillis() - start;
+        return new SymbolicStateSpace(net, forest, reachable, dead, iterations);
+    }
+
+    private void compileRelations() {
+        int transitionCount = net.getTransitionCount();
+        int placeCount = net.getPlaceCount();
+        inputs = new int[transitionCount][placeCount];
+        inhibitors = new int[transitionCount][placeCount];
+        outputs = new int[transitionCount][placeCount];
+        resets = new boolean[transitionCount][placeCount];
+        touched = new boolean[transitionCount][placeCount];
+        bottom = new int[transitionCount];
+        for (int t = 0; t < transitionCount; t++) {
+            int[] places = net.getInputPlaces(t);
+            int[] weights = net.getInputWeights(t);
+            for (int i = 0; i < places.length; i++) {
+                inputs[t][places[i]] += weights[i];
+                touched[t][places[i]] = true;
+            }
+            places = net.getInhibitorPlaces(t);
+            weights = net.getInhibitorWeights(t);
+            for (int i = 0; i < places.length; i++) {
+                int p = places[i];
+                inhibitors[t][p] = inhibitors[t][p] == 0 ? weights[i] : Math.min(inhibitors[t][p], weights[i]);
+                touched[t][p] = true;
+            }
+            places = net.getOutputPlaces(t);
+            weights = net.getOutputWeights(t);
+            for (int i = 0; i < places.length; i++) {
+                outputs[t][places[i]] += weights[i];
+                touched[t][places[i]] = true;
+            }
+            for (int p : net.getResetPlaces(t)) {
+                resets[t][p] = true;
+                touched[t][p] = true;
+            }
+            bottom[t] = -1;
+            for (int p = 0; p < placeCount; p++) {
+                if (touched[t][p]) {
+                    bottom[t] = p;
+                }
+            }
+        }
+    }
+
+    /*
+     * Returns the markings reached by firing a transition from the markings
+     * of node enabling it.
+     */
+    private int fire(int t, int node) throws MddTooBigException {
+        int level = forest.getLevel(node);
+        if (node == MddForest.EMPTY || level > bottom[t]) {
+            return node;
+        }
+        int operation = MddForest.USER_OPERATIONS + 2 * t;
+        int cached = forest.lookup(operation, node, 0);
+        if (cached >= 0) {
+            return cached;
+        }
+        int length = forest.getChildCount(node);
+        int[] children;
+        if (!touched[t][level]) {
+            children = new int[length];
+            for (int i = 0; i < length; i++) {
+                children[i] = fire(t, forest.getChild(node, i));
+            }
+        } else {
+            int input = inputs[t][level];
+            int inhibitor = inhibitors[t][level];
+            int output = outputs[t][level];
+            children = new int[Math.max(0, resets[t][level] ? output + 1 : length - input + output)];
+            for (int i = input; i < length && (inhibitor == 0 || i < inhibitor); i++) {
+                int child = forest.getChild(node, i);
+                if (child != MddForest.EMPTY) {
+                    int j = resets[t][level] ? output : i - input + output;
+                    if (j > maxTokens) {
+                        throw new MddTooBigException(net.getPlace(level).getLabel(), maxTokens);
+                    }
+                    children[j] = forest.union(children[j], fire(t, child));
+                }
+            }
+            length = children.length;
+        }
+        return forest.store(operation, node, 0, forest.make(level, children, length));
+    }
+
+    /*
+     * Returns the markings of node enabling a transition.
+     */
+    private int enabled(int t, int node) throws MddTooBigException {
+        int level = forest.getLevel(node);
+        if (node == MddForest.EMPTY || level > bottom[t]) {
+            return node;
+        }
+        int operation = MddForest.USER_OPERATIONS + 2 * t + 1;
+        int cached = forest.lookup(operation, node, 0);
+        if (cached >= 0) {
+            return cached;
+        }
+        int length = forest.getChildCount(node);
+        int[] children = new int[length];
+        int input = inputs[t][level];
+        int inhibitor = inhibitors[t][level];
+        for (int i = 0; i < length; i++) {
+            if (i >= input && (inhibitor == 0 || i < inhibitor)) {
+                children[i] = enabled(t, forest.getChild(node, i));
+            }
+        }
+        return forest.store(operation, node, 0, forest.make(level, children, length));
+    }
+}
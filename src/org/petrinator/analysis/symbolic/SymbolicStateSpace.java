@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.analysis.symbolic;
+
+import java.math.BigInteger;
+
+import org.petrinator.petrinet.CompiledNet;
+
+/**
+ * Set of reachable markings computed by a SymbolicExplorer, encoded as a
+ * decision diagram, and the properties derived from it.
+ */
+public class SymbolicStateSpace {
+
+    private final CompiledNet net;
+    private final MddForest forest;
+    private final int reachable;
+    private final int dead;
+    private final int iterations;
+
+    SymbolicStateSpace(CompiledNet net, MddForest forest, int reachable, int dead, int iterations) {
+        this.net = net;
+        this.forest = forest;
+        this.reachable = reachable;
+        this.dead = dead;
+        this.iterations = iterations;
+    }
+
+    public CompiledNet getCompiledNet() {
+        return net;
+    }
+
+    /**
+     * Returns the number of reachable markings.
+     */
+    public BigInteger getStateCount() {
+        return forest.count(reachable);
+    }
+
+    public BigInteger getDeadlockCount() {
+        return forest.count(dead);
+    }
+
+    public boolean hasDeadlock() {
+        return dead != MddForest.EMPTY;
+    }
+
+    /**
+     * Returns a reachable deadlock, indexed by the places of the compiled net,
+     * or null if there is none.
+     */
+    public int[] getDeadlock() {
+        return hasDeadlock() ? forest.pick(dead) : null;
+    }
+
+    /**
+     * Returns the largest number of tokens of every place over the reachable
+     * markings.
+     */
+    public int[] getBounds() {
+        return forest.bounds(reachable);
+    }
+
+    public boolean isSafe() {
+        for (int bound : getBounds()) {
+            if (bound > 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the specified marking is reachable.
+     */
+    public boolean contains(int[] marking) {
+        int node = reachable;
+        for (int level = 0; level < marking.length && node != MddForest.EMPTY; level++) {
+            node = forest.getChild(node, marking[level]);
+        }
+        return node == MddForest.FULL;
+    }
+
+    /**
+     * Returns the number of nodes of the decision diagram of the reachable
+     * markings and of all the intermediate sets.
+     */
+    public int getNodeCount() {
+        return forest.getNodeCount();
+    }
+
+    public long getMemoryUsage() {
+        return forest.getMemoryUsage();
+    }
+
+    /**
+     * Returns the number of rounds over all the transitions the fixpoint
+     * took.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+}
@@ -33,6 +33,7 @@ import java.util.prefs.Preferences;
 import javax.swing.*;
 import javax.swing.event.*;
 
+import org.petrinator.analysis.invariants.InvariantMaintainer;
 import org.petrinator.auxiliar.EventList;
 import org.petrinator.editor.actions.*;
 import org.petrinator.editor.actions.algorithms.*;
@@ -175,9 +176,27 @@ public class Root implements WindowListener, ListSelectionListener, SelectionCha
         getDocument().petriNet.resetView();
         getRoleEditor().setModel(getDocument().roles);
         getUndoManager().eraseAll();
+        if (invariantMaintainer != null) {
+            invariantMaintainer.setPetriNet(getDocument().petriNet);
+        }
         refreshAll();
     }
 
+    // Invariants of the document - per tab
+    private InvariantMaintainer invariantMaintainer;
+
+    /**
+     * Returns the P and T-invariants of the document, kept up to date while
+     * it is edited.
+     */
+    public InvariantMaintainer getInvariantMaintainer() {
+        if (invariantMaintainer == null) {
+            invariantMaintainer = new InvariantMaintainer(getDocument().petriNet);
+            getUndoManager().addCommandListener(invariantMaintainer);
+        }
+        return invariantMaintainer;
+    }
+
     // Clicked element - per tab
     private Element clickedElement = null;
 
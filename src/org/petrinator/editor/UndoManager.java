@@ -26,6 +26,7 @@ import org.petrinator.editor.Root;
 import org.petrinator.editor.actions.RedoAction;
 import org.petrinator.editor.actions.UndoAction;
 import org.petrinator.util.Command;
+import org.petrinator.util.CommandListener;
 
 /**
  * UndoManager provides the basic undo-redo capability.
@@ -39,6 +40,7 @@ public class UndoManager {
     private Root root;
     private UndoAction undoAction;
     private RedoAction redoAction;
+    private final List<CommandListener> listeners = new ArrayList<CommandListener>();
 
     /**
      * Constructs a new UndoManager
@@ -66,6 +68,7 @@ public class UndoManager {
         command.execute();
         refresh();
         root.setModified(true);
+        fireCommandPerformed(command);
     }
 
     /**
@@ -77,6 +80,7 @@ public class UndoManager {
             command.undo();
             currentCommandIndex--;
             refresh();
+            fireCommandPerformed(command);
         }
         root.setModified(true);
     }
@@ -90,6 +94,7 @@ public class UndoManager {
             command.redo();
             currentCommandIndex++;
             refresh();
+            fireCommandPerformed(command);
         }
         root.setModified(true);
     }
@@ -121,6 +126,24 @@ public class UndoManager {
         refresh();
     }
 
+    /**
+     * Adds a listener notified after every command executed, undone or
+     * redone.
+     */
+    public void addCommandListener(CommandListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeCommandListener(CommandListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireCommandPerformed(Command command) {
+        for (CommandListener listener : new ArrayList<CommandListener>(listeners)) {
+            listener.commandPerformed(command);
+        }
+    }
+
     private void refresh() {
         root.refreshAll();
         if (isUndoable()) {
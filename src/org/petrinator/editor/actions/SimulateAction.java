@@ -28,10 +28,21 @@ import org.petrinator.petrinet.*;
 import org.petrinator.util.GraphicsTools;
 import org.petrinator.editor.commands.FireTransitionCommand;
 import org.petrinator.auxiliar.*;
+import org.petrinator.simulation.FiringSemantics;
+import org.petrinator.simulation.RandomPolicy;
+import org.petrinator.simulation.SimulationTrace;
+import org.petrinator.simulation.Simulator;
+import org.petrinator.simulation.StochasticSimulator;
 import java.awt.*;
 import java.text.DecimalFormat;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.unc.lac.javapetriconcurrencymonitor.errors.DuplicatedNameError;
 import org.unc.lac.javapetriconcurrencymonitor.errors.IllegalTransitionFiringError;
@@ -43,7 +54,6 @@ import org.unc.lac.javapetriconcurrencymonitor.petrinets.RootPetriNet;
 import org.unc.lac.javapetriconcurrencymonitor.petrinets.components.MTransition;
 import org.unc.lac.javapetriconcurrencymonitor.petrinets.factory.PetriNetFactory;
 import org.unc.lac.javapetriconcurrencymonitor.petrinets.factory.PetriNetFactory.petriNetType;
-import rx.Observer;
 import rx.Subscription;
 import net.miginfocom.swing.MigLayout;
 import javax.swing.*;
@@ -64,8 +74,28 @@ public class SimulateAction extends AbstractAction
 {
     private Root root;
     private List<FileType> fileTypes;
-    protected static boolean stop = false;
+    protected static volatile boolean stop = false;
     ActionEvent e;
+
+    /*
+     * Threads firing on the monitor, reused between simulations. They are daemon
+     * threads, so a worker that stays blocked on a discarded monitor does not keep
+     * the application alive.
+     */
+    private static final ExecutorService workerPool = Executors.newCachedThreadPool(new ThreadFactory()
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "monitor-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static final Random random = new Random();
+    private static volatile ConcreteObserver runningObserver;
     public static List<Double> instants = new ArrayList<Double>();
     private boolean running = false;
 
@@ -82,33 +112,10 @@ public class SimulateAction extends AbstractAction
     {
         stop = false;
 
-        /*
-         * Create tmp.pnml file
-         */
-        FileChooserDialog chooser = new FileChooserDialog();
-
-        if (root.getCurrentFile() != null)
-        {
-            chooser.setSelectedFile(root.getCurrentFile());
-        }
-
-        for (FileType fileType : fileTypes)
-        {
-            chooser.addChoosableFileFilter(fileType);
-        }
-        chooser.setAcceptAllFileFilterUsed(false);
-        chooser.setCurrentDirectory(root.getCurrentDirectory());
-        chooser.setDialogTitle("Save as...");
-
-        File file = new File("tmp/" + "tmp" + "." + "pnml");
-        FileType chosenFileType = (FileType) chooser.getFileFilter();
-        try
-        {
-            chosenFileType.save(root.getDocument(), file);
-        }
-        catch (FileTypeException e1)
+        final boolean monitor = needsMonitor(root.getDocument().petriNet);
+        if(monitor)
         {
-            e1.printStackTrace();
+            exportForMonitor();
         }
 
         /*
@@ -164,13 +171,110 @@ public class SimulateAction extends AbstractAction
             @Override
             public void run()
             {
-                runInMonitor(a, b);
+                if(monitor)
+                {
+                    runInMonitor(a, b);
+                }
+                else
+                {
+                    runHeadless(a, b);
+                }
             }
         });
         t.start();
 
     }
 
+    /*
+     * @brief Determines if the net needs the concurrency monitor to be simulated.
+     * @detail Guards and automatic transitions that are not timed are only
+     * handled by the monitor. Any other net is simulated in memory.
+     */
+    static boolean needsMonitor(PetriNet petriNet)
+    {
+        for(Transition transition : petriNet.getRootSubnet().getTransitions())
+        {
+            if((transition.isAutomatic() && !transition.isTimed()) || !"none".equals(transition.getGuard()))
+                return true;
+        }
+        return false;
+    }
+
+    /*
+     * @brief Saves the net to tmp/tmp.pnml, which is read by the monitor.
+     */
+    private void exportForMonitor()
+    {
+        FileChooserDialog chooser = new FileChooserDialog();
+
+        if (root.getCurrentFile() != null)
+        {
+            chooser.setSelectedFile(root.getCurrentFile());
+        }
+
+        for (FileType fileType : fileTypes)
+        {
+            chooser.addChoosableFileFilter(fileType);
+        }
+        chooser.setAcceptAllFileFilterUsed(false);
+        chooser.setCurrentDirectory(root.getCurrentDirectory());
+        chooser.setDialogTitle("Save as...");
+
+        File file = new File("tmp/" + "tmp" + "." + "pnml");
+        FileType chosenFileType = (FileType) chooser.getFileFilter();
+        try
+        {
+            chosenFileType.save(root.getDocument(), file);
+        }
+        catch (FileTypeException e1)
+        {
+            e1.printStackTrace();
+        }
+    }
+
+    /*
+     * @brief Simulates the net in memory and animates the resulting trace.
+     * @detail The firings are computed by the headless Simulator on the
+     * compiled net, without files, threads or sleeps. Nets with timed
+     * transitions are run by the StochasticSimulator in virtual time.
+     * Only the animation that follows is paced by timeBetweenTransitions.
+     */
+    public void runHeadless(int numberOfTransitions, int timeBetweenTransitions)
+    {
+        PetriNet petriNet = root.getDocument().petriNet;
+        SimulationTrace trace = new SimulationTrace(petriNet.getCompiledNet());
+
+        System.out.println("Simulation");
+        if(petriNet.getRootSubnet().anyStochastic())
+        {
+            StochasticSimulator simulator;
+            try
+            {
+                simulator = new StochasticSimulator(petriNet, new RandomPolicy(), FiringSemantics.RACE);
+            }
+            catch(IllegalArgumentException e1)
+            {
+                JOptionPane.showMessageDialog(root.getParentFrame(), e1.getMessage());
+                setEnabled(true);
+                return;
+            }
+            simulator.addListener(trace);
+            simulator.run(numberOfTransitions);
+        }
+        else
+        {
+            Simulator simulator = new Simulator(petriNet, new RandomPolicy());
+            simulator.addListener(trace);
+            simulator.run(numberOfTransitions);
+        }
+        if(trace.size() < numberOfTransitions)
+        {
+            JOptionPane.showMessageDialog(root.getParentFrame(), "The net is blocked, " + trace.size() + " transitions were fired.");
+        }
+
+        animate(trace, timeBetweenTransitions, numberOfTransitions);
+    }
+
     /*
      * @brief Creates monitor, threads for transitions, observer, and runs all threads.
      * @detail After getting all the firings the user set, it creates a thread that
@@ -204,7 +308,7 @@ public class SimulateAction extends AbstractAction
 		 /*
 		  * Subscribe to all transitions
 		  */
-        Observer<String> observer = new ConcreteObserver(root);
+        ConcreteObserver observer = new ConcreteObserver(root);
         for(int i = 0; i < petri.getTransitions().length; i++)
         {
             MTransition t = petri.getTransitions()[i];
@@ -212,18 +316,26 @@ public class SimulateAction extends AbstractAction
         }
 
 		 /*
-		  * Create one thread per transition, start them all to try and fire them.
+		  * Start one worker per transition, they all try to fire their transitions.
 		  */
-        List<Thread> threads = new ArrayList<Thread>();
+        List<Future<?>> workers = new ArrayList<Future<?>>();
+        AtomicBoolean finished = new AtomicBoolean(false);
+        List<String> fired = new ArrayList<String>();
+        boolean[] automatic = new boolean[petri.getTransitions().length];
         for(int i = 0; i < petri.getTransitions().length; i++)
         {
-            if(!(root.getDocument().petriNet.getRootSubnet().getTransition(petri.getTransitions()[i].getId()).isAutomatic()))
+            automatic[i] = root.getDocument().petriNet.getRootSubnet().getTransition(petri.getTransitions()[i].getId()).isAutomatic();
+            if(!automatic[i])
             {
-                Thread t = createThread(monitor, petri.getTransitions()[i].getName());
-                threads.add(t);
-                t.start();
+                fired.add(petri.getTransitions()[i].getName());
             }
         }
+        AtomicInteger parked = new AtomicInteger();
+        for(String id : fired)
+        {
+            workers.add(workerPool.submit(createWorker(monitor, id, finished, parked, fired.size(), observer)));
+        }
+        runningObserver = observer;
 
         System.out.println("Simulation");
         System.out.println(" > Started firing");
@@ -232,37 +344,54 @@ public class SimulateAction extends AbstractAction
         dialog.show(true);
 
 		 /*
-		  * Wait for the number of events to occur
+		  * Wait for the number of events to occur. We are only woken up when they
+		  * occurred, when the simulation is stopped, or by the last worker to park
+		  * on the monitor, which is when it can be blocked.
 		  */
-        while(true)
+        try
         {
-            //System.out.println(((ConcreteObserver) observer).getEvents().size() + " | Tread " + threads.get(0).getId() + " " +  threads.get(0).getState() + " | Tread " + threads.get(1).getId() + " " + threads.get(1).getState() + "\n");
-
-            //for(int i= 0; i<petri.getEnabledTransitions().length; i++)
-            //    System.out.print(petri.getEnabledTransitions()[i]);
-
-            if(((ConcreteObserver) observer).getEvents().size() >= numberOfTransitions)  // If there have been N events already
-                break;
-            else
+            while(!stop)
             {
-                try
-                {
-                    Thread.currentThread().sleep(10);
-                } catch (InterruptedException e1) {
-                    e1.printStackTrace();
-                }
-                // System.out.println(""); // Need at least one instruction in while, otherwise it will explode
-                if(checkAllAre(petri.getEnabledTransitions(),false))   // We need to check if the net is blocked and no more transitions can be fored
-                {
-                    JOptionPane.showMessageDialog(root.getParentFrame(), "The net is blocked, " + ((ConcreteObserver) observer).getEvents().size() + " transitions were fired.");
+                int events = observer.getEventCount();
+                if(events >= numberOfTransitions)  // If there have been N events already
                     break;
-                }
-                else if(blockedMonitor(threads, petri))
+                if(parked.get() == workers.size())
                 {
-                    JOptionPane.showMessageDialog(root.getParentFrame(), " \n The net is blocked. Make sure that at least one \n fired transition comes before the automatic ones.      \n ");
-                    System.out.println(" > Monitor blocked");
-                    break;
+                    boolean[] enabled = petri.getEnabledTransitions();
+                    if(checkAllAre(enabled,false))   // We need to check if the net is blocked and no more transitions can be fored
+                    {
+                        JOptionPane.showMessageDialog(root.getParentFrame(), "The net is blocked, " + events + " transitions were fired.");
+                        break;
+                    }
+                    /*
+                     * Only automatic transitions are enabled, so no worker can go on. A worker
+                     * still firing would change the count of events or leave the monitor.
+                     */
+                    else if(!anyFiredEnabled(enabled, automatic) && parked.get() == workers.size() && observer.getEventCount() == events)
+                    {
+                        JOptionPane.showMessageDialog(root.getParentFrame(), " \n The net is blocked. Make sure that at least one \n fired transition comes before the automatic ones.      \n ");
+                        System.out.println(" > Monitor blocked");
+                        break;
+                    }
                 }
+                observer.awaitEvents(numberOfTransitions);
+            }
+        }
+        catch (InterruptedException e1)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            runningObserver = null;
+
+             /*
+              * Stop all workers from firing, those sleeping or waiting are interrupted
+              */
+            finished.set(true);
+            for(Future<?> worker : workers)
+            {
+                worker.cancel(true);
             }
         }
 
@@ -270,14 +399,14 @@ public class SimulateAction extends AbstractAction
         System.out.println(" > Simulation started");
         dialog.show(false);
 
-         /*
-          * Stop all threads from firing
-          */
-        for(Thread t: threads)
-        {
-            t.stop();
-        }
+        animate(toTrace(observer.getEvents()), timeBetweenTransitions, numberOfTransitions);
+    }
 
+    /*
+     * @brief Fires the trace graphically in the editor.
+     */
+    void animate(SimulationTrace trace, int timeBetweenTransitions, int numberOfTransitions)
+    {
         /*
          * We simulate to press the EditTokens/EditTransition button so the enabled transitions
          * will be shown in green.
@@ -294,7 +423,7 @@ public class SimulateAction extends AbstractAction
             place.clearValues();
         }
         analyzePlaces(timeBetweenTransitions);
-        fireGraphically(((ConcreteObserver) observer).getEvents(), timeBetweenTransitions, numberOfTransitions);
+        fireGraphically(trace, timeBetweenTransitions, numberOfTransitions);
         new SelectionSelectToolAction(root).actionPerformed(e);
 
         running = false;
@@ -303,51 +432,115 @@ public class SimulateAction extends AbstractAction
     }
 
     /*
-     * @brief Creates a thread that tries to fire one given transition
-     * @param m the monitor that holds our petri net
-     * @param id the id of the transition this thread will try to fire
-     * @return t the created tread
+     * @brief Converts the JSON events sent by the monitor into a trace.
+     * @detail Timed events carry the time the transition took, in seconds,
+     * which is accumulated into the simulated time of the trace.
      */
-    Thread createThread(PetriMonitor m, String id)
+    SimulationTrace toTrace(List<String> events)
     {
-        Thread t = new Thread(new Runnable() {
+        CompiledNet net = root.getDocument().petriNet.getCompiledNet();
+        SimulationTrace trace = new SimulationTrace(net);
+        double clock = 0;
+        for(String event : events)
+        {
+            List<String> transitionInfo = Arrays.asList(event.split(","));
+            if(transitionInfo.size() < 3)
+                continue; // Not a firing event
+            String transitionId = transitionInfo.get(2);
+            transitionId = transitionId.replace("\"", "");
+            transitionId = transitionId.replace("id:", "");
+            transitionId = transitionId.replace("}", "");
+
+            try
+            {
+                String _time  = transitionInfo.get(3);
+                _time = _time.replace("\"", "");
+                _time = _time.replace("time:", "");
+                _time = _time.replace("}", "");
+                clock += Double.parseDouble(_time);
+            }
+            catch (ArrayIndexOutOfBoundsException e) {} // The transition is not timed, so no time to retrieve. No biggy.
+
+            Transition transition = root.getDocument().petriNet.getRootSubnet().getTransition(transitionId);
+            if(transition != null)
+            {
+                trace.add(net.indexOf(transition), clock);
+            }
+        }
+        return trace;
+    }
+
+    /*
+     * @brief Creates the task that persistently fires a transition on the monitor
+     * @detail The worker counts itself as parked while it is inside the monitor,
+     * and the last one to park wakes up the simulation, which then checks if the
+     * net lets any of them go on. It ends once finished is set or it is interrupted.
+     * @param m monitor to fire on
+     * @param id name of the transition
+     * @param finished set when the simulation is over
+     * @param parked number of workers parked on the monitor
+     * @param workers number of workers
+     * @param observer woken up when all the workers are parked on the monitor
+     * @return the worker
+     */
+    Runnable createWorker(final PetriMonitor m, final String id, final AtomicBoolean finished,
+                          final AtomicInteger parked, final int workers, final ConcreteObserver observer)
+    {
+        return new Runnable() {
             @Override
             public void run()
             {
-                while(true)
+                while(!finished.get() && !Thread.currentThread().isInterrupted())
                 {
                     try
                     {
-                        Thread.sleep(new Random().nextInt(50)); // Random value between 0 and 50 ms
-                        m.fireTransition(id);
+                        Thread.sleep(random.nextInt(50)); // Random value between 0 and 50 ms
+                        if(parked.incrementAndGet() == workers)
+                        {
+                            observer.wakeUp();
+                        }
+                        try
+                        {
+                            m.fireTransition(id);
+                        }
+                        finally
+                        {
+                            parked.decrementAndGet();
+                        }
                     } catch (IllegalTransitionFiringError | IllegalArgumentException | PetriNetException e) {
-                        e.printStackTrace();
+                        if(!finished.get())
+                            e.printStackTrace();
                     } catch (InterruptedException e) {
-                        e.printStackTrace();
+                        return;
                     }
                 }
             }
-        });
-        return t;
+        };
+    }
+
+    /*
+     * @brief Wakes up a simulation waiting for the monitor, if there is one,
+     * and stops the simulation or animation being run.
+     */
+    public static void requestStop()
+    {
+        stop = true;
+        ConcreteObserver observer = runningObserver;
+        if(observer != null)
+        {
+            observer.wakeUp();
+        }
     }
 
     /*
-     * @brief Takes the list of events, and performs one per one, every x millis (set by user)
-     * @param list list of events
+     * @brief Takes the trace, and performs one firing after the other, every x millis (set by user)
+     * @param trace firings to perform
      * @param timeBetweenTransitions milliseconds to wait between events performed
      * @return
      */
-    void fireGraphically(List<String> list, int timeBetweenTransitions, int numberOfTransitions)
+    void fireGraphically(SimulationTrace trace, int timeBetweenTransitions, int numberOfTransitions)
     {
-        /*
-         * If we wanna keep track of the current iteration, we need to do it with a separate variable,
-         * because the list usually has EQUAL objects (such as two equal strings that indicate that the
-         * same transition was fired twice), and the method indexOf(element) returns the index of the
-         * first occurrence in the list (and as the strings are equal, the  objects are equal), so
-         * we might get the index of the first event that fired this transition, not the current one.
-         */
-        int i = 0;
-        for(String event : list)
+        for(int i = 0; i < trace.size(); )
         {
             /*
              * Check if stop button has been pressed
@@ -356,31 +549,14 @@ public class SimulateAction extends AbstractAction
             {
                 stop = false;
                 setEnabled(true);
-                list.clear();
+                trace.clear();
                 System.out.println(" > Simulation stopped by user");
                 return;
             }
 
-            System.out.println(event);
-            List<String> transitionInfo = Arrays.asList(event.split(","));
-            String transitionId = transitionInfo.get(2);
-            transitionId = transitionId.replace("\"", "");
-            transitionId = transitionId.replace("id:", "");
-            transitionId = transitionId.replace("}", "");
-
-            double time = 0;
-            try
-            {
-                String _time  = transitionInfo.get(3);
-                _time = _time.replace("\"", "");
-                _time = _time.replace("time:", "");
-                _time = _time.replace("}", "");
-                time = Double.parseDouble(_time) * 1000;
-            }
-            catch (ArrayIndexOutOfBoundsException e) {} // The transition is not timed, so no time to retrieve. No biggy.
-
+            double time = trace.getDelay(i) * 1000;
 
-            Transition transition = root.getDocument().petriNet.getRootSubnet().getTransition(transitionId);
+            Transition transition = trace.getTransition(i);
             Marking marking = root.getDocument().petriNet.getInitialMarking();
 
             //System.out.println(transition.getLabel() + " was fired!");
@@ -455,14 +631,18 @@ public class SimulateAction extends AbstractAction
         return true;
     }
 
-    static boolean blockedMonitor(List<Thread> threads, RootPetriNet p)
+    /*
+     * @brief Tells if any of the transitions fired by the workers, the ones that
+     * are not automatic, is enabled
+     */
+    static boolean anyFiredEnabled(boolean[] enabled, boolean[] automatic)
     {
-        for(Thread t: threads)
+        for(int i = 0; i < enabled.length; i++)
         {
-            if((t.getState() != Thread.State.WAITING) || p.anyWaiting())
-                return false;
+            if(enabled[i] && !automatic[i])
+                return true;
         }
-        return true;
+        return false;
     }
 
     public void countDown(Transition t)
@@ -44,7 +44,6 @@ public class StopSimulationAction extends AbstractAction
 
     public void actionPerformed(ActionEvent e)
     {
-        SimulateAction simulation = new SimulateAction(root, null);
-        simulation.stop = true;
+        SimulateAction.requestStop();
     }
 }
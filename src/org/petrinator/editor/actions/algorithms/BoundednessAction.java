@@ -20,11 +20,11 @@
 package org.petrinator.editor.actions.algorithms;
 
 import java.awt.event.ActionEvent;
-import java.util.*;
 import javax.swing.AbstractAction;
 import javax.swing.JOptionPane;
 
-import org.petrinator.petrinet.*;
+import org.petrinator.analysis.AnalysisCache;
+import org.petrinator.analysis.statespace.CoverabilitySet;
 import org.petrinator.editor.Root;
 
 /**
@@ -35,9 +35,6 @@ public class BoundednessAction extends AbstractAction {
 
     private Root root;
 
-    private Stack<Marking> markingsStack;
-    private boolean isUnboundedness;
-
     public BoundednessAction(Root root) {
         this.root = root;
         String name = "Boundedness";
@@ -49,95 +46,20 @@ public class BoundednessAction extends AbstractAction {
     @Override
     public void actionPerformed(ActionEvent e) {
 
-        isUnboundedness = false;
-        PetriNet petriNet = root.getDocument().petriNet;
-
-        Marking m0 = petriNet.getInitialMarking();
-        markingsStack = new Stack<Marking>();
-        markingsStack.push(m0);
-
-        Set<Transition> executableTransitions = m0.getAllEnabledTransitions();
-        for (Transition t : executableTransitions) {
-            int branchLength = checkBranchBoundedness(m0, t);
-            for (int i = 0; i < branchLength; i++) {
-                markingsStack.pop();
-            }
+        CoverabilitySet coverability;
+        try {
+            coverability = AnalysisCache.getCoverabilitySet(root.getDocument().petriNet);
+        } catch (InterruptedException ex) {
+            return;
         }
 
-        if (isUnboundedness) {
+        if (!coverability.isBounded()) {
             JOptionPane.showMessageDialog(root.getParentFrame(), "The Petri net is NOT bounded", "Boundedness", JOptionPane.INFORMATION_MESSAGE);
+        } else if (!coverability.isComplete()) {
+            JOptionPane.showMessageDialog(root.getParentFrame(), "The Petri net seems to be bounded, but its state space is too large to be sure", "Boundedness", JOptionPane.INFORMATION_MESSAGE);
         } else {
             JOptionPane.showMessageDialog(root.getParentFrame(), "The Petri net is bounded", "Boundedness", JOptionPane.INFORMATION_MESSAGE);
         }
     }
 
-    private int checkBranchBoundedness(Marking marking, Transition transition) {
-
-        if (isUnboundedness) {
-            return 0;
-        }
-
-        Marking newMarking = new Marking(marking);
-        newMarking.fire(transition);
-
-        for (Marking oldMarking : markingsStack) {
-            if (isOmega(newMarking, oldMarking)) {
-                isUnboundedness = true;
-                return 0;
-            }
-        }
-
-        if (!markingsStack.contains(newMarking)) {
-            markingsStack.push(newMarking);
-            Set<Transition> executableTransitions = newMarking.getAllEnabledTransitions();
-            for (Transition t : executableTransitions) {
-                int branchLength = checkBranchBoundedness(newMarking, t);
-                for (int i = 0; i < branchLength; i++) {
-                    markingsStack.pop();
-                }
-            }
-            return 1;
-        }
-
-        return 0;
-
-    }
-
-    private boolean isOmega(Marking newMarking, Marking oldMarking) {
-
-        Set<Place> newMarkingPlaces = newMarking.getPetriNet().getRootSubnet().getPlaces();
-        Set<Place> oldMarkingPlaces = oldMarking.getPetriNet().getRootSubnet().getPlaces();
-
-        boolean isOneSharplyHigher = false;
-
-        for (Place newMarkingPlace : newMarkingPlaces) {
-
-            int newTokens = newMarking.getTokens(newMarkingPlace);
-
-            Place oldMarkingPlace = null;
-            for (Place place : oldMarkingPlaces) {
-                if (place.equals(newMarkingPlace)) {
-                    oldMarkingPlace = place;
-                    break;
-                }
-            }
-
-            int oldTokens = oldMarking.getTokens(oldMarkingPlace);
-
-            if (!(newTokens >= oldTokens)) {
-                return false;
-            } else if (newTokens > oldTokens) {
-                isOneSharplyHigher = true;
-            }
-
-        }
-
-        if (isOneSharplyHigher) {
-            return true;
-        }
-
-        return false;
-
-    }
-
 }
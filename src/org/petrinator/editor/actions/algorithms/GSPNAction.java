@@ -20,29 +20,31 @@
 
 package org.petrinator.editor.actions.algorithms;
 
+import org.petrinator.analysis.AnalysisCache;
+import org.petrinator.analysis.markov.Lumping;
+import org.petrinator.analysis.markov.MarkovChain;
+import org.petrinator.analysis.markov.SteadyStateSolver;
+import org.petrinator.analysis.markov.TangibleExplorer;
+import org.petrinator.analysis.markov.TimelessTrapException;
+import org.petrinator.analysis.markov.TransientSolver;
+import org.petrinator.analysis.statespace.StateSpaceTooBigException;
 import org.petrinator.editor.Root;
-import org.petrinator.editor.filechooser.*;
 import java.text.DecimalFormat;
 
+import org.petrinator.petrinet.CompiledNet;
+import org.petrinator.simulation.ReplicationResults;
+import org.petrinator.simulation.ReplicationRunner;
+import org.petrinator.simulation.RunningStatistics;
 import org.petrinator.util.GraphicsTools;
-import pipe.calculations.StateSpaceGenerator;
-import pipe.calculations.SteadyStateSolver;
-import pipe.calculations.myTree;
 import pipe.gui.widgets.ButtonBar;
 import pipe.gui.widgets.EscapableDialog;
 import pipe.gui.widgets.ResultsHTMLPane;
-import pipe.views.MarkingView;
-import pipe.views.PetriNetView;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.File;
+import java.util.ArrayList;
 import java.util.Date;
-import pipe.modules.gspn.GSPNNew;
-import pipe.exceptions.*;
-import java.io.IOException;
-import java.util.LinkedList;
 
 /**
  * @author Joaquin Felici <joaquinfelici at gmail.com>
@@ -51,9 +53,11 @@ public class GSPNAction extends AbstractAction
 {
     private Root root;
     private static final String MODULE_NAME = "GSPN Analysis";
-    private final File output = new File("tmp/GSPN_Analysis.html");
-    private PetriNetView pnmlData;
+    private static final int REPLICATIONS = 30;
+    private static final long FIRINGS = 100000;
     private ResultsHTMLPane results;
+    private final JTextField transientTimes = new JTextField(20);
+    private final JCheckBox simulation = new JCheckBox("Estimate the results by simulation too (" + REPLICATIONS + " replications)");
 
     public GSPNAction(Root root)
     {
@@ -67,37 +71,19 @@ public class GSPNAction extends AbstractAction
 
     public void actionPerformed(ActionEvent e)
     {
-        /*
-         * Create tmp.pnml file
-         */
-        FileChooserDialog chooser = new FileChooserDialog();
-
-        if (root.getCurrentFile() != null) {
-            chooser.setSelectedFile(root.getCurrentFile());
-        }
-
-        chooser.addChoosableFileFilter(new PipePnmlFileType());
-        chooser.setAcceptAllFileFilterUsed(false);
-        chooser.setCurrentDirectory(root.getCurrentDirectory());
-        chooser.setDialogTitle("Save as...");
-
-        File file = new File("tmp/" + "tmp" + "." + "pnml");
-        FileType chosenFileType = (FileType) chooser.getFileFilter();
-        try {
-            chosenFileType.save(root.getDocument(), file);
-        } catch (FileTypeException e1) {
-            e1.printStackTrace();
-        }
-
         /*
          * Show initial pane
          */
-        this.pnmlData = new PetriNetView("tmp/tmp.pnml");
         EscapableDialog guiDialog =  new EscapableDialog(root.getParentFrame(), MODULE_NAME, true);
         Container contentPane = guiDialog.getContentPane();
         contentPane.setLayout(new BoxLayout(contentPane, BoxLayout.PAGE_AXIS));
-        results = new ResultsHTMLPane(pnmlData.getPNMLName());
+        results = new ResultsHTMLPane("");
         contentPane.add(results);
+        JPanel transientPanel = new JPanel();
+        transientPanel.add(new JLabel("Transient analysis at times:  "));
+        transientPanel.add(transientTimes);
+        contentPane.add(transientPanel);
+        contentPane.add(simulation);
         contentPane.add(new ButtonBar("Analyse GSPN", runAnalysis, guiDialog.getRootPane()));
         guiDialog.pack();
         guiDialog.setLocationRelativeTo(root.getParentFrame());
@@ -125,6 +111,21 @@ public class GSPNAction extends AbstractAction
                 @Override
                 protected Object doInBackground()
                 {
+                    /*
+                     * The same net was analysed already with the same options
+                     */
+                    final String times = transientTimes.getText().trim();
+                    String analysis = MODULE_NAME + (times.isEmpty() ? "" : ", times " + times) +
+                            (simulation.isSelected() ? ", simulated" : "");
+                    String key = AnalysisCache.key(root.getDocument().getPetriNet());
+                    String cached = (String) AnalysisCache.get(analysis, key);
+                    if(cached != null)
+                    {
+                        results.setEnabled(true);
+                        results.setText(cached);
+                        return null;
+                    }
+
                     long start = new Date().getTime();
                     long efinished;
                     long ssdfinished;
@@ -133,32 +134,25 @@ public class GSPNAction extends AbstractAction
                     double steadystatetime;
                     double totaltime;
 
-                    PetriNetView sourceDataLayer = new PetriNetView("tmp/tmp.pnml");
                     boolean bounded = false;
 
                     /*
                      * Check if petri net is bounded
                      */
-                    LinkedList<MarkingView>[] markings = sourceDataLayer.getCurrentMarkingVector();
-                    int[] markup = new int[markings.length];
-                    for(int k = 0; k < markings.length; k++)
-                    {
-                        markup[k] = markings[k].getFirst().getCurrentMarking();
-                    }
                     try
                     {
-                        myTree tree = new myTree(sourceDataLayer, markup);
-                        bounded = !tree.foundAnOmega;
-                    } catch(TreeTooBigException e)
+                        bounded = AnalysisCache.getCoverabilitySet(root.getDocument().getPetriNet()).isBounded();
+                    } catch(InterruptedException e)
                     {
-                        e.printStackTrace();
+                        return null;
                     }
 
-                    // This will be used to store the reachability graph data
-                    File reachabilityGraph = new File("results.rg");
-
-                    // This will be used to store the steady state distribution
-                    double[] pi;
+                    CompiledNet net = root.getDocument().getPetriNet().getCompiledNet();
+                    boolean timed = false;
+                    for(int t = 0; t < net.getTransitionCount(); t++)
+                    {
+                        timed |= net.getTransition(t).isTimed();
+                    }
 
                     String s = "<h2>GSPN Steady State Analysis Results</h2>";
 
@@ -167,7 +161,7 @@ public class GSPNAction extends AbstractAction
 
                     for(int i = 0; i < 1; i++)
                     {
-                        if(!sourceDataLayer.hasTimedTransitions())
+                        if(!timed)
                         {
                             s += "This Petri net has no timed transitions, so GSPN analysis cannot be performed.";
                             results.setText(s);
@@ -185,23 +179,39 @@ public class GSPNAction extends AbstractAction
                                 results.setIndeterminateProgressBar(true);
 
                                 /*
-                                 * Let's create the reachability graph
+                                 * Let's create the Markov chain of the tangible
+                                 * markings, the vanishing ones are eliminated
+                                 * while exploring
                                  */
-                                StateSpaceGenerator.generate(sourceDataLayer, reachabilityGraph, results);
+                                TangibleExplorer explorer = TangibleExplorer.create(root.getDocument().getPetriNet());
+                                MarkovChain chain = explorer.explore();
+                                String exploration = "<br>" + explorer.getVanishingCount()
+                                        + " vanishing markings eliminated while exploring";
                                 efinished = new Date().getTime();
-                                System.gc();
 
                                 results.setIndeterminateProgressBar(false);
                                 results.setStringProgressBar("Solving the steady state ...");
                                 results.setIndeterminateProgressBar(true);
 
                                 /*
-                                 * Analyse data from reachability graph
+                                 * Analyse data from the Markov chain, lumping
+                                 * its equivalent states first. The states of a
+                                 * block of an exact lumping are equally likely,
+                                 * so the lumped solution is spread back evenly.
                                  */
-                                pi = SteadyStateSolver.solve(reachabilityGraph);
+                                Lumping lumping = Lumping.exact(chain.getGenerator(), null);
+                                SteadyStateSolver solver = new SteadyStateSolver();
+                                double[] pi;
+                                if(lumping.getBlockCount() < chain.getStateCount())
+                                {
+                                    pi = lumping.lift(solver.solve(lumping.getLumpedGenerator()));
+                                }
+                                else
+                                {
+                                    pi = solver.solve(chain.getGenerator());
+                                }
 
                                 ssdfinished = new Date().getTime();
-                                System.gc();
 
                                 results.setIndeterminateProgressBar(false);
                                 results.setStringProgressBar("Computing and formating resutls ...");
@@ -210,8 +220,21 @@ public class GSPNAction extends AbstractAction
                                 /*
                                  * Now format and display the results nicely
                                  */
-                                GSPNNew gspn = new GSPNNew();
-                                s += gspn.displayResults(sourceDataLayer, reachabilityGraph, pi, output);
+                                s += steadyStateResults(chain, pi);
+                                s += "<br>" + chain.getStateCount() + " tangible states";
+                                if(lumping.getBlockCount() < chain.getStateCount())
+                                {
+                                    s += " lumped into " + lumping.getBlockCount() + " blocks in " + lumping.getElapsedTime() + " ms";
+                                }
+                                s += ", solved by " + solver.getMethod()
+                                        + " in " + solver.getIterations() + " iterations (residual "
+                                        + solver.getResidual() + (solver.hasConverged() ? ")" : ", not converged)");
+
+                                if(!times.isEmpty())
+                                {
+                                    results.setStringProgressBar("Solving the transient distributions ...");
+                                    s += transientResults(chain, times);
+                                }
 
                                 allfinished = new Date().getTime();
                                 explorationtime = (efinished - start) / 1000.0;
@@ -222,14 +245,14 @@ public class GSPNAction extends AbstractAction
 
                                 s += "<br>State space exploration took "
                                         + f.format(explorationtime) + "s";
+                                s += exploration;
                                 s += "<br>Solving the steady state distribution took "
                                         + f.format(steadystatetime) + "s";
                                 s += "<br>Total time was "
                                         + f.format(totaltime) + "s";
 
                                 results.setEnabled(true);
-                                results.setText(s);//
-                                System.gc();
+                                results.setText(s);
                             } catch (OutOfMemoryError e)
                             {
                                 System.gc();
@@ -249,27 +272,27 @@ public class GSPNAction extends AbstractAction
                                 s += "<br>" + e.getMessage();
                                 results.setText(s);
                                 return null;
-                            } catch (IOException e) // If there was a problem reading or writing files
+                            } catch (StateSpaceTooBigException e)
                             {
                                 s += "<br>" + e.getMessage();
                                 results.setText(s);
                                 return null;
-                            } catch (MarkingNotIntegerException e)
+                            } catch (InterruptedException e)
                             {
-                                JOptionPane.showMessageDialog(null,
-                                        "Functional arc weight cannot have non-integer value. Please check again.");
-                                sourceDataLayer.restorePlaceViewsMarking();
                                 return null;
-
-                            } catch(Exception e)
-                            {
-                                e.printStackTrace();
                             }
+                        }
 
-                            pi = null;
+                        if(timed && simulation.isSelected())
+                        {
+                            results.setStringProgressBar("Simulating ...");
+                            results.setIndeterminateProgressBar(true);
+                            s += simulationEstimates();
+                            results.setText(s);
                         }
                     }
 
+                    AnalysisCache.put(analysis, key, s);
                     return null;
                 }
 
@@ -289,4 +312,175 @@ public class GSPNAction extends AbstractAction
             sw.execute();
         }
     };
-}
\ No newline at end of file
+
+    /**
+     * Formats the steady state measures of the net.
+     * @return the average tokens and throughputs as HTML
+     */
+    private String steadyStateResults(MarkovChain chain, double[] pi)
+    {
+        CompiledNet net = chain.getCompiledNet();
+        double[] tokens = chain.getMeanTokens(pi);
+        double[] marked = chain.getMarkedProbability(pi);
+        double[] throughput = chain.getThroughput(pi);
+        DecimalFormat f = new DecimalFormat();
+        f.setMaximumFractionDigits(5);
+
+        ArrayList<String> places = new ArrayList<String>();
+        places.add("Place");
+        places.add("Average number of tokens");
+        places.add("Probability of being marked");
+        for(int p = 0; p < net.getRootPlaceCount(); p++)
+        {
+            places.add(net.getPlace(p).getLabel());
+            places.add(f.format(tokens[p]));
+            places.add(f.format(marked[p]));
+        }
+
+        ArrayList<String> transitions = new ArrayList<String>();
+        transitions.add("Timed transition");
+        transitions.add("Throughput");
+        for(int t = 0; t < net.getRootTransitionCount(); t++)
+        {
+            if(net.getTransition(t).isTimed())
+            {
+                transitions.add(net.getTransition(t).getLabel());
+                transitions.add(f.format(throughput[t]));
+            }
+        }
+
+        String s = ResultsHTMLPane.makeTable(places.toArray(), 3, false, true, true, true);
+        s += ResultsHTMLPane.makeTable(transitions.toArray(), 2, false, true, true, true);
+        return s;
+    }
+
+    /**
+     * Solves the distributions of the chain at the times typed by the user,
+     * all of them in one uniformization pass.
+     * @return the average tokens and marking probabilities at every time as HTML
+     */
+    private String transientResults(MarkovChain chain, String text) throws InterruptedException
+    {
+        String[] fields = text.split("[,;\\s]+");
+        double[] times = new double[fields.length];
+        try
+        {
+            for(int i = 0; i < fields.length; i++)
+            {
+                times[i] = Double.parseDouble(fields[i]);
+                if(times[i] < 0 || Double.isInfinite(times[i]) || Double.isNaN(times[i]))
+                {
+                    throw new NumberFormatException();
+                }
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            return "<h3>Transient analysis</h3>The times must be non negative numbers separated by commas.";
+        }
+
+        TransientSolver solver = new TransientSolver();
+        double[][] distributions = solver.solve(chain.getGenerator(), chain.getInitialDistribution(), times);
+
+        CompiledNet net = chain.getCompiledNet();
+        DecimalFormat f = new DecimalFormat();
+        f.setMaximumFractionDigits(5);
+        ArrayList<String> tokens = new ArrayList<String>();
+        ArrayList<String> marked = new ArrayList<String>();
+        tokens.add("Time");
+        marked.add("Time");
+        for(int p = 0; p < net.getRootPlaceCount(); p++)
+        {
+            tokens.add(net.getPlace(p).getLabel());
+            marked.add(net.getPlace(p).getLabel());
+        }
+        for(int i = 0; i < times.length; i++)
+        {
+            double[] mean = chain.getMeanTokens(distributions[i]);
+            double[] probability = chain.getMarkedProbability(distributions[i]);
+            tokens.add(f.format(times[i]));
+            marked.add(f.format(times[i]));
+            for(int p = 0; p < net.getRootPlaceCount(); p++)
+            {
+                tokens.add(f.format(mean[p]));
+                marked.add(f.format(probability[p]));
+            }
+        }
+
+        String s = "<h3>Transient analysis</h3>Average number of tokens";
+        s += ResultsHTMLPane.makeTable(tokens.toArray(), net.getRootPlaceCount() + 1, false, true, true, true);
+        s += "Probability of being marked";
+        s += ResultsHTMLPane.makeTable(marked.toArray(), net.getRootPlaceCount() + 1, false, true, true, true);
+        s += "<br>Uniformization at rate " + f.format(solver.getUniformizationRate()) + ", "
+                + solver.getIterations() + " steps" + (solver.isSteadyStateDetected() ? " (steady state reached)" : "")
+                + " in " + solver.getElapsedTime() + " ms";
+        return s;
+    }
+
+    /**
+     * Estimates the performance measures of the net by independent simulation
+     * replications. Unlike the steady state solution it also works for
+     * unbounded nets.
+     * @return the estimates formatted as HTML
+     */
+    private String simulationEstimates()
+    {
+        ReplicationRunner runner = new ReplicationRunner(root.getDocument().petriNet);
+        runner.setReplications(REPLICATIONS);
+        runner.setFirings(FIRINGS);
+
+        long start = new Date().getTime();
+        ReplicationResults estimates;
+        try
+        {
+            estimates = runner.run();
+        }
+        catch (IllegalArgumentException e)
+        {
+            return "<h3>Simulation estimates</h3>" + e.getMessage();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return "";
+        }
+        double simulationtime = (new Date().getTime() - start) / 1000.0;
+
+        CompiledNet net = estimates.getCompiledNet();
+        DecimalFormat f = new DecimalFormat();
+        f.setMaximumFractionDigits(5);
+
+        ArrayList<String> places = new ArrayList<String>();
+        places.add("Place");
+        places.add("Average number of tokens");
+        places.add("95% confidence interval");
+        places.add("Occupancy");
+        for(int p = 0; p < net.getRootPlaceCount(); p++)
+        {
+            RunningStatistics tokens = estimates.getMeanTokens(p);
+            places.add(net.getPlace(p).getLabel());
+            places.add(f.format(tokens.getMean()));
+            places.add("\u00B1 " + f.format(tokens.getConfidenceHalfWidth(0.95)));
+            places.add(f.format(estimates.getOccupancy(p).getMean()));
+        }
+
+        ArrayList<String> transitions = new ArrayList<String>();
+        transitions.add("Transition");
+        transitions.add("Throughput");
+        transitions.add("95% confidence interval");
+        for(int t = 0; t < net.getRootTransitionCount(); t++)
+        {
+            RunningStatistics throughput = estimates.getThroughput(t);
+            transitions.add(net.getTransition(t).getLabel());
+            transitions.add(f.format(throughput.getMean()));
+            transitions.add("\u00B1 " + f.format(throughput.getConfidenceHalfWidth(0.95)));
+        }
+
+        String s = "<h3>Simulation estimates</h3>";
+        s += ResultsHTMLPane.makeTable(places.toArray(), 4, false, true, true, true);
+        s += ResultsHTMLPane.makeTable(transitions.toArray(), 3, false, true, true, true);
+        s += "<br>" + estimates.getReplications() + " replications of " + FIRINGS
+                + " firings took " + f.format(simulationtime) + "s";
+        return s;
+    }
+}
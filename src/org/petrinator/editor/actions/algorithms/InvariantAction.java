@@ -20,45 +20,44 @@
 
 package org.petrinator.editor.actions.algorithms;
 
+import org.petrinator.analysis.AnalysisCache;
+import org.petrinator.analysis.invariants.InvariantMaintainer;
+import org.petrinator.analysis.invariants.Semiflow;
 import org.petrinator.editor.Root;
-import org.petrinator.editor.filechooser.*;
+import org.petrinator.petrinet.CompiledNet;
+import org.petrinator.petrinet.PetriNet;
 import org.petrinator.util.GraphicsTools;
-import pipe.gui.ApplicationSettings;
 import pipe.gui.widgets.ButtonBar;
 import pipe.gui.widgets.EscapableDialog;
-import pipe.gui.widgets.PetriNetChooserPanel;
 import pipe.gui.widgets.ResultsHTMLPane;
-import pipe.utilities.Expander;
-import pipe.utilities.math.Matrix;
-import pipe.utilities.writers.PNMLWriter;
-import pipe.views.MarkingView;
-import pipe.views.PetriNetView;
-import pipe.views.PlaceView;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.File;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedList;
+import java.util.List;
 
 /**
  * @author Joaquin Felici <joaquinfelici at gmail.com>
- * @brief
+ * @brief Shows the P and T-invariants kept by the InvariantMaintainer of the
+ * document. The dialog is not modal: while it is open the net can be edited
+ * and the invariants shown are updated incrementally after every command.
  */
 public class InvariantAction extends AbstractAction
 {
+    private static final String MODULE_NAME = "Invariant analysis";
     Root root;
-    private PetriNetView _pnmlData; // A reference to the Petri Net to be analysed
-    private Matrix _incidenceMatrix;
-    private Matrix _PInvariants;
     private ResultsHTMLPane results;
 
     public InvariantAction(Root root)
     {
         this.root = root;
-        String name = "Invariant analysis";
+        String name = MODULE_NAME;
         putValue(NAME, name);
         putValue(SHORT_DESCRIPTION, name);
         putValue(SMALL_ICON, GraphicsTools.getIcon("pneditor/invariant16.png"));
@@ -66,161 +65,174 @@ public class InvariantAction extends AbstractAction
 
     public void actionPerformed(ActionEvent e)
     {
-        /*
-         * Create tmp.pnml file
-         */
-        FileChooserDialog chooser = new FileChooserDialog();
-
-        if (root.getCurrentFile() != null) {
-            chooser.setSelectedFile(root.getCurrentFile());
-        }
-
-        chooser.addChoosableFileFilter(new PipePnmlFileType());
-        chooser.setAcceptAllFileFilterUsed(false);
-        chooser.setCurrentDirectory(root.getCurrentDirectory());
-        chooser.setDialogTitle("Save as...");
-
-        File file = new File("tmp/" + "tmp" + "." + "pnml");
-        FileType chosenFileType = (FileType) chooser.getFileFilter();
-        try {
-            chosenFileType.save(root.getDocument(), file);
-        } catch (FileTypeException e1) {
-            e1.printStackTrace();
-        }
-        this._pnmlData = new PetriNetView("tmp/tmp.pnml");
-
         /*
          * Show initial pane
          */
-        EscapableDialog guiDialog = new EscapableDialog(root.getParentFrame(), "Minimal siphons and traps", true);
+        EscapableDialog guiDialog = new EscapableDialog(root.getParentFrame(), MODULE_NAME, false);
         Container contentPane = guiDialog.getContentPane();
         contentPane.setLayout(new BoxLayout(contentPane, BoxLayout.PAGE_AXIS));
-        //sourceFilePanel = new PetriNetChooserPanel("Source net", null);
         results = new ResultsHTMLPane("");
         contentPane.add(results);
         contentPane.add(new ButtonBar("Analyse", analyseButtonClick, guiDialog.getRootPane()));
         guiDialog.pack();
         guiDialog.setLocationRelativeTo(root.getParentFrame());
+
+        /*
+         * Follow the edits of the net while the dialog is open
+         */
+        final InvariantMaintainer maintainer = root.getInvariantMaintainer();
+        maintainer.addListener(liveUpdate);
+        guiDialog.addWindowListener(new WindowAdapter()
+        {
+            @Override
+            public void windowClosing(WindowEvent e)
+            {
+                maintainer.removeListener(liveUpdate);
+            }
+
+            @Override
+            public void windowClosed(WindowEvent e)
+            {
+                maintainer.removeListener(liveUpdate);
+            }
+        });
         guiDialog.setVisible(true);
     }
 
-    private final ActionListener analyseButtonClick = new ActionListener()
+    /**
+     * Shows the invariants again after they were updated by an edit of the net
+     */
+    private final InvariantMaintainer.Listener liveUpdate = new InvariantMaintainer.Listener()
     {
-
-        public void actionPerformed(ActionEvent arg0)
+        public void invariantsChanged(InvariantMaintainer maintainer)
         {
-            PetriNetView sourceDataLayer = new PetriNetView("tmp/tmp.pnml");
+            final String s = analyse(maintainer);
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run()
+                {
+                    results.setEnabled(true);
+                    results.setText(s);
+                }
+            });
+        }
+    };
 
-            String s = "<h2>Petri Net Invariant Analysis</h2>";
+    private final ActionListener analyseButtonClick = new ActionListener()
+    {
 
-            if(sourceDataLayer == null)
+        public void actionPerformed(final ActionEvent arg0)
+        {
+            if(arg0.getSource() instanceof JButton)
             {
-                JOptionPane.showMessageDialog(null, "Please, choose a source net",
-                        "Error", JOptionPane.ERROR_MESSAGE);
-                return;
+                ((JButton) arg0.getSource()).setEnabled(false);
             }
 
-            if(!root.getDocument().getPetriNet().getRootSubnet().hasPlaces() || !root.getDocument().getPetriNet().getRootSubnet().hasTransitions())
+            /*
+             * The same net was analysed already
+             */
+            final String key = AnalysisCache.key(root.getDocument().getPetriNet());
+            String cached = (String) AnalysisCache.get(MODULE_NAME, key);
+            if(cached != null)
             {
-                s += "Invalid net!";
+                results.setEnabled(true);
+                results.setText(cached);
+                if(arg0.getSource() instanceof JButton)
+                {
+                    ((JButton) arg0.getSource()).setEnabled(true);
+                }
+                return;
             }
-            else
+
+            SwingWorker<String, Void> sw = new SwingWorker<String, Void>()
             {
-                try
+                @Override
+                protected String doInBackground()
                 {
-
-                    //PNMLWriter.saveTemporaryFile(sourceDataLayer,this.getClass().getName());
-
-                    s += analyse(sourceDataLayer);
-                    results.setEnabled(true);
+                    return analyse(root.getInvariantMaintainer());
                 }
-                catch(OutOfMemoryError oome)
-                {
-                    System.gc();
-                    results.setText("");
-                    s = "Memory error: " + oome.getMessage();
 
-                    s += "<br>Not enough memory. Please use a larger heap size." + "<br>" + "<br>Note:" + "<br>The Java heap size can be specified with the -Xmx option." + "<br>E.g., to use 512MB as heap size, the command line looks like this:" + "<br>java -Xmx512m -classpath ...\n";
-                    results.setText(s);
-                    return;
-                }
-                catch(Exception e)
+                @Override
+                protected void done()
                 {
-                    e.printStackTrace();
-                    s = "<br>Error" + e.getMessage();
-                    results.setText(s);
-                    return;
+                    try
+                    {
+                        String s = get();
+                        AnalysisCache.put(MODULE_NAME, key, s);
+                        results.setEnabled(true);
+                        results.setText(s);
+                    }
+                    catch(Exception e)
+                    {
+                        results.setText("<br>Error " + e.getMessage());
+                    }
+                    catch(OutOfMemoryError e)
+                    {
+                        results.setText("Not enough memory. Please use a larger heap size (-Xmx option).");
+                    }
+                    if(arg0.getSource() instanceof JButton)
+                    {
+                        ((JButton) arg0.getSource()).setEnabled(true);
+                    }
                 }
-            }
-            results.setText(s);
+            };
+            sw.execute();
         }
     };
 
     /**
-     * Invariant analysis was originally only performed on the initial markup
-     * matrix. This is not what the user expects however as when changes are made
-     * to the petri net, the invariant analysis then does not change to reflect
-     * this. The method calls have been changed to pass the current markup matrix
-     * as the parameter for invariant analysis.
-     *
-     * @param pnmlData Petri net to be analyzed
-     * @author Nadeem Akharware
+     * Reports the invariants currently kept by the maintainer.
      * @return html information to write to panel
      */
-    private String analyse(PetriNetView pnmlData)
+    private String analyse(InvariantMaintainer maintainer)
     {
-        Date start_time = new Date(); // start timer for program execution
-        // extract data from PN object
-        int[][] array = pnmlData.getActiveTokenView().getIncidenceMatrix(
-                pnmlData.getArcsArrayList(), pnmlData.getTransitionsArrayList(),
-                pnmlData.getPlacesArrayList());
-        if(array.length == 0)
+        Date start_time = new Date();
+        String s = "<h2>Petri Net Invariant Analysis</h2>";
+        PetriNet petriNet = root.getDocument().getPetriNet();
+        if(!petriNet.getRootSubnet().hasPlaces() || !petriNet.getRootSubnet().hasTransitions())
         {
-            return "";
+            return s + "Invalid net!";
         }
-        _incidenceMatrix = new Matrix(array);
-        LinkedList<MarkingView>[] markings = pnmlData.getCurrentMarkingVector();
-        int[] currentMarking = new int[markings.length];
-        for(int i = 0; i < markings.length; i++)
+
+        CompiledNet net;
+        List<Semiflow> pInvariants;
+        List<Semiflow> tInvariants;
+        synchronized(maintainer)
         {
-            currentMarking[i] = markings[i].getFirst().getCurrentMarking();
+            net = maintainer.getCompiledNet();
+            pInvariants = maintainer.getPlaceSemiflows();
+            tInvariants = maintainer.getTransitionSemiflows();
         }
+        if(pInvariants == null || tInvariants == null)
+        {
+            return s + maintainer.getError().getMessage();
+        }
+        int[] marking = petriNet.getInitialMarking().getTokenArray();
 
-        String output = findNetInvariants(currentMarking); // Nadeem 26/05/2005
-
-        Date stop_time = new Date();
-        double etime = (stop_time.getTime() - start_time.getTime()) / 1000.;
-        return output + "<br>Analysis time: " + etime + "s";
-    }
-
-    /**
-     * Find the net invariants.
-     *
-     * @param M An array containing the current marking of the net.
-     * @return A string containing the resulting matrices of P and T
-     *         Invariants or "None" in place of one of the matrices if it does
-     *         not exist.
-     */
-    String findNetInvariants(int[] M)
-    {
-        return reportTInvariants(M) + "<br>" + reportPInvariants(M) + "<br>";
+        s += reportTInvariants(net, tInvariants) + "<br>" + reportPInvariants(net, pInvariants, marking) + "<br>";
+        s += "<br>" + maintainer.getIncrementalUpdates() + " incremental updates and "
+                + maintainer.getFullComputations() + " full computations of the invariants since the net was opened";
+        double etime = (new Date().getTime() - start_time.getTime()) / 1000.;
+        return s + "<br>Analysis time: " + etime + "s";
     }
 
     /**
      * Reports on the P invariants.
      *
-     * @param M An array containing the current marking of the net.
-     * @return A string containing the resulting matrix of P Invariants,
+     * @return A string containing the table of P Invariants,
      *         the P equations and some analysis
      */
-    String reportPInvariants(int[] M)
+    private String reportPInvariants(CompiledNet net, List<Semiflow> invariants, int[] marking)
     {
-        _PInvariants = findVectors(_incidenceMatrix.transpose());
+        String[] names = new String[net.getPlaceCount()];
+        for(int p = 0; p < names.length; p++)
+        {
+            names[p] = net.getPlace(p).getLabel();
+        }
         String result = "<h3>P-Invariants</h3>";
-        result += ResultsHTMLPane.makeTable(
-                _PInvariants, _pnmlData.places(), false, true, true, false);
+        result += table(names, invariants);
 
-        if(_PInvariants.isCovered())
+        if(isCovered(invariants, names.length))
         {
             result += "The net is covered by positive P-Invariants, " +
                     "therefore it is bounded.";
@@ -230,25 +242,26 @@ public class InvariantAction extends AbstractAction
             result += "The net is not covered by positive P-Invariants, " +
                     "therefore we do not know if it is bounded.";
         }
-        return result + "<br>" + findPEquations(M);
+        return result + "<br>" + findPEquations(names, invariants, marking);
     }
 
     /**
      * Reports on the T invariants.
      *
-     * @param M An array containing the current marking of the net.
-     * @return A string containing the resulting matrix of T Invariants and
+     * @return A string containing the table of T Invariants and
      *         some analysis of it
      */
-    String reportTInvariants(int[] M)
+    private String reportTInvariants(CompiledNet net, List<Semiflow> invariants)
     {
-        Matrix TInvariants = findVectors(_incidenceMatrix);
-
+        String[] names = new String[net.getTransitionCount()];
+        for(int t = 0; t < names.length; t++)
+        {
+            names[t] = net.getTransition(t).getLabel();
+        }
         String result = "<h3>T-Invariants</h3>";
-        result += ResultsHTMLPane.makeTable(
-                TInvariants, _pnmlData.getTransitionViews(), false, true, true, false);
+        result += table(names, invariants);
 
-        if(TInvariants.isCovered())
+        if(isCovered(invariants, names.length))
         {
             result += "The net is covered by positive T-Invariants, " +
                     "therefore it might be bounded and live.";
@@ -262,492 +275,87 @@ public class InvariantAction extends AbstractAction
         return result + "<br>";
     }
 
-    //<Marc>
-    /* It returns a PNMatrix containing the place invariants of the sourceDataLayer net.
-    * @param sourceDataLayer A _dataLayer type object with all the information about
-    *                        the petri net.
-    * @return a PNMatrix where each column contains a place invariant.
-    */
-    public Matrix getPInvariants(PetriNetView sourceDataLayer)
-    {
-        int[][] array = sourceDataLayer.getActiveTokenView()
-                .getIncidenceMatrix(sourceDataLayer.getArcsArrayList(), sourceDataLayer.getTransitionsArrayList(),
-                        sourceDataLayer.getPlacesArrayList());
-        if(array.length == 0)
-        {
-            return null;
-        }
-        _incidenceMatrix = new Matrix(array);
-
-
-        LinkedList<MarkingView>[] markings = sourceDataLayer.getCurrentMarkingVector();
-        int[] currentMarking = new int[markings.length];
-        for(int i = 0; i < markings.length; i++)
-        {
-            currentMarking[i] = markings[i].getFirst().getCurrentMarking();
-        }
-
-        return findVectors(_incidenceMatrix.transpose());
-    }
-
-    /* It returns a PNMatrix containing the transition invariants of the sourceDataLayer net.
-    * @param sourceDataLayer A _dataLayer type object with all the information about
-    *                        the petri net.
-    * @return a PNMatrix where each column contains a transition invariant.
-    */
-    public Matrix getTInvariants(PetriNetView sourceDataLayer)
-    {
-        int[][] array = sourceDataLayer.getActiveTokenView().getIncidenceMatrix(
-                sourceDataLayer.getArcsArrayList(), sourceDataLayer.getTransitionsArrayList(),
-                sourceDataLayer.getPlacesArrayList());
-        if(array.length == 0)
-        {
-            return null;
-        }
-        _incidenceMatrix = new Matrix(array);
-
-        LinkedList<MarkingView>[] markings = sourceDataLayer.getCurrentMarkingVector();
-        int[] currentMarking = new int[markings.length];
-        for(int i = 0; i < markings.length; i++)
-        {
-            currentMarking[i] = markings[i].getFirst().getCurrentMarking();
-        }
-
-        return findVectors(_incidenceMatrix);
-    }
-    //</Marc>
-
     /**
-     * Find the P equations of the net.
-     *
-     * @param currentMarking An array containing the current marking of the net.
-     * @return A string containing the resulting P equations,
-     *         empty string if the equations do not exist.
+     * One row per invariant, one column per place or transition.
      */
-    String findPEquations(int[] currentMarking)
+    private static String table(String[] names, List<Semiflow> invariants)
     {
-        PlaceView[] placeViewArray = _pnmlData.places();
-        String eq = "<h3>P-Invariant equations</h3>";
-        int m = _PInvariants.getRowDimension();
-        int n = _PInvariants.getColumnDimension();
-        if(n < 1)
-        { // if there are no P-invariants don't return any equations
-            return "";
-        }
-
-        Matrix col = new Matrix(m, 1);
-        int rhs = 0; // the right hand side of the equations
-
-        // form the column vector of current marking
-        Matrix M = new Matrix(currentMarking, currentMarking.length);
-        // for each column c in PInvariants, form one equation of the form
-        // a1*p1+a2*p2+...+am*pm = c.transpose*M where a1, a2, .., am are the
-        // elements of c
-        for(int i = 0; i < n; i++)
-        { // column index
-            for(int j = 0; j < m; j++)
-            { // row index
-                // form left hand side:
-                int a = _PInvariants.get(j, i);
-                if(a > 1)
-                {
-                    eq += Integer.toString(a);
-                }
-                if(a > 0)
-                {
-                    eq += "M(" + placeViewArray[j].getName() + ") + "; // Nadeem 28/05/2005
-                }
-            }
-            // replace the last occurance of "+ "
-            eq = eq.substring(0, (eq.length() - 2)) + "= ";
-
-            // form right hand side
-            col = _PInvariants.getMatrix(0, m - 1, i, i);
-            rhs = col.transpose().vectorTimes(M);
-            eq += rhs + "<br>"; // and separate the equations
-        }
-        return eq;
-    }
-
-    /**
-     * Transform a matrix to obtain the minimal generating set of vectors.
-     *
-     * @param c The matrix to transform.
-     * @return A matrix containing the vectors.
-     */
-    public Matrix findVectors(Matrix c)
-    {
-        /*
-       | Tests Invariant Analysis IModule
-       |
-       |   C          = incidence matrix.
-       |   B          = identity matrix with same number of columns as C.
-       |                Becomes the matrix of vectors in the end.
-       |   pPlus      = integer array of +ve indices of a row.
-       |   pMinus     = integer array of -ve indices of a row.
-       |   pPlusMinus = set union of the above integer arrays.
-        */
-        int m = c.getRowDimension(), n = c.getColumnDimension();
-
-        // generate the nxn identity matrix
-        Matrix B = Matrix.identity(n, n);
-
-        // arrays containing the indices of +ve and -ve elements in a row vector
-        // respectively
-        int[] pPlus, pMinus;
-
-        // while there are no zero elements in C do the steps of phase 1
-//--------------------------------------------------------------------------------------
-        // PHASE 1:
-//--------------------------------------------------------------------------------------
-        while(!(c.isZeroMatrix()))
+        if(invariants.isEmpty())
         {
-            if(c.checkCase11())
-            {
-                // check each row (case 1.1)
-                for(int i = 0; i < m; i++)
-                {
-                    pPlus = c.getPositiveIndices(i); // get +ve indices of ith row
-                    pMinus = c.getNegativeIndices(i); // get -ve indices of ith row
-                    if(isEmptySet(pPlus) || isEmptySet(pMinus))
-                    { // case-action 1.1.a
-                        // this has to be done for all elements in the union pPlus U pMinus
-                        // so first construct the union
-                        int[] pPlusMinus = uniteSets(pPlus, pMinus);
-
-                        // eliminate each column corresponding to nonzero elements in pPlusMinus union
-                        for(int j = pPlusMinus.length - 1; j >= 0; j--)
-                        {
-                            if(pPlusMinus[j] != 0)
-                            {
-                                c = c.eliminateCol(pPlusMinus[j] - 1);
-                                B = B.eliminateCol(pPlusMinus[j] - 1);
-                                n--;  // reduce the number of columns since new matrix is smaller
-                            }
-                        }
-                    }
-                    resetArray(pPlus);   // reset pPlus and pMinus to 0
-                    resetArray(pMinus);
-                }
-            }
-            else if(c.cardinalityCondition() >= 0)
-            {
-                while(c.cardinalityCondition() >= 0)
-                {
-                    // while there is a row in the C matrix that satisfies the cardinality condition
-                    // do a linear combination of the appropriate columns and eliminate the appropriate column.
-                    int cardRow = -1; // the row index where cardinality == 1
-                    cardRow = c.cardinalityCondition();
-                    // get the column index of the column to be eliminated
-                    int k = c.cardinalityOne();
-                    if(k == -1)
-                    {
-                        System.out.println("Error");
-                    }
-
-                    // get the comlumn indices to be changed by linear combination
-                    int j[] = c.colsToUpdate();
-
-                    // update columns with linear combinations in matrices C and B
-                    // first retrieve the coefficients
-                    int[] jCoef = new int[n];
-                    for(int i = 0; i < j.length; i++)
-                    {
-                        if(j[i] != 0)
-                        {
-                            jCoef[i] = Math.abs(c.get(cardRow, (j[i] - 1)));
-                        }
-                    }
-
-                    // do the linear combination for C and B
-                    // k is the column to add, j is the array of cols to add to
-                    c.linearlyCombine(k, Math.abs(c.get(cardRow, k)), j, jCoef);
-                    B.linearlyCombine(k, Math.abs(c.get(cardRow, k)), j, jCoef);
-
-                    // eliminate column of cardinality == 1 in matrices C and B
-                    c = c.eliminateCol(k);
-                    B = B.eliminateCol(k);
-                    // reduce the number of columns since new matrix is smaller
-                    n--;
-                }
-            }
-            else
-            {
-                // row annihilations (condition 1.1.b.2)
-                // operate only on non-zero rows of C (row index h)
-                // find index of first non-zero row of C (int h)
-                int h = c.firstNonZeroRowIndex();
-                while((h = c.firstNonZeroRowIndex()) > -1)
-                {
-
-                    // the column index of the first non zero element of row h
-                    int k = c.firstNonZeroElementIndex(h);
-
-                    // find first non-zero element at column k, chk
-                    int chk = c.get(h, k);
-
-                    // find all the other indices of non-zero elements in that row chj[]
-                    int[] chj = new int[n - 1];
-                    chj = c.findRemainingNZIndices(h);
-
-                    while(!(isEmptySet(chj)))
-                    {
-                        // chj empty only when there is just one nonzero element in the
-                        // whole row, this should not happen as this case is eliminated
-                        // in the first step, so we would never arrive at this while()
-                        // with just one nonzero element
-
-                        // find all the corresponding elements in that row (coefficients jCoef[])
-                        int[] jCoef = c.findRemainingNZCoef(h);
-
-                        // adjust linear combination coefficients according to sign
-                        int[] alpha, beta; // adjusted coefficients for kth and remaining columns respectively
-                        alpha = alphaCoef(chk, jCoef);
-                        beta = betaCoef(chk, jCoef.length);
-
-                        // linearly combine kth column, coefficient alpha, to jth columns, coefficients beta
-                        c.linearlyCombine(k, alpha, chj, beta);
-                        B.linearlyCombine(k, alpha, chj, beta);
-
-                        // delete kth column
-                        c = c.eliminateCol(k);
-                        B = B.eliminateCol(k);
-
-                        chj = c.findRemainingNZIndices(h);
-                    }
-                }
-                // show the result
-                // System.out.println("Pseudodiagonal positive basis of Ker C after phase 1:");
-                // B.print(2, 0);
-            }
+            return "None<br>";
         }
-        // System.out.println("end of phase one");
-        // END OF PHASE ONE, now B contains a pseudodiagonal positive basis of Ker C
-//--------------------------------------------------------------------------------------
-        // PHASE 2:
-//--------------------------------------------------------------------------------------
-        // h is -1 at this point, make it equal to the row index that has a -ve element.
-        // rowWithNegativeElement with return -1 if there is no such row, and we exit the loop.
-        int h;
-        while((h = B.rowWithNegativeElement()) > -1)
+        ArrayList<String> cells = new ArrayList<String>();
+        for(String name : names)
         {
-
-            pPlus = B.getPositiveIndices(h); // get +ve indices of hth row (1st col = index 1)
-            pMinus = B.getNegativeIndices(h); // get -ve indices of hth row (1st col = index 1)
-
-            // effective length is the number of non-zero elements
-            int pPlusLength = effectiveSetLength(pPlus);
-            int pMinusLength = effectiveSetLength(pMinus);
-
-            if(pPlusLength != 0)
-            { // set of positive coef. indices must me non-empty
-                // form the cross product of pPlus and pMinus
-                // for each pair (j, k) in the cross product, operate a linear combination on the columns
-                // of indices j, k, in order to get a new col with a zero at the hth element
-                // The number of new cols obtained = the number of pairs (j, k)
-                for(int j = 0; j < pPlusLength; j++)
-                {
-                    for(int k = 0; k < pMinusLength; k++)
-                    {
-                        // coefficients of row h, cols indexed j, k in pPlus, pMinus
-                        // respectively
-                        int jC = pPlus[j] - 1, kC = pMinus[k] - 1;
-
-                        // find coeficients for linear combination, just the abs values
-                        // of elements this is more efficient than finding the least
-                        // common multiple and it does not matter since later we will
-                        // find gcd of col and we will normalise with that the col
-                        // elements
-                        int a = -B.get(h, kC), b = B.get(h, jC);
-
-                        // create the linear combination a*jC-column + b*kC-column, an
-                        // IntMatrix mx1 where m = number of rows of B
-                        m = B.getRowDimension();
-                        Matrix v1 = new Matrix(m, 1); // column vector mx1 of zeros
-                        Matrix v2 = new Matrix(m, 1); // column vector mx1 of zeros
-                        v1 = B.getMatrix(0, m - 1, jC, jC);
-                        v2 = B.getMatrix(0, m - 1, kC, kC);
-                        v1.timesEquals(a);
-                        v2.timesEquals(b);
-                        v2.plusEquals(v1);
-
-                        // find the gcd of the elements in this new col
-                        int V2gcd = v2.gcd();
-
-                        // divide all the col elements by their gcd if gcd > 1
-                        if(V2gcd > 1)
-                        {
-                            v2.divideEquals(V2gcd);
-                        }
-
-                        // append the new col to B
-                        n = B.getColumnDimension();
-                        Matrix f = new Matrix(m, n + 1);
-                        f = B.appendVector(v2);
-                        B = f.copy();
-                    }
-                } // endfor (j,k) operations
-
-                // delete from B all cols with index in pMinus
-                for(int ww = 0; ww < pMinusLength; ww++)
-                {
-                    B = B.eliminateCol(pMinus[ww] - 1);
-                }
-
-            } // endif
-        } // end while
-        // System.out.println("\nAfter column transformations in phase 2 (non-minimal generating set) B:");
-        // B.print(2, 0);
-
-        // delete from B all cols having non minimal support
-        // k is the index of column to be eliminated, if it is -1 then there is
-        // no col to be eliminated
-        int k = 0;
-        // form a matrix with columns the row indices of non-zero elements
-        Matrix bi = B.nonZeroIndices();
-
-        while(k > -1)
+            cells.add(name);
+        }
+        for(Semiflow invariant : invariants)
         {
-            k = bi.findNonMinimal();
-
-            if(k != -1)
+            for(int i = 0; i < names.length; i++)
             {
-                B = B.eliminateCol(k);
-                bi = B.nonZeroIndices();
+                cells.add(invariant.get(i).toString());
             }
         }
-
-        // display the result
-        // System.out.println("Minimal generating set (after phase 2):");
-        // B.print(2, 0);
-        return B;
+        return ResultsHTMLPane.makeTable(cells.toArray(), names.length, false, true, true, false);
     }
 
     /**
-     * find the number of non-zero elements in a set
-     *
-     * @param pSet The set count the number of non-zero elements.
-     * @return The number of non-zero elements.
+     * Every place (or transition) is in the support of some invariant.
      */
-    private int effectiveSetLength(int[] pSet)
+    private static boolean isCovered(List<Semiflow> invariants, int length)
     {
-        int effectiveLength = 0; // number of non-zero elements
-        int setLength = pSet.length;
-
-        for(int i = 0; i < setLength; i++)
+        boolean[] covered = new boolean[length];
+        for(Semiflow invariant : invariants)
         {
-            if(pSet[i] != 0)
+            for(int k = 0; k < invariant.getSupportSize(); k++)
             {
-                effectiveLength++;
-            }
-            else
-            {
-                return effectiveLength;
+                covered[invariant.getIndex(k)] = true;
             }
         }
-        return effectiveLength;
-    }
-
-    /**
-     * adjust linear combination coefficients according to sign
-     * if sign(j) <> sign(k) then alpha = abs(j) beta = abs(k)
-     * if sign(j) == sign(k) then alpha = -abs(j) beta = abs(k)
-     *
-     * @param k The column index of the first coefficient
-     * @param j The column indices of the remaining coefficients
-     * @return The adjusted alpha coefficients
-     */
-    private int[] alphaCoef(int k, int[] j)
-    {
-        int n = j.length; // the length of one row
-        int[] alpha = new int[n];
-
-        for(int i = 0; i < n; i++)
+        for(boolean c : covered)
         {
-            if((k * j[i]) < 0)
-            {
-                alpha[i] = Math.abs(j[i]);
-            }
-            else
+            if(!c)
             {
-                alpha[i] = -Math.abs(j[i]);
+                return false;
             }
         }
-        return alpha;
+        return length > 0;
     }
 
     /**
-     * adjust linear combination coefficients according to sign
-     * if sign(j) <> sign(k) then alpha = abs(j) beta = abs(k)
-     * if sign(j) == sign(k) then alpha = -abs(j) beta = abs(k)
-     *
-     * @param chk The first coefficient
-     * @param n   The length of one row
-     * @return The adjusted beta coefficients
-     */
-    private int[] betaCoef(int chk, int n)
-    {
-        int[] beta = new int[n];
-        int abschk = Math.abs(chk);
-
-        for(int i = 0; i < n; i++)
-        {
-            beta[i] = abschk;
-        }
-        return beta;
-    }
-
-    private void resetArray(int[] a)
-    {
-        for(int i = 0; i < a.length; i++)
-        {
-            a[i] = 0;
-        }
-    }
-
-    /**
-     * Unite two sets (arrays of integers) so that if there is a common entry in
-     * the arrays it appears only once, and all the entries of each array appear
-     * in the union. The resulting array size is the same as the 2 arrays and
-     * they are both equal. We are only interested in non-zero elements. One of
-     * the 2 input arrays is always full of zeros.
+     * Find the P equations of the net.
      *
-     * @param A The first set to unite.
-     * @param B The second set to unite.
-     * @return The union of the two input sets.
+     * @param marking An array containing the initial marking of the net.
+     * @return A string containing the resulting P equations,
+     *         empty string if the equations do not exist.
      */
-    private int[] uniteSets(int[] A, int[] B)
+    private static String findPEquations(String[] names, List<Semiflow> invariants, int[] marking)
     {
-        int[] union = new int[A.length];
-
-        if(isEmptySet(A))
-        {
-            union = B;
-        }
-        else
-        {
-            union = A;
+        if(invariants.isEmpty())
+        { // if there are no P-invariants don't return any equations
+            return "";
         }
-        return union;
-    }
-
-    /**
-     * check if an array is empty (only zeros)
-     *
-     * @param pSet The set to check if it is empty.
-     * @return True if the set is empty.
-     */
-    private boolean isEmptySet(int[] pSet)
-    {
-        int setLength = pSet.length;
-
-        for(int i = 0; i < setLength; i++)
+        String eq = "<h3>P-Invariant equations</h3>";
+        for(Semiflow invariant : invariants)
         {
-            if(pSet[i] != 0)
+            BigInteger rhs = BigInteger.ZERO;
+            for(int k = 0; k < invariant.getSupportSize(); k++)
             {
-                return false;
+                int p = invariant.getIndex(k);
+                BigInteger a = invariant.getValue(k);
+                if(a.compareTo(BigInteger.ONE) > 0)
+                {
+                    eq += a.toString();
+                }
+                eq += "M(" + names[p] + ") + ";
+                if(p < marking.length)
+                {
+                    rhs = rhs.add(a.multiply(BigInteger.valueOf(marking[p])));
+                }
             }
+            // replace the last occurance of "+ "
+            eq = eq.substring(0, (eq.length() - 2)) + "= " + rhs + "<br>";
         }
-        return true;
+        return eq;
     }
 }
@@ -20,8 +20,8 @@
 
 package org.petrinator.editor.actions.algorithms;
 
+import org.petrinator.analysis.AnalysisCache;
 import org.petrinator.editor.Root;
-import org.petrinator.editor.filechooser.*;
 
 import org.petrinator.util.GraphicsTools;
 import pipe.gui.ApplicationSettings;
@@ -39,7 +39,6 @@ import java.awt.event.ActionListener;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
-import java.io.File;
 import java.util.ArrayList;
 import java.util.LinkedList;
 
@@ -64,30 +63,9 @@ public class MatricesAction extends AbstractAction
     public void actionPerformed(ActionEvent e)
     {
          /*
-         * Create tmp.pnml file
-         */
-        FileChooserDialog chooser = new FileChooserDialog();
-
-        if (root.getCurrentFile() != null)
-        {
-            chooser.setSelectedFile(root.getCurrentFile());
-        }
-
-        chooser.addChoosableFileFilter(new PipePnmlFileType());
-        chooser.setAcceptAllFileFilterUsed(false);
-        chooser.setCurrentDirectory(root.getCurrentDirectory());
-        chooser.setDialogTitle("Save as...");
-
-        File file = new File("tmp/" + "tmp" + "." + "pnml");
-        FileType chosenFileType = (FileType) chooser.getFileFilter();
-        try
-        {
-            chosenFileType.save(root.getDocument(), file);
-        }
-        catch (FileTypeException e1)
-        {
-            e1.printStackTrace();
-        }
+          * Create tmp.pnml file, unless it holds the net already
+          */
+         TemporaryNetFile.save(root);
 
         /*
          * Show initial pane
@@ -108,6 +86,18 @@ public class MatricesAction extends AbstractAction
     {
         public void actionPerformed(ActionEvent arg0)
         {
+            /*
+             * The same net was analysed already
+             */
+            String key = AnalysisCache.key(root.getDocument().getPetriNet());
+            String cached = (String) AnalysisCache.get("Matrices", key);
+            if(cached != null)
+            {
+                results.setEnabled(true);
+                results.setText(cached);
+                return;
+            }
+
             /*
              * Read tmp file
              */
@@ -184,6 +174,7 @@ public class MatricesAction extends AbstractAction
                     return;
                 }
             }
+            AnalysisCache.put("Matrices", key, s);
             results.setEnabled(true);
             results.setText(s);
         }
@@ -20,9 +20,16 @@
 
 package org.petrinator.editor.actions.algorithms;
 
+import org.petrinator.analysis.AnalysisCache;
+import org.petrinator.analysis.statespace.ReachabilityGraph;
+import org.petrinator.analysis.statespace.ReachabilityGraphFile;
+import org.petrinator.analysis.statespace.StateSpaceExplorer;
+import org.petrinator.analysis.statespace.StateSpaceTooBigException;
+import org.petrinator.analysis.symbolic.MddTooBigException;
+import org.petrinator.analysis.symbolic.SymbolicExplorer;
 import org.petrinator.auxiliar.GraphFrame;
 import org.petrinator.editor.Root;
-import org.petrinator.editor.filechooser.*;
+import org.petrinator.petrinet.CompiledNet;
 import org.petrinator.util.GraphicsTools;
 import pipe.gui.widgets.ButtonBar;
 import pipe.gui.widgets.EscapableDialog;
@@ -50,13 +57,16 @@ import javax.swing.BoxLayout;
 import javax.swing.ImageIcon;
 import javax.swing.JOptionPane;
 
-import pipe.calculations.StateSpaceGenerator;
 import pipe.calculations.myTree;
 import pipe.gui.ApplicationSettings;
 import pipe.controllers.PipeApplicationController;
 import pipe.models.PipeApplicationModel;
 import net.sourceforge.jpowergraph.defaults.DefaultGraph;
 import net.sourceforge.jpowergraph.defaults.DefaultNode;
+import net.sourceforge.jpowergraph.defaults.TextEdge;
+import net.sourceforge.jpowergraph.Edge;
+import net.sourceforge.jpowergraph.Node;
+import pipe.extensions.jpowergraph.*;
 import pipe.views.PetriNetView;
 
 /**
@@ -75,6 +85,7 @@ public class ReachabilityAction extends AbstractAction
     Root root;
     String graphName = "";
     private ResultsHTMLPane results;
+    private final JCheckBox parallelExploration = new JCheckBox("Parallel state space exploration");
 
     public ReachabilityAction(Root root)
     {
@@ -88,26 +99,9 @@ public class ReachabilityAction extends AbstractAction
     public void actionPerformed(ActionEvent e)
     {
         /*
-         * Create tmp.pnml file
+         * Create tmp.pnml file, unless it holds the net already
          */
-        FileChooserDialog chooser = new FileChooserDialog();
-
-        if (root.getCurrentFile() != null) {
-            chooser.setSelectedFile(root.getCurrentFile());
-        }
-
-        chooser.addChoosableFileFilter(new PipePnmlFileType());
-        chooser.setAcceptAllFileFilterUsed(false);
-        chooser.setCurrentDirectory(root.getCurrentDirectory());
-        chooser.setDialogTitle("Save as...");
-
-        File file = new File("tmp/" + "tmp" + "." + "pnml");
-        FileType chosenFileType = (FileType) chooser.getFileFilter();
-        try {
-            chosenFileType.save(root.getDocument(), file);
-        } catch (FileTypeException e1) {
-            e1.printStackTrace();
-        }
+        TemporaryNetFile.save(root);
 
         /*
          * Show initial pane
@@ -118,6 +112,7 @@ public class ReachabilityAction extends AbstractAction
         //sourceFilePanel = new PetriNetChooserPanel("Source net", null);
         results = new ResultsHTMLPane("");
         contentPane.add(results);
+        contentPane.add(parallelExploration);
         contentPane.add(new ButtonBar("Generate graph", generateButtonClick, guiDialog.getRootPane()));
         guiDialog.pack();
         guiDialog.setLocationRelativeTo(root.getParentFrame());
@@ -142,7 +137,7 @@ public class ReachabilityAction extends AbstractAction
             /*
              * Let's try to create the reachability graph
              */
-            File reachabilityGraph = new File("results.rg");
+            File reachabilityGraph = null;
             if(!root.getDocument().getPetriNet().getRootSubnet().hasPlaces() || !root.getDocument().getPetriNet().getRootSubnet().hasTransitions())
             {
                 s += "Invalid net!";
@@ -155,19 +150,35 @@ public class ReachabilityAction extends AbstractAction
                      * Check if petri net is bounded
                      */
                     LinkedList<MarkingView>[] markings = sourcePetriNetView.getCurrentMarkingVector();
-                    int[] markup = new int[markings.length];
-                    for(int k = 0; k < markings.length; k++)
-                    {
-                        markup[k] = markings[k].getFirst().getCurrentMarking();
-                    }
-                    myTree tree = new myTree(sourcePetriNetView, markup);
-                    boolean bounded = !tree.foundAnOmega;
+                    boolean bounded = AnalysisCache.getCoverabilitySet(root.getDocument().getPetriNet()).isBounded();
 
+                    ReachabilityGraph graph = null;
                     if(bounded)
                     {
-                        StateSpaceGenerator.generate(sourcePetriNetView, reachabilityGraph);
+                        /*
+                         * The graph of the same net is reused
+                         */
+                        String key = AnalysisCache.key(root.getDocument().getPetriNet());
+                        graph = (ReachabilityGraph) AnalysisCache.get("Reachability graph", key);
                         graphName = "Reachability graph";
-                        System.out.println("Reachability graph successfully created");
+                        if(graph == null)
+                        {
+                            StateSpaceExplorer explorer = StateSpaceExplorer.create(root.getDocument().getPetriNet(), parallelExploration.isSelected());
+                            graph = explorer.explore();
+                            System.out.println("Reachability graph successfully created");
+                            s += "<br>" + graph.getStateCount() + " states and " + graph.getEdgeCount() + " arcs";
+                            s += "<br>" + Math.round(explorer.getStatesPerSecond()) + " states per second";
+
+                            /*
+                             * The explored graph already spills to the tmp directory,
+                             * so it is cached as it is
+                             */
+                            AnalysisCache.put("Reachability graph", key, graph);
+                        }
+                        else
+                        {
+                            s += "<br>" + graph.getStateCount() + " states and " + graph.getEdgeCount() + " arcs";
+                        }
                     }
                     else
                     {
@@ -175,6 +186,7 @@ public class ReachabilityAction extends AbstractAction
                           * If we found the net to be unbounded, then we need to create the coverability graph
                           */
                         LinkedList<MarkingView>[] graphMarkings = sourcePetriNetView.getCurrentMarkingVector();
+                        reachabilityGraph = ReachabilityGraphFile.createTempFile();
                         int[] currentMarking = new int[markings.length];
                         for(int i = 0; i < markings.length; i++)
                         {
@@ -190,7 +202,14 @@ public class ReachabilityAction extends AbstractAction
                      */
                     gfinished = new Date().getTime();
                     System.gc();
-                    generateGraph(reachabilityGraph, sourcePetriNetView, !bounded);
+                    if(bounded)
+                    {
+                        generateGraph(graph);
+                    }
+                    else
+                    {
+                        generateGraph(reachabilityGraph, sourcePetriNetView, true);
+                    }
                     allfinished = new Date().getTime();
                     graphtime = (gfinished - start) / 1000.0;
                     constructiontime = (allfinished - gfinished) / 1000.0;
@@ -204,10 +223,39 @@ public class ReachabilityAction extends AbstractAction
                     s += "<br>Total time was " + f.format(totaltime) + "s";
                     results.setEnabled(true);
                 }
+                catch(StateSpaceTooBigException e)
+                {
+                    s += "<br>" + e.getMessage();
+                    /*
+                     * The graph cannot be drawn, but the states can still be
+                     * counted with a decision diagram
+                     */
+                    try
+                    {
+                        s += "<br>The net has " + new SymbolicExplorer(root.getDocument().getPetriNet()).explore().getStateCount() +
+                                " reachable states.";
+                    }
+                    catch(MddTooBigException mdd)
+                    {
+                        s += "<br>" + mdd.getMessage();
+                    }
+                    catch(InterruptedException ie)
+                    {
+                        Thread.currentThread().interrupt();
+                        s += "<br>The number of reachable states is not available, the exploration was interrupted.";
+                    }
+                }
                 catch(Exception e)
                 {
                     e.printStackTrace();
                 }
+                finally
+                {
+                    if(reachabilityGraph != null)
+                    {
+                        reachabilityGraph.delete();
+                    }
+                }
                 results.setText(s);
             }
         }
@@ -233,4 +281,65 @@ public class ReachabilityAction extends AbstractAction
         frame.constructGraphFrame(graph, legend, root);
         frame.toFront();
     }
-}
\ No newline at end of file
+
+    /**
+     * Shows a reachability graph built by the native explorer.
+     * @param reachabilityGraph the graph to show
+     */
+    public void generateGraph(ReachabilityGraph reachabilityGraph)
+    {
+        CompiledNet net = reachabilityGraph.getCompiledNet();
+        ArrayList<Node> nodes = new ArrayList<Node>();
+        ArrayList<Edge> edges = new ArrayList<Edge>();
+
+        for(int state = 0; state < reachabilityGraph.getStateCount(); state++)
+        {
+            int[] marking = reachabilityGraph.getMarking(state);
+            String tokens = "{";
+            for(int p = 0; p < net.getRootPlaceCount(); p++)
+            {
+                tokens += (p == 0 ? "" : ", ") + marking[p];
+            }
+            tokens += "}";
+            if(state == 0)
+                nodes.add(new PIPEInitialState("S" + state, tokens));
+            else
+                nodes.add(new PIPEState("S" + state, tokens));
+        }
+
+        for(int state = 0; state < reachabilityGraph.getStateCount(); state++)
+        {
+            /*
+             * All the self loops of a state are drawn as one loop with all the labels
+             */
+            String loops = "";
+            int first = reachabilityGraph.getFirstEdge(state);
+            for(int edge = first; edge < first + reachabilityGraph.getSuccessorCount(state); edge++)
+            {
+                String label = net.getTransition(reachabilityGraph.getEdgeTransition(edge)).getLabel();
+                int target = reachabilityGraph.getEdgeTarget(edge);
+                if(target == state)
+                    loops += (loops.isEmpty() ? "" : ", ") + label;
+                else
+                    edges.add(new TextEdge(nodes.get(state), nodes.get(target), label));
+            }
+            if(!loops.isEmpty())
+                edges.add(new PIPELoopWithTextEdge((PIPENode) nodes.get(state), loops));
+        }
+
+        DefaultGraph graph = new DefaultGraph();
+        graph.addElements(nodes, edges);
+
+        GraphFrame frame = new GraphFrame();
+        String legend = "";
+        for(int p = 0; p < net.getRootPlaceCount(); p++)
+        {
+            legend += (p == 0 ? "{" : ", ") + net.getPlace(p).getLabel();
+        }
+        if(!legend.isEmpty())
+            legend += "}";
+        frame.setTitle(graphName);
+        frame.constructGraphFrame(graph, legend, root);
+        frame.toFront();
+    }
+}
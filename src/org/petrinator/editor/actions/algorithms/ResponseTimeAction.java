@@ -20,24 +20,285 @@
 
 package org.petrinator.editor.actions.algorithms;
 
+import org.petrinator.analysis.AnalysisCache;
+import org.petrinator.analysis.markov.MarkingCondition;
+import org.petrinator.analysis.markov.MarkovChain;
+import org.petrinator.analysis.markov.PassageTime;
+import org.petrinator.analysis.markov.SteadyStateSolver;
+import org.petrinator.analysis.markov.TangibleExplorer;
+import org.petrinator.analysis.markov.TimelessTrapException;
+import org.petrinator.analysis.statespace.StateSpaceTooBigException;
 import org.petrinator.editor.Root;
+import org.petrinator.petrinet.CompiledNet;
+import org.petrinator.petrinet.PetriNet;
 import org.petrinator.util.GraphicsTools;
+import pipe.gui.widgets.ButtonBar;
+import pipe.gui.widgets.EscapableDialog;
+import pipe.gui.widgets.ResultsHTMLPane;
 
 import javax.swing.*;
+import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.BitSet;
 
 /**
  * @author Joaquin Felici <joaquinfelici at gmail.com>
- * @brief
+ * @brief Passage time analysis: the distribution of the time from entering
+ * the markings of a source condition until reaching those of a target one.
+ * The Markov chain of the net and its steady state are kept in the analysis
+ * cache, so that every other query on the same net only solves the passage.
  */
 public class ResponseTimeAction extends AbstractAction
 {
+    private static final String MODULE_NAME = "Time response analysis";
+    private static final String CHAIN = MODULE_NAME + ", chain";
+    private static final int CDF_ROWS = 20;
+    private Root root;
+    private ResultsHTMLPane results;
+    private final JTextField sourceCondition = new JTextField(25);
+    private final JTextField targetCondition = new JTextField(25);
+    private final JTextField percentiles = new JTextField("50, 90, 95, 99", 25);
+
     public ResponseTimeAction(Root root)
     {
-        String name = "Time response analysis";
+        String name = MODULE_NAME;
+        this.root = root;
         putValue(NAME, name);
+        putValue(SHORT_DESCRIPTION, name);
         putValue(SMALL_ICON, GraphicsTools.getIcon("pneditor/timeresponse16.png"));
-        setEnabled(false);
     }
-    public void actionPerformed(ActionEvent e) {}
+
+    public void actionPerformed(ActionEvent e)
+    {
+        EscapableDialog guiDialog = new EscapableDialog(root.getParentFrame(), MODULE_NAME, true);
+        Container contentPane = guiDialog.getContentPane();
+        contentPane.setLayout(new BoxLayout(contentPane, BoxLayout.PAGE_AXIS));
+        results = new ResultsHTMLPane("");
+        contentPane.add(results);
+        JPanel conditions = new JPanel(new GridLayout(3, 2));
+        conditions.add(new JLabel("Source markings (e.g. Request > 0):  "));
+        conditions.add(sourceCondition);
+        conditions.add(new JLabel("Target markings (e.g. Served > 0 and Request = 0):  "));
+        conditions.add(targetCondition);
+        conditions.add(new JLabel("Percentiles:  "));
+        conditions.add(percentiles);
+        contentPane.add(conditions);
+        contentPane.add(new ButtonBar("Analyse", runAnalysis, guiDialog.getRootPane()));
+        guiDialog.pack();
+        guiDialog.setLocationRelativeTo(root.getParentFrame());
+        guiDialog.setVisible(true);
+    }
+
+    /**
+     * Analyse button click handler
+     */
+    private final ActionListener runAnalysis = new ActionListener() {
+
+        public void actionPerformed(final ActionEvent arg0)
+        {
+            if (arg0.getSource() instanceof JButton)
+            {
+                ((JButton) arg0.getSource()).setEnabled(false);
+            }
+            results.setText("");
+
+            SwingWorker<Void, Void> sw = new SwingWorker<Void, Void>()
+            {
+                @Override
+                protected Void doInBackground()
+                {
+                    PetriNet petriNet = root.getDocument().getPetriNet();
+                    String source = sourceCondition.getText().trim();
+                    String target = targetCondition.getText().trim();
+                    String analysis = MODULE_NAME + ", " + source + " to " + target + ", " + percentiles.getText().trim();
+                    String key = AnalysisCache.key(petriNet);
+                    String cached = (String) AnalysisCache.get(analysis, key);
+                    if(cached != null)
+                    {
+                        results.setEnabled(true);
+                        results.setText(cached);
+                        return null;
+                    }
+
+                    String s = "<h2>Response Time Analysis Results</h2>";
+                    results.setVisibleProgressBar(true);
+                    results.setIndeterminateProgressBar(true);
+                    try
+                    {
+                        CompiledNet net = petriNet.getCompiledNet();
+                        MarkingCondition sources = MarkingCondition.parse(source, net);
+                        MarkingCondition targets = MarkingCondition.parse(target, net);
+                        double[] levels = parsePercentiles(percentiles.getText());
+
+                        /*
+                         * The chain of the net is explored and solved only
+                         * once, then every query reuses it
+                         */
+                        Object chain = AnalysisCache.get(CHAIN, key);
+                        String reused = "<br>Markov chain taken from the cache";
+                        if(!(chain instanceof PassageTime))
+                        {
+                            results.setStringProgressBar("State Space exploration...");
+                            chain = passageTime(petriNet);
+                            if(chain instanceof String)
+                            {
+                                results.setText(s + chain);
+                                return null;
+                            }
+                            AnalysisCache.put(CHAIN, key, chain);
+                            reused = "";
+                        }
+                        PassageTime passageTime = (PassageTime) chain;
+                        MarkovChain markovChain = passageTime.getChain();
+
+                        results.setStringProgressBar("Solving the passage time ...");
+                        BitSet sourceStates = sources.select(markovChain.getStates());
+                        BitSet targetStates = targets.select(markovChain.getStates());
+                        PassageTime.Result result = passageTime.analyse(sourceStates, targetStates, levels);
+
+                        s += passageResults(result, sources, targets);
+                        s += "<br>" + markovChain.getStateCount() + " tangible states, "
+                                + sourceStates.cardinality() + " source and " + targetStates.cardinality() + " target states";
+                        s += reused;
+                        s += "<br>The passage time was solved in " + result.getElapsedTime() + " ms";
+                    } catch (IllegalArgumentException e)
+                    {
+                        results.setText(s + e.getMessage());
+                        return null;
+                    } catch (InterruptedException e)
+                    {
+                        return null;
+                    }
+
+                    results.setEnabled(true);
+                    results.setText(s);
+                    AnalysisCache.put(analysis, key, s);
+                    return null;
+                }
+
+                @Override
+                protected void done()
+                {
+                    super.done();
+                    results.setVisibleProgressBar(false);
+
+                    if(arg0.getSource() instanceof JButton)
+                    {
+                        ((JButton) arg0.getSource()).setEnabled(true);
+                    }
+                }
+            };
+            sw.execute();
+        }
+    };
+
+    /**
+     * Explores the tangible markings of the net and solves their steady state.
+     * @return the PassageTime of the chain, or the reason why there is none as HTML
+     */
+    private Object passageTime(PetriNet petriNet) throws InterruptedException
+    {
+        CompiledNet net = petriNet.getCompiledNet();
+        boolean timed = false;
+        for(int t = 0; t < net.getTransitionCount(); t++)
+        {
+            timed |= net.getTransition(t).isTimed();
+        }
+        if(!timed)
+        {
+            return "This Petri net has no timed transitions, so response times cannot be computed.";
+        }
+        if(!AnalysisCache.getCoverabilitySet(petriNet).isBounded())
+        {
+            return "This Petri net does not seem to be bounded, so response times cannot be computed.";
+        }
+        try
+        {
+            MarkovChain chain = TangibleExplorer.create(petriNet).explore();
+            double[] pi = new SteadyStateSolver().solve(chain.getGenerator());
+            return new PassageTime(chain, pi);
+        } catch (TimelessTrapException e)
+        {
+            return e.getMessage();
+        } catch (StateSpaceTooBigException e)
+        {
+            return e.getMessage();
+        } catch (OutOfMemoryError e)
+        {
+            return "Not enough memory. Please use a larger heap size (-Xmx option).";
+        }
+    }
+
+    private static double[] parsePercentiles(String text)
+    {
+        String[] fields = text.trim().split("[,;\\s]+");
+        double[] levels = new double[fields.length];
+        for(int i = 0; i < fields.length; i++)
+        {
+            try
+            {
+                levels[i] = Double.parseDouble(fields[i]);
+            } catch (NumberFormatException e)
+            {
+                levels[i] = -1;
+            }
+            if(!(levels[i] > 0 && levels[i] < 100))
+            {
+                throw new IllegalArgumentException("The percentiles must be numbers between 0 and 100 separated by commas.");
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * Formats the mean, the percentiles and the distribution function of a passage time.
+     * @return the results as HTML
+     */
+    private String passageResults(PassageTime.Result result, MarkingCondition sources, MarkingCondition targets)
+    {
+        DecimalFormat f = new DecimalFormat();
+        f.setMaximumFractionDigits(5);
+
+        String s = "From markings where " + sources + " to markings where " + targets;
+        if(result.getProbability() < 1 - 1e-6)
+        {
+            s += "<br>The target markings are reached with probability " + f.format(result.getProbability());
+        }
+
+        ArrayList<String> summary = new ArrayList<String>();
+        summary.add("Measure");
+        summary.add("Time");
+        summary.add("Mean");
+        summary.add(format(f, result.getMean()));
+        double[] levels = result.getPercentiles();
+        double[] times = result.getPercentileTimes();
+        for(int i = 0; i < levels.length; i++)
+        {
+            summary.add(f.format(levels[i]) + "th percentile");
+            summary.add(format(f, times[i]));
+        }
+        s += ResultsHTMLPane.makeTable(summary.toArray(), 2, false, true, true, true);
+
+        ArrayList<String> distribution = new ArrayList<String>();
+        distribution.add("Time");
+        distribution.add("Probability of having reached the target");
+        double[] grid = result.getTimes();
+        double[] cumulative = result.getCumulativeProbabilities();
+        int step = Math.max(1, (grid.length - 1) / CDF_ROWS);
+        for(int i = 0; i < grid.length; i += step)
+        {
+            distribution.add(f.format(grid[i]));
+            distribution.add(f.format(cumulative[i]));
+        }
+        s += ResultsHTMLPane.makeTable(distribution.toArray(), 2, false, true, true, true);
+        return s;
+    }
+
+    private static String format(DecimalFormat f, double value)
+    {
+        return Double.isInfinite(value) ? "infinite" : f.format(value);
+    }
 }
@@ -20,26 +20,23 @@
 
 package org.petrinator.editor.actions.algorithms;
 
+import org.petrinator.analysis.AnalysisCache;
+import org.petrinator.analysis.siphons.SiphonEngine;
+import org.petrinator.analysis.siphons.TooManySiphonsException;
 import org.petrinator.editor.Root;
-import org.petrinator.editor.filechooser.*;
+import org.petrinator.petrinet.CompiledNet;
+import org.petrinator.petrinet.PetriNet;
 import org.petrinator.util.GraphicsTools;
 import pipe.gui.widgets.ButtonBar;
 import pipe.gui.widgets.EscapableDialog;
-import pipe.gui.widgets.PetriNetChooserPanel;
 import pipe.gui.widgets.ResultsHTMLPane;
-import pipe.modules.minimalSiphons.MinimalSiphons;
-import pipe.utilities.math.Matrix;
-import pipe.utilities.writers.PNMLWriter;
-import pipe.views.PetriNetView;
-import pipe.models.PetriNet;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.File;
-import java.util.Date;
-import java.util.Vector;
+import java.util.BitSet;
+import java.util.List;
 
 /**
  * MinimalSiphons computes minimal siphons and minimals traps of a Petri Net.
@@ -47,6 +44,7 @@ import java.util.Vector;
  * R. Cordone, L. Ferrarini, L. Piroddi, "Some Results on the Computation of
  * Minimal Siphons in Petri Nets"; Proceedings of the 42nd IEEE Conference on
  * Decision and Control, pp 3754-3759, Maui, Hawaii (USA), December 2003.
+ * The computation is made by SiphonEngine on the compiled net.
  *
  * @author Pere Bonet
  */
@@ -55,6 +53,7 @@ public class SiphonsAction extends AbstractAction
     Root root;
     private static final String MODULE_NAME = "Siphons and traps";
     private ResultsHTMLPane results;
+    private final JCheckBox onlyCheck = new JCheckBox("Only check the initial marking");
 
     public SiphonsAction(Root root)
     {
@@ -66,28 +65,6 @@ public class SiphonsAction extends AbstractAction
     }
 
     public void actionPerformed(ActionEvent e) {
-        /*
-         * Create tmp.pnml file
-         */
-        FileChooserDialog chooser = new FileChooserDialog();
-
-        if (root.getCurrentFile() != null) {
-            chooser.setSelectedFile(root.getCurrentFile());
-        }
-
-        chooser.addChoosableFileFilter(new PipePnmlFileType());
-        chooser.setAcceptAllFileFilterUsed(false);
-        chooser.setCurrentDirectory(root.getCurrentDirectory());
-        chooser.setDialogTitle("Save as...");
-
-        File file = new File("tmp/" + "tmp" + "." + "pnml");
-        FileType chosenFileType = (FileType) chooser.getFileFilter();
-        try {
-            chosenFileType.save(root.getDocument(), file);
-        } catch (FileTypeException e1) {
-            e1.printStackTrace();
-        }
-
         /*
          * Show initial pane
          */
@@ -97,6 +74,7 @@ public class SiphonsAction extends AbstractAction
         //sourceFilePanel = new PetriNetChooserPanel("Source net", null);
         results = new ResultsHTMLPane("");
         contentPane.add(results);
+        contentPane.add(onlyCheck);
         contentPane.add(new ButtonBar("Analyze", analyseButtonClick, guiDialog.getRootPane()));
         guiDialog.pack();
         guiDialog.setLocationRelativeTo(root.getParentFrame());
@@ -106,22 +84,55 @@ public class SiphonsAction extends AbstractAction
     private final ActionListener analyseButtonClick = new ActionListener() {
         public void actionPerformed(ActionEvent arg0) {
             /*
-             * Read tmp file
+             * The same net was analysed already
              */
-            PetriNetView sourceDataLayer = new PetriNetView("tmp/tmp.pnml");
-            String s = "<h2>Siphons and Traps</h2>";
-
-            if (sourceDataLayer == null) {
+            String analysis = MODULE_NAME + (onlyCheck.isSelected() ? ", check" : "");
+            String key = AnalysisCache.key(root.getDocument().getPetriNet());
+            String cached = (String) AnalysisCache.get(analysis, key);
+            if(cached != null)
+            {
+                results.setEnabled(true);
+                results.setText(cached);
                 return;
             }
+
+            String s = "<h2>Siphons and Traps</h2>";
+
             if(!root.getDocument().getPetriNet().getRootSubnet().hasPlaces() || !root.getDocument().getPetriNet().getRootSubnet().hasTransitions())
             {
                 s += "Invalid net!";
             } else {
                 try {
-                    MinimalSiphons siphonsAlgorithm = new MinimalSiphons();
-                    s += siphonsAlgorithm.analyse(sourceDataLayer);
+                    PetriNet petriNet = root.getDocument().getPetriNet();
+                    CompiledNet net = petriNet.getCompiledNet();
+                    int[] marking = petriNet.getInitialMarking().getTokenArray();
+                    SiphonEngine siphons = SiphonEngine.forSiphons(net);
+
+                    /*
+                     * Early exit checks, without enumerating every siphon
+                     */
+                    BitSet unmarked = siphons.findUnmarked(marking);
+                    BitSet withoutTrap = siphons.findWithoutMarkedTrap(marking);
+                    s += ResultsHTMLPane.makeTable(new String[]{"Initial marking", "&emsp&emsp&emsp",
+                            "Unmarked siphon", unmarked == null ? "none" : formatPlaces(net, unmarked),
+                            "Siphon without marked trap", withoutTrap == null ? "none" : formatPlaces(net, withoutTrap)
+                    }, 2, false, true, false, true);
+
+                    if(!onlyCheck.isSelected())
+                    {
+                        SiphonEngine traps = SiphonEngine.forTraps(net);
+                        s += "<h3>Minimal siphons</h3>" + formatPlaceSets(net, siphons.compute());
+                        s += "<h3>Minimal traps</h3>" + formatPlaceSets(net, traps.compute());
+                        s += "<br>Analysis time: " + (siphons.getElapsedTime() + traps.getElapsedTime()) + "ms";
+                    }
                     results.setEnabled(true);
+                } catch (TooManySiphonsException e) {
+                    s += "<br>" + e.getMessage();
+                    results.setText(s);
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 } catch (OutOfMemoryError oome) {
                     System.gc();
                     results.setText("");
@@ -142,7 +153,28 @@ public class SiphonsAction extends AbstractAction
                     return;
                 }
             }
+            AnalysisCache.put(analysis, key, s);
             results.setText(s);
         }
     };
+
+    private static String formatPlaceSets(CompiledNet net, List<BitSet> placeSets)
+    {
+        String s = "";
+        for(BitSet places : placeSets)
+        {
+            s += formatPlaces(net, places) + "<br>";
+        }
+        return s;
+    }
+
+    private static String formatPlaces(CompiledNet net, BitSet places)
+    {
+        String s = "{";
+        for(int p = places.nextSetBit(0); p >= 0; p = places.nextSetBit(p + 1))
+        {
+            s += net.getPlace(p).getLabel() + (places.nextSetBit(p + 1) >= 0 ? ", " : "");
+        }
+        return s + "}";
+    }
 }
\ No newline at end of file
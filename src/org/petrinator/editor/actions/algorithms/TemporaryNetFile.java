@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.editor.actions.algorithms;
+
+import org.petrinator.analysis.AnalysisCache;
+import org.petrinator.editor.Root;
+import org.petrinator.editor.filechooser.FileTypeException;
+import org.petrinator.editor.filechooser.PipePnmlFileType;
+
+import java.io.File;
+
+/**
+ * The tmp/tmp.pnml file the PIPE analyses read the net from. It is written
+ * again only if the net changed since it was last written, or if the file was
+ * replaced meanwhile (the simulation writes it too).
+ */
+class TemporaryNetFile
+{
+    static final File FILE = new File("tmp/" + "tmp" + "." + "pnml");
+
+    private static String savedKey;
+    private static long savedLastModified;
+
+    private TemporaryNetFile()
+    {
+    }
+
+    /**
+     * Writes the net of the document if the file does not hold it yet.
+     */
+    static synchronized void save(Root root)
+    {
+        String key = AnalysisCache.key(root.getDocument().getPetriNet());
+        if(key.equals(savedKey) && FILE.isFile() && FILE.lastModified() == savedLastModified)
+        {
+            return;
+        }
+        try
+        {
+            new PipePnmlFileType().save(root.getDocument(), FILE);
+            savedKey = key;
+            savedLastModified = FILE.lastModified();
+        }
+        catch(FileTypeException e)
+        {
+            savedKey = null;
+            e.printStackTrace();
+        }
+    }
+}
@@ -33,7 +33,7 @@ public class DeleteArcCommand implements Command {
     }
 
     public void execute() {
-        isAlreadyDeleted = !arc.getParentSubnet().getElements().contains(arc);
+        isAlreadyDeleted = !arc.getParentSubnet().containsArcEdge(arc);
         if (!isAlreadyDeleted) {
             arc.getParentSubnet().removeElement(arc);
         }
@@ -46,7 +46,7 @@ public class DeleteArcCommand implements Command {
     }
 
     public void redo() {
-        isAlreadyDeleted = !arc.getParentSubnet().getElements().contains(arc);
+        isAlreadyDeleted = !arc.getParentSubnet().containsArcEdge(arc);
         if (!isAlreadyDeleted) {
             arc.getParentSubnet().removeElement(arc);
         }
@@ -41,9 +41,11 @@ public class ConcreteObserver implements Observer<String>
 {
 
 	/**
-	 * A buffer for the recieved events
+	 * A buffer for the recieved events, guarded by itself.
+	 * Events arrive from the threads firing on the monitor.
 	 */
 	private ArrayList<String> eventsRecieved;
+	private boolean wokenUp = false;
 	Root root;
 	
 	public ConcreteObserver(Root root) {
@@ -57,7 +59,7 @@ public class ConcreteObserver implements Observer<String>
 	 */
 	@Override
 	public void onCompleted() {
-		eventsRecieved.add("COMPLETED");
+		add("COMPLETED");
 	}
 
 	/**
@@ -65,7 +67,7 @@ public class ConcreteObserver implements Observer<String>
 	 */
 	@Override
 	public void onError(Throwable t) {
-		eventsRecieved.add("ERROR: " + t.getMessage() + " of type " + t.getClass().getName());
+		add("ERROR: " + t.getMessage() + " of type " + t.getClass().getName());
 	}
 
 	/**
@@ -106,15 +108,72 @@ public class ConcreteObserver implements Observer<String>
 	@Override
 	public void onNext(String event)
 	{
-		eventsRecieved.add(event);
+		add(event);
 	}
-	
+
+	private void add(String event)
+	{
+		synchronized (eventsRecieved)
+		{
+			eventsRecieved.add(event);
+			eventsRecieved.notifyAll();
+		}
+	}
+
+	/**
+	 * Blocks until the specified number of events were received or wakeUp() is
+	 * called, whatever happens first.
+	 * @param count number of events to wait for
+	 * @return the number of events received so far
+	 * @throws InterruptedException if the waiting thread is interrupted
+	 */
+	public int awaitEvents(int count) throws InterruptedException
+	{
+		synchronized (eventsRecieved)
+		{
+			while(eventsRecieved.size() < count && !wokenUp)
+			{
+				eventsRecieved.wait();
+			}
+			wokenUp = false;
+			return eventsRecieved.size();
+		}
+	}
+
+	/**
+	 * Makes a thread blocked in awaitEvents() return immediately, for
+	 * example because the simulation was stopped or every worker is parked
+	 * on the monitor. If no thread is waiting, the next call returns at once.
+	 */
+	public void wakeUp()
+	{
+		synchronized (eventsRecieved)
+		{
+			wokenUp = true;
+			eventsRecieved.notifyAll();
+		}
+	}
+
+	/**
+	 * @return the number of events received so far
+	 */
+	public int getEventCount()
+	{
+		synchronized (eventsRecieved)
+		{
+			return eventsRecieved.size();
+		}
+	}
+
 	/**
 	 * Getter for the events buffer
-	 * @return the events recieved
+	 * @return a copy of the events recieved
 	 */
 	public ArrayList<String> getEvents(){
-		return eventsRecieved;
+		synchronized (eventsRecieved)
+		{
+			return new ArrayList<String>(eventsRecieved);
+		}
 	}
 
 }
\ No newline at end of file
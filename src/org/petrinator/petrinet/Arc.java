@@ -48,17 +48,31 @@ public class Arc extends ArcEdge implements Cloneable {
         super(placeNode, transition, placeToTransition);
     }
 
+    @Override
+    public void setSource(Node source) {
+        super.setSource(source);
+        structureChanged();
+    }
+
+    @Override
+    public void setDestination(Node destination) {
+        super.setDestination(destination);
+        structureChanged();
+    }
+
     public int getMultiplicity() {
         return multiplicity;
     }
 
     public void setMultiplicity(int multiplicity) {
         this.multiplicity = multiplicity;
+        structureChanged();
     }
 
     public void setType(String type)
     {
         this.type = type;
+        structureChanged();
     }
 
     public String getType() {
@@ -42,6 +42,22 @@ public abstract class ArcEdge extends Edge implements Cloneable {
         }
     }
 
+    @Override
+    public void setSource(Node source) {
+        super.setSource(source);
+        if (getParentSubnet() != null) {
+            getParentSubnet().arcEdgeChanged(this);
+        }
+    }
+
+    @Override
+    public void setDestination(Node destination) {
+        super.setDestination(destination);
+        if (getParentSubnet() != null) {
+            getParentSubnet().arcEdgeChanged(this);
+        }
+    }
+
     public PlaceNode getPlaceNode() {
         return isPlaceToTransition() ? (PlaceNode) getSource() : (PlaceNode) getDestination();
     }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.petrinet;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Adjacency index of the arcs of one subnet. For every node it keeps the
+ * ArcEdges (Arcs and ReferenceArcs) having it as source or destination, so
+ * that looking up the arcs of a node costs only its degree instead of a scan
+ * of all the elements of the subnet.
+ *
+ * The index is maintained by Subnet.addElement() and Subnet.removeElement(),
+ * and by ArcEdge when the source or destination of an indexed arc changes.
+ */
+class ArcIndex {
+
+    private final Map<Node, Set<ArcEdge>> arcEdgesByNode = new HashMap<Node, Set<ArcEdge>>();
+    private final Map<ArcEdge, Node[]> indexedEnds = new HashMap<ArcEdge, Node[]>();
+
+    void add(ArcEdge arcEdge) {
+        if (indexedEnds.containsKey(arcEdge)) {
+            return;
+        }
+        Node[] ends = new Node[]{arcEdge.getSource(), arcEdge.getDestination()};
+        indexedEnds.put(arcEdge, ends);
+        for (Node node : ends) {
+            if (node != null) {
+                Set<ArcEdge> arcEdges = arcEdgesByNode.get(node);
+                if (arcEdges == null) {
+                    arcEdges = new LinkedHashSet<ArcEdge>();
+                    arcEdgesByNode.put(node, arcEdges);
+                }
+                arcEdges.add(arcEdge);
+            }
+        }
+    }
+
+    void remove(ArcEdge arcEdge) {
+        Node[] ends = indexedEnds.remove(arcEdge);
+        if (ends == null) {
+            return;
+        }
+        for (Node node : ends) {
+            if (node != null) {
+                Set<ArcEdge> arcEdges = arcEdgesByNode.get(node);
+                if (arcEdges != null) {
+                    arcEdges.remove(arcEdge);
+                    if (arcEdges.isEmpty()) {
+                        arcEdgesByNode.remove(node);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves an already indexed arc to its current source and destination.
+     */
+    void update(ArcEdge arcEdge) {
+        if (indexedEnds.containsKey(arcEdge)) {
+            remove(arcEdge);
+            add(arcEdge);
+        }
+    }
+
+    boolean contains(ArcEdge arcEdge) {
+        return indexedEnds.containsKey(arcEdge);
+    }
+
+    void clear() {
+        arcEdgesByNode.clear();
+        indexedEnds.clear();
+    }
+
+    Set<ArcEdge> getArcEdges(Node node) {
+        Set<ArcEdge> arcEdges = arcEdgesByNode.get(node);
+        if (arcEdges == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(arcEdges);
+    }
+}
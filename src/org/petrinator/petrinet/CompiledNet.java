@@ -0,0 +1,468 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.petrinet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the structure of a Petri net in which every place and
+ * transition has a dense integer index, so that a marking can be stored as an
+ * int[] and firing only touches the arcs attached to the fired transition.
+ *
+ * Places and transitions of the root subnet come first, sorted by id (the
+ * same order used by the incidence matrix), followed by those of nested
+ * subnets. Arcs connected to a disconnected ReferencePlace are ignored, except
+ * regular input arcs which make the transition dead, as it happens with the
+ * map based Marking.
+ *
+ * Instances are obtained through PetriNet.getCompiledNet() and are rebuilt
+ * whenever the structure of the net changes.
+ */
+public class CompiledNet {
+
+    private final Place[] places;
+    private final Transition[] transitions;
+    private final int rootPlaceCount;
+    private final int rootTransitionCount;
+    private final Map<Place, Integer> placeIndexes = new HashMap<Place, Integer>();
+    private final Map<Transition, Integer> transitionIndexes = new HashMap<Transition, Integer>();
+    private final boolean[] staticPlaces;
+    private final boolean hasStaticPlaces;
+    private final boolean[] dead;
+
+    private final int[][] inputPlaces;
+    private final int[][] inputWeights;
+    private final int[][] inhibitorPlaces;
+    private final int[][] inhibitorWeights;
+    private final int[][] resetPlaces;
+    private final int[][] outputPlaces;
+    private final int[][] outputWeights;
+    private final int[][] dependentTransitions;
+    private final int[][] affectedTransitions;
+
+    CompiledNet(Subnet rootSubnet) {
+        List<Place> placeList = sortById(new ArrayList<Place>(rootSubnet.getPlaces()));
+        rootPlaceCount = placeList.size();
+        Set<Place> nestedPlaces = rootSubnet.getPlacesRecursively();
+        nestedPlaces.removeAll(placeList);
+        placeList.addAll(sortById(new ArrayList<Place>(nestedPlaces)));
+
+        List<Transition> transitionList = sortById(new ArrayList<Transition>(rootSubnet.getTransitions()));
+        rootTransitionCount = transitionList.size();
+        Set<Transition> nestedTransitions = rootSubnet.getTransitionsRecursively();
+        nestedTransitions.removeAll(transitionList);
+        transitionList.addAll(sortById(new ArrayList<Transition>(nestedTransitions)));
+
+        places = placeList.toArray(new Place[placeList.size()]);
+        transitions = transitionList.toArray(new Transition[transitionList.size()]);
+
+        staticPlaces = new boolean[places.length];
+        boolean anyStatic = false;
+        for (int p = 0; p < places.length; p++) {
+            placeIndexes.put(places[p], p);
+            staticPlaces[p] = places[p].isStatic();
+            anyStatic |= staticPlaces[p];
+        }
+        hasStaticPlaces = anyStatic;
+
+        int transitionCount = transitions.length;
+        dead = new boolean[transitionCount];
+        inputPlaces = new int[transitionCount][];
+        inputWeights = new int[transitionCount][];
+        inhibitorPlaces = new int[transitionCount][];
+        inhibitorWeights = new int[transitionCount][];
+        resetPlaces = new int[transitionCount][];
+        outputPlaces = new int[transitionCount][];
+        outputWeights = new int[transitionCount][];
+
+        Map<Transition, List<Arc>> arcsByTransition = new HashMap<Transition, List<Arc>>();
+        for (int t = 0; t < transitionCount; t++) {
+            transitionIndexes.put(transitions[t], t);
+            arcsByTransition.put(transitions[t], new ArrayList<Arc>());
+        }
+        collectArcs(rootSubnet, arcsByTransition);
+
+        for (int t = 0; t < transitionCount; t++) {
+            ArcList inputs = new ArcList();
+            ArcList inhibitors = new ArcList();
+            ArcList resets = new ArcList();
+            ArcList outputs = new ArcList();
+            for (Arc arc : arcsByTransition.get(transitions[t])) {
+                Place place = arc.getPlaceNode().getPlace();
+                Integer index = place == null ? null : placeIndexes.get(place);
+                if (!arc.isPlaceToTransition()) {
+                    if (index != null) {
+                        outputs.add(index, arc.getMultiplicity());
+                    }
+                } else if (arc.getType().equals(Arc.INHIBITOR)) {
+                    if (index != null) {
+                        inhibitors.add(index, arc.getMultiplicity());
+                    }
+                } else if (arc.getType().equals(Arc.RESET)) {
+                    if (index != null) {
+                        resets.add(index, arc.getMultiplicity());
+                    }
+                } else if (index == null) {
+                    dead[t] = true;
+                } else {
+                    inputs.add(index, arc.getMultiplicity());
+                }
+            }
+            inputPlaces[t] = inputs.places();
+            inputWeights[t] = inputs.weights();
+            inhibitorPlaces[t] = inhibitors.places();
+            inhibitorWeights[t] = inhibitors.weights();
+            resetPlaces[t] = resets.places();
+            outputPlaces[t] = outputs.places();
+            outputWeights[t] = outputs.weights();
+        }
+
+        ArcList[] dependents = new ArcList[places.length];
+        for (int p = 0; p < places.length; p++) {
+            dependents[p] = new ArcList();
+        }
+        for (int t = 0; t < transitionCount; t++) {
+            for (int p : inputPlaces[t]) {
+                dependents[p].addOnce(t);
+            }
+            for (int p : inhibitorPlaces[t]) {
+                dependents[p].addOnce(t);
+            }
+        }
+        dependentTransitions = new int[places.length][];
+        for (int p = 0; p < places.length; p++) {
+            dependentTransitions[p] = dependents[p].places();
+        }
+        affectedTransitions = new int[transitionCount][];
+        for (int t = 0; t < transitionCount; t++) {
+            affectedTransitions[t] = affectedBy(t);
+        }
+    }
+
+    private static void collectArcs(Subnet subnet, Map<Transition, List<Arc>> arcsByTransition) {
+        for (Element element : subnet.getElements()) {
+            if (element instanceof Arc) {
+                Arc arc = (Arc) element;
+                if (arc.getSource() == null || arc.getDestination() == null) {
+                    continue;
+                }
+                List<Arc> arcs = arcsByTransition.get(arc.getTransitionNode());
+                if (arcs != null) {
+                    arcs.add(arc);
+                }
+            } else if (element instanceof Subnet) {
+                collectArcs((Subnet) element, arcsByTransition);
+            }
+        }
+    }
+
+    private static <N extends Node> List<N> sortById(List<N> nodes) {
+        Collections.sort(nodes, new Comparator<Node>() {
+            public int compare(Node a, Node b) {
+                return compareIds(a.getId(), b.getId());
+            }
+        });
+        return nodes;
+    }
+
+    /*
+     * Same order as MergeSort: by the number following the first character
+     * of the id. Ids which are not of the form "P12" go last, ordered as
+     * strings.
+     */
+    private static int compareIds(String a, String b) {
+        long numberA = idNumber(a);
+        long numberB = idNumber(b);
+        if (numberA != numberB) {
+            return numberA < numberB ? -1 : 1;
+        }
+        if (numberA != Long.MAX_VALUE || a == null || b == null) {
+            return a == null ? (b == null ? 0 : 1) : (b == null ? -1 : 0);
+        }
+        return a.compareTo(b);
+    }
+
+    private static long idNumber(String id) {
+        try {
+            return Integer.parseInt(id.substring(1));
+        } catch (RuntimeException ex) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    public int getPlaceCount() {
+        return places.length;
+    }
+
+    public int getTransitionCount() {
+        return transitions.length;
+    }
+
+    /**
+     * Returns the number of places directly contained in the root subnet.
+     * These places have the indexes 0..getRootPlaceCount()-1.
+     */
+    public int getRootPlaceCount() {
+        return rootPlaceCount;
+    }
+
+    /**
+     * Returns the number of transitions directly contained in the root subnet.
+     * These transitions have the indexes 0..getRootTransitionCount()-1.
+     */
+    public int getRootTransitionCount() {
+        return rootTransitionCount;
+    }
+
+    public Place getPlace(int index) {
+        return places[index];
+    }
+
+    public Transition getTransition(int index) {
+        return transitions[index];
+    }
+
+    /**
+     * Returns the index of the specified place, or -1 if the place is not part
+     * of this net.
+     */
+    public int indexOf(Place place) {
+        Integer index = placeIndexes.get(place);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the index of the specified transition, or -1 if the transition
+     * is not part of this net.
+     */
+    public int indexOf(Transition transition) {
+        Integer index = transitionIndexes.get(transition);
+        return index == null ? -1 : index;
+    }
+
+    public boolean isStatic(int place) {
+        return staticPlaces[place];
+    }
+
+    public boolean hasStaticPlaces() {
+        return hasStaticPlaces;
+    }
+
+    /**
+     * Returns true if the transition can never fire because it has an input
+     * arc from a disconnected ReferencePlace.
+     */
+    public boolean isDead(int transition) {
+        return dead[transition];
+    }
+
+    /*
+     * The following arrays are shared, callers must not modify them.
+     */
+
+    public int[] getInputPlaces(int transition) {
+        return inputPlaces[transition];
+    }
+
+    public int[] getInputWeights(int transition) {
+        return inputWeights[transition];
+    }
+
+    public int[] getInhibitorPlaces(int transition) {
+        return inhibitorPlaces[transition];
+    }
+
+    public int[] getInhibitorWeights(int transition) {
+        return inhibitorWeights[transition];
+    }
+
+    public int[] getResetPlaces(int transition) {
+        return resetPlaces[transition];
+    }
+
+    public int[] getOutputPlaces(int transition) {
+        return outputPlaces[transition];
+    }
+
+    public int[] getOutputWeights(int transition) {
+        return outputWeights[transition];
+    }
+
+    /**
+     * Returns the transitions whose enabling depends on the tokens of the
+     * specified place, i.e. those with a regular input or inhibitor arc from
+     * it. The array is sorted and shared, callers must not modify it.
+     */
+    public int[] getDependentTransitions(int place) {
+        return dependentTransitions[place];
+    }
+
+    /**
+     * Returns the transitions whose enabling may change after firing the
+     * specified transition: the dependent transitions of every place whose
+     * tokens are changed by the firing. The array is sorted and shared,
+     * callers must not modify it.
+     */
+    public int[] getAffectedTransitions(int transition) {
+        return affectedTransitions[transition];
+    }
+
+    private int[] affectedBy(int transition) {
+        ArcList candidates = new ArcList();
+        for (int[] changed : new int[][]{inputPlaces[transition], resetPlaces[transition], outputPlaces[transition]}) {
+            for (int p : changed) {
+                for (int t : dependentTransitions[p]) {
+                    candidates.add(t, 0);
+                }
+            }
+        }
+        int[] sorted = candidates.places();
+        Arrays.sort(sorted);
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, count);
+    }
+
+    /**
+     * Returns true if the net has inhibitor or reset arcs.
+     */
+    public boolean hasSpecialArcs() {
+        for (int t = 0; t < transitions.length; t++) {
+            if (inhibitorPlaces[t].length > 0 || resetPlaces[t].length > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines if a transition is enabled in the specified marking.
+     *
+     * @param transition index of the transition
+     * @param marking tokens indexed by place
+     * @return true if the transition is enabled
+     */
+    public boolean isEnabled(int transition, int[] marking) {
+        return isEnabled(transition, marking, marking);
+    }
+
+    /**
+     * Determines if a transition is enabled. Tokens of static places are read
+     * from staticMarking instead of marking.
+     */
+    public boolean isEnabled(int transition, int[] marking, int[] staticMarking) {
+        if (dead[transition]) {
+            return false;
+        }
+        int[] places = inputPlaces[transition];
+        int[] weights = inputWeights[transition];
+        for (int i = 0; i < places.length; i++) {
+            int p = places[i];
+            if ((staticPlaces[p] ? staticMarking : marking)[p] < weights[i]) {
+                return false;
+            }
+        }
+        places = inhibitorPlaces[transition];
+        weights = inhibitorWeights[transition];
+        for (int i = 0; i < places.length; i++) {
+            int p = places[i];
+            if ((staticPlaces[p] ? staticMarking : marking)[p] >= weights[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fires a transition in the specified marking without checking if it is
+     * enabled.
+     *
+     * @param transition index of the transition
+     * @param marking tokens indexed by place, changed in place
+     */
+    public void fire(int transition, int[] marking) {
+        fire(transition, marking, marking);
+    }
+
+    /**
+     * Fires a transition without checking if it is enabled. Tokens of static
+     * places are changed in staticMarking instead of marking.
+     */
+    public void fire(int transition, int[] marking, int[] staticMarking) {
+        int[] places = inputPlaces[transition];
+        int[] weights = inputWeights[transition];
+        for (int i = 0; i < places.length; i++) {
+            int p = places[i];
+            (staticPlaces[p] ? staticMarking : marking)[p] -= weights[i];
+        }
+        places = resetPlaces[transition];
+        for (int i = 0; i < places.length; i++) {
+            int p = places[i];
+            (staticPlaces[p] ? staticMarking : marking)[p] = 0;
+        }
+        places = outputPlaces[transition];
+        weights = outputWeights[transition];
+        for (int i = 0; i < places.length; i++) {
+            int p = places[i];
+            (staticPlaces[p] ? staticMarking : marking)[p] += weights[i];
+        }
+    }
+
+    private static class ArcList {
+
+        private int[] places = new int[2];
+        private int[] weights = new int[2];
+        private int size = 0;
+
+        void add(int place, int weight) {
+            if (size == places.length) {
+                places = Arrays.copyOf(places, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            places[size] = place;
+            weights[size] = weight;
+            size++;
+        }
+
+        void addOnce(int value) {
+            if (size == 0 || places[size - 1] != value) {
+                add(value, 0);
+            }
+        }
+
+        int[] places() {
+            return Arrays.copyOf(places, size);
+        }
+
+        int[] weights() {
+            return Arrays.copyOf(weights, size);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.petrinet;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Marking shared by several threads firing transitions at the same time, for
+ * multi-threaded simulators and monitor-style controllers.
+ *
+ * Unlike Marking, which serializes every firing with one lock, each place has
+ * its own lock. A firing locks only the places its transition reads or
+ * changes, always in ascending index order so that firings cannot deadlock,
+ * and transitions touching disjoint places fire in parallel. Firings are
+ * atomic: no thread ever sees the tokens of a firing half done. Tokens are
+ * kept in an AtomicIntegerArray, so reading the tokens of one place never
+ * blocks.
+ *
+ * Static places are ordinary places here, the marking is copied from a
+ * Marking and does not change it.
+ */
+public class ConcurrentMarking {
+
+    private final CompiledNet net;
+    private final AtomicIntegerArray tokens;
+    private final ReentrantLock[] locks;
+    /*
+     * Places read or changed by each transition, sorted by index.
+     */
+    private final int[][] lockedPlaces;
+
+    /**
+     * Creates a concurrent copy of the specified marking.
+     */
+    public ConcurrentMarking(Marking marking) {
+        this(marking.getCompiledNet(), tokensOf(marking));
+    }
+
+    /**
+     * @param net compiled net the tokens are indexed by
+     * @param tokens tokens indexed by place, copied
+     */
+    public ConcurrentMarking(CompiledNet net, int[] tokens) {
+        this.net = net;
+        this.tokens = new AtomicIntegerArray(tokens);
+        this.locks = new ReentrantLock[net.getPlaceCount()];
+        for (int p = 0; p < locks.length; p++) {
+            locks[p] = new ReentrantLock();
+        }
+        this.lockedPlaces = new int[net.getTransitionCount()][];
+        for (int t = 0; t < lockedPlaces.length; t++) {
+            lockedPlaces[t] = touchedPlaces(t);
+        }
+    }
+
+    private static int[] tokensOf(Marking marking) {
+        CompiledNet net = marking.getCompiledNet();
+        int[] tokens = marking.getTokenArray().clone();
+        for (int p = 0; p < tokens.length; p++) {
+            if (net.isStatic(p)) {
+                tokens[p] = marking.getTokens(net.getPlace(p));
+            }
+        }
+        return tokens;
+    }
+
+    private int[] touchedPlaces(int transition) {
+        int[][] arcs = {
+            net.getInputPlaces(transition),
+            net.getInhibitorPlaces(transition),
+            net.getResetPlaces(transition),
+            net.getOutputPlaces(transition)
+        };
+        int count = 0;
+        for (int[] places : arcs) {
+            count += places.length;
+        }
+        int[] touched = new int[count];
+        count = 0;
+        for (int[] places : arcs) {
+            System.arraycopy(places, 0, touched, count, places.length);
+            count += places.length;
+        }
+        Arrays.sort(touched);
+        int distinct = 0;
+        for (int i = 0; i < touched.length; i++) {
+            if (i == 0 || touched[i] != touched[i - 1]) {
+                touched[distinct++] = touched[i];
+            }
+        }
+        return Arrays.copyOf(touched, distinct);
+    }
+
+    public CompiledNet getCompiledNet() {
+        return net;
+    }
+
+    public int getTokens(int place) {
+        return tokens.get(place);
+    }
+
+    /**
+     * Returns the number of tokens of a place, 0 if the place is not part of
+     * the compiled net.
+     */
+    public int getTokens(Place place) {
+        int index = net.indexOf(place);
+        return index < 0 ? 0 : tokens.get(index);
+    }
+
+    public void setTokens(int place, int count) {
+        locks[place].lock();
+        try {
+            tokens.set(place, count);
+        } finally {
+            locks[place].unlock();
+        }
+    }
+
+    /**
+     * Determines if a transition is enabled. Other threads may fire at the
+     * same time, so the answer can be outdated as soon as it is returned;
+     * fire() checks again.
+     */
+    public boolean isEnabled(int transition) {
+        if (net.isDead(transition)) {
+            return false;
+        }
+        int[] places = net.getInputPlaces(transition);
+        int[] weights = net.getInputWeights(transition);
+        for (int i = 0; i < places.length; i++) {
+            if (tokens.get(places[i]) < weights[i]) {
+                return false;
+            }
+        }
+        places = net.getInhibitorPlaces(transition);
+        weights = net.getInhibitorWeights(transition);
+        for (int i = 0; i < places.length; i++) {
+            if (tokens.get(places[i]) >= weights[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fires a transition atomically if it is enabled.
+     *
+     * @param transition index of the transition
+     * @return false if the transition was not enabled, otherwise true
+     */
+    public boolean fire(int transition) {
+        int[] places = lockedPlaces[transition];
+        for (int i = 0; i < places.length; i++) {
+            locks[places[i]].lock();
+        }
+        try {
+            if (!isEnabled(transition)) {
+                return false;
+            }
+            int[] changed = net.getInputPlaces(transition);
+            int[] weights = net.getInputWeights(transition);
+            for (int i = 0; i < changed.length; i++) {
+                tokens.addAndGet(changed[i], -weights[i]);
+            }
+            for (int p : net.getResetPlaces(transition)) {
+                tokens.set(p, 0);
+            }
+            changed = net.getOutputPlaces(transition);
+            weights = net.getOutputWeights(transition);
+            for (int i = 0; i < changed.length; i++) {
+                tokens.addAndGet(changed[i], weights[i]);
+            }
+            return true;
+        } finally {
+            for (int i = places.length - 1; i >= 0; i--) {
+                locks[places[i]].unlock();
+            }
+        }
+    }
+
+    /**
+     * Fires a transition atomically if it is enabled.
+     *
+     * @return false if the transition was not enabled or is not part of the
+     * compiled net, otherwise true
+     */
+    public boolean fire(Transition transition) {
+        int index = net.indexOf(transition);
+        return index >= 0 && fire(index);
+    }
+
+    /**
+     * Returns a consistent copy of the tokens of all places. Every place is
+     * locked while copying, so the copy shows no firing half done.
+     */
+    public int[] toArray() {
+        for (int p = 0; p < locks.length; p++) {
+            locks[p].lock();
+        }
+        try {
+            int[] copy = new int[tokens.length()];
+            for (int p = 0; p < copy.length; p++) {
+                copy[p] = tokens.get(p);
+            }
+            return copy;
+        } finally {
+            for (int p = locks.length - 1; p >= 0; p--) {
+                locks[p].unlock();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
@@ -42,6 +42,17 @@ public abstract class Element implements Serializable, Cloneable {
         return parentSubnet;
     }
 
+    /**
+     * Notifies the parent subnet that this element was changed in a way that
+     * affects the structure of the net, so that compiled representations of
+     * the net can be rebuilt.
+     */
+    protected void structureChanged() {
+        if (parentSubnet != null) {
+            parentSubnet.fireStructureChanged();
+        }
+    }
+
     public Point getStart() {
         if (start == null) {
             start = new Point();
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.petrinet;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Set of enabled transitions of an int[] marking, kept up to date across
+ * firings. After a firing only the transitions depending on the places
+ * changed by the fired transition are checked again (see
+ * CompiledNet.getAffectedTransitions()), so a firing step costs the degree of
+ * the fired transition instead of the number of transitions of the net.
+ *
+ * Static places are not taken into account, the tracked marking is expected
+ * to hold the tokens of every place.
+ */
+public class EnabledTransitions {
+
+    private final CompiledNet net;
+    private final int[] marking;
+    private final BitSet enabled;
+
+    /**
+     * Creates the enabled set of the specified marking.
+     *
+     * @param net compiled net the marking is indexed by
+     * @param marking tokens indexed by place, it is not copied
+     */
+    public EnabledTransitions(CompiledNet net, int[] marking) {
+        this.net = net;
+        this.marking = marking;
+        this.enabled = new BitSet(net.getTransitionCount());
+        refresh();
+    }
+
+    /**
+     * Creates a copy of the enabled set for a copy of its marking.
+     *
+     * @param enabledTransitions enabled set to be copied
+     * @param marking copy of the marking tracked by enabledTransitions
+     */
+    public EnabledTransitions(EnabledTransitions enabledTransitions, int[] marking) {
+        this.net = enabledTransitions.net;
+        this.marking = marking;
+        this.enabled = (BitSet) enabledTransitions.enabled.clone();
+    }
+
+    public CompiledNet getCompiledNet() {
+        return net;
+    }
+
+    public int[] getMarking() {
+        return marking;
+    }
+
+    /**
+     * Checks every transition again. Needed after the marking was changed
+     * other than by fire().
+     */
+    public void refresh() {
+        enabled.clear();
+        for (int t = 0; t < net.getTransitionCount(); t++) {
+            if (net.isEnabled(t, marking)) {
+                enabled.set(t);
+            }
+        }
+    }
+
+    /**
+     * Fires an enabled transition in the tracked marking and updates the set.
+     *
+     * @param transition index of the transition
+     * @return false if the transition was not enabled, otherwise true
+     */
+    public boolean fire(int transition) {
+        if (!enabled.get(transition)) {
+            return false;
+        }
+        net.fire(transition, marking);
+        fired(transition);
+        return true;
+    }
+
+    /**
+     * Updates the set after the specified transition was fired in the
+     * tracked marking.
+     */
+    public void fired(int transition) {
+        for (int t : net.getAffectedTransitions(transition)) {
+            enabled.set(t, net.isEnabled(t, marking));
+        }
+    }
+
+    /**
+     * Updates the set after the tokens of the specified place were changed in
+     * the tracked marking.
+     */
+    public void placeChanged(int place) {
+        for (int t : net.getDependentTransitions(place)) {
+            enabled.set(t, net.isEnabled(t, marking));
+        }
+    }
+
+    public boolean isEnabled(int transition) {
+        return enabled.get(transition);
+    }
+
+    public boolean isEmpty() {
+        return enabled.isEmpty();
+    }
+
+    public int size() {
+        return enabled.cardinality();
+    }
+
+    /**
+     * Returns the enabled transitions as a bitset indexed like the compiled
+     * net. The bitset is live, callers must not modify it.
+     */
+    public BitSet getBitSet() {
+        return enabled;
+    }
+
+    /**
+     * Returns the index of an enabled transition chosen uniformly at random,
+     * or -1 if no transition is enabled.
+     */
+    public int getRandom(Random random) {
+        int count = enabled.cardinality();
+        if (count == 0) {
+            return -1;
+        }
+        int skip = random.nextInt(count);
+        int t = enabled.nextSetBit(0);
+        while (skip-- > 0) {
+            t = enabled.nextSetBit(t + 1);
+        }
+        return t;
+    }
+}
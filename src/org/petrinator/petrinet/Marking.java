@@ -17,28 +17,39 @@
 package org.petrinator.petrinet;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import org.petrinator.auxiliar.MergeSort;
 import org.petrinator.util.CollectionTools;
 
 /**
- * Marking stores and manages information about tokens.
+ * Marking stores and manages information about tokens. Tokens are kept in an
+ * int[] indexed by the places of the compiled net (see CompiledNet), the
+ * methods taking a PlaceNode are a compatibility view for the editor.
  *
  * @author Martin Riesz <riesz.martin at gmail.com>
  */
 public class Marking {
 
-    protected Map<Place, Integer> map = new ConcurrentHashMap<Place, Integer>();
+    private int[] tokens = new int[0];
+    private CompiledNet compiledNet;
+    /*
+     * Tokens of places which are not part of the compiled net, for example
+     * deleted places which may come back with undo.
+     */
+    private Map<Place, Integer> detached = new HashMap<Place, Integer>();
+    private EnabledTransitions enabledTransitions;
     private PetriNet petriNet;
     private ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true); //fair
+    private static final Random random = new Random();
 
     /**
      * Copy constructor.
@@ -48,7 +59,14 @@ public class Marking {
     public Marking(Marking marking) {
         marking.getLock().readLock().lock();
         try {
-            this.map = new ConcurrentHashMap<Place, Integer>(marking.map);
+            synchronized (marking) {
+                this.compiledNet = marking.compiledNet;
+                this.tokens = marking.tokens.clone();
+                this.detached = new HashMap<Place, Integer>(marking.detached);
+                if (marking.enabledTransitions != null) {
+                    this.enabledTransitions = new EnabledTransitions(marking.enabledTransitions, this.tokens);
+                }
+            }
         } finally {
             marking.getLock().readLock().unlock();
         }
@@ -68,14 +86,115 @@ public class Marking {
         return lock;
     }
 
-    private Set<Transition> getTransitions() {
-        return petriNet.getRootSubnet().getTransitionsRecursively();
-    }
-
     public PetriNet getPetriNet() {
         return petriNet;
     }
 
+    /**
+     * Returns the compiled net this marking is currently indexed by. If the
+     * structure of the Petri net changed, tokens are first moved to the
+     * indexes of the new compiled net.
+     */
+    public CompiledNet getCompiledNet() {
+        CompiledNet current = petriNet.getCompiledNet();
+        if (current != compiledNet) {
+            recompile(current);
+        }
+        return current;
+    }
+
+    private synchronized void recompile(CompiledNet current) {
+        if (current == compiledNet) {
+            return;
+        }
+        int[] newTokens = new int[current.getPlaceCount()];
+        Map<Place, Integer> newDetached = new HashMap<Place, Integer>();
+        for (Map.Entry<Place, Integer> entry : detached.entrySet()) {
+            moveTokens(current, entry.getKey(), entry.getValue(), newTokens, newDetached);
+        }
+        if (compiledNet != null) {
+            for (int p = 0; p < tokens.length; p++) {
+                moveTokens(current, compiledNet.getPlace(p), tokens[p], newTokens, newDetached);
+            }
+        }
+        tokens = newTokens;
+        detached = newDetached;
+        compiledNet = current;
+        enabledTransitions = null;
+    }
+
+    private static void moveTokens(CompiledNet current, Place place, int count, int[] newTokens, Map<Place, Integer> newDetached) {
+        if (count == 0) {
+            return;
+        }
+        int index = current.indexOf(place);
+        if (index >= 0) {
+            newTokens[index] = count;
+        } else {
+            newDetached.put(place, count);
+        }
+    }
+
+    /**
+     * Returns the tokens of this marking indexed by the places of
+     * getCompiledNet(). The array is shared with this marking, so changes
+     * made to it change the marking.
+     */
+    public int[] getTokenArray() {
+        getCompiledNet();
+        return tokens;
+    }
+
+    /*
+     * Returns the enabled set of this marking, created on first use. Markings
+     * whose static places are kept by another marking are not tracked, as
+     * changes of the initial marking could not be noticed.
+     */
+    private synchronized EnabledTransitions getEnabledTracker() {
+        if (enabledTransitions == null && (!compiledNet.hasStaticPlaces() || petriNet.getInitialMarking() == this)) {
+            enabledTransitions = new EnabledTransitions(compiledNet, tokens);
+        }
+        return enabledTransitions;
+    }
+
+    /**
+     * Returns the enabled transitions as a bitset indexed by the transitions
+     * of getCompiledNet().
+     *
+     * @return a new bitset of enabled transitions
+     */
+    public BitSet getEnabledTransitionBits() {
+        lock.readLock().lock();
+        try {
+            CompiledNet net = getCompiledNet();
+            EnabledTransitions tracker = getEnabledTracker();
+            if (tracker != null) {
+                return (BitSet) tracker.getBitSet().clone();
+            }
+            BitSet bits = new BitSet(net.getTransitionCount());
+            int[] staticTokens = getStaticTokens();
+            for (int t = 0; t < net.getTransitionCount(); t++) {
+                if (net.isEnabled(t, tokens, staticTokens)) {
+                    bits.set(t);
+                }
+            }
+            return bits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Static places keep their tokens in the initial marking.
+     */
+    private int[] getStaticTokens() {
+        Marking initialMarking = petriNet.getInitialMarking();
+        if (initialMarking == this || initialMarking == null || !compiledNet.hasStaticPlaces()) {
+            return tokens;
+        }
+        return initialMarking.getTokenArray();
+    }
+
     /**
      * Returns the number of tokens based on the specified PlaceNode (Place or
      * ReferencePlace). If specified PlaceNode is ReferencePlace, it will return
@@ -97,11 +216,19 @@ public class Marking {
             marking = this;
         }
 
-        if (marking.map.get(place) == null) { // Place has zero tokens in the beginning. Not every place is in map. Only those previously edited.
-            return 0;
-        }
+        return marking.getOwnTokens(place);
+    }
 
-        return marking.map.get(place);
+    private int getOwnTokens(Place place) {
+        CompiledNet net = getCompiledNet();
+        synchronized (this) {
+            int index = net.indexOf(place);
+            if (index >= 0 && net == compiledNet) {
+                return tokens[index];
+            }
+            Integer count = detached.get(place); // Place has zero tokens in the beginning. Not every place is stored.
+            return count == null ? 0 : count;
+        }
     }
 
     /**
@@ -127,9 +254,24 @@ public class Marking {
         }
 
         if (place.isStatic()) {
-            petriNet.getInitialMarking().map.put(place, tokens);
+            petriNet.getInitialMarking().setOwnTokens(place, tokens);
         } else {
-            this.map.put(place, tokens);
+            this.setOwnTokens(place, tokens);
+        }
+    }
+
+    private void setOwnTokens(Place place, int count) {
+        CompiledNet net = getCompiledNet();
+        synchronized (this) {
+            int index = net.indexOf(place);
+            if (index >= 0 && net == compiledNet) {
+                this.tokens[index] = count;
+                if (enabledTransitions != null) {
+                    enabledTransitions.placeChanged(index);
+                }
+            } else {
+                detached.put(place, count);
+            }
         }
     }
 
@@ -140,32 +282,14 @@ public class Marking {
      * @return true if transition is enabled in the marking, otherwise false
      */
     public boolean isEnabled(Transition transition) {
-        boolean isEnabled = true;
         lock.readLock().lock();
         try {
-            for (Arc arc : transition.getConnectedArcs()) {
-                if (arc.isPlaceToTransition()) {
-                    if (arc.getType().equals(Arc.RESET)) {//reset arc is always fireable
-                        continue;      //but can be blocked by other arcs 
-                    } else {
-                        if (!arc.getType().equals(Arc.INHIBITOR)) {
-                            if (getTokens(arc.getPlaceNode()) < arc.getMultiplicity()) {  //normal arc
-                                isEnabled = false;
-                                break;
-                            }
-                        } else {
-                            if (getTokens(arc.getPlaceNode()) >= arc.getMultiplicity()) {//inhibitory arc
-                                isEnabled = false;
-                                break;
-                            }
-                        }
-                    }
-                }
-            }
+            CompiledNet net = getCompiledNet();
+            int index = net.indexOf(transition);
+            return index >= 0 && net.isEnabled(index, tokens, getStaticTokens());
         } finally {
             lock.readLock().unlock();
         }
-        return isEnabled;
     }
 
     /**
@@ -175,36 +299,25 @@ public class Marking {
      * @return false if the specified transition was not enabled, otherwise true
      */
     public boolean fire(Transition transition) {
-        boolean success;
         lock.writeLock().lock();
         try {
-            if (isEnabled(transition)) {
-                for (Arc arc : transition.getConnectedArcs()) {
-                    if (arc.isPlaceToTransition()) {
-                        int tokens = getTokens(arc.getPlaceNode());
-                        if (!arc.getType().equals(Arc.INHIBITOR)) {                 //inhibitor arc doesnt consume tokens
-                            if (arc.getType().equals(Arc.RESET)) {                      //reset arc consumes them all
-                                setTokens(arc.getPlaceNode(), 0);
-                            } else {
-                                setTokens(arc.getPlaceNode(), tokens - arc.getMultiplicity());
-                            }
-                        }
-                    }
-                }
-                for (Arc arc : transition.getConnectedArcs()) {
-                    if (!arc.isPlaceToTransition()) {
-                        int tokens = getTokens(arc.getPlaceNode());
-                        setTokens(arc.getPlaceNode(), tokens + arc.getMultiplicity());
-                    }
-                }
-                success = true;
-            } else {
-                success = false;
+            CompiledNet net = getCompiledNet();
+            int index = net.indexOf(transition);
+            if (index < 0) {
+                return false;
+            }
+            int[] staticTokens = getStaticTokens();
+            if (!net.isEnabled(index, tokens, staticTokens)) {
+                return false;
             }
+            net.fire(index, tokens, staticTokens);
+            if (enabledTransitions != null) {
+                enabledTransitions.fired(index);
+            }
+            return true;
         } finally {
             lock.writeLock().unlock();
         }
-        return success;
     }
 
     public boolean canBeUnfired(Transition transition) {
@@ -276,28 +389,17 @@ public class Marking {
      * @return set of all enabled transitions
      */
     public Set<Transition> getAllEnabledTransitions() {
-        Set<Transition> enabledTransitions = new HashSet<Transition>();
-        lock.readLock().lock();
-        try {
-            for (Transition transition : getTransitions()) {
-                if (isEnabled(transition)) {
-                    enabledTransitions.add(transition);
-                }
-            }
-        } finally {
-            lock.readLock().unlock();
-        }
-        return enabledTransitions;
+        return new HashSet<Transition>(getAllEnabledTransitionsByList());
     }
 
     private List<Transition> getAllEnabledTransitionsByList() {
         List<Transition> fireableTransitions = new ArrayList<Transition>();
         lock.readLock().lock();
         try {
-            for (Transition transition : getTransitions()) {
-                if (isEnabled(transition)) {
-                    fireableTransitions.add(transition);
-                }
+            CompiledNet net = getCompiledNet();
+            BitSet enabled = getEnabledTransitionBits();
+            for (int t = enabled.nextSetBit(0); t >= 0; t = enabled.nextSetBit(t + 1)) {
+                fireableTransitions.add(net.getTransition(t));
             }
         } finally {
             lock.readLock().unlock();
@@ -312,13 +414,29 @@ public class Marking {
      * @return transition, which was fired
      */
     public Transition fireRandomTransition() {
-        List<Transition> fireableTransitions = getAllEnabledTransitionsByList();
-        if (fireableTransitions.size() == 0) {
-            throw new RuntimeException("fireRandomTransition() -> no transition is enabled");
+        lock.writeLock().lock();
+        try {
+            CompiledNet net = getCompiledNet();
+            EnabledTransitions tracker = getEnabledTracker();
+            Transition randomTransition;
+            if (tracker != null) {
+                int index = tracker.getRandom(random);
+                if (index < 0) {
+                    throw new RuntimeException("fireRandomTransition() -> no transition is enabled");
+                }
+                randomTransition = net.getTransition(index);
+            } else {
+                List<Transition> fireableTransitions = getAllEnabledTransitionsByList();
+                if (fireableTransitions.size() == 0) {
+                    throw new RuntimeException("fireRandomTransition() -> no transition is enabled");
+                }
+                randomTransition = CollectionTools.getRandomElement(fireableTransitions);
+            }
+            fire(randomTransition);
+            return randomTransition;
+        } finally {
+            lock.writeLock().unlock();
         }
-        Transition randomTransition = CollectionTools.getRandomElement(fireableTransitions);
-        fire(randomTransition);
-        return randomTransition;
     }
 
     /**
@@ -327,7 +445,7 @@ public class Marking {
      * @return true if there is a transition which can be fired in the marking.
      */
     public boolean isEnabledByAnyTransition() {
-        return !getAllEnabledTransitions().isEmpty();
+        return !getEnabledTransitionBits().isEmpty();
     }
 
     /**
@@ -447,14 +565,19 @@ public class Marking {
         if (this.petriNet != other.petriNet && (this.petriNet == null || !this.petriNet.equals(other.petriNet))) {
             return false;
         }
-        if (this.map == other.map) {
+        if (this == other) {
             return true;
         }
-        Set<Place> places = new HashSet<Place>(); // because map is sparse
-        places.addAll(this.map.keySet());
-        places.addAll(other.map.keySet());
+        this.getCompiledNet();
+        other.getCompiledNet();
+        if (this.compiledNet != other.compiledNet || !Arrays.equals(this.tokens, other.tokens)) {
+            return false;
+        }
+        Set<Place> places = new HashSet<Place>(); // because detached tokens are sparse
+        places.addAll(this.detached.keySet());
+        places.addAll(other.detached.keySet());
         for (Place place : places) {
-            if (this.getTokens(place) != other.getTokens(place)) {
+            if (this.getOwnTokens(place) != other.getOwnTokens(place)) {
                 return false;
             }
         }
@@ -465,35 +588,31 @@ public class Marking {
     public int hashCode() {
         int hash = 7;
         hash = 73 * hash + (this.petriNet != null ? this.petriNet.hashCode() : 0);
-        for (Place place : this.map.keySet()) { // because map is sparse
-            hash = 73 * hash + this.getTokens(place);
-        }
+        hash = 73 * hash + Arrays.hashCode(getTokenArray());
         return hash;
     }
-    
+
     /*
      * Agregado, devolver marcado como arreglo:
      */
     public int[] getMarkingAsArray()
     {
-    	Set<Place> allPlaces = petriNet.getRootSubnet().getPlaces();
-    	ArrayList<Node> places = new ArrayList<Node>();
-    	
-    	for(Place p : allPlaces)
-    	{
-    		places.add(p);
-    	}
-    	
-    	MergeSort merge = new MergeSort();
-    	ArrayList<Node> sortedPlaces = merge.mergeSort(places);
-    	int [] array = new int[sortedPlaces.size()];
-
-        for (Node n : sortedPlaces)
+        lock.readLock().lock();
+        try
         {
-        	array[sortedPlaces.indexOf(n)] = getTokens((Place) n);
-        } 
-
-    	return array;
+            CompiledNet net = getCompiledNet();
+            int[] staticTokens = getStaticTokens();
+            int[] array = new int[net.getRootPlaceCount()];
+            for (int p = 0; p < array.length; p++)
+            {
+                array[p] = net.isStatic(p) ? staticTokens[p] : tokens[p];
+            }
+            return array;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
 }
@@ -45,23 +45,18 @@ public abstract class Node extends Element implements Comparable<Node> {
 
     public void setId(String id) {
         this.id = id;
+        structureChanged();
     }
 
     public Set<ArcEdge> getConnectedArcEdges() {
-        Set<ArcEdge> connectedArcEdges = new HashSet<ArcEdge>();
-        for (ArcEdge arcEdge : getParentSubnet().getArcEdges()) {
-            if (arcEdge.getSource() == this || arcEdge.getDestination() == this) {
-                connectedArcEdges.add(arcEdge);
-            }
-        }
-        return connectedArcEdges;
+        return new HashSet<ArcEdge>(getParentSubnet().getArcEdgesConnectedTo(this));
     }
 
     public Set<Arc> getConnectedArcs() {
         Set<Arc> connectedArcs = new HashSet<Arc>();
-        for (Arc arc : getParentSubnet().getArcs()) {
-            if (arc.getSource() == this || arc.getDestination() == this) {
-                connectedArcs.add(arc);
+        for (ArcEdge arcEdge : getParentSubnet().getArcEdgesConnectedTo(this)) {
+            if (arcEdge instanceof Arc) {
+                connectedArcs.add((Arc) arcEdge);
             }
         }
         return connectedArcs;
@@ -69,18 +64,18 @@ public abstract class Node extends Element implements Comparable<Node> {
 
     public Set<Arc> getConnectedArcs(boolean placeToTransition) {
         Set<Arc> connectedArcs = new HashSet<Arc>();
-        for (Arc arc : getParentSubnet().getArcs()) {
-            if ((arc.getSource() == this || arc.getDestination() == this) && arc.isPlaceToTransition() == placeToTransition) {
-                connectedArcs.add(arc);
+        for (ArcEdge arcEdge : getParentSubnet().getArcEdgesConnectedTo(this)) {
+            if (arcEdge instanceof Arc && arcEdge.isPlaceToTransition() == placeToTransition) {
+                connectedArcs.add((Arc) arcEdge);
             }
         }
         return connectedArcs;
     }
 
     public Arc getConnectedArcToNode(Node node) {
-        for (Arc arc : getParentSubnet().getArcs()) {
-            if (arc.getSource() == this && arc.getDestination() == node) {
-                return arc;
+        for (ArcEdge arcEdge : getParentSubnet().getArcEdgesConnectedTo(this)) {
+            if (arcEdge instanceof Arc && arcEdge.getSource() == this && arcEdge.getDestination() == node) {
+                return (Arc) arcEdge;
             }
         }
         return null;
@@ -88,10 +83,10 @@ public abstract class Node extends Element implements Comparable<Node> {
 
     public Set<Arc> getConnectedArcsToAndFromNode(Node node) {
         Set<Arc> connectedArcs = new HashSet<Arc>();
-        for (Arc arc : getParentSubnet().getArcs()) {
-            if (arc.getSource() == this && arc.getDestination() == node
-                    || arc.getSource() == node && arc.getDestination() == this) {
-                connectedArcs.add(arc);
+        for (ArcEdge arcEdge : getParentSubnet().getArcEdgesConnectedTo(this)) {
+            if (arcEdge instanceof Arc && (arcEdge.getSource() == this && arcEdge.getDestination() == node
+                    || arcEdge.getSource() == node && arcEdge.getDestination() == this)) {
+                connectedArcs.add((Arc) arcEdge);
             }
         }
         return connectedArcs;
@@ -102,9 +97,9 @@ public abstract class Node extends Element implements Comparable<Node> {
      */
     public Set<Arc> getConnectedArcsToNode() {
         Set<Arc> connectedArcs = new HashSet<Arc>();
-        for (Arc arc : getParentSubnet().getArcs()) {
-            if (arc.getDestination() == this ) {
-                connectedArcs.add(arc);
+        for (ArcEdge arcEdge : getParentSubnet().getArcEdgesConnectedTo(this)) {
+            if (arcEdge instanceof Arc && arcEdge.getDestination() == this ) {
+                connectedArcs.add((Arc) arcEdge);
             }
         }
         return connectedArcs;
@@ -115,9 +110,9 @@ public abstract class Node extends Element implements Comparable<Node> {
      */
     public Set<Arc> getConnectedArcsFromNode() {
         Set<Arc> connectedArcs = new HashSet<Arc>();
-        for (Arc arc : getParentSubnet().getArcs()) {
-            if (arc.getSource() == this ) {
-                connectedArcs.add(arc);
+        for (ArcEdge arcEdge : getParentSubnet().getArcEdgesConnectedTo(this)) {
+            if (arcEdge instanceof Arc && arcEdge.getSource() == this ) {
+                connectedArcs.add((Arc) arcEdge);
             }
         }
         return connectedArcs;
@@ -125,9 +120,9 @@ public abstract class Node extends Element implements Comparable<Node> {
 
     public Set<ReferenceArc> getConnectedReferenceArcs() {
         Set<ReferenceArc> connectedReferenceArcs = new HashSet<ReferenceArc>();
-        for (ReferenceArc referenceArc : getParentSubnet().getReferenceArcs()) {
-            if (referenceArc.getSource() == this || referenceArc.getDestination() == this) {
-                connectedReferenceArcs.add(referenceArc);
+        for (ArcEdge arcEdge : getParentSubnet().getArcEdgesConnectedTo(this)) {
+            if (arcEdge instanceof ReferenceArc) {
+                connectedReferenceArcs.add((ReferenceArc) arcEdge);
             }
         }
         return connectedReferenceArcs;
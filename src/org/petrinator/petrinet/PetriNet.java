@@ -41,6 +41,9 @@ public class PetriNet {
     private Marking initialMarking = new Marking(this);
     private NodeSimpleIdGenerator nodeSimpleIdGenerator = new NodeSimpleIdGenerator(this);
     private NodeLabelGenerator nodeLabelGenerator = new NodeLabelGenerator(this);
+    private CompiledNet compiledNet;
+    private Subnet compiledSubnet;
+    private int compiledVersion;
 
     /**
      * Constructor. Creates a new Petri net with empty root subnet.
@@ -143,6 +146,22 @@ public class PetriNet {
         this.initialMarking = initialMarking;
     }
 
+    /**
+     * Returns the compiled representation of this Petri net. It is rebuilt
+     * lazily whenever the structure of the net has changed since the last
+     * call.
+     *
+     * @return compiled net with dense place and transition indexes
+     */
+    public synchronized CompiledNet getCompiledNet() {
+        if (compiledNet == null || compiledSubnet != rootSubnet || compiledVersion != rootSubnet.getStructureVersion()) {
+            compiledVersion = rootSubnet.getStructureVersion();
+            compiledSubnet = rootSubnet;
+            compiledNet = new CompiledNet(rootSubnet);
+        }
+        return compiledNet;
+    }
+
     public NodeSimpleIdGenerator getNodeSimpleIdGenerator() {
         return nodeSimpleIdGenerator;
     }
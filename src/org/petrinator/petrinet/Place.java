@@ -37,6 +37,7 @@ public class Place extends PlaceNode implements Cloneable {
     @Override
     public void setStatic(boolean isStatic) {
         this.isStatic = isStatic;
+        structureChanged();
     }
 
     public void addValue(int value)
@@ -63,6 +63,7 @@ public class ReferencePlace extends PlaceNode {
 
     public void setConnectedPlace(PlaceNode placeNode) {
         connectedPlaceNode = placeNode;
+        structureChanged();
     }
 
     /**
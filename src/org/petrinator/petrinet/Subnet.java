@@ -32,6 +32,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -48,6 +49,8 @@ public class Subnet extends TransitionNode {
 
     private List<Element> elements = new LinkedList<Element>();
     private Point viewTranslation = new Point(0, 0);
+    private transient int structureVersion = 0;
+    private transient ArcIndex arcIndex;
 
     public void writeToFile(File file) throws FileNotFoundException, IOException {
         FileOutputStream fileOut = new FileOutputStream(file);
@@ -101,6 +104,121 @@ public class Subnet extends TransitionNode {
         for (Element element : elements) {
             element.setParentSubnet(this);
         }
+        arcIndex = null;
+        fireStructureChanged();
+    }
+
+    /**
+     * Returns a counter which is incremented every time the structure of this
+     * subnet or any of its nested subnets changes.
+     *
+     * @return structure version of this subnet
+     */
+    public int getStructureVersion() {
+        return structureVersion;
+    }
+
+    /**
+     * Increments the structure version of this subnet and all its parents.
+     */
+    public void fireStructureChanged() {
+        structureVersion++;
+        structureChanged();
+    }
+
+    private ArcIndex getArcIndex() {
+        if (arcIndex == null) { // not serialized, rebuilt on first use
+            arcIndex = new ArcIndex();
+            for (Element element : elements) {
+                if (element instanceof ArcEdge) {
+                    arcIndex.add((ArcEdge) element);
+                }
+            }
+        }
+        return arcIndex;
+    }
+
+    /**
+     * Re-indexes an arc of this subnet whose source or destination changed.
+     */
+    void arcEdgeChanged(ArcEdge arcEdge) {
+        if (arcIndex != null) {
+            arcIndex.update(arcEdge);
+        }
+    }
+
+    /**
+     * Returns the ArcEdges of this subnet which have the specified node as
+     * source or destination. The cost is proportional to the number of arcs
+     * of the node.
+     *
+     * @param node node of this subnet
+     * @return unmodifiable set of connected ArcEdges
+     */
+    public Set<ArcEdge> getArcEdgesConnectedTo(Node node) {
+        return getArcIndex().getArcEdges(node);
+    }
+
+    /**
+     * Determines if the specified ArcEdge is an element of this subnet.
+     */
+    public boolean containsArcEdge(ArcEdge arcEdge) {
+        return getArcIndex().contains(arcEdge);
+    }
+
+    /**
+     * Returns regular arcs going from a place to the specified transition.
+     */
+    public Set<Arc> getInputArcs(Transition transition) {
+        return getArcsOfTransition(transition, true, Arc.REGULAR);
+    }
+
+    /**
+     * Returns arcs going from the specified transition to a place.
+     */
+    public Set<Arc> getOutputArcs(Transition transition) {
+        return getArcsOfTransition(transition, false, null);
+    }
+
+    /**
+     * Returns inhibitor arcs of the specified transition.
+     */
+    public Set<Arc> getInhibitorArcs(Transition transition) {
+        return getArcsOfTransition(transition, true, Arc.INHIBITOR);
+    }
+
+    /**
+     * Returns reset arcs of the specified transition.
+     */
+    public Set<Arc> getResetArcs(Transition transition) {
+        return getArcsOfTransition(transition, true, Arc.RESET);
+    }
+
+    private Set<Arc> getArcsOfTransition(Transition transition, boolean placeToTransition, String type) {
+        Set<Arc> arcs = new LinkedHashSet<Arc>();
+        for (ArcEdge arcEdge : getArcEdgesConnectedTo(transition)) {
+            if (arcEdge instanceof Arc && arcEdge.isPlaceToTransition() == placeToTransition) {
+                Arc arc = (Arc) arcEdge;
+                if (type == null || type.equals(arc.getType())) {
+                    arcs.add(arc);
+                }
+            }
+        }
+        return arcs;
+    }
+
+    /**
+     * Returns transitions of this subnet connected by an arc to the specified
+     * place node.
+     */
+    public Set<Transition> getTransitionsConnectedTo(PlaceNode placeNode) {
+        Set<Transition> transitions = new LinkedHashSet<Transition>();
+        for (ArcEdge arcEdge : getArcEdgesConnectedTo(placeNode)) {
+            if (arcEdge instanceof Arc && arcEdge.getTransitionNode() instanceof Transition) {
+                transitions.add((Transition) arcEdge.getTransitionNode());
+            }
+        }
+        return transitions;
     }
 
 
@@ -141,9 +259,11 @@ public class Subnet extends TransitionNode {
         element.setParentSubnet(this);
         if (element instanceof ReferenceArc || element instanceof ArcEdge) {
             elements.add(0, element); //background
+            getArcIndex().add((ArcEdge) element);
         } else {
             elements.add(element);
         }
+        fireStructureChanged();
         
         /*
          * Agregado para imprimir la red:
@@ -162,10 +282,16 @@ public class Subnet extends TransitionNode {
 
     public void removeElement(Element element) {
         elements.remove(element);
+        if (element instanceof ArcEdge && arcIndex != null) {
+            arcIndex.remove((ArcEdge) element);
+        }
+        fireStructureChanged();
     }
 
     public void removeElements() {
         elements.clear();
+        arcIndex = null;
+        fireStructureChanged();
     }
 
     public void addAll(Set<Element> elements)
@@ -216,12 +342,9 @@ public class Subnet extends TransitionNode {
     }
 
     public ArcEdge getArcEdge(PlaceNode placeNode, TransitionNode transitionNode, boolean placeToTransition) {
-        for (Element element : getElements()) {
-            if (element instanceof ArcEdge) {
-                ArcEdge arcEdge = (ArcEdge) element;
-                if (arcEdge.getPlaceNode() == placeNode && arcEdge.getTransitionNode() == transitionNode && arcEdge.isPlaceToTransition() == placeToTransition) {
-                    return arcEdge;
-                }
+        for (ArcEdge arcEdge : getArcEdgesConnectedTo(placeNode)) {
+            if (arcEdge.getPlaceNode() == placeNode && arcEdge.getTransitionNode() == transitionNode && arcEdge.isPlaceToTransition() == placeToTransition) {
+                return arcEdge;
             }
         }
         return null;
@@ -494,6 +617,7 @@ public class Subnet extends TransitionNode {
         subnet.viewTranslation = this.viewTranslation.getLocation();
 
         subnet.elements = new LinkedList<Element>();
+        subnet.arcIndex = null;
         for (Element element : this.getElements()) {
             subnet.addElement(element.getClone());
         }
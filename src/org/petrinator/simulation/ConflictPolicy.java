@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.simulation;
+
+import java.util.BitSet;
+
+import org.petrinator.petrinet.CompiledNet;
+
+/**
+ * Decides which transition fires when several transitions are enabled at the
+ * same time.
+ */
+public interface ConflictPolicy {
+
+    /**
+     * Chooses the next transition to fire.
+     *
+     * @param candidates non empty set of enabled transitions, indexed like
+     * the compiled net. It must not be modified.
+     * @param net compiled net being simulated
+     * @return index of one of the candidates
+     */
+    public int choose(BitSet candidates, CompiledNet net);
+}
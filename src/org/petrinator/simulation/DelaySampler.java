@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.simulation;
+
+import org.apache.commons.math3.distribution.CauchyDistribution;
+import org.apache.commons.math3.distribution.ExponentialDistribution;
+import org.apache.commons.math3.distribution.NormalDistribution;
+import org.apache.commons.math3.distribution.RealDistribution;
+import org.apache.commons.math3.distribution.UniformRealDistribution;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.petrinator.petrinet.TransitionNode;
+
+/**
+ * Samples the firing delay of a timed transition, in seconds. The
+ * distribution and its parameters are the ones set in the transition
+ * properties dialog:
+ *
+ * Exponential: rate λ (the rate of the transition)
+ * Normal: mean μ (var1) and variance σ² (var2)
+ * Cauchy: location x (var1) and scale y (var2)
+ * Uniform: lower (var1) and upper (var2) bounds
+ *
+ * Normal and Cauchy delays can be negative, those samples are taken as 0.
+ */
+public class DelaySampler {
+
+    private final RealDistribution distribution;
+
+    public DelaySampler(RealDistribution distribution) {
+        this.distribution = distribution;
+    }
+
+    /**
+     * Creates the sampler of a transition.
+     *
+     * @param transition transition whose delay is sampled
+     * @param random random generator shared by the samplers of a simulation
+     * @return the sampler, or null if the transition is not timed
+     * @throws IllegalArgumentException if the parameters of the distribution
+     * are not valid
+     */
+    public static DelaySampler forTransition(TransitionNode transition, RandomGenerator random) {
+        if (!transition.isTimed()) {
+            return null;
+        }
+        double var1 = transition.getVar1();
+        double var2 = transition.getVar2();
+        RealDistribution distribution;
+        try {
+            switch (transition.getIndexDistribution()) {
+                case 0:
+                    distribution = new ExponentialDistribution(random, 1 / transition.getRate());
+                    break;
+                case 1:
+                    distribution = new NormalDistribution(random, var1, Math.sqrt(var2));
+                    break;
+                case 2:
+                    distribution = new CauchyDistribution(random, var1, var2);
+                    break;
+                default:
+                    distribution = new UniformRealDistribution(random, var1, var2);
+                    break;
+            }
+        } catch (org.apache.commons.math3.exception.MathIllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid " + transition.getDistribution()
+                    + " distribution for transition " + transition.getLabel(), e);
+        }
+        return new DelaySampler(distribution);
+    }
+
+    public RealDistribution getDistribution() {
+        return distribution;
+    }
+
+    /**
+     * Returns a new delay, never negative.
+     */
+    public double sample() {
+        double delay = distribution.sample();
+        return delay > 0 ? delay : 0;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.simulation;
+
+/**
+ * How the StochasticSimulator decides which timed transition fires next.
+ */
+public enum FiringSemantics {
+
+    /**
+     * Every enabled timed transition samples its delay when it gets enabled
+     * and the earliest one fires. A transition keeps its sampled firing time
+     * while it stays enabled and loses it when it gets disabled (race with
+     * enabling memory).
+     */
+    RACE,
+
+    /**
+     * The transition to fire is chosen first among the enabled ones by the
+     * ConflictPolicy, then only its delay is sampled.
+     */
+    PRESELECTION
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.simulation;
+
+import java.util.BitSet;
+
+import org.petrinator.petrinet.CompiledNet;
+
+/**
+ * Always fires the enabled transition with the lowest index, i.e. the lowest
+ * id. Same behavior as the FirstInLinePolicy of the concurrency monitor.
+ */
+public class FirstInLinePolicy implements ConflictPolicy {
+
+    public int choose(BitSet candidates, CompiledNet net) {
+        return candidates.nextSetBit(0);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.simulation;
+
+import java.util.Arrays;
+
+import org.petrinator.petrinet.CompiledNet;
+
+/**
+ * Collects the performance measures of one simulation run: time averaged
+ * number of tokens and occupancy (fraction of time with at least one token)
+ * of every place, and throughput (firings per second) of every transition.
+ *
+ * Only the places changed by each firing are updated, so the cost per
+ * firing does not depend on the size of the net.
+ */
+public class PerformanceMeasures implements SimulationListener {
+
+    private final CompiledNet net;
+    private final int[] marking;
+    private final int[] tokens;
+    private final double[] since;
+    private final double[] tokenArea;
+    private final double[] occupiedTime;
+    private final long[] firings;
+    private final double start;
+    private double end;
+
+    /**
+     * @param net compiled net being simulated
+     * @param marking live marking of the simulator
+     * @param start simulated time from which the measures are taken
+     */
+    public PerformanceMeasures(CompiledNet net, int[] marking, double start) {
+        this.net = net;
+        this.marking = marking;
+        this.tokens = marking.clone();
+        this.since = new double[marking.length];
+        this.tokenArea = new double[marking.length];
+        this.occupiedTime = new double[marking.length];
+        this.firings = new long[net.getTransitionCount()];
+        this.start = start;
+        this.end = start;
+        Arrays.fill(since, start);
+    }
+
+    public void transitionFired(long step, int transition, double time) {
+        firings[transition]++;
+        update(net.getInputPlaces(transition), time);
+        update(net.getResetPlaces(transition), time);
+        update(net.getOutputPlaces(transition), time);
+        end = time;
+    }
+
+    private void update(int[] places, double time) {
+        for (int p : places) {
+            if (tokens[p] != marking[p]) {
+                double elapsed = time - since[p];
+                tokenArea[p] += tokens[p] * elapsed;
+                if (tokens[p] > 0) {
+                    occupiedTime[p] += elapsed;
+                }
+                tokens[p] = marking[p];
+                since[p] = time;
+            }
+        }
+    }
+
+    /**
+     * Closes the observation period at the specified time. Must be called
+     * once the run is over and before reading the measures.
+     */
+    public void finish(double time) {
+        for (int p = 0; p < tokens.length; p++) {
+            double elapsed = time - since[p];
+            tokenArea[p] += tokens[p] * elapsed;
+            if (tokens[p] > 0) {
+                occupiedTime[p] += elapsed;
+            }
+            since[p] = time;
+        }
+        end = time;
+    }
+
+    /**
+     * Returns the length of the observation period in seconds.
+     */
+    public double getDuration() {
+        return end - start;
+    }
+
+    public double getMeanTokens(int place) {
+        return getDuration() > 0 ? tokenArea[place] / getDuration() : tokens[place];
+    }
+
+    public double getOccupancy(int place) {
+        if (getDuration() > 0) {
+            return occupiedTime[place] / getDuration();
+        }
+        return tokens[place] > 0 ? 1 : 0;
+    }
+
+    public double getThroughput(int transition) {
+        return getDuration() > 0 ? firings[transition] / getDuration() : 0;
+    }
+
+    public long getFirings(int transition) {
+        return firings[transition];
+    }
+}
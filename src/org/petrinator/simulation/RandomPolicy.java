@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.simulation;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.petrinator.petrinet.CompiledNet;
+
+/**
+ * Chooses uniformly at random among the enabled transitions.
+ */
+public class RandomPolicy implements ConflictPolicy {
+
+    private final Random random;
+
+    public RandomPolicy() {
+        this.random = new Random();
+    }
+
+    /**
+     * @param seed seed of the random generator, for reproducible runs
+     */
+    public RandomPolicy(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public int choose(BitSet candidates, CompiledNet net) {
+        int skip = random.nextInt(candidates.cardinality());
+        int t = candidates.nextSetBit(0);
+        while (skip-- > 0) {
+            t = candidates.nextSetBit(t + 1);
+        }
+        return t;
+    }
+}
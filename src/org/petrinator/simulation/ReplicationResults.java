@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.simulation;
+
+import org.petrinator.petrinet.CompiledNet;
+
+/**
+ * Performance measures aggregated over the independent replications run by
+ * a ReplicationRunner. Every measure is summarized by the mean and variance
+ * of its value across replications, from which the confidence intervals are
+ * computed.
+ */
+public class ReplicationResults {
+
+    private final CompiledNet net;
+    private final RunningStatistics[] meanTokens;
+    private final RunningStatistics[] occupancy;
+    private final RunningStatistics[] throughput;
+    private final RunningStatistics duration = new RunningStatistics();
+    private long firings = 0;
+
+    public ReplicationResults(CompiledNet net) {
+        this.net = net;
+        this.meanTokens = newStatistics(net.getPlaceCount());
+        this.occupancy = newStatistics(net.getPlaceCount());
+        this.throughput = newStatistics(net.getTransitionCount());
+    }
+
+    private static RunningStatistics[] newStatistics(int count) {
+        RunningStatistics[] statistics = new RunningStatistics[count];
+        for (int i = 0; i < count; i++) {
+            statistics[i] = new RunningStatistics();
+        }
+        return statistics;
+    }
+
+    /**
+     * Adds the measures of one replication.
+     */
+    public void add(PerformanceMeasures measures) {
+        for (int p = 0; p < meanTokens.length; p++) {
+            meanTokens[p].add(measures.getMeanTokens(p));
+            occupancy[p].add(measures.getOccupancy(p));
+        }
+        for (int t = 0; t < throughput.length; t++) {
+            throughput[t].add(measures.getThroughput(t));
+            firings += measures.getFirings(t);
+        }
+        duration.add(measures.getDuration());
+    }
+
+    public CompiledNet getCompiledNet() {
+        return net;
+    }
+
+    public int getReplications() {
+        return (int) duration.getCount();
+    }
+
+    /**
+     * Returns the number of firings measured over all replications, warm-up
+     * firings excluded.
+     */
+    public long getFirings() {
+        return firings;
+    }
+
+    public RunningStatistics getMeanTokens(int place) {
+        return meanTokens[place];
+    }
+
+    public RunningStatistics getOccupancy(int place) {
+        return occupancy[place];
+    }
+
+    public RunningStatistics getThroughput(int transition) {
+        return throughput[transition];
+    }
+
+    /**
+     * Returns the statistics of the simulated time covered by the measures of
+     * each replication.
+     */
+    public RunningStatistics getDuration() {
+        return duration;
+    }
+}
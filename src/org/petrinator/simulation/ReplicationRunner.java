@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.math3.random.Well19937c;
+import org.petrinator.petrinet.CompiledNet;
+import org.petrinator.petrinet.PetriNet;
+
+/**
+ * Runs independent replications of a stochastic simulation on a pool of
+ * worker threads and aggregates their PerformanceMeasures.
+ *
+ * Every replication owns its simulator, marking and random generators, and
+ * the compiled net is only read, so replications do not share any mutable
+ * state and run in parallel without synchronization. The generators of
+ * replication i are seeded from the seed of the runner and i, so results are
+ * reproducible regardless of the number of threads.
+ */
+public class ReplicationRunner {
+
+    private static final long CHUNK = 10000;
+
+    private final CompiledNet net;
+    private final int[] initialMarking;
+    private FiringSemantics semantics = FiringSemantics.RACE;
+    private int replications = 30;
+    private long firings = 100000;
+    private long warmUpFirings = 10000;
+    private long seed = 1;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private volatile boolean cancelled = false;
+
+    /**
+     * Creates a runner of replications starting from the initial marking of
+     * a Petri net.
+     */
+    public ReplicationRunner(PetriNet petriNet) {
+        this(petriNet.getCompiledNet(), petriNet.getInitialMarking().getTokenArray());
+    }
+
+    /**
+     * @param net compiled net to simulate
+     * @param initialMarking tokens indexed by place, copied by every
+     * replication
+     */
+    public ReplicationRunner(CompiledNet net, int[] initialMarking) {
+        this.net = net;
+        this.initialMarking = initialMarking.clone();
+    }
+
+    public void setSemantics(FiringSemantics semantics) {
+        this.semantics = semantics;
+    }
+
+    public void setReplications(int replications) {
+        this.replications = replications;
+    }
+
+    /**
+     * Sets the number of measured firings of every replication.
+     */
+    public void setFirings(long firings) {
+        this.firings = firings;
+    }
+
+    /**
+     * Sets the number of firings done by every replication before the
+     * measures start, so that they are not biased by the initial marking.
+     */
+    public void setWarmUpFirings(long warmUpFirings) {
+        this.warmUpFirings = warmUpFirings;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Makes a running run() return as soon as possible. May be called from
+     * any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Runs the replications and waits for all of them.
+     *
+     * @return aggregated measures, covering only the replications finished
+     * before a cancel()
+     * @throws IllegalArgumentException if a timed transition has an invalid
+     * distribution
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public ReplicationResults run() throws InterruptedException {
+        cancelled = false;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, replications)));
+        boolean finished = false;
+        try {
+            List<Future<PerformanceMeasures>> futures = new ArrayList<Future<PerformanceMeasures>>();
+            for (int i = 0; i < replications; i++) {
+                final int replication = i;
+                futures.add(executor.submit(new Callable<PerformanceMeasures>() {
+                    public PerformanceMeasures call() {
+                        return replicate(replication);
+                    }
+                }));
+            }
+
+            ReplicationResults results = new ReplicationResults(net);
+            for (Future<PerformanceMeasures> future : futures) {
+                PerformanceMeasures measures;
+                try {
+                    measures = future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+                if (measures != null) {
+                    results.add(measures);
+                }
+            }
+            finished = true;
+            return results;
+        } finally {
+            if (!finished) {
+                cancelled = true; // Let the remaining replications return
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * Runs one replication, returns null if it was cancelled.
+     */
+    private PerformanceMeasures replicate(int replication) {
+        long replicationSeed = seed + replication * 0x9E3779B97F4A7C15L;
+        StochasticSimulator simulator = new StochasticSimulator(net, initialMarking,
+                StochasticSimulator.createSamplers(net, new Well19937c(replicationSeed)),
+                new RandomPolicy(~replicationSeed), semantics);
+
+        if (!runChunked(simulator, warmUpFirings)) {
+            return null;
+        }
+        PerformanceMeasures measures = new PerformanceMeasures(net, simulator.getMarking(), simulator.getTime());
+        simulator.addListener(measures);
+        if (!runChunked(simulator, firings)) {
+            return null;
+        }
+        measures.finish(simulator.getTime());
+        return measures;
+    }
+
+    /*
+     * Runs the firings in chunks, checking for cancellation in between.
+     * Returns false if cancelled.
+     */
+    private boolean runChunked(StochasticSimulator simulator, long count) {
+        while (count > 0) {
+            if (cancelled) {
+                return false;
+            }
+            long fired = simulator.run(Math.min(count, CHUNK));
+            if (fired < Math.min(count, CHUNK)) {
+                return !cancelled; // Deadlock, nothing else will happen
+            }
+            count -= fired;
+        }
+        return !cancelled;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.simulation;
+
+import org.apache.commons.math3.distribution.TDistribution;
+
+/**
+ * Streaming mean and variance of a sequence of observations (Welford's
+ * algorithm), with Student-t confidence intervals for the mean. Partial
+ * statistics computed separately can be combined with merge().
+ */
+public class RunningStatistics {
+
+    private long count = 0;
+    private double mean = 0;
+    private double m2 = 0;
+
+    public void add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+    }
+
+    /**
+     * Adds the observations summarized by other, as if they had been added
+     * one by one.
+     */
+    public void merge(RunningStatistics other) {
+        if (other.count == 0) {
+            return;
+        }
+        long total = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / total;
+        m2 += other.m2 + delta * delta * count * other.count / total;
+        count = total;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * Returns the sample variance, 0 if there are less than two observations.
+     */
+    public double getVariance() {
+        return count > 1 ? m2 / (count - 1) : 0;
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Returns the half width of the confidence interval of the mean.
+     *
+     * @param level confidence level, for example 0.95
+     * @return the half width, or NaN if there are less than two observations
+     */
+    public double getConfidenceHalfWidth(double level) {
+        if (count < 2) {
+            return Double.NaN;
+        }
+        double t = new TDistribution(count - 1).inverseCumulativeProbability((1 + level) / 2);
+        return t * getStandardDeviation() / Math.sqrt(count);
+    }
+}
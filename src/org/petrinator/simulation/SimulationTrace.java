@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.simulation;
+
+import java.util.Arrays;
+
+import org.petrinator.petrinet.CompiledNet;
+import org.petrinator.petrinet.Transition;
+
+/**
+ * Sequence of firings recorded during a simulation, stored as primitive
+ * arrays. It is what the editor animates after a simulation.
+ */
+public class SimulationTrace implements SimulationListener {
+
+    private final CompiledNet net;
+    private int[] transitions = new int[64];
+    private double[] times = new double[64];
+    private int size = 0;
+
+    /**
+     * @param net compiled net whose transition indexes are recorded
+     */
+    public SimulationTrace(CompiledNet net) {
+        this.net = net;
+    }
+
+    public void transitionFired(long step, int transition, double time) {
+        add(transition, time);
+    }
+
+    /**
+     * Appends a firing to the trace.
+     *
+     * @param transition index of the fired transition
+     * @param time simulated time of the firing in seconds
+     */
+    public void add(int transition, double time) {
+        if (size == transitions.length) {
+            transitions = Arrays.copyOf(transitions, size * 2);
+            times = Arrays.copyOf(times, size * 2);
+        }
+        transitions[size] = transition;
+        times[size] = time;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public CompiledNet getCompiledNet() {
+        return net;
+    }
+
+    public int getTransitionIndex(int step) {
+        return transitions[step];
+    }
+
+    public Transition getTransition(int step) {
+        return net.getTransition(transitions[step]);
+    }
+
+    public double getTime(int step) {
+        return times[step];
+    }
+
+    /**
+     * Returns the simulated time elapsed between the previous firing and the
+     * specified one.
+     */
+    public double getDelay(int step) {
+        return step == 0 ? times[0] : times[step] - times[step - 1];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.simulation;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.petrinator.petrinet.CompiledNet;
+import org.petrinator.petrinet.EnabledTransitions;
+import org.petrinator.petrinet.Marking;
+import org.petrinator.petrinet.PetriNet;
+
+/**
+ * Headless token game simulator working directly on the compiled net. It
+ * fires transitions one after the other on its own copy of the marking, the
+ * conflicts between enabled transitions are resolved by a ConflictPolicy.
+ * There are no threads, sleeps or intermediate files involved; whoever needs
+ * the firings (for example the editor animation) subscribes a
+ * SimulationListener such as SimulationTrace.
+ */
+public class Simulator {
+
+    private final CompiledNet net;
+    private final int[] marking;
+    private final EnabledTransitions enabled;
+    private final ConflictPolicy policy;
+    private final List<SimulationListener> listeners = new ArrayList<SimulationListener>();
+    private long step = 0;
+    private volatile boolean stopped = false;
+
+    /**
+     * Creates a simulator starting from the initial marking of a Petri net.
+     * The initial marking is copied and not changed by the simulation.
+     *
+     * @param petriNet Petri net to simulate
+     * @param policy conflict resolution policy
+     */
+    public Simulator(PetriNet petriNet, ConflictPolicy policy) {
+        this(petriNet.getInitialMarking(), policy);
+    }
+
+    /**
+     * Creates a simulator starting from a copy of the specified marking.
+     */
+    public Simulator(Marking marking, ConflictPolicy policy) {
+        this(marking.getCompiledNet(), marking.getTokenArray(), policy);
+    }
+
+    /**
+     * Creates a simulator starting from a copy of the specified marking.
+     *
+     * @param net compiled net to simulate
+     * @param marking tokens indexed by place
+     * @param policy conflict resolution policy
+     */
+    public Simulator(CompiledNet net, int[] marking, ConflictPolicy policy) {
+        this.net = net;
+        this.marking = marking.clone();
+        this.policy = policy;
+        this.enabled = new EnabledTransitions(net, this.marking);
+    }
+
+    public void addListener(SimulationListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(SimulationListener listener) {
+        listeners.remove(listener);
+    }
+
+    public CompiledNet getCompiledNet() {
+        return net;
+    }
+
+    /**
+     * Returns the current marking. It is changed by further firings.
+     */
+    public int[] getMarking() {
+        return marking;
+    }
+
+    /**
+     * Returns the number of transitions fired so far.
+     */
+    public long getStep() {
+        return step;
+    }
+
+    /**
+     * Determines if no transition is enabled in the current marking.
+     */
+    public boolean isDeadlocked() {
+        return enabled.isEmpty();
+    }
+
+    /**
+     * Makes a running simulation return after the current firing. May be
+     * called from any thread.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Fires one transition chosen by the policy.
+     *
+     * @return index of the fired transition, or -1 if no transition is
+     * enabled
+     */
+    public int step() {
+        BitSet candidates = enabled.getBitSet();
+        if (candidates.isEmpty()) {
+            return -1;
+        }
+        int transition = policy.choose(candidates, net);
+        net.fire(transition, marking);
+        enabled.fired(transition);
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).transitionFired(step, transition, 0);
+        }
+        step++;
+        return transition;
+    }
+
+    /**
+     * Fires transitions until the specified number of firings was done, the
+     * net is blocked or stop() is called.
+     *
+     * @param firings maximum number of firings
+     * @return number of transitions actually fired
+     */
+    public long run(long firings) {
+        stopped = false;
+        long fired = 0;
+        while (fired < firings && !stopped && step() >= 0) {
+            fired++;
+        }
+        return fired;
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2008-2010 Martin Riesz <riesz.martin at gmail.com>
+ * Copyright (C) 2016-2017 Joaquin Rodriguez Felici <joaquinfelici at gmail.com>
+ * Copyright (C) 2016-2017 Leandro Asson <leoasson at gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.petrinator.simulation;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.random.Well19937c;
+import org.petrinator.petrinet.CompiledNet;
+import org.petrinator.petrinet.EnabledTransitions;
+import org.petrinator.petrinet.Marking;
+import org.petrinator.petrinet.PetriNet;
+
+/**
+ * Discrete-event simulator of nets with timed transitions. Time is virtual:
+ * instead of waiting for the sampled delays the clock jumps to the next
+ * firing, so the duration of a run depends only on the number of firings.
+ *
+ * Transitions that are not timed are immediate, they fire in zero time and
+ * before any timed transition, conflicts among them are resolved by the
+ * ConflictPolicy. Timed transitions follow the FiringSemantics of the
+ * simulator; with RACE the pending firings are kept in an event calendar
+ * ordered by firing time.
+ */
+public class StochasticSimulator {
+
+    private final CompiledNet net;
+    private final int[] marking;
+    private final EnabledTransitions enabled;
+    private final DelaySampler[] samplers;
+    private final BitSet immediate;
+    private final BitSet candidates;
+    private final ConflictPolicy policy;
+    private final FiringSemantics semantics;
+    private final PriorityQueue<Event> calendar = new PriorityQueue<Event>();
+    private final Event[] scheduled;
+    private final List<SimulationListener> listeners = new ArrayList<SimulationListener>();
+    private long step = 0;
+    private long sequence = 0;
+    private double time = 0;
+    private volatile boolean stopped = false;
+
+    /**
+     * Creates a simulator starting from the initial marking of a Petri net.
+     * The initial marking is copied and not changed by the simulation.
+     *
+     * @param petriNet Petri net to simulate
+     * @param policy conflict resolution policy
+     * @param semantics firing semantics of the timed transitions
+     */
+    public StochasticSimulator(PetriNet petriNet, ConflictPolicy policy, FiringSemantics semantics) {
+        this(petriNet.getInitialMarking(), policy, semantics, new Well19937c());
+    }
+
+    /**
+     * Creates a simulator starting from a copy of the specified marking.
+     *
+     * @param random generator used to sample the delays, seed it for
+     * reproducible runs
+     */
+    public StochasticSimulator(Marking marking, ConflictPolicy policy, FiringSemantics semantics, RandomGenerator random) {
+        this(marking.getCompiledNet(), marking.getTokenArray(),
+                createSamplers(marking.getCompiledNet(), random), policy, semantics);
+    }
+
+    /**
+     * Creates a simulator starting from a copy of the specified marking.
+     *
+     * @param net compiled net to simulate
+     * @param marking tokens indexed by place
+     * @param samplers delay samplers indexed by transition, null for the
+     * immediate transitions
+     * @param policy conflict resolution policy
+     * @param semantics firing semantics of the timed transitions
+     */
+    public StochasticSimulator(CompiledNet net, int[] marking, DelaySampler[] samplers, ConflictPolicy policy, FiringSemantics semantics) {
+        this.net = net;
+        this.marking = marking.clone();
+        this.samplers = samplers;
+        this.policy = policy;
+        this.semantics = semantics;
+        this.enabled = new EnabledTransitions(net, this.marking);
+        this.candidates = new BitSet(net.getTransitionCount());
+        this.immediate = new BitSet(net.getTransitionCount());
+        this.scheduled = new Event[net.getTransitionCount()];
+        for (int t = 0; t < net.getTransitionCount(); t++) {
+            if (samplers[t] == null) {
+                immediate.set(t);
+            } else {
+                update(t);
+            }
+        }
+    }
+
+    /**
+     * Creates the delay samplers of the transitions of a compiled net, all of
+     * them drawing from the same random generator.
+     *
+     * @return samplers indexed by transition, null for the immediate
+     * transitions
+     */
+    public static DelaySampler[] createSamplers(CompiledNet net, RandomGenerator random) {
+        DelaySampler[] samplers = new DelaySampler[net.getTransitionCount()];
+        for (int t = 0; t < samplers.length; t++) {
+            samplers[t] = DelaySampler.forTransition(net.getTransition(t), random);
+        }
+        return samplers;
+    }
+
+    public void addListener(SimulationListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(SimulationListener listener) {
+        listeners.remove(listener);
+    }
+
+    public CompiledNet getCompiledNet() {
+        return net;
+    }
+
+    public FiringSemantics getSemantics() {
+        return semantics;
+    }
+
+    /**
+     * Returns the current marking. It is changed by further firings.
+     */
+    public int[] getMarking() {
+        return marking;
+    }
+
+    /**
+     * Returns the number of transitions fired so far.
+     */
+    public long getStep() {
+        return step;
+    }
+
+    /**
+     * Returns the simulated time of the last firing, in seconds.
+     */
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * Determines if no transition is enabled in the current marking.
+     */
+    public boolean isDeadlocked() {
+        return enabled.isEmpty();
+    }
+
+    /**
+     * Makes a running simulation return after the current firing. May be
+     * called from any thread.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Fires the next transition and advances the clock to its firing time.
+     *
+     * @return index of the fired transition, or -1 if no transition is
+     * enabled
+     */
+    public int step() {
+        BitSet enabledTransitions = enabled.getBitSet();
+        if (enabledTransitions.isEmpty()) {
+            return -1;
+        }
+        candidates.clear();
+        candidates.or(enabledTransitions);
+        candidates.and(immediate);
+
+        int transition;
+        if (!candidates.isEmpty()) {
+            transition = policy.choose(candidates, net);
+        } else if (semantics == FiringSemantics.PRESELECTION) {
+            transition = policy.choose(enabledTransitions, net);
+            time += samplers[transition].sample();
+        } else {
+            Event event = calendar.poll();
+            while (event != scheduled[event.transition]) {
+                event = calendar.poll(); // Cancelled, the transition was disabled
+            }
+            transition = event.transition;
+            time = event.time;
+        }
+
+        net.fire(transition, marking);
+        enabled.fired(transition);
+        if (semantics == FiringSemantics.RACE) {
+            scheduled[transition] = null;
+            update(transition);
+            for (int t : net.getAffectedTransitions(transition)) {
+                update(t);
+            }
+        }
+
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).transitionFired(step, transition, time);
+        }
+        step++;
+        return transition;
+    }
+
+    /**
+     * Fires transitions until the specified number of firings was done, the
+     * net is blocked or stop() is called.
+     *
+     * @param firings maximum number of firings
+     * @return number of transitions actually fired
+     */
+    public long run(long firings) {
+        stopped = false;
+        long fired = 0;
+        while (fired < firings && !stopped && step() >= 0) {
+            fired++;
+        }
+        return fired;
+    }
+
+    /*
+     * Schedules a timed transition that got enabled, and cancels the pending
+     * firing of one that got disabled. Cancelled events are left in the
+     * calendar and skipped when they come out.
+     */
+    private void update(int transition) {
+        if (samplers[transition] == null || semantics != FiringSemantics.RACE) {
+            return;
+        }
+        if (!enabled.isEnabled(transition)) {
+            scheduled[transition] = null;
+        } else if (scheduled[transition] == null) {
+            Event event = new Event(time + samplers[transition].sample(), transition, sequence++);
+            scheduled[transition] = event;
+            calendar.add(event);
+            if (calendar.size() > 4 * scheduled.length + 64) {
+                purgeCalendar();
+            }
+        }
+    }
+
+    private void purgeCalendar() {
+        calendar.clear();
+        for (Event event : scheduled) {
+            if (event != null) {
+                calendar.add(event);
+            }
+        }
+    }
+
+    /*
+     * Pending firing of a timed transition. Events with the same time come out
+     * in the order they were scheduled.
+     */
+    private static final class Event implements Comparable<Event> {
+
+        final double time;
+        final int transition;
+        final long sequence;
+
+        Event(double time, int transition, long sequence) {
+            this.time = time;
+            this.transition = transition;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(Event other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}